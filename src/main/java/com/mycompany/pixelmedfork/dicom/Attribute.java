@@ -3,6 +3,8 @@
 package com.mycompany.pixelmedfork.dicom;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.NumberFormat;
 
 /**
@@ -365,6 +367,57 @@ abstract public class Attribute {
 		}
 	}
 	
+	/**
+	 * <p>Get the number of bytes of the tag, VR (if explicit) and value length that precede the value when written.</p>
+	 *
+	 * @param	explicit	true if the VR is to be written explicitly
+	 * @return			8 or 12
+	 */
+	public int getEncodedHeaderLength(boolean explicit) {
+		return explicit && !ValueRepresentation.isShortValueLengthVR(getVR()) ? 12 : 8;
+	}
+
+	/**
+	 * <p>Get the number of bytes the entire attribute (including values) occupies when written.</p>
+	 *
+	 * @param	explicit	true if the VR is to be written explicitly
+	 * @return			the encoded length, or -1 if the value is of undefined length
+	 */
+	public long getEncodedLength(boolean explicit) {
+		long vl = getPaddedVL();
+		return vl == 0xffffffffl ? -1 : getEncodedHeaderLength(explicit) + vl;
+	}
+
+	/**
+	 * <p>Encode the common preamble of an attribute into a byte array, in the same form as {@link #writeBase(DicomOutputStream) writeBase()} writes it.</p>
+	 *
+	 * @param	o		the output stream whose VR explicitness and endianness to use
+	 * @return			the encoded tag, VR (if explicit) and value length
+	 */
+	protected byte[] getEncodedBase(DicomOutputStream o) {
+		boolean explicit = o.isExplicitVR();
+		byte[] vr = getVR();
+		boolean shortVL = explicit && ValueRepresentation.isShortValueLengthVR(vr);
+		byte[] b = new byte[getEncodedHeaderLength(explicit)];
+		ByteBuffer bb = ByteBuffer.wrap(b).order(o.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		bb.putShort((short)getGroup());
+		bb.putShort((short)getElement());
+		if (explicit) {
+			bb.put(vr,0,2);
+			if (shortVL) {
+				bb.putShort((short)getPaddedVL());
+			}
+			else {
+				bb.putShort((short)0);		// reserved bytes
+				bb.putInt((int)getPaddedVL());
+			}
+		}
+		else {
+			bb.putInt((int)getPaddedVL());
+		}
+		return b;
+	}
+
 	/**
 	 * <p>Write the entire attribute (including values) to the output stream.</p>
 	 *
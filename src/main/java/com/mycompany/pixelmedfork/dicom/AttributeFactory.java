@@ -22,10 +22,31 @@ import java.io.FileInputStream;
 public class AttributeFactory {
 	private static final String identString = "@(#) $Header: /userland/cvs/pixelmed/imgbook/com/pixelmed/dicom/AttributeFactory.java,v 1.16 2008/08/22 20:20:08 dclunie Exp $";
 
-	private static final long maximumInMemoryOtherDataValueLength = 4096*4096*2;
+	/**
+	 * <p>The shortest OB or OW value length that is treated as bulk data, the placement of which is decided by the {@link com.pixelmed.dicom.BulkDataPlacementPolicy BulkDataPlacementPolicy};
+	 * shorter values are always read onto the heap, and not counted by the {@link com.pixelmed.dicom.BulkDataMemoryBudget BulkDataMemoryBudget}.</p>
+	 */
+	public static final long minimumBulkDataValueLength = 4096;
+
+	/***/
+	private static volatile BulkDataPlacementPolicy bulkDataPlacementPolicy = BulkDataPlacementPolicy.getDefaultPolicy();
 
 	private AttributeFactory() {}
 
+	/**
+	 * <p>Set the policy that decides where to place bulk data as it is read, for the whole process.</p>
+	 *
+	 * @param	policy	the policy, or null for the default
+	 */
+	public static void setBulkDataPlacementPolicy(BulkDataPlacementPolicy policy) {
+		bulkDataPlacementPolicy = policy == null ? BulkDataPlacementPolicy.getDefaultPolicy() : policy;
+	}
+
+	/**
+	 * @return	the policy that decides where to place bulk data as it is read
+	 */
+	public static BulkDataPlacementPolicy getBulkDataPlacementPolicy() { return bulkDataPlacementPolicy; }
+
 	/**
 	 * <p>A static method to determine the {@link java.lang.Class Class} appropriate for storing an attribute based on the supplied value representation.</p>
 	 *
@@ -261,22 +282,77 @@ public class AttributeFactory {
 	 */
 	public static Attribute newAttribute(AttributeTag tag,byte[] vr,long vl,DicomInputStream i,SpecificCharacterSet specificCharacterSet,
 			boolean explicit,int bytesPerSample,long byteOffset) throws DicomException {
+		return newAttribute(tag,vr,vl,i,specificCharacterSet,explicit,bytesPerSample,byteOffset,false/*decodeValuesLazily*/);
+	}
+
+	/**
+	 * <p>A static method to create and read an {@link com.pixelmed.dicom.Attribute Attribute} from a {@link com.pixelmed.dicom.DicomInputStream DicomInputStream}.</p>
+	 *
+	 * <p>The stream is left positioned at the start of the next attribute.</p>
+	 *
+	 * <p>If lazy decoding is requested, string and text attributes keep the bytes read and do not decode them until
+	 * their values are first requested, and write them back as is if the values are not changed.
+	 * Binary attributes are always read into their values immediately.</p>
+	 *
+	 * @param	tag			the {@link com.pixelmed.dicom.AttributeTag AttributeTag} tag of the attribute to create (already read from the stream)
+	 * @param	vr			the value representation of the attribute to create (already read from the stream, if present, else from the dictionary)
+	 * @param	vl			the value length of the attribute to create (already read from the stream)
+	 * @param	i			the {@link com.pixelmed.dicom.DicomInputStream DicomInputStream} to read the attribute from, positioned at the start of the value(s) to read
+	 * @param	specificCharacterSet	the {@link com.pixelmed.dicom.SpecificCharacterSet SpecificCharacterSet} to be used text values
+	 * @param	explicit		a flag indicating that the stream is explicit value representation (affects pixel data encoding choice)
+	 * @param	bytesPerSample		1 or 2 bytes per sample indicating whether to use OB or OW for pixel data
+	 * @param	byteOffset		the byte offset from the beginning of the {@link com.pixelmed.dicom.DicomInputStream DicomInputStream}
+	 * @param	decodeValuesLazily	whether or not to defer decoding of string and text values until they are first requested
+	 *
+	 * @return				the attribute of an appropriate class populated with the value(s) read from the stream
+	 * @exception	DicomException
+	 */
+	public static Attribute newAttribute(AttributeTag tag,byte[] vr,long vl,DicomInputStream i,SpecificCharacterSet specificCharacterSet,
+			boolean explicit,int bytesPerSample,long byteOffset,boolean decodeValuesLazily) throws DicomException {
 //System.err.println("AttributeFactory.newAttribute(): tag = "+tag);
 		Attribute a = null;
+		int placement = -1;		// not bulk data
 		try {
-			boolean leaveOtherDataOnDisk = tag.equals(TagFromName.PixelData) && bytesPerSample > 1 && vl > maximumInMemoryOtherDataValueLength && i.getFile() != null;
-//if (tag.equals(TagFromName.PixelData)) {
-//System.err.println("AttributeFactory.newAttribute(): leaveOtherDataOnDisk = "+leaveOtherDataOnDisk);
-//System.err.println("AttributeFactory.newAttribute(): vl > maximumInMemoryOtherDataValueLength = "+(vl > maximumInMemoryOtherDataValueLength));
-//System.err.println("AttributeFactory.newAttribute(): i.getFile() = "+i.getFile());
-//}
-			Class classToUse = getClassOfAttributeFromValueRepresentation(tag,vr,explicit,bytesPerSample,leaveOtherDataOnDisk);
+			Class classToUse = getClassOfAttributeFromValueRepresentation(tag,vr,explicit,bytesPerSample,false/*leaveOtherDataOnDisk*/);
+			if ((classToUse == OtherByteAttribute.class || classToUse == OtherWordAttribute.class) && vl >= minimumBulkDataValueLength && vl != 0xffffffffl) {
+				boolean canBeMapped = i instanceof MappedDicomInputStream;
+				boolean canBeLeftOnDisk = i.getFile() != null;
+				int decided = bulkDataPlacementPolicy.getPlacement(tag,vl,bytesPerSample,canBeMapped,canBeLeftOnDisk);
+				placement = decided;
+				if (placement == BulkDataPlacementPolicy.HEAP && canBeMapped) {
+					placement = BulkDataPlacementPolicy.MAPPED;		// values read from a mapped stream are always left in the mapping
+				}
+				else if (placement != BulkDataPlacementPolicy.HEAP && !canBeMapped && !canBeLeftOnDisk) {
+					placement = BulkDataPlacementPolicy.HEAP;		// nowhere else to put them
+				}
+				if (decided == BulkDataPlacementPolicy.HEAP && placement != BulkDataPlacementPolicy.HEAP) {
+					BulkDataMemoryBudget.release(vl);
+				}
+				else if (decided != BulkDataPlacementPolicy.HEAP && placement == BulkDataPlacementPolicy.HEAP) {
+					BulkDataMemoryBudget.reserve(vl);
+				}
+//System.err.println("AttributeFactory.newAttribute(): "+tag+" vl = "+vl+" placed "+BulkDataPlacementPolicy.toString(placement));
+				if (placement == BulkDataPlacementPolicy.ONDISK || (placement == BulkDataPlacementPolicy.MAPPED && !canBeMapped)) {
+					classToUse = getClassOfAttributeFromValueRepresentation(tag,vr,explicit,bytesPerSample,true/*leaveOtherDataOnDisk*/);	// values are mapped on demand
+				}
+			}
 //System.err.println("AttributeFactory.newAttribute(): classToUse = "+classToUse);
 			Class [] argTypes  = null;
 			Object[] argValues = null;
 			Long lvl = new Long(vl);
 			Long lbo = new Long(byteOffset);
-			if (ValueRepresentation.isAffectedBySpecificCharacterSet(vr)) {
+			if (decodeValuesLazily && (StringAttribute.class.isAssignableFrom(classToUse) || TextAttribute.class.isAssignableFrom(classToUse))) {
+//System.err.println("AttributeFactory.newAttribute(): lazy");
+				a = newAttribute(tag,vr,specificCharacterSet,explicit,bytesPerSample);	// empty, then read the bytes without decoding them
+				if (a instanceof StringAttribute) {
+					((StringAttribute)a).readValuesWithoutDecoding(vl,i);
+				}
+				else {
+					((TextAttribute)a).readValuesWithoutDecoding(vl,i);
+				}
+				return a;
+			}
+			else if (ValueRepresentation.isAffectedBySpecificCharacterSet(vr)) {
 //System.err.println("AttributeFactory.newAttribute(): isAffectedBySpecificCharacterSet");
 				Class [] t  = {AttributeTag.class,Long.class,DicomInputStream.class,SpecificCharacterSet.class};
 				Object[] v = {tag,lvl,i,specificCharacterSet};
@@ -300,11 +376,22 @@ public class AttributeFactory {
 //System.err.println("AttributeFactory.newAttribute(): trying to make attribute");
 			a = (Attribute)(classToUse.getConstructor(argTypes).newInstance(argValues));
 //System.err.println("AttributeFactory.newAttribute(): made an "+a);
+			if (placement >= 0) {
+				BulkDataMemoryBudget.track(a,placement,vl);
+			}
+		}
+		catch (DicomException e) {
+			throw e;
 		}
 		catch (Exception e) {
 			//e.printStackTrace(System.err);
 			throw new DicomException("Could not instantiate an attribute for "+tag+": "+e.getCause());
 		}
+		finally {
+			if (a == null && placement == BulkDataPlacementPolicy.HEAP) {
+				BulkDataMemoryBudget.release(vl);		// space reserved for a value that was never read
+			}
+		}
 		return a;
 	}
 }
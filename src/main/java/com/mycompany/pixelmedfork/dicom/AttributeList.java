@@ -7,7 +7,6 @@ import java.io.*;
 import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.spi.*;
-import javax.imageio.event.IIOReadProgressListener;
 import java.awt.image.*; 
 
 import java.util.zip.*;
@@ -165,7 +164,6 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 
 	//private final long maximumSaneFixedValueLength = 1000000000l; // 1GB seems large enough
 	
-	private static boolean haveScannedForCodecs;
 
 	/***/
 	protected static DicomDictionary dictionary;
@@ -174,23 +172,10 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 	protected static void createDictionaryifNecessary() {
 		if (dictionary == null) {
 //System.err.println("AttributeList.createDictionaryifNecessary(): creating static dictionary");
-			dictionary = new DicomDictionary();
+			dictionary = PrecompiledDicomDictionary.getDefaultDictionary();		// much faster to load than DicomDictionary, if the resource has been built
 		}
 	}
 	
-	private void dumpListOfAllAvailableReaders(PrintStream out) {
-		String[] formats=ImageIO.getReaderFormatNames();
-		for (int i=0; formats != null && i<formats.length; ++i) {
-			out.println(formats[i]+":");
-			Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(formats[i]);
-			while (readers.hasNext()) {
-				ImageReader reader = readers.next();
-				ImageReaderSpi spi = reader.getOriginatingProvider();
-				out.println("\t"+spi.getDescription(Locale.US)+" "+spi.getVendorName()+" "+spi.getVersion());
-			}
-		}
-	}
-
 	/**
 	 *
 	 */
@@ -237,44 +222,216 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 		return hash;
 	}
 	
-	private class OurIIOReadProgressListener implements IIOReadProgressListener {
-		public void imageComplete(ImageReader source) {
-//System.out.println("OurIIOReadProgressListener:imageComplete()");
-		}
-		public void imageProgress(ImageReader source,float percentageDone) {
-//System.out.println("OurIIOReadProgressListener:imageProgress(): percentageDone="+percentageDone);
-		}
-		public void imageStarted(ImageReader source,int imageIndex) {
-//System.out.println("OurIIOReadProgressListener:imageStarted(): imageIndex="+imageIndex);
-		}
-		public void readAborted(ImageReader source) {
-//System.out.println("OurIIOReadProgressListener:readAborted()");
-		}
-		public void sequenceComplete(ImageReader source) {
-//System.out.println("OurIIOReadProgressListener:sequenceComplete()");
-		}
-		public void sequenceStarted(ImageReader source,int minIndex) {
-//System.out.println("OurIIOReadProgressListener:sequenceStarted(): minIndex="+minIndex);
-		}
-		public void thumbnailComplete(ImageReader source) {
-//System.out.println("OurIIOReadProgressListener:thumbnailComplete()");
-		}
-		public void thumbnailProgress(ImageReader source,float percentageDone) {
-//System.out.println("OurIIOReadProgressListener:thumbnailProgress(): percentageDone="+percentageDone);
+	// packed values of the tags that are acted upon during reading, for use in switch statements
+	
+	private static final int packedFileMetaInformationGroupLength = 0x00020000;
+	private static final int packedTransferSyntaxUID = 0x00020010;
+	private static final int packedSpecificCharacterSet = 0x00080005;
+	private static final int packedSamplesPerPixel = 0x00280002;
+	private static final int packedNumberOfFrames = 0x00280008;
+	private static final int packedRows = 0x00280010;
+	private static final int packedColumns = 0x00280011;
+	private static final int packedBitsAllocated = 0x00280100;
+	private static final int packedPixelData = 0x7fe00010;
+
+	/**
+	 * <p>Read a group and element pair and return them packed in a single integer without allocating a tag.</p>
+	 *
+	 * @see com.pixelmed.dicom.AttributeTag#toPacked(int,int)
+	 *
+	 * @param	i
+	 * @exception	IOException
+	 */
+	private int readPackedAttributeTag(DicomInputStream i) throws IOException {
+		int group   = i.readUnsigned16();
+		int element = i.readUnsigned16();
+		return AttributeTag.toPacked(group,element);
+	}
+
+	/**
+	 * <p>Create a new empty list to hold the contents of a sequence item during reading.</p>
+	 *
+	 * <p>Sub-classes that use a different storage for the attributes may override this so that nested items use the same storage.</p>
+	 *
+	 * @return	a new empty list
+	 */
+	protected AttributeList newAttributeListForSequenceItem() {
+		return new AttributeList();
+	}
+
+	/***/
+	protected boolean decodeValuesLazily = false;
+
+	/**
+	 * <p>Set whether or not string and text values are decoded while reading, or only when first requested.</p>
+	 *
+	 * <p>When reading lazily, each string or text attribute keeps the bytes that were read, and only decodes them into
+	 * strings (and numbers) when its values are first requested. Attributes whose values are never changed are written back
+	 * with the bytes as read, without being encoded again. This is much faster when only a few of the attributes read are used,
+	 * as is the case for indexing and routing.</p>
+	 *
+	 * <p>Applies to subsequent reads, including the lists in sequence items.</p>
+	 *
+	 * @param	decodeValuesLazily	true if values are to be decoded only when first requested
+	 */
+	public void setDecodeValuesLazily(boolean decodeValuesLazily) {
+		this.decodeValuesLazily = decodeValuesLazily;
+	}
+
+	/**
+	 * <p>Are string and text values decoded while reading, or only when first requested ?</p>
+	 *
+	 * @return	true if values are decoded only when first requested
+	 */
+	public boolean isDecodeValuesLazily() {
+		return decodeValuesLazily;
+	}
+
+	/***/
+	protected int decompressionParallelism = 1;
+
+	/**
+	 * <p>Set how many frames of compressed multi-frame Pixel Data may be decompressed at the same time while reading.</p>
+	 *
+	 * <p>If more than one, and the data set is being read from a file, the frames are decompressed concurrently, each with its own reader,
+	 * into a single array, the compressed bytes of each frame being read from the file only when it is about to be decompressed.
+	 * The values are the same as when the frames are decompressed one at a time, which is always done when there is no file to read from.</p>
+	 *
+	 * @see com.pixelmed.dicom.ParallelFrameDecompressor
+	 *
+	 * @param	decompressionParallelism	the maximum number of frames to decompress at the same time, 1 (the default) to decompress one frame at a time
+	 */
+	public void setDecompressionParallelism(int decompressionParallelism) {
+		this.decompressionParallelism = decompressionParallelism;
+	}
+
+	/**
+	 * <p>Get how many frames of compressed multi-frame Pixel Data may be decompressed at the same time while reading.</p>
+	 *
+	 * @return	the maximum number of frames to decompress at the same time
+	 */
+	public int getDecompressionParallelism() {
+		return decompressionParallelism;
+	}
+
+	/**
+	 * <p>Is an attribute needed to read the rest of the data set, whether or not it is wanted ?</p>
+	 *
+	 * <p>The meta information header and Specific Character Set are always needed, and the attributes that describe
+	 * the Pixel Data are needed if the Pixel Data is wanted, in case it is encapsulated.</p>
+	 *
+	 * @param	packedTag
+	 * @param	wantedTags
+	 * @return			true if needed
+	 */
+	private static boolean isNeededToRead(int packedTag,AttributeTagSet wantedTags) {
+		switch (packedTag) {
+			case packedSpecificCharacterSet:
+				return true;
+			case packedSamplesPerPixel:
+			case packedNumberOfFrames:
+			case packedRows:
+			case packedColumns:
+			case packedBitsAllocated:
+				return wantedTags.contains(packedPixelData);
+			default:
+				return (packedTag >>> 16) == 0x0002;
 		}
-		public void thumbnailStarted(ImageReader source,int imageIndex,int thumbnailIndex) {
-//System.out.println("OurIIOReadProgressListener:thumbnailStarted(): imageIndex="+imageIndex+" thumbnailIndex="+thumbnailIndex);
+	}
+
+	/**
+	 * <p>Skip an undefined length value, whether a sequence or encapsulated Pixel Data, without reading any of it into attributes.</p>
+	 *
+	 * <p>Items of defined length are skipped in their entirety, and the data elements in items of undefined length are
+	 * walked only as far as is necessary to find the end of the item. A nested undefined length UN value within such an item
+	 * is skipped as implicit VR little endian, whatever the encoding of the item itself.</p>
+	 *
+	 * @param	i
+	 * @param	byteOffset
+	 * @param	explicit	true if the data elements in the items are encoded with explicit VR
+	 * @return			the byte offset after the Sequence Delimitation Item
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private long skipUndefinedLengthValue(DicomInputStream i,long byteOffset,boolean explicit) throws IOException, DicomException {
+		byte vr[] = new byte[2];
+		while (true) {
+			int tag = readPackedAttributeTag(i);
+			long vl = i.readUnsigned32();		// always implicit VR form for items and delimiters
+			byteOffset+=8;
+			if (tag == AttributeTag.packedSequenceDelimitationItem) {
+				return byteOffset;
+			}
+			else if (tag != AttributeTag.packedItem) {
+				throw new DicomException("Bad tag "+AttributeTag.valueOf(tag)+"(not Item or Sequence Delimiter) in undefined length value at byte offset "+byteOffset);
+			}
+			else if (vl != 0xffffffffl) {
+				i.skipInsistently(vl);
+				byteOffset+=vl;
+			}
+			else {
+				while (true) {
+					tag = readPackedAttributeTag(i);
+					byteOffset+=4;
+					if (tag == AttributeTag.packedItemDelimitationItem) {
+						i.readUnsigned32();
+						byteOffset+=4;
+						break;
+					}
+					if (explicit) {
+						i.readInsistently(vr,0,2);
+						if (ValueRepresentation.isShortValueLengthVR(vr)) {
+							vl=i.readUnsigned16();
+							byteOffset+=4;
+						}
+						else {
+							i.readUnsigned16();	// reserved bytes
+							vl=i.readUnsigned32();
+							byteOffset+=8;
+						}
+					}
+					else {
+						vl=i.readUnsigned32();
+						byteOffset+=4;
+					}
+					if (vl == 0xffffffffl) {
+						if (explicit && ValueRepresentation.isUnknownVR(vr)) {
+							byteOffset=skipUndefinedLengthUnknownValue(i,byteOffset);
+						}
+						else {
+							byteOffset=skipUndefinedLengthValue(i,byteOffset,explicit);	// nested sequence
+						}
+					}
+					else {
+						i.skipInsistently(vl);
+						byteOffset+=vl;
+					}
+				}
+			}
 		}
 	}
 
 	/**
+	 * <p>Skip an undefined length UN value, the contents of which are always encoded as implicit VR little endian (PS 3.5 6.2.2),
+	 * whatever the transfer syntax of the rest of the data set.</p>
+	 *
+	 * <p>The stream is switched to little endian while skipping, and restored afterwards.</p>
+	 *
 	 * @param	i
+	 * @param	byteOffset
+	 * @return			the byte offset after the Sequence Delimitation Item
 	 * @exception	IOException
+	 * @exception	DicomException
 	 */
-	private AttributeTag readAttributeTag(DicomInputStream i) throws IOException {
-		int group   = i.readUnsigned16();
-		int element = i.readUnsigned16();
-		return new AttributeTag(group,element);
+	private long skipUndefinedLengthUnknownValue(DicomInputStream i,long byteOffset) throws IOException, DicomException {
+		boolean wasLittleEndian = i.isLittleEndian();
+		i.setLittleEndian();
+		try {
+			return skipUndefinedLengthValue(i,byteOffset,false);
+		}
+		finally {
+			i.setEndian(!wasLittleEndian);
+		}
 	}
 
 	/**
@@ -283,10 +440,11 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 	 * @param	byteOffset
 	 * @param	lengthToRead
 	 * @param	specificCharacterSet
+	 * @param	wantedTags			the attributes wanted within each item, or null if all
 	 * @exception	IOException
 	 * @exception	DicomException
 	 */
-	private long readNewSequenceAttribute(Attribute a,DicomInputStream i,long byteOffset,long lengthToRead,SpecificCharacterSet specificCharacterSet) throws IOException, DicomException {
+	private long readNewSequenceAttribute(Attribute a,DicomInputStream i,long byteOffset,long lengthToRead,SpecificCharacterSet specificCharacterSet,AttributeTagSet wantedTags) throws IOException, DicomException {
 //System.err.println("AttributeList.readNewSequenceAttribute(): start");
 		boolean undefinedLength = lengthToRead == 0xffffffffl;
 		long endByteOffset=(undefinedLength) ? 0xffffffffl : byteOffset+lengthToRead-1;
@@ -298,25 +456,26 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 			while (/*i.available() > 0 && */(undefinedLength || byteOffset < endByteOffset)) {
 //System.err.println("readNewSequenceAttribute: loop byteOffset="+byteOffset);
 				long itemStartOffset=byteOffset;
-				AttributeTag tag = readAttributeTag(i);
+				int tag = readPackedAttributeTag(i);
 				byteOffset+=4;
-//System.err.println("readNewSequenceAttribute: tag="+tag);
+//System.err.println("readNewSequenceAttribute: tag="+AttributeTag.valueOf(tag));
 				long vl = i.readUnsigned32();		// always implicit VR form for items and delimiters
 				byteOffset+=4;
-//System.err.println(byteOffset+" "+tag+" VL=<0x"+Long.toHexString(vl)+">");
-				if (tag.equals(TagFromName.SequenceDelimitationItem)) {
+//System.err.println(byteOffset+" "+AttributeTag.valueOf(tag)+" VL=<0x"+Long.toHexString(vl)+">");
+				if (tag == AttributeTag.packedSequenceDelimitationItem) {
 //System.err.println("readNewSequenceAttribute: SequenceDelimitationItem");
 					break;
 				}
-				else if (tag.equals(TagFromName.Item)) {
+				else if (tag == AttributeTag.packedItem) {
 //System.err.println("readNewSequenceAttribute: Item byteOffset="+byteOffset);
-					AttributeList list = new AttributeList();
-					byteOffset=list.read(i,byteOffset,vl,false,specificCharacterSet);
+					AttributeList list = newAttributeListForSequenceItem();
+					list.setDecodeValuesLazily(decodeValuesLazily);
+					byteOffset=list.read(i,byteOffset,vl,false,specificCharacterSet,null,wantedTags,false);
 //System.err.println("readNewSequenceAttribute: back from reading Item byteOffset="+byteOffset);
 					((SequenceAttribute)a).addItem(list,itemStartOffset);
 				}
 				else {
-					throw new DicomException("Bad tag "+tag+"(not Item or Sequence Delimiter) in Sequence at byte offset "+byteOffset);
+					throw new DicomException("Bad tag "+AttributeTag.valueOf(tag)+"(not Item or Sequence Delimiter) in Sequence at byte offset "+byteOffset);
 				}
 			}
 		}
@@ -359,35 +518,300 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 	 */
 	private long read(DicomInputStream i,long byteOffset,long lengthToRead,boolean stopAfterMetaInformationHeader,
 			SpecificCharacterSet specificCharacterSet,AttributeTag stopAtTag) throws IOException, DicomException {
+		return read(i,byteOffset,lengthToRead,stopAfterMetaInformationHeader,specificCharacterSet,stopAtTag,null,false);
+	}
+
+	/**
+	 * <p>Read undefined length encapsulated Pixel Data, decompressing it if the transfer syntax is supported, else skipping it.</p>
+	 *
+	 * <p>Used both by {@link #read(DicomInputStream) read(DicomInputStream)} and by {@link #read(DicomStreamParser) read(DicomStreamParser)}, so that
+	 * Pixel Data is read in the same way whichever is used.</p>
+	 *
+	 * <p>Where decompressed Pixel Data is placed is decided by the {@link com.pixelmed.dicom.BulkDataPlacementPolicy BulkDataPlacementPolicy} in use, in the same way
+	 * as for values read by the {@link com.pixelmed.dicom.AttributeFactory AttributeFactory}, and counted by the {@link com.pixelmed.dicom.BulkDataMemoryBudget BulkDataMemoryBudget}.
+	 * If not placed on the heap, the decompressed frames are written one at a time to a temporary file, which is deleted on exit, and left there.</p>
+	 *
+	 * @param	tag			the tag of the Pixel Data
+	 * @param	ei			the encapsulated value, positioned at the first item (the Basic Offset Table)
+	 * @param	tsuid			the transfer syntax in which the Pixel Data is encapsulated
+	 * @param	file			the file that the encapsulated value can be read from directly, or null if it can only be read from the stream
+	 * @param	byteOffset		the byte offset in the file of the encapsulated value
+	 * @param	rows
+	 * @param	columns
+	 * @param	frames
+	 * @param	samplesPerPixel
+	 * @param	bytesPerSample
+	 * @return				the decompressed Pixel Data, or null if it was skipped
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private Attribute readEncapsulatedPixelData(AttributeTag tag,EncapsulatedInputStream ei,String tsuid,File file,long byteOffset,int rows,int columns,int frames,int samplesPerPixel,int bytesPerSample) throws IOException, DicomException {
+		int wordsPerFrame = rows*columns*samplesPerPixel;
+//System.err.println("Undefined length encapsulated Pixel Data: words per frame "+wordsPerFrame);
+//System.err.println("Undefined length encapsulated Pixel Data: TransferSyntax UID "+tsuid);
+		boolean doneReadingEncapsulatedData = false;
+		Attribute a = null;
+		//try {
+		{
+			if (tsuid.equals(TransferSyntax.PixelMedEncapsulatedRawLittleEndian)) {
+				if (bytesPerSample == 1) {
+					byte[] values = new byte[wordsPerFrame*frames];
+					for (int f=0; f<frames; ++f) {
+						ei.read(values,f*wordsPerFrame,wordsPerFrame);
+						//ei.nextFrame();
+					}
+					a = new OtherByteAttribute(tag);
+					a.setValues(values);
+					doneReadingEncapsulatedData=true;
+				}
+				else if (bytesPerSample == 2) {
+					short[] values = new short[wordsPerFrame*frames];
+					for (int f=0; f<frames; ++f) {
+						ei.readUnsigned16(values,f*wordsPerFrame,wordsPerFrame);
+						//ei.nextFrame();
+					}
+					a = new OtherWordAttribute(tag);
+					a.setValues(values);
+					doneReadingEncapsulatedData=true;
+				}
+				else {
+					throw new DicomException("Encapsulated data of more than 2 bytes per sample not supported (got "+bytesPerSample+")");
+				}
+			}
+			else {
+				pixelDataWasDecompressed = true;
+				pixelDataWasLossy=TransferSyntaxCodecRegistry.isLossy(tsuid);
+				lossyMethod=TransferSyntaxCodecRegistry.getLossyMethod(tsuid);
+				compressionRatio=0;
+//System.err.println("AttributeList.read(): TransferSyntax = "+tsuid);
+				String codecTransferSyntaxUID = tsuid;
+				if (!TransferSyntaxCodecRegistry.isSupported(tsuid)) {
+					codecTransferSyntaxUID = TransferSyntax.JPEGBaseline;
+System.err.println("Unrecognized Transfer Syntax "+tsuid+" for encapsulated PixelData - guessing JPEG");
+				}
+				{
+					ImageReader reader = null;
+					ImageReaderSpi spi = null;
+					try {
+						reader = TransferSyntaxCodecRegistry.getReader(codecTransferSyntaxUID);		// resolved once, and reused by this thread
+						spi = reader.getOriginatingProvider();
+					}
+					catch (DicomException e) {
+						TransferSyntaxCodecRegistry.dumpListOfAllAvailableReaders(System.err);
+						throw e;
+					}
+					if (reader != null) {
+						byte[]  bytePixelData = null;	// lazy instantiation of one or the other
+						short[] shortPixelData = null;
+//System.err.println("Using columns = "+columns);
+//System.err.println("Using rows = "+rows);
+//System.err.println("Using frames = "+frames);
+//System.err.println("Using samplesPerPixel = "+samplesPerPixel);
+//System.err.println("Using bytesPerSample = "+bytesPerSample);
+						long decompressedLength = (long)columns*rows*samplesPerPixel*frames*(bytesPerSample > 1 ? 2 : 1);
+						int placement = -1;		// too small to be counted as bulk data
+						if (decompressedLength >= AttributeFactory.minimumBulkDataValueLength) {
+							// decompressed frames can always be left on disk in a temporary file; the policy reserves the space if it places them on the heap
+							placement = AttributeFactory.getBulkDataPlacementPolicy().getPlacement(tag,decompressedLength,bytesPerSample,false/*canBeMapped*/,true/*canBeLeftOnDisk*/);
+//System.err.println("AttributeList.readEncapsulatedPixelData(): "+tag+" decompressed length = "+decompressedLength+" placed "+BulkDataPlacementPolicy.toString(placement));
+						}
+						File onDiskFile = null;
+						BinaryOutputStream onDisk = null;		// the decompressed frames are written to a temporary file rather than held on the heap, if so placed
+						boolean onDiskIsShort = false;
+						long onDiskLength = 0;
+						try {
+							if (placement >= 0 && placement != BulkDataPlacementPolicy.HEAP) {
+								onDiskFile = File.createTempFile("PixelData",".raw");
+								onDiskFile.deleteOnExit();
+								onDisk = new BinaryOutputStream(new BufferedOutputStream(new FileOutputStream(onDiskFile)),false/*bigEndian*/);
+							}
+							EncapsulatedPixelDataFrameIndex index = null;		// frames are read from the file when needed, rather than all being read from the stream first
+							if (onDisk == null && decompressionParallelism > 1 && frames > 1 && file != null) {
+								try {
+									index = new EncapsulatedPixelDataFrameIndex(file,byteOffset,tsuid,frames);
+								}
+								catch (DicomException e) {
+System.err.println("Cannot index encapsulated Pixel Data in "+file+", so decompressing one frame at a time: "+e);
+								}
+							}
+							if (index != null) {
+								ParallelFrameDecompressor decompressor = new ParallelFrameDecompressor(codecTransferSyntaxUID,decompressionParallelism);
+								try {
+									Object vPixelData = decompressor.decompress(index,columns,rows,samplesPerPixel);
+									if (vPixelData instanceof byte[]) {
+										bytePixelData = (byte[])vPixelData;
+									}
+									else {
+										shortPixelData = (short[])vPixelData;
+									}
+									ei.skipEncapsulatedValue(index.getEndByteOffset()-byteOffset);		// also absorbs the delimiter
+								}
+								finally {
+									decompressor.dispose();
+									index.close();
+								}
+							}
+							else {
+								int pixelsPerFrame = columns*rows*samplesPerPixel;
+								int pixelsPerMultiFrameImage = pixelsPerFrame*frames;
+								for (int f=0; f<frames; ++f) {
+//System.err.println("Starting frame "+f);
+									BufferedImage image = null;
+									ImageInputStream iiois = ImageIO.createImageInputStream(ei);
+									reader.setInput(iiois,true/*seekForwardOnly*/,true/*ignoreMetadata*/);
+									image = reader.read(0);
+//System.err.println("Back from frame "+f+" reader.read(), BufferedImage="+image);
+									if (image == null) {
+										throw new DicomException("Reader "+spi.getDescription(Locale.US)+" "+spi.getVendorName()+" "+spi.getVersion()
+											+" returned null image for Transfer Syntax "+tsuid);
+									}
+									else {
+										Raster raster = image.getData();
+										int numDataElements = raster.getNumDataElements();
+//System.err.println("getNumDataElements="+numDataElements);
+										if (numDataElements == samplesPerPixel) {
+											int transferType = raster.getTransferType();
+//System.err.println("getTransferType="+transferType);
+											if (transferType == DataBuffer.TYPE_BYTE) {
+//System.err.println("Getting "+(samplesPerPixel > 1 ? "interleaved " : "")+samplesPerPixel+" channel byte data");
+												byte[] vPixelData = (byte[])(raster.getDataElements(0,0,columns,rows,null));
+//System.err.println("Decompressed byte array length "+vPixelData.length+" expected "+pixelsPerFrame);
+												if (onDisk != null) {
+													onDisk.write(vPixelData,0,pixelsPerFrame);
+													onDiskLength+=pixelsPerFrame;
+												}
+												else {
+													if (bytePixelData == null) {
+														if (frames == 1) {
+															bytePixelData = vPixelData;
+														}
+														else {
+															bytePixelData = new byte[pixelsPerMultiFrameImage];
+														}
+													}
+													if (vPixelData != null) {
+														System.arraycopy(vPixelData,0,bytePixelData,pixelsPerFrame*f,pixelsPerFrame);
+													}
+												}
+											}
+											else if (transferType == DataBuffer.TYPE_SHORT
+											      || transferType == DataBuffer.TYPE_USHORT) {
+//System.err.println("Getting "+(samplesPerPixel > 1 ? "interleaved " : "")+samplesPerPixel+" channel byte data");
+												short[] vPixelData = (short[])(raster.getDataElements(0,0,columns,rows,null));
+//System.err.println("Decompressed short array length "+vPixelData.length+" expected "+pixelsPerFrame);
+												if (onDisk != null) {
+													onDisk.writeUnsigned16(vPixelData,pixelsPerFrame);
+													onDiskLength+=pixelsPerFrame*2l;
+													onDiskIsShort = true;
+												}
+												else {
+													if (shortPixelData == null) {
+														if (frames == 1) {
+															shortPixelData = vPixelData;
+														}
+														else {
+															shortPixelData = new short[pixelsPerMultiFrameImage];
+														}
+													}
+													if (vPixelData != null) {
+														System.arraycopy(vPixelData,0,shortPixelData,pixelsPerFrame*f,pixelsPerFrame);
+													}
+												}
+											}
+										}
+									}
+									ei.nextFrame();
+								}
+								ei.readSequenceDelimiter();		// since we terminated loop on number of frames, rather than keeping going until ran out, we need to absorb the delimiter
+							}
+							if (onDisk != null) {
+								onDisk.close();
+								onDisk = null;
+								if (onDiskLength > 0) {
+									a = onDiskIsShort
+										? new OtherWordAttributeOnDisk(tag,onDiskFile,0,onDiskLength,false/*bigEndian*/)
+										: new OtherByteAttributeOnDisk(tag,onDiskFile,0,onDiskLength);
+									pixelDataWasDecompressed = true;
+								}
+							}
+							else if (bytePixelData != null) {
+								a = new OtherByteAttribute(tag);
+								a.setValues(bytePixelData);
+								pixelDataWasDecompressed = true;
+							}
+							else if (shortPixelData != null) {
+								a = new OtherWordAttribute(tag);
+								a.setValues(shortPixelData);
+								pixelDataWasDecompressed = true;
+							}
+							if (a != null && placement >= 0) {
+								BulkDataMemoryBudget.track(a,placement,placement == BulkDataPlacementPolicy.HEAP ? decompressedLength : onDiskLength);
+							}
+						}
+						finally {
+							if (onDisk != null) {
+								onDisk.close();
+							}
+							if (a == null) {
+								if (placement == BulkDataPlacementPolicy.HEAP) {
+									BulkDataMemoryBudget.release(decompressedLength);		// space reserved for a value that was never read
+								}
+								if (onDiskFile != null) {
+									onDiskFile.delete();
+								}
+							}
+						}
+						doneReadingEncapsulatedData=true;
+						reader.reset();		// release the input, but do not dispose of since pooled for this thread
+					}
+				}
+			}
+		}
+		//catch (Exception e) {
+		//	e.printStackTrace(System.err);
+		//}
+		if (!doneReadingEncapsulatedData) {
+//System.err.println("Skipping encapsulated pixel data");
+			while (ei.skip(1024) > 0);	// it is appropriate to use skip() rather than use skipInsistently() here 
+		}
+		{
+			long encapsulatedBytesRead = ei.getBytesRead();
+			if (pixelDataWasDecompressed) {
+				// compute CR with precision of three decimal places
+				compressionRatio = (long)columns*rows*samplesPerPixel*bytesPerSample*frames*1000/encapsulatedBytesRead;
+				compressionRatio = compressionRatio / 1000;
+//System.err.println("AttributeList.read(): compressionRatio = "+compressionRatio);
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * @param	i
+	 * @param	byteOffset
+	 * @param	lengthToRead
+	 * @param	stopAfterMetaInformationHeader
+	 * @param	specificCharacterSet
+	 * @param	stopAtTag					the tag (in the top level data set) at which to stop
+	 * @param	wantedTags					the attributes to read, others being skipped, or null if all
+	 * @param	stopAfterWantedTags				stop once past the largest wanted tag (in the top level data set)
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private long read(DicomInputStream i,long byteOffset,long lengthToRead,boolean stopAfterMetaInformationHeader,
+			SpecificCharacterSet specificCharacterSet,AttributeTag stopAtTag,AttributeTagSet wantedTags,boolean stopAfterWantedTags) throws IOException, DicomException {
 //System.err.println("AttributeList.read(): start");
 //System.err.println("read: Stop tag is "+stopAtTag);
 		if (i.areReadingDataSet()) {
 			// Test to see whether or not a codec needs to be pushed on the stream ... after the first time, the TransferSyntax will always be ExplicitVRLittleEndian 
 //System.err.println("Testing for deflate and bzip2 TS");
-			if (i.getTransferSyntaxToReadDataSet().isDeflated()) {
-				// insert deflate into input stream and make a new DicomInputStream
+			InputStream decompressingInputStream = DataSetCodecRegistry.getDecompressingInputStream(i,i.getTransferSyntaxToReadDataSet());
+			if (decompressingInputStream != null) {
+				// insert deflate or bzip2 into input stream and make a new DicomInputStream
 //System.err.println("Creating new DicomInputStream from deflate");
-				i = new DicomInputStream(new InflaterInputStream(i,new Inflater(true)),TransferSyntax.ExplicitVRLittleEndian,false);
+				i = new DicomInputStream(decompressingInputStream,TransferSyntax.ExplicitVRLittleEndian,false);
 				byteOffset=0;
 			}
-			else if (i.getTransferSyntaxToReadDataSet().isBzip2ed()) {
-				// insert bzip2 into input stream and make a new DicomInputStream
-//System.err.println("Creating new DicomInputStream from bzip2");
-				try {
-					Class classToUse = Thread.currentThread().getContextClassLoader().loadClass("org.apache.excalibur.bzip2.CBZip2InputStream");
-					Class [] argTypes  = {InputStream.class};
-					Object[] argValues = {i};
-					InputStream bzipInputStream = (InputStream)(classToUse.getConstructor(argTypes).newInstance(argValues));
-					i = new DicomInputStream(bzipInputStream,TransferSyntax.ExplicitVRLittleEndian,false);
-					byteOffset=0;
-				}
-				catch (java.lang.reflect.InvocationTargetException e) {
-					throw new DicomException("Not a correctly encoded bzip2 bitstream - "+e);
-				}
-				catch (Exception e) {	// may be ClassNotFoundException,NoSuchMethodException,InstantiationException
-					throw new DicomException("Could not instantiate bzip2 codec - "+e);
-				}
-			}
 		}
 		
 		createDictionaryifNecessary();
@@ -406,6 +830,9 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 		int samplesPerPixel = 1;
 		int bytesPerSample = 0;
 
+		int packedStopAtTag = stopAtTag == null ? 0 : stopAtTag.getPacked();
+		stopAfterWantedTags = stopAfterWantedTags && wantedTags != null;
+		int packedLargestWantedTag = wantedTags == null ? 0 : wantedTags.getLargestPackedTag();
 		AttributeTag tag = null;
 		try {
 			// CBZip2InputStream.available() always returns zero, and since we terminate
@@ -413,16 +840,21 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 			while (/*i.available() > 0 && */(undefinedLength || byteOffset < endByteOffset)) {
 //System.err.println("read: i.available()="+i.available());
 //System.err.println("read: loop byteOffset="+byteOffset+" endByteOffset="+endByteOffset);
-				tag = readAttributeTag(i);
+				int packedTag = readPackedAttributeTag(i);
 				byteOffset+=4;
-//System.err.println("read: tag="+tag);
+//System.err.println("read: tag="+AttributeTag.valueOf(packedTag));
 
-				if (stopAtTag != null && tag.equals(stopAtTag)) {
-//System.err.println("read: stopped at "+tag);
+				if (stopAtTag != null && packedTag == packedStopAtTag) {
+//System.err.println("read: stopped at "+stopAtTag);
 					return byteOffset;	// stop now, since we have reached the tag at which we were told to stop
 				}
 				
-				if (tag.equals(TagFromName.ItemDelimitationItem)) {
+				if (stopAfterWantedTags && Integer.compareUnsigned(packedTag,packedLargestWantedTag) > 0 && !i.areReadingMetaHeader()) {
+//System.err.println("read: stopped after wanted tags at "+AttributeTag.valueOf(packedTag));
+					return byteOffset;	// stop now, since top level data set tags are in ascending order and there is nothing more we want
+				}
+				
+				if (packedTag == AttributeTag.packedItemDelimitationItem) {
 //System.err.println("read: ItemDelimitationItem");
 					// Read and discard value length
 					i.readUnsigned32();
@@ -430,17 +862,19 @@ public class AttributeList extends TreeMap<AttributeTag,Attribute> {
 					return byteOffset;	// stop now, since we must have been called to read an item's dataset
 				}
 				
-				if (tag.equals(TagFromName.Item)) {
+				if (packedTag == AttributeTag.packedItem) {
 					// this is bad ... there shouldn't be Items here since they should
 					// only be found during readNewSequenceAttribute()
 					// however, try to work around Philips bug ...
 					long vl = i.readUnsigned32();		// always implicit VR form for items and delimiters
 					byteOffset+=4;
-System.err.println("Ignoring bad Item at "+byteOffset+" "+tag+" VL=<0x"+Long.toHexString(vl)+">");
+System.err.println("Ignoring bad Item at "+byteOffset+" "+TagFromName.Item+" VL=<0x"+Long.toHexString(vl)+">");
 					// let's just ignore it for now
 					continue;
 				}
 				
+				tag = AttributeTag.valueOf(packedTag);		// shared instance for standard data elements, so no allocation
+				
 				boolean checkForIncorrectImplicitVRElementEncodinginExplicitVR = false;		// DicomWorks bug
 				boolean encounteredIncorrectImplicitVRElementEncodinginExplicitVR = false;
 				if (explicit && i.markSupported()) {
@@ -510,233 +944,44 @@ System.err.println("AttributeList.read(): "+tag+" encountered incorrect Implicit
 				}
 //System.err.println(byteOffset+" "+tag+" VR=<"+ValueRepresentation.getAsString(vr)+"> VL=<0x"+Long.toHexString(vl)+">");
 
+				if (wantedTags != null && !wantedTags.contains(packedTag) && !isNeededToRead(packedTag,wantedTags)) {
+//System.err.println("read: skipping unwanted "+tag);
+					if (vl == 0xffffffffl) {
+						if (ValueRepresentation.isUnknownVR(vr)) {
+							byteOffset=skipUndefinedLengthUnknownValue(i,byteOffset);
+						}
+						else {
+							byteOffset=skipUndefinedLengthValue(i,byteOffset,explicit);	// sequence or encapsulated Pixel Data
+						}
+					}
+					else {
+						i.skipInsistently(vl);
+						byteOffset+=vl;
+					}
+					continue;
+				}
+
 				Attribute a = null;
 
 				if (ValueRepresentation.isSequenceVR(vr) || (ValueRepresentation.isUnknownVR(vr) && vl == 0xffffffffl)) {
 					a=new SequenceAttribute(tag);
-					byteOffset=readNewSequenceAttribute(a,i,byteOffset,vl,specificCharacterSet);
-				}
-				else if (vl != 0xffffffffl) {
-					//if (vl > maximumSaneFixedValueLength) throw new DicomException("unlikely fixed VL ("+vl+" dec, 0x"+Long.toHexString(vl)+") - probably incorrect dataset");
-					try {
-						a = AttributeFactory.newAttribute(tag,vr,vl,i,specificCharacterSet,explicit,bytesPerSample,byteOffset);	// creates and reads the attribute
-					}
-					catch (Exception e) {
-						e.printStackTrace(System.err);
-						a = null;
-					}
-					byteOffset+=vl;
+					byteOffset=readNewSequenceAttribute(a,i,byteOffset,vl,specificCharacterSet,wantedTags == null ? null : wantedTags.getNested(packedTag));
 				}
-				else if (vl == 0xffffffffl && tag.equals(TagFromName.PixelData)/* && i.getTransferSyntaxInUse().isEncapsulated()*/) {	// assume encapsulated in case TS is not recognized
-					int wordsPerFrame = rows*columns*samplesPerPixel;
-//System.err.println("Undefined length encapsulated Pixel Data: words per frame "+wordsPerFrame);
-					String tsuid = i.getTransferSyntaxInUse().getUID();
-//System.err.println("Undefined length encapsulated Pixel Data: TransferSyntax UID "+tsuid);
-					boolean doneReadingEncapsulatedData = false;
-					EncapsulatedInputStream ei = new EncapsulatedInputStream(i);
-					//try {
-					{
-						if (tsuid.equals(TransferSyntax.PixelMedEncapsulatedRawLittleEndian)) {
-							if (bytesPerSample == 1) {
-								byte[] values = new byte[wordsPerFrame*frames];
-								for (int f=0; f<frames; ++f) {
-									ei.read(values,f*wordsPerFrame,wordsPerFrame);
-									//ei.nextFrame();
-								}
-								a = new OtherByteAttribute(tag);
-								a.setValues(values);
-								doneReadingEncapsulatedData=true;
-							}
-							else if (bytesPerSample == 2) {
-								short[] values = new short[wordsPerFrame*frames];
-								for (int f=0; f<frames; ++f) {
-									ei.readUnsigned16(values,f*wordsPerFrame,wordsPerFrame);
-									//ei.nextFrame();
-								}
-								a = new OtherWordAttribute(tag);
-								a.setValues(values);
-								doneReadingEncapsulatedData=true;
-							}
-							else {
-								throw new DicomException("Encapsulated data of more than 2 bytes per sample not supported (got "+bytesPerSample+")");
-							}
-						}
-						else {
-							if (!haveScannedForCodecs) {
-//System.err.println("AttributeList.read(): Scanning for ImageIO plugin codecs");
-								ImageIO.scanForPlugins();
-								haveScannedForCodecs=true;
-							}
-							pixelDataWasDecompressed = true;
-							pixelDataWasLossy=false;
-							lossyMethod=null;
-							compressionRatio=0;
-							String readerWanted = null;
-//System.err.println("AttributeList.read(): TransferSyntax = "+tsuid);
-							if (tsuid.equals(TransferSyntax.JPEGBaseline) || tsuid.equals(TransferSyntax.JPEGExtended)) {
-								readerWanted="JPEG";
-								pixelDataWasLossy=true;
-								lossyMethod="ISO_10918_1";
-//System.err.println("Undefined length encapsulated Pixel Data in JPEG Lossy");
-							}
-							else if (tsuid.equals(TransferSyntax.JPEG2000)) {
-								readerWanted="JPEG2000";
-								pixelDataWasLossy=true;
-								lossyMethod="ISO_15444_1";
-//System.err.println("Undefined length encapsulated Pixel Data in JPEG 2000");
-							}
-							else if (tsuid.equals(TransferSyntax.JPEG2000Lossless)) {
-								readerWanted="JPEG2000";
-//System.err.println("Undefined length encapsulated Pixel Data in JPEG 2000");
-							}
-							else if (tsuid.equals(TransferSyntax.JPEGLossless) || tsuid.equals(TransferSyntax.JPEGLosslessSV1)) {
-								readerWanted="jpeg-lossless";
-//System.err.println("Undefined length encapsulated Pixel Data in JPEG Lossless");
-							}
-							else if (tsuid.equals(TransferSyntax.JPEGLS)) {
-								readerWanted="jpeg-ls";
-//System.err.println("Undefined length encapsulated Pixel Data in JPEG-LS");
-							}
-							else if (tsuid.equals(TransferSyntax.JPEGNLS)) {
-								readerWanted="jpeg-ls";
-								pixelDataWasLossy=true;
-								lossyMethod="ISO_14495_1";
-//System.err.println("Undefined length encapsulated Pixel Data in JPEG-LS");
-							}
-							else {
-								readerWanted="JPEG";
-System.err.println("Unrecognized Transfer Syntax "+tsuid+" for encapsulated PixelData - guessing "+readerWanted);
-							}
-							if (readerWanted != null) {
-								ImageReader reader = null;
-								ImageReaderSpi spi = null;
-								try {
-									reader =  (ImageReader)(ImageIO.getImageReadersByFormatName(readerWanted).next());
-									spi = reader.getOriginatingProvider();
-									String readerDescription = spi.getDescription(Locale.US);
-									String readerVendorName = spi.getVendorName();
-									String readerVersion = spi.getVersion();
-									if (tsuid.equals(TransferSyntax.JPEGExtended) && readerDescription.equals("Standard JPEG Image Reader") && readerVendorName.equals("Sun Microsystems, Inc.")) {
-										throw new DicomException("Reader "+readerDescription+" "+readerVendorName+" "+readerVersion+" does not support extended lossy JPEG Transfer Syntax "+tsuid);
-									}
-System.err.println("Using reader from "+readerDescription+" "+readerVendorName+" "+readerVersion);
-									OurIIOReadProgressListener progressListener = new OurIIOReadProgressListener();
-									reader.addIIOReadProgressListener(progressListener);
-//System.err.println("Back from reader.addIIOReadProgressListener()");
-								}
-								catch (Exception e) {
-									dumpListOfAllAvailableReaders(System.err);
-									throw new DicomException("No reader for "+readerWanted+" available for Transfer Syntax "+tsuid+"\nCaused by: "+e);
-								}
-								if (reader != null) {
-									byte[]  bytePixelData = null;	// lazy instantiation of one or the other
-									short[] shortPixelData = null;
-//System.err.println("Using columns = "+columns);
-//System.err.println("Using rows = "+rows);
-//System.err.println("Using frames = "+frames);
-//System.err.println("Using samplesPerPixel = "+samplesPerPixel);
-//System.err.println("Using bytesPerSample = "+bytesPerSample);
-									int pixelsPerFrame = columns*rows*samplesPerPixel;
-									int pixelsPerMultiFrameImage = pixelsPerFrame*frames;
-									for (int f=0; f<frames; ++f) {
-//System.err.println("Starting frame "+f);
-										BufferedImage image = null;
-										ImageInputStream iiois = ImageIO.createImageInputStream(ei);
-										reader.setInput(iiois,true/*seekForwardOnly*/,true/*ignoreMetadata*/);
-										image = reader.read(0);
-//System.err.println("Back from frame "+f+" reader.read(), BufferedImage="+image);
-										if (image == null) {
-											throw new DicomException("Reader "+spi.getDescription(Locale.US)+" "+spi.getVendorName()+" "+spi.getVersion()
-												+" returned null image for Transfer Syntax "+tsuid);
-										}
-										else {
-											Raster raster = image.getData();
-											int numDataElements = raster.getNumDataElements();
-//System.err.println("getNumDataElements="+numDataElements);
-											if (numDataElements == samplesPerPixel) {
-												int transferType = raster.getTransferType();
-//System.err.println("getTransferType="+transferType);
-												if (transferType == DataBuffer.TYPE_BYTE) {
-//System.err.println("Getting "+(samplesPerPixel > 1 ? "interleaved " : "")+samplesPerPixel+" channel byte data");
-													byte[] vPixelData = (byte[])(raster.getDataElements(0,0,columns,rows,null));
-//System.err.println("Decompressed byte array length "+vPixelData.length+" expected "+pixelsPerFrame);
-													if (bytePixelData == null) {
-														if (frames == 1) {
-															bytePixelData = vPixelData;
-														}
-														else {
-															bytePixelData = new byte[pixelsPerMultiFrameImage];
-														}
-													}
-													if (vPixelData != null) {
-														System.arraycopy(vPixelData,0,bytePixelData,pixelsPerFrame*f,pixelsPerFrame);
-													}
-												}
-												else if (transferType == DataBuffer.TYPE_SHORT
-												      || transferType == DataBuffer.TYPE_USHORT) {
-//System.err.println("Getting "+(samplesPerPixel > 1 ? "interleaved " : "")+samplesPerPixel+" channel byte data");
-													short[] vPixelData = (short[])(raster.getDataElements(0,0,columns,rows,null));
-//System.err.println("Decompressed short array length "+vPixelData.length+" expected "+pixelsPerFrame);
-													if (shortPixelData == null) {
-														if (frames == 1) {
-															shortPixelData = vPixelData;
-														}
-														else {
-															shortPixelData = new short[pixelsPerMultiFrameImage];
-														}
-													}
-													if (vPixelData != null) {
-														System.arraycopy(vPixelData,0,shortPixelData,pixelsPerFrame*f,pixelsPerFrame);
-													}
-												}
-											}
-										}
-										ei.nextFrame();
-									}
-									ei.readSequenceDelimiter();		// since we terminated loop on number of frames, rather than keeping going until ran out, we need to absorb the delimiter
-									if (bytePixelData != null) {
-										a = new OtherByteAttribute(tag);
-										a.setValues(bytePixelData);
-										pixelDataWasDecompressed = true;
-									}
-									else if (shortPixelData != null) {
-										a = new OtherWordAttribute(tag);
-										a.setValues(shortPixelData);
-										pixelDataWasDecompressed = true;
-									}
-									doneReadingEncapsulatedData=true;
-									try {
-//System.err.println("AttributeList.read(): Calling dispose() on reader");
-										reader.dispose();
-									}
-									catch (Exception e) {
-										e.printStackTrace(System.err);
-									}
-								}
-							}
-							else {
-//System.err.println("Unrecognized Transfer Syntax "+tsuid+" for encapsulated PixelData");
-								throw new DicomException("Unrecognized Transfer Syntax "+tsuid+" for encapsulated PixelData");
-							}
-						}
-					}
-					//catch (Exception e) {
-					//	e.printStackTrace(System.err);
-					//}
-					if (!doneReadingEncapsulatedData) {
-//System.err.println("Skipping encapsulated pixel data");
-						while (ei.skip(1024) > 0);	// it is appropriate to use skip() rather than use skipInsistently() here 
+				else if (vl != 0xffffffffl) {
+					//if (vl > maximumSaneFixedValueLength) throw new DicomException("unlikely fixed VL ("+vl+" dec, 0x"+Long.toHexString(vl)+") - probably incorrect dataset");
+					try {
+						a = AttributeFactory.newAttribute(tag,vr,vl,i,specificCharacterSet,explicit,bytesPerSample,byteOffset,decodeValuesLazily);	// creates and reads the attribute
 					}
-					{
-						long encapsulatedBytesRead = ei.getBytesRead();
-						byteOffset+= encapsulatedBytesRead;		// otherwise won't be able to detect end of fixed length sequences and items that contain encapsulated pixel data (e.g., IconImageSequence)
-						if (pixelDataWasDecompressed) {
-							// compute CR with precision of three decimal places
-							compressionRatio = (long)columns*rows*samplesPerPixel*bytesPerSample*frames*1000/encapsulatedBytesRead;
-							compressionRatio = compressionRatio / 1000;
-//System.err.println("AttributeList.read(): compressionRatio = "+compressionRatio);
-						}
+					catch (Exception e) {
+						e.printStackTrace(System.err);
+						a = null;
 					}
+					byteOffset+=vl;
+				}
+				else if (vl == 0xffffffffl && packedTag == packedPixelData/* && i.getTransferSyntaxInUse().isEncapsulated()*/) {	// assume encapsulated in case TS is not recognized
+					EncapsulatedInputStream ei = new EncapsulatedInputStream(i);
+					a = readEncapsulatedPixelData(tag,ei,i.getTransferSyntaxInUse().getUID(),i.getFile(),byteOffset,rows,columns,frames,samplesPerPixel,bytesPerSample);
+					byteOffset+=ei.getBytesRead();		// otherwise won't be able to detect end of fixed length sequences and items that contain encapsulated pixel data (e.g., IconImageSequence)
 //System.err.println("Done with encapsulated pixel data");
 				}
 
@@ -747,60 +992,62 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 					}
 					put(tag,a);
 
-					if (tag.equals(TagFromName.FileMetaInformationGroupLength)) {
-						if (i.areReadingMetaHeader()) {
+					switch (packedTag) {
+						case packedFileMetaInformationGroupLength:
+							if (i.areReadingMetaHeader()) {
 //System.err.println("Found meta-header");
 //System.err.println("Length attribute class="+a.getClass());
-							long metaLength=a.getSingleIntegerValueOrDefault(0);
-							byteOffset=read(i,byteOffset,metaLength,false,null,stopAtTag);		// detects and sets transfer syntax for reading dataset
-							i.setReadingDataSet();
-							if (stopAfterMetaInformationHeader) {
+								long metaLength=a.getSingleIntegerValueOrDefault(0);
+								byteOffset=read(i,byteOffset,metaLength,false,null,stopAtTag,wantedTags,stopAfterWantedTags);		// detects and sets transfer syntax for reading dataset
+								i.setReadingDataSet();
+								if (stopAfterMetaInformationHeader) {
 //System.err.println("Stopping after meta-header");
-								break;
-							}
-							else {
+									return byteOffset;
+								}
+								else {
 //System.err.println("Calling read");
-								byteOffset=read(i,byteOffset,0xffffffffl,false,null,stopAtTag);	// read to end (will detect and set own SpecificCharacterSet)
+									byteOffset=read(i,byteOffset,0xffffffffl,false,null,stopAtTag,wantedTags,stopAfterWantedTags);	// read to end (will detect and set own SpecificCharacterSet)
 //System.err.println("Back from read after metaheader: now undefinedLength="+undefinedLength+" byteOffset="+byteOffset+" endByteOffset="+endByteOffset);
-								break;	// ... no plausible reason to continue past this point
+									return byteOffset;	// ... no plausible reason to continue past this point
+								}
 							}
-						}
-						else {
-							// ignore it, e.g. nested within a sequence item (GE bug).
+							else {
+								// ignore it, e.g. nested within a sequence item (GE bug).
 //System.err.println("Ignoring unexpected FileMetaInformationGroupLength outside meta information header");
-						}
-					}
-					else if (tag.equals(TagFromName.TransferSyntaxUID)) {
-						if (i.areReadingMetaHeader()) {
-							i.setTransferSyntaxToReadDataSet(new TransferSyntax(a.getSingleStringValueOrDefault(TransferSyntax.ExplicitVRLittleEndian)));
-						}
-						else {
-							// ignore it, e.g. nested within a sequence item (GE bug).
+							}
+							break;
+						case packedTransferSyntaxUID:
+							if (i.areReadingMetaHeader()) {
+								i.setTransferSyntaxToReadDataSet(new TransferSyntax(a.getSingleStringValueOrDefault(TransferSyntax.ExplicitVRLittleEndian)));
+							}
+							else {
+								// ignore it, e.g. nested within a sequence item (GE bug).
 //System.err.println("Ignoring unexpected TransferSyntaxUID outside meta information header");
-						}
-					}
-					else if (tag.equals(TagFromName.SpecificCharacterSet)) {
-						specificCharacterSet = new SpecificCharacterSet(a.getStringValues(),a.getByteValues());
-					}
-					else if (tag.equals(TagFromName.Columns)) {
-						columns = a.getSingleIntegerValueOrDefault(0);
+							}
+							break;
+						case packedSpecificCharacterSet:
+							specificCharacterSet = SpecificCharacterSet.valueOf(a.getStringValues(),a.getByteValues());
+							break;
+						case packedColumns:
+							columns = a.getSingleIntegerValueOrDefault(0);
 //System.err.println("Setting columns = "+columns);
-					}
-					else if (tag.equals(TagFromName.Rows)) {
-						rows = a.getSingleIntegerValueOrDefault(0);
+							break;
+						case packedRows:
+							rows = a.getSingleIntegerValueOrDefault(0);
 //System.err.println("Setting rows = "+rows);
-					}
-					else if (tag.equals(TagFromName.NumberOfFrames)) {
-						frames = a.getSingleIntegerValueOrDefault(1);
+							break;
+						case packedNumberOfFrames:
+							frames = a.getSingleIntegerValueOrDefault(1);
 //System.err.println("Setting frames = "+frames);
-					}
-					else if (tag.equals(TagFromName.SamplesPerPixel)) {
-						samplesPerPixel = a.getSingleIntegerValueOrDefault(1);
+							break;
+						case packedSamplesPerPixel:
+							samplesPerPixel = a.getSingleIntegerValueOrDefault(1);
 //System.err.println("Setting samplesPerPixel = "+samplesPerPixel);
-					}
-					else if (tag.equals(TagFromName.BitsAllocated)) {
-						bytesPerSample = (a.getSingleIntegerValueOrDefault(16)-1)/8+1;
+							break;
+						case packedBitsAllocated:
+							bytesPerSample = (a.getSingleIntegerValueOrDefault(16)-1)/8+1;
 //System.err.println("Setting bytesPerSample = "+bytesPerSample);
+							break;
 					}
 				}
 			}
@@ -862,6 +1109,321 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 		read(i,i.getByteOffsetOfStartOfData(),0xffffffffl,false,null);
 	}
 
+	/**
+	 * <p>An input stream of the remainder of an encapsulated value, regenerated from the events of a streaming parser as it is read.</p>
+	 *
+	 * <p>The Item header of each fragment is re-encoded in little endian byte order, followed by the fragment as it is read by the parser,
+	 * and the stream ends with a Sequence Delimiter once the parser reaches the {@link com.pixelmed.dicom.DicomStreamParser#END_SEQUENCE END_SEQUENCE},
+	 * so no more than one chunk of the value is held at a time.</p>
+	 */
+	private static class EncapsulatedValueFromParserInputStream extends InputStream {
+		/***/
+		private DicomStreamParser parser;
+		/***/
+		private byte[] header = new byte[8];
+		/***/
+		private byte[] buffer;
+		/***/
+		private int position;
+		/***/
+		private int length;
+		/***/
+		private boolean endOfSequence;
+
+		/**
+		 * @param	parser	the parser, immediately after the {@link com.pixelmed.dicom.DicomStreamParser#START_SEQUENCE START_SEQUENCE} of the encapsulated value
+		 */
+		EncapsulatedValueFromParserInputStream(DicomStreamParser parser) {
+			this.parser = parser;
+		}
+
+		/**
+		 * @param	element
+		 * @param	vl
+		 */
+		private void setHeader(int element,long vl) {
+			header[0] = (byte)0xfe;
+			header[1] = (byte)0xff;
+			header[2] = (byte)element;
+			header[3] = (byte)(element>>8);
+			header[4] = (byte)vl;
+			header[5] = (byte)(vl>>8);
+			header[6] = (byte)(vl>>16);
+			header[7] = (byte)(vl>>24);
+			buffer = header;
+			position = 0;
+			length = 8;
+		}
+
+		/**
+		 * <p>Advance the parser until there is something more to read.</p>
+		 *
+		 * @return			false if the end of the encapsulated value has already been read
+		 * @exception	IOException
+		 */
+		private boolean fill() throws IOException {
+			while (position >= length) {
+				if (endOfSequence) {
+					return false;
+				}
+				int event;
+				try {
+					event = parser.next();
+				}
+				catch (DicomException e) {
+					throw new IOException("Cannot read encapsulated "+parser.getTag(),e);
+				}
+				switch (event) {
+					case DicomStreamParser.START_ITEM:
+						setHeader(TagFromName.Item.getElement(),parser.getValueLength());
+						break;
+					case DicomStreamParser.VALUE_CHUNK:
+						buffer = parser.getChunk();
+						position = 0;
+						length = parser.getChunkLength();
+						break;
+					case DicomStreamParser.END_SEQUENCE:
+						setHeader(TagFromName.SequenceDelimitationItem.getElement(),0);
+						endOfSequence = true;
+						break;
+					case DicomStreamParser.END_DATA_SET:
+						throw new EOFException("Unexpected end of data set in encapsulated "+parser.getTag());
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * <p>Advance the parser past the {@link com.pixelmed.dicom.DicomStreamParser#END_SEQUENCE END_SEQUENCE}, if it has not already been read.</p>
+		 *
+		 * @exception	IOException
+		 */
+		void skipToEndOfSequence() throws IOException {
+			while (fill()) {
+				position = length;
+			}
+		}
+
+		public int read() throws IOException {
+			return fill() ? buffer[position++]&0xff : -1;
+		}
+
+		public int read(byte[] b,int off,int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int count = Math.min(len,length-position);
+			System.arraycopy(buffer,position,b,off,count);
+			position+=count;
+			return count;
+		}
+
+		public int available() {
+			return length-position;
+		}
+	}
+
+	/**
+	 * <p>Read encapsulated Pixel Data from the events generated by a streaming parser.</p>
+	 *
+	 * <p>The fragments are passed to the decoder as the parser reads them, up to and including the {@link com.pixelmed.dicom.DicomStreamParser#END_SEQUENCE END_SEQUENCE},
+	 * and decompressed in the same way as by {@link #read(DicomInputStream) read(DicomInputStream)}, without first gathering the entire compressed value.</p>
+	 *
+	 * @param	parser		the parser, immediately after the {@link com.pixelmed.dicom.DicomStreamParser#START_SEQUENCE START_SEQUENCE} of the Pixel Data
+	 * @param	rows
+	 * @param	columns
+	 * @param	frames
+	 * @param	samplesPerPixel
+	 * @param	bytesPerSample
+	 * @return			the decompressed Pixel Data, or null if it was skipped
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private Attribute readEncapsulatedPixelData(DicomStreamParser parser,int rows,int columns,int frames,int samplesPerPixel,int bytesPerSample) throws IOException, DicomException {
+		AttributeTag tag = parser.getTag();
+		String tsuid = parser.getTransferSyntaxInUse().getUID();
+		EncapsulatedValueFromParserInputStream encapsulated = new EncapsulatedValueFromParserInputStream(parser);
+		DicomInputStream i = new DicomInputStream(encapsulated,TransferSyntax.ExplicitVRLittleEndian,false);
+		Attribute a = readEncapsulatedPixelData(tag,new EncapsulatedInputStream(i),tsuid,null,0,rows,columns,frames,samplesPerPixel,bytesPerSample);
+		encapsulated.skipToEndOfSequence();
+		return a;
+	}
+
+	/**
+	 * <p>Read undefined length encapsulated Pixel Data from a copy of its value, decompressing it if the transfer syntax is supported, else skipping it.</p>
+	 *
+	 * <p>Read in the same way as by {@link #read(DicomInputStream) read(DicomInputStream)}, using the Pixel Data description already read into this list.</p>
+	 *
+	 * @param	tag			the tag of the Pixel Data
+	 * @param	encapsulated		the value, i.e., the Items of the Basic Offset Table and of each fragment, and the Sequence Delimiter, in little endian byte order
+	 * @param	tsuid			the transfer syntax in which the Pixel Data is encapsulated
+	 * @param	bytesPerSample
+	 * @return				the decompressed Pixel Data, or null if it was skipped
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	Attribute readEncapsulatedPixelData(AttributeTag tag,byte[] encapsulated,String tsuid,int bytesPerSample) throws IOException, DicomException {
+		DicomInputStream i = new DicomInputStream(new ByteArrayInputStream(encapsulated),TransferSyntax.ExplicitVRLittleEndian,false);
+		return readEncapsulatedPixelData(tag,new EncapsulatedInputStream(i),tsuid,null,0,
+			Attribute.getSingleIntegerValueOrDefault(this,TagFromName.Rows,0),
+			Attribute.getSingleIntegerValueOrDefault(this,TagFromName.Columns,0),
+			Attribute.getSingleIntegerValueOrDefault(this,TagFromName.NumberOfFrames,1),
+			Attribute.getSingleIntegerValueOrDefault(this,TagFromName.SamplesPerPixel,1),
+			bytesPerSample);
+	}
+
+	/**
+	 * <p>Read all the DICOM attributes from the events generated by a streaming parser.</p>
+	 *
+	 * <p>Encapsulated Pixel Data is decompressed in the same way as by {@link #read(DicomInputStream) read(DicomInputStream)}.</p>
+	 *
+	 * @param	parser		the parser positioned at the start of the stream
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void read(DicomStreamParser parser) throws IOException, DicomException {
+		ArrayList<AttributeList> lists = new ArrayList<AttributeList>();			// enclosing lists of open items
+		ArrayList<SpecificCharacterSet> specificCharacterSets = new ArrayList<SpecificCharacterSet>();	// for each enclosing list
+		ArrayList<SequenceAttribute> sequences = new ArrayList<SequenceAttribute>();		// open sequences
+		ArrayList<int[]> pixelDataDescriptions = new ArrayList<int[]>();		// for each enclosing list
+		AttributeList list = this;
+		SpecificCharacterSet specificCharacterSet = null;
+		// keep track of pixel data size in each list, as for read(DicomInputStream), so that it does not leak into or out of items ...
+		int rows = 0;
+		int columns = 0;
+		int frames = 1;
+		int samplesPerPixel = 1;
+		int bytesPerSample = 0;
+		boolean skippedSequence = false;		// the END_SEQUENCE that follows skipping a sequence has no SequenceAttribute to close
+		int event;
+		while ((event = parser.next()) != DicomStreamParser.END_DATA_SET) {
+			switch (event) {
+				case DicomStreamParser.START_ELEMENT: {
+						Attribute a = parser.readValueAsAttribute(specificCharacterSet,bytesPerSample,decodeValuesLazily);
+						AttributeTag tag = a.getTag();
+						if (list.get(tag) != null) {
+System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previous occurence");
+						}
+						list.put(tag,a);
+						switch (tag.getPacked()) {
+							case packedSpecificCharacterSet:
+								specificCharacterSet = SpecificCharacterSet.valueOf(a.getStringValues(),a.getByteValues());
+								break;
+							case packedColumns:
+								columns = a.getSingleIntegerValueOrDefault(0);
+								break;
+							case packedRows:
+								rows = a.getSingleIntegerValueOrDefault(0);
+								break;
+							case packedNumberOfFrames:
+								frames = a.getSingleIntegerValueOrDefault(1);
+								break;
+							case packedSamplesPerPixel:
+								samplesPerPixel = a.getSingleIntegerValueOrDefault(1);
+								break;
+							case packedBitsAllocated:
+								bytesPerSample = (a.getSingleIntegerValueOrDefault(16)-1)/8+1;
+								break;
+						}
+					}
+					break;
+				case DicomStreamParser.START_SEQUENCE:
+					if (ValueRepresentation.isSequenceVR(parser.getValueRepresentation()) || ValueRepresentation.isUnknownVR(parser.getValueRepresentation())) {
+						SequenceAttribute a = new SequenceAttribute(parser.getTag());
+						list.put(a.getTag(),a);
+						sequences.add(a);
+					}
+					else if (parser.getTag().getPacked() == packedPixelData) {
+						Attribute a = list.readEncapsulatedPixelData(parser,rows,columns,frames,samplesPerPixel,bytesPerSample);	// absorbs the END_SEQUENCE
+						if (a != null) {
+							list.put(a.getTag(),a);
+						}
+					}
+					else {
+						parser.skipValue();		// undefined length value that is neither a sequence nor Pixel Data
+						skippedSequence = true;
+					}
+					break;
+				case DicomStreamParser.START_ITEM: {
+						AttributeList item = list.newAttributeListForSequenceItem();
+						item.setDecodeValuesLazily(decodeValuesLazily);
+						sequences.get(sequences.size()-1).addItem(item,parser.getByteOffset()-8);
+						lists.add(list);
+						specificCharacterSets.add(specificCharacterSet);
+						pixelDataDescriptions.add(new int[] { rows, columns, frames, samplesPerPixel, bytesPerSample });
+						list = item;
+						rows = 0;
+						columns = 0;
+						frames = 1;
+						samplesPerPixel = 1;
+						bytesPerSample = 0;
+					}
+					break;
+				case DicomStreamParser.END_ITEM: {
+						list = lists.remove(lists.size()-1);
+						specificCharacterSet = specificCharacterSets.remove(specificCharacterSets.size()-1);
+						int[] pixelDataDescription = pixelDataDescriptions.remove(pixelDataDescriptions.size()-1);
+						rows = pixelDataDescription[0];
+						columns = pixelDataDescription[1];
+						frames = pixelDataDescription[2];
+						samplesPerPixel = pixelDataDescription[3];
+						bytesPerSample = pixelDataDescription[4];
+					}
+					break;
+				case DicomStreamParser.END_SEQUENCE:
+					if (skippedSequence) {
+						skippedSequence = false;
+					}
+					else {
+						sequences.remove(sequences.size()-1);
+					}
+					break;
+			}
+		}
+	}
+
+	/**
+	 * <p>Read only the specified DICOM attributes in the stream, until the specified tag is encountered or there is nothing more wanted.</p>
+	 *
+	 * <p>Attributes that are not wanted, including whole sequences and bulk data such as the Pixel Data, are skipped without being decoded.
+	 * Sequences for which only paths into their items are wanted are read with only those attributes in each item.</p>
+	 *
+	 * <p>The meta information header and the Specific Character Set are always read, as are the attributes that describe the Pixel Data if it is wanted.</p>
+	 *
+	 * <p>Since the top level data set is in tag order, reading stops as soon as a tag larger than any that is wanted is encountered, and
+	 * does not read beyond its group element pair, so when used to read headers there is no need to also specify a stop tag.</p>
+	 *
+	 * <p>Leaves the stream open.</p>
+	 *
+	 * @param	i		the stream to read from
+	 * @param	wantedTags	the attributes to read
+	 * @param	stopAtTag	the tag (in the top level data set) at which to stop, or null
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void read(DicomInputStream i,AttributeTagSet wantedTags,AttributeTag stopAtTag) throws IOException, DicomException {
+		read(i,i.getByteOffsetOfStartOfData(),0xffffffffl,false,null,stopAtTag,wantedTags,true);
+	}
+
+	/**
+	 * <p>Read only the specified DICOM attributes in the stream.</p>
+	 *
+	 * <p>Leaves the stream open.</p>
+	 *
+	 * @see #read(DicomInputStream,AttributeTagSet,AttributeTag)
+	 *
+	 * @param	i		the stream to read from
+	 * @param	wantedTags	the attributes to read
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void read(DicomInputStream i,AttributeTagSet wantedTags) throws IOException, DicomException {
+		read(i,wantedTags,null);
+	}
+
 	/**
 	 * <p>Read an entire DICOM object in the specified file.</p>
 	 *
@@ -892,6 +1454,24 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 	 * @exception	DicomException
 	 */
 	public void read(String name,String transferSyntaxUID,boolean hasMeta,boolean useBufferedStream,AttributeTag stopAtTag) throws IOException, DicomException {
+		read(name,transferSyntaxUID,hasMeta,useBufferedStream,null,stopAtTag);
+	}
+
+	/**
+	 * <p>Read only the specified DICOM attributes in the specified file.</p>
+	 *
+	 * @see #read(DicomInputStream,AttributeTagSet,AttributeTag)
+	 *
+	 * @param	name			the input file name
+	 * @param	transferSyntaxUID	the transfer syntax to use for the data set (leave null for autodetection)
+	 * @param	hasMeta			look for a meta information header
+	 * @param	useBufferedStream	buffer the input for better performance
+	 * @param	wantedTags		the attributes to read, or null if all
+	 * @param	stopAtTag		the tag (in the top level data set) at which to stop
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void read(String name,String transferSyntaxUID,boolean hasMeta,boolean useBufferedStream,AttributeTagSet wantedTags,AttributeTag stopAtTag) throws IOException, DicomException {
 		InputStream i = null;
 		DicomInputStream di = null;
 		try {
@@ -904,7 +1484,12 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 			if (di.getFile() == null) {
 				di.setFile(file);	// need this to allow large PixelData OX to be left on disk (000596)
 			}
-			read(di,stopAtTag);
+			if (wantedTags == null) {
+				read(di,stopAtTag);
+			}
+			else {
+				read(di,wantedTags,stopAtTag);
+			}
 		}catch (IOException e) {
 			throw e;			// we do this so that the finally will execute, whether an exception or not
 		}
@@ -1031,7 +1616,72 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 	public void read(File file,AttributeTag stopAtTag) throws IOException, DicomException {
 		read(file.getCanonicalPath(),stopAtTag);
 	}
+
+	/**
+	 * <p>Read only the specified DICOM attributes in the specified file.</p>
+	 *
+	 * <p>Always tries to automatically detect the meta information header or transfer syntax
+	 * if no meta information header and buffers the input for better performance.</p>
+	 *
+	 * @see #read(DicomInputStream,AttributeTagSet,AttributeTag)
+	 *
+	 * @param	file			the input file
+	 * @param	wantedTags		the attributes to read
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void read(File file,AttributeTagSet wantedTags) throws IOException, DicomException {
+		read(file.getCanonicalPath(),null,true,true,wantedTags,null);
+	}
 	
+	/**
+	 * <p>Read an entire DICOM object in the specified file by memory mapping it.</p>
+	 *
+	 * <p>Returns the attributes of both the meta information header (if present) and data set.</p>
+	 *
+	 * <p>The values of OB, OW and OF attributes, including the Pixel Data, are left in the mapping rather than being
+	 * copied onto the heap, and are available without copying as buffers (e.g., {@link com.pixelmed.dicom.OtherWordAttribute#getShortBufferValues() getShortBufferValues()}).
+	 * The file must not be modified while the list is in use.</p>
+	 *
+	 * @see com.pixelmed.dicom.MappedDicomInputStream
+	 *
+	 * @param	file			the input file
+	 * @param	stopAtTag		the tag (in the top level data set) at which to stop
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void readMapped(File file,AttributeTag stopAtTag) throws IOException, DicomException {
+		DicomInputStream di = null;
+		try {
+			di = new MappedDicomInputStream(file);
+			read(di,stopAtTag);
+		}
+		finally {
+			if (di != null) {
+				try {
+					di.close();		// the mapping remains valid
+				}
+				catch (Exception e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Read an entire DICOM object in the specified file by memory mapping it.</p>
+	 *
+	 * <p>Returns the attributes of both the meta information header (if present) and data set.</p>
+	 *
+	 * @see #readMapped(File,AttributeTag)
+	 *
+	 * @param	file			the input file
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void readMapped(File file) throws IOException, DicomException {
+		readMapped(file,null);
+	}
+
 	/**
 	 * <p>Read the meta information header (if present) for the specified file and then close it.</p>
 	 *
@@ -1073,32 +1723,35 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 	 * @exception	DicomException
 	 */
 	public void write(DicomOutputStream dout,boolean useMeta) throws IOException, DicomException {
-		DeflaterOutputStream deflaterOutputStream = null;
-		OutputStream bzip2OutputStream = null;
+		try {
+			writeAttributes(dout,useMeta);
+		}
+		finally {
+			closeSharedFileChannels();
+		}
+	}
+
+	/**
+	 * @param	dout		the stream to write to
+	 * @param	useMeta		true if the meta information header attributes are to be written, false if they are to be ommitted
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private void writeAttributes(DicomOutputStream dout,boolean useMeta) throws IOException, DicomException {
+		OutputStream compressingOutputStream = null;
 		for (Attribute a : values()) {
 			boolean isDataSetAttribute = a.getTag().getGroup() > 0x0002;
 			if (isDataSetAttribute) {
 				// Test to see whether or not a codec needs to be pushed on the stream ... after the first time, the TransferSyntax will always be ExplicitVRLittleEndian 
 //System.err.println("Testing for deflate and bzip2 TS");
-				if (dout.getTransferSyntaxToWriteDataSet().isDeflated()) {
-					// insert deflate into output stream and make a new DicomOutputStream
-//System.err.println("Creating new DicomOutputStream from deflate");
-					deflaterOutputStream = new DeflaterOutputStream(dout,new Deflater(Deflater.BEST_COMPRESSION,true/*nowrap*/));
-					dout = new DicomOutputStream(deflaterOutputStream,null,TransferSyntax.ExplicitVRLittleEndian);
-				}
-				else if (dout.getTransferSyntaxToWriteDataSet().isBzip2ed()) {
-					// insert bzip2 into output stream and make a new DicomOutputStream
-//System.err.println("DicomStreamCopier.copy(): Output stream - creating new DicomOutputStream from bzip2");
-					try {
-						Class classToUse = Thread.currentThread().getContextClassLoader().loadClass("org.apache.excalibur.bzip2.CBZip2OutputStream");
-						Class [] argTypes  = {OutputStream.class};
-						Object[] argValues = {dout};
-						bzip2OutputStream = (OutputStream)(classToUse.getConstructor(argTypes).newInstance(argValues));
-						dout = new DicomOutputStream(bzip2OutputStream,null/*no meta-header*/,TransferSyntax.ExplicitVRLittleEndian);
-					}
-					catch (Exception e) {	// may be ClassNotFoundException,NoSuchMethodException,InstantiationException
-						throw new DicomException("Could not instantiate bzip2 codec - "+e);
-					}
+				OutputStream compressor = DataSetCodecRegistry.getCompressingOutputStream(dout,dout.getTransferSyntaxToWriteDataSet());
+				if (compressor != null) {
+					// insert deflate or bzip2 into output stream and make a new DicomOutputStream
+//System.err.println("Creating new DicomOutputStream from deflate or bzip2");
+					compressingOutputStream = compressor;
+					boolean writeDefinedLengthSequences = dout.isWriteDefinedLengthSequences();
+					dout = new DicomOutputStream(compressingOutputStream,null/*no meta-header*/,TransferSyntax.ExplicitVRLittleEndian);
+					dout.setWriteDefinedLengthSequences(writeDefinedLengthSequences);
 				}
 				dout.setWritingDataSet();
 			}
@@ -1109,12 +1762,9 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 		}
 		// do not use dout.close(), since causes network activities to fail
 		// a dout.flush() alone is not sufficient to flush any remaining output from any pushed codecs
-		if (deflaterOutputStream != null) {
-			deflaterOutputStream.finish();		// NOT close(), since we may not want to close the underlying output stream (e.g., on a network association); method is specific to java.util.zip.DeflaterOutputStream
-		}
-		if (bzip2OutputStream != null) {
-			bzip2OutputStream.close();			// flush() alone is not sufficient :(
-			//assert closeWhenDone=true;
+		if (compressingOutputStream != null) {
+			dout.flush();
+			DataSetCodecRegistry.finish(compressingOutputStream);	// NOT close() for deflate, since we may not want to close the underlying output stream (e.g., on a network association)
 		}
 	}
 	
@@ -1159,9 +1809,13 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 	 * @exception	DicomException
 	 */
 	public void write(OutputStream o,String transferSyntaxUID,boolean useMeta,boolean useBufferedStream,boolean closeAfterWrite) throws IOException, DicomException {
+		FileOutputStream fo = o instanceof FileOutputStream ? (FileOutputStream)o : null;
 		if (useBufferedStream) o=new BufferedOutputStream(o);
 		try {
 			DicomOutputStream dout = new DicomOutputStream(o,useMeta ? TransferSyntax.ExplicitVRLittleEndian : null,transferSyntaxUID);
+			if (fo != null) {
+				dout.setUnderlyingChannel(fo.getChannel());		// so that values left on disk can be transferred directly to the file
+			}
 			write(dout,useMeta);
 			dout.close();
 		}
@@ -1422,29 +2076,58 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 	 *
 	 * <p>Also recurses into standard sequences and removes any unsafe private attributes therein.</p>
 	 *
+	 * <p>Done in a single pass, since the list is sorted by tag, so the private creators of a group are always encountered before
+	 * the blocks that they reserve; only unused private creators are looked up again, to remove them.</p>
+	 *
 	 * @see com.pixelmed.dicom.ClinicalTrialsAttributes
 	 */
 	public void removeUnsafePrivateAttributes() {
-		Set privateCreatorTagsForSafePrivateAttributes = new HashSet();	// of AttributeTag
-		// 1st pass ... remove the unsafe private tags themselves
+		ArrayList<AttributeTag> unusedPrivateCreatorTags = null;
+		int currentGroup = -1;
+		AttributeTag[] creatorTagsInGroup = null;		// indexed by block, only for the current group, and only if private
+		String[] creatorsInGroup = null;
+		boolean[] creatorUsedInGroup = null;
 		Iterator<Attribute> i = values().iterator();
 		while (i.hasNext()) {
 			Attribute a = i.next();
 			AttributeTag t = a.getTag();
 //System.err.println("AttributeList.removeUnsafePrivateAttributes(): "+a);
+			int group = t.getGroup();
+			if (group != currentGroup) {
+				unusedPrivateCreatorTags = addUnusedPrivateCreatorTags(unusedPrivateCreatorTags,creatorTagsInGroup,creatorUsedInGroup);
+				currentGroup = group;
+				if (creatorTagsInGroup != null) {
+					Arrays.fill(creatorTagsInGroup,null);
+					Arrays.fill(creatorsInGroup,null);
+					Arrays.fill(creatorUsedInGroup,false);
+				}
+			}
 			boolean removed = false;
 			if (t.isPrivate()) {
-				if (ClinicalTrialsAttributes.isSafePrivateAttribute(t,this)) {	// creators are safe
-//System.err.println("AttributeList.removeUnsafePrivateAttributes(): is safe "+t);
-					// leave the private attribute in place, and keep track of its private creator, so that we don't remove it later
-					AttributeTag creatorTag = getPrivateCreatorTag(t);
-//System.err.println("AttributeList.removeUnsafePrivateAttributes(): adding creatorTag to set to retain "+creatorTag);
-					privateCreatorTagsForSafePrivateAttributes.add(creatorTag);
+				if (creatorTagsInGroup == null) {
+					creatorTagsInGroup = new AttributeTag[256];
+					creatorsInGroup = new String[256];
+					creatorUsedInGroup = new boolean[256];
+				}
+				int element = t.getElement();
+				if (t.isPrivateCreator()) {
+					// keep all creators for now, since need them to check real private tags, and decide whether to remove them at the end of the group
+					creatorTagsInGroup[element] = t;
+					creatorsInGroup[element] = a.getSingleStringValueOrEmptyString();
 				}
 				else {
+					int block = (element & 0xff00) >> 8;
+					String creator = creatorsInGroup[block];
+					if (ClinicalTrialsAttributes.isSafePrivateAttribute(creator == null ? "" : creator,t)) {
+//System.err.println("AttributeList.removeUnsafePrivateAttributes(): is safe "+t);
+						// leave the private attribute in place, and keep track of its private creator, so that we don't remove it later
+						creatorUsedInGroup[block] = true;
+					}
+					else {
 //System.err.println("AttributeList.removeUnsafePrivateAttributes(): is unsafe "+t);
-					i.remove();
-					removed = true;
+						i.remove();
+						removed = true;
+					}
 				}
 			}
 			// recurse into sequence if standard, or if private tag that was not removed, since safe private sequences may contain unsafe content !
@@ -1461,16 +2144,34 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 				}
 			}
 		}
-		// 2nd pass ... remove any private creator that is not used anymore (i.e., had no safe tags)
-		i = values().iterator();
-		while (i.hasNext()) {
-			Attribute a = i.next();
-			AttributeTag t = a.getTag();
-			if (t.isPrivateCreator() && !privateCreatorTagsForSafePrivateAttributes.contains(t)) {
+		unusedPrivateCreatorTags = addUnusedPrivateCreatorTags(unusedPrivateCreatorTags,creatorTagsInGroup,creatorUsedInGroup);
+		if (unusedPrivateCreatorTags != null) {
+			// remove any private creator that is not used anymore (i.e., had no safe tags)
+			for (AttributeTag t : unusedPrivateCreatorTags) {
 //System.err.println("AttributeList.removeUnsafePrivateAttributes(): removing unused creator "+t);
-				i.remove();
+				remove(t);
+			}
+		}
+	}
+	
+	/**
+	 * @param	unusedPrivateCreatorTags	the tags found so far, or null if none
+	 * @param	creatorTags			the private creators of a group indexed by block, or null if no private group has been encountered
+	 * @param	creatorUsed			whether any safe tags were found in each block
+	 * @return					the tags found so far, or null if none
+	 */
+	private static ArrayList<AttributeTag> addUnusedPrivateCreatorTags(ArrayList<AttributeTag> unusedPrivateCreatorTags,AttributeTag[] creatorTags,boolean[] creatorUsed) {
+		if (creatorTags != null) {
+			for (int block=0x10; block<=0xff; ++block) {
+				if (creatorTags[block] != null && !creatorUsed[block]) {
+					if (unusedPrivateCreatorTags == null) {
+						unusedPrivateCreatorTags = new ArrayList<AttributeTag>();
+					}
+					unusedPrivateCreatorTags.add(creatorTags[block]);
+				}
 			}
 		}
+		return unusedPrivateCreatorTags;
 	}
 	
 	/**
@@ -1647,15 +2348,46 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 	 */
 	public void setFileUsedByOnDiskAttributes(File file) {
 //System.err.println("AttributeList.setFileUsedByOnDiskAttributes(): file = "+file);
+		closeSharedFileChannels();
+		SharedFileChannel sharedFileChannel = new SharedFileChannel(file);
 		for (Attribute a : values()) {
 //System.err.println("AttributeList.setFileUsedByOnDiskAttributes(): checking "+a.getClass()+" - "+a.toString(dictionary));
 			if (a instanceof OtherByteAttributeOnDisk) {
 //System.err.println("AttributeList.setFileUsedByOnDiskAttributes(): setting OtherByteAttributeOnDisk to file = "+file);
 				((OtherByteAttributeOnDisk)a).setFile(file);
+				((OtherByteAttributeOnDisk)a).setSharedFileChannel(sharedFileChannel);
 			}
 			else if (a instanceof OtherWordAttributeOnDisk) {
 //System.err.println("AttributeList.setFileUsedByOnDiskAttributes(): setting OtherWordAttributeOnDisk to file = "+file);
 				((OtherWordAttributeOnDisk)a).setFile(file);
+				((OtherWordAttributeOnDisk)a).setSharedFileChannel(sharedFileChannel);
+			}
+		}
+	}
+
+	/**
+	 * <p>Close the file used by any attribute whose values are left on disk, if it has been opened to read them.</p>
+	 *
+	 * <p>The attributes remain usable, and the file will be opened again if needed.</p>
+	 *
+	 * <p>Called after the list is written, so need only be called explicitly if attributes are written individually.</p>
+	 */
+	public void closeSharedFileChannels() {
+		for (Attribute a : values()) {
+			SharedFileChannel sharedFileChannel = null;
+			if (a instanceof OtherByteAttributeOnDisk) {
+				sharedFileChannel = ((OtherByteAttributeOnDisk)a).getSharedFileChannel();
+			}
+			else if (a instanceof OtherWordAttributeOnDisk) {
+				sharedFileChannel = ((OtherWordAttributeOnDisk)a).getSharedFileChannel();
+			}
+			if (sharedFileChannel != null) {
+				try {
+					sharedFileChannel.close();
+				}
+				catch (IOException e) {
+					e.printStackTrace(System.err);
+				}
 			}
 		}
 	}
@@ -1682,7 +2414,7 @@ System.err.println("Illegal duplicate tag in dataset - "+tag+" - replacing previ
 				throw new DicomException("Could not create attribute for tag "+t);
 			}
 			else {
-				super.put(t,a);
+				put(t,a);
 			}
 		}
 		return a;
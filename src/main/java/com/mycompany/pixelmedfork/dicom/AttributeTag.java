@@ -35,6 +35,129 @@ public class AttributeTag implements Comparable {
 		this.element=element;
 	}
 
+	/**
+	 * <p>Get a DICOM data element (attribute) tag, re-using a shared instance if it is in the standard dictionary.</p>
+	 *
+	 * <p>Since tags are immutable, the same instance may be safely shared by any number of lists and attributes,
+	 * and doing so avoids allocating a new tag for every standard data element that is read.</p>
+	 *
+	 * <p>Tags not in the standard dictionary, such as private tags, are newly allocated.</p>
+	 *
+	 * @param	group	the 16 bit unsigned binary group
+	 * @param	element	the 16 bit unsigned binary element
+	 * @return		the tag
+	 */
+	public static AttributeTag valueOf(int group,int element) {
+		AttributeTag t = InternedTags.get(toPacked(group,element));
+		return t == null ? new AttributeTag(group,element) : t;
+	}
+
+	/**
+	 * <p>Get a DICOM data element (attribute) tag, re-using a shared instance if it is in the standard dictionary.</p>
+	 *
+	 * @see #valueOf(int,int)
+	 *
+	 * @param	packed	the group in the upper 16 bits and the element in the lower 16 bits, as returned by {@link #toPacked(int,int) toPacked()}
+	 * @return		the tag
+	 */
+	public static AttributeTag valueOf(int packed) {
+		AttributeTag t = InternedTags.get(packed);
+		return t == null ? new AttributeTag(packed>>>16,packed&0xffff) : t;
+	}
+
+	/**
+	 * <p>Get a single integer representation of a group and element.</p>
+	 *
+	 * <p>The group is in the upper 16 bits and the element is in the lower 16 bits, so comparing
+	 * two such values as unsigned integers gives the same order as {@link #compareTo(Object) compareTo()}.</p>
+	 *
+	 * @param	group	the 16 bit unsigned binary group
+	 * @param	element	the 16 bit unsigned binary element
+	 * @return		the packed value
+	 */
+	public static int toPacked(int group,int element) {
+		return (group<<16) | (element&0xffff);
+	}
+
+	/**
+	 * <p>Get a single integer representation of this tag.</p>
+	 *
+	 * @see #toPacked(int,int)
+	 *
+	 * @return		the packed value
+	 */
+	public int getPacked() {
+		return toPacked(group,element);
+	}
+
+	// packed values of the tags that control the structure of a data set, for use in switch statements
+
+	static final int packedItem = 0xfffee000;
+	static final int packedItemDelimitationItem = 0xfffee00d;
+	static final int packedSequenceDelimitationItem = 0xfffee0dd;
+
+	/**
+	 * <p>An open addressed hash table of all the tags in {@link com.pixelmed.dicom.TagFromName TagFromName}, keyed by their packed value.</p>
+	 *
+	 * <p>Not populated until first used.</p>
+	 */
+	private static class InternedTags {
+		private static final int[] keys;
+		private static final AttributeTag[] values;
+		private static final int mask;
+
+		static {
+			java.util.ArrayList<AttributeTag> tags = new java.util.ArrayList<AttributeTag>(4096);
+			for (java.lang.reflect.Field f : TagFromName.class.getFields()) {
+				if (f.getType() == AttributeTag.class && java.lang.reflect.Modifier.isStatic(f.getModifiers())) {
+					try {
+						AttributeTag t = (AttributeTag)(f.get(null));
+						if (t != null) {
+							tags.add(t);
+						}
+					}
+					catch (IllegalAccessException e) {
+					}
+				}
+			}
+			int capacity = 1;
+			while (capacity < tags.size()*2) {
+				capacity <<= 1;
+			}
+			keys = new int[capacity];
+			values = new AttributeTag[capacity];
+			mask = capacity - 1;
+			for (AttributeTag t : tags) {
+				int key = t.getPacked();
+				int index = hash(key);
+				while (values[index] != null && keys[index] != key) {
+					index = (index+1) & mask;
+				}
+				if (values[index] == null) {		// first definition wins if there are duplicate names for the same tag
+					keys[index] = key;
+					values[index] = t;
+				}
+			}
+		}
+
+		private static int hash(int key) {
+			int h = key * 0x9e3779b9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		static AttributeTag get(int key) {
+			int index = hash(key);
+			AttributeTag t;
+			while ((t = values[index]) != null) {
+				if (keys[index] == key) {
+					return t;
+				}
+				index = (index+1) & mask;
+			}
+			return null;
+		}
+	}
+
 	/**
 	 * <p>Construct a DICOM data element (attribute) tag from its string representation.</p>
 	 *
@@ -237,7 +360,7 @@ public class AttributeTag implements Comparable {
 	 * @return	a hash value representing the tag
 	 */
 	public int hashCode() {
-		return (group<<16)+(element&0xffff);
+		return toPacked(group,element);
 	}
 
 	public static void main(String arg[]) {
@@ -253,6 +376,9 @@ public class AttributeTag implements Comparable {
 		catch (Exception e) {
 			System.err.println("Test string round trip:   FAIL with exception "+e);
 		}
+		System.err.println("Test valueOf interned:    "+(valueOf(0x0010,0x0010) == TagFromName.PatientName ? "PASS" : "FAIL"));
+		System.err.println("Test valueOf private:     "+(valueOf(0x0029,0x1010).equals(new AttributeTag(0x0029,0x1010)) ? "PASS" : "FAIL"));
+		System.err.println("Test valueOf packed:      "+(valueOf(TagFromName.PixelData.getPacked()) == TagFromName.PixelData ? "PASS" : "FAIL"));
 	}
 	
 }
@@ -0,0 +1,312 @@
+package com.mycompany.pixelmedfork.dicom;
+
+/**
+ * <p>A class to specify which attributes are wanted when reading an {@link com.pixelmed.dicom.AttributeList AttributeList},
+ * so that everything else can be skipped without being decoded.</p>
+ *
+ * <p>An attribute may be wanted in its entirety (including, for a sequence, everything in its items), or, for a sequence,
+ * only some of the attributes in its items may be wanted, by specifying a path of tags into the sequence, e.g.:</p>
+ *
+ * <pre>
+ * AttributeTagSet wanted = new AttributeTagSet();
+ * wanted.add(TagFromName.SOPInstanceUID);
+ * wanted.addPath(TagFromName.ReferencedSeriesSequence,TagFromName.SeriesInstanceUID);
+ * list.read(file,wanted);
+ * </pre>
+ *
+ * <p>The tags are held as packed integers in a sorted array, so that checking whether or not each tag
+ * encountered during reading is wanted neither boxes nor allocates.</p>
+ *
+ * @see com.pixelmed.dicom.AttributeList#read(DicomInputStream,AttributeTagSet,AttributeTag)
+ */
+public class AttributeTagSet {
+
+	/***/
+	private int[] packedTags;			// in ascending unsigned order
+	/***/
+	private AttributeTagSet[] nestedTags;		// for each tag, the set wanted within its items, or null if the whole attribute is wanted
+
+	/**
+	 * <p>Construct an empty set.</p>
+	 */
+	public AttributeTagSet() {
+		packedTags = new int[0];
+		nestedTags = new AttributeTagSet[0];
+	}
+
+	/**
+	 * <p>Construct a set in which each of the specified attributes is wanted in its entirety.</p>
+	 *
+	 * @param	tags	the tags of the wanted attributes
+	 */
+	public AttributeTagSet(AttributeTag[] tags) {
+		this();
+		for (AttributeTag tag : tags) {
+			add(tag);
+		}
+	}
+
+	/**
+	 * @param	packedTag
+	 * @return			the index if found, else -(insertion point)-1
+	 */
+	private int indexOf(int packedTag) {
+		int low = 0;
+		int high = packedTags.length-1;
+		while (low <= high) {
+			int mid = (low+high) >>> 1;
+			int c = Integer.compareUnsigned(packedTags[mid],packedTag);
+			if (c < 0) {
+				low = mid+1;
+			}
+			else if (c > 0) {
+				high = mid-1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -(low+1);
+	}
+
+	/**
+	 * @param	packedTag
+	 * @return			the index of the new entry
+	 */
+	private int insert(int packedTag) {
+		int index = -(indexOf(packedTag)+1);
+		int[] newPackedTags = new int[packedTags.length+1];
+		AttributeTagSet[] newNestedTags = new AttributeTagSet[packedTags.length+1];
+		System.arraycopy(packedTags,0,newPackedTags,0,index);
+		System.arraycopy(nestedTags,0,newNestedTags,0,index);
+		newPackedTags[index] = packedTag;
+		System.arraycopy(packedTags,index,newPackedTags,index+1,packedTags.length-index);
+		System.arraycopy(nestedTags,index,newNestedTags,index+1,packedTags.length-index);
+		packedTags = newPackedTags;
+		nestedTags = newNestedTags;
+		return index;
+	}
+
+	/**
+	 * <p>Add an attribute that is wanted in its entirety.</p>
+	 *
+	 * <p>If the attribute is a sequence, any narrower paths into it that have already been added are superseded.</p>
+	 *
+	 * @param	tag	the tag of the wanted attribute
+	 * @return		this set
+	 */
+	public AttributeTagSet add(AttributeTag tag) {
+		int index = indexOf(tag.getPacked());
+		if (index < 0) {
+			index = insert(tag.getPacked());
+		}
+		nestedTags[index] = null;
+		return this;
+	}
+
+	/**
+	 * <p>Add a path to a wanted attribute nested within one or more sequences.</p>
+	 *
+	 * <p>Each tag in the path except the last is a sequence, of whose items only the remainder of the path is wanted
+	 * (unless the sequence is already wanted in its entirety); the last tag is wanted in its entirety.</p>
+	 *
+	 * @param	path	the tags of the sequences and the wanted attribute
+	 * @return		this set
+	 */
+	public AttributeTagSet addPath(AttributeTag... path) {
+		if (path.length == 1) {
+			add(path[0]);
+		}
+		else if (path.length > 1) {
+			int packedTag = path[0].getPacked();
+			int index = indexOf(packedTag);
+			AttributeTagSet nested;
+			if (index < 0) {
+				index = insert(packedTag);
+				nested = new AttributeTagSet();
+				nestedTags[index] = nested;
+			}
+			else {
+				nested = nestedTags[index];
+			}
+			if (nested != null) {		// else whole sequence is already wanted
+				AttributeTag[] remainder = new AttributeTag[path.length-1];
+				System.arraycopy(path,1,remainder,0,remainder.length);
+				nested.addPath(remainder);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * <p>Is the attribute wanted, either in its entirety or for some of the contents of its items ?</p>
+	 *
+	 * @param	tag
+	 * @return		true if wanted
+	 */
+	public boolean contains(AttributeTag tag) {
+		return contains(tag.getPacked());
+	}
+
+	/**
+	 * @param	packedTag
+	 * @return			true if wanted
+	 */
+	boolean contains(int packedTag) {
+		return indexOf(packedTag) >= 0;
+	}
+
+	/**
+	 * <p>Get the set of attributes wanted within the items of a sequence.</p>
+	 *
+	 * @param	tag	the tag of the sequence
+	 * @return		the attributes wanted within each item, or null if the sequence is wanted in its entirety or is not wanted at all
+	 */
+	public AttributeTagSet getNested(AttributeTag tag) {
+		return getNested(tag.getPacked());
+	}
+
+	/**
+	 * @param	packedTag
+	 * @return			the attributes wanted within each item, or null if wanted in its entirety or not wanted at all
+	 */
+	AttributeTagSet getNested(int packedTag) {
+		int index = indexOf(packedTag);
+		return index >= 0 ? nestedTags[index] : null;
+	}
+
+	/**
+	 * <p>Get the largest tag wanted, so that reading of a data set can stop once it has been passed.</p>
+	 *
+	 * @return	the packed tag, to be compared unsigned, or zero if the set is empty
+	 */
+	int getLargestPackedTag() {
+		return packedTags.length == 0 ? 0 : packedTags[packedTags.length-1];
+	}
+
+	/**
+	 * @return	true if nothing is wanted
+	 */
+	public boolean isEmpty() {
+		return packedTags.length == 0;
+	}
+
+	/**
+	 * @param	buf
+	 * @param	indent
+	 */
+	private void toString(StringBuffer buf,String indent) {
+		for (int index=0; index<packedTags.length; ++index) {
+			buf.append(indent);
+			buf.append(AttributeTag.valueOf(packedTags[index]));
+			buf.append("\n");
+			if (nestedTags[index] != null) {
+				nestedTags[index].toString(buf,indent+">");
+			}
+		}
+	}
+
+	/***/
+	public String toString() {
+		StringBuffer buf = new StringBuffer();
+		toString(buf,"");
+		return buf.toString();
+	}
+
+	/**
+	 * @param	o
+	 * @param	value
+	 * @param	bigEndian
+	 */
+	private static void write16(java.io.ByteArrayOutputStream o,int value,boolean bigEndian) {
+		if (bigEndian) {
+			o.write(value>>8);
+			o.write(value);
+		}
+		else {
+			o.write(value);
+			o.write(value>>8);
+		}
+	}
+
+	/**
+	 * @param	o
+	 * @param	value
+	 * @param	bigEndian
+	 */
+	private static void write32(java.io.ByteArrayOutputStream o,long value,boolean bigEndian) {
+		if (bigEndian) {
+			write16(o,(int)(value>>16),true);
+			write16(o,(int)value,true);
+		}
+		else {
+			write16(o,(int)value,false);
+			write16(o,(int)(value>>16),false);
+		}
+	}
+
+	/**
+	 * <p>Make an explicit VR data set with an unwanted undefined length sequence, the item of which contains an undefined length UN value
+	 * (encoded as implicit VR little endian regardless), followed by Patient Name.</p>
+	 *
+	 * @param	bigEndian
+	 * @return			the encoded data set
+	 */
+	private static byte[] makeDataSetWithNestedUnknownSequence(boolean bigEndian) {
+		java.io.ByteArrayOutputStream o = new java.io.ByteArrayOutputStream();
+		write16(o,0x0008,bigEndian); write16(o,0x0016,bigEndian); o.write('U'); o.write('I'); write16(o,4,bigEndian); o.write('1'); o.write('.'); o.write('2'); o.write(0);
+		write16(o,0x0008,bigEndian); write16(o,0x1115,bigEndian); o.write('S'); o.write('Q'); write16(o,0,bigEndian); write32(o,0xffffffffl,bigEndian);
+		write16(o,0xfffe,bigEndian); write16(o,0xe000,bigEndian); write32(o,0xffffffffl,bigEndian);
+		write16(o,0x0009,bigEndian); write16(o,0x1010,bigEndian); o.write('U'); o.write('N'); write16(o,0,bigEndian); write32(o,0xffffffffl,bigEndian);
+		write16(o,0xfffe,false); write16(o,0xe000,false); write32(o,0xffffffffl,false);
+		write16(o,0x0011,false); write16(o,0x1001,false); write32(o,6,false); o.write('A'); o.write('B'); o.write('C'); o.write('D'); o.write('E'); o.write('F');
+		write16(o,0xfffe,false); write16(o,0xe00d,false); write32(o,0,false);
+		write16(o,0xfffe,false); write16(o,0xe0dd,false); write32(o,0,false);
+		write16(o,0x0020,bigEndian); write16(o,0x000e,bigEndian); o.write('U'); o.write('I'); write16(o,4,bigEndian); o.write('1'); o.write('.'); o.write('3'); o.write(0);
+		write16(o,0xfffe,bigEndian); write16(o,0xe00d,bigEndian); write32(o,0,bigEndian);
+		write16(o,0xfffe,bigEndian); write16(o,0xe0dd,bigEndian); write32(o,0,bigEndian);
+		write16(o,0x0010,bigEndian); write16(o,0x0010,bigEndian); o.write('P'); o.write('N'); write16(o,4,bigEndian); o.write('X'); o.write('^'); o.write('Y'); o.write(' ');
+		return o.toByteArray();
+	}
+
+	/**
+	 * <p>Test that reading only a wanted set of attributes skips an unwanted sequence containing a nested undefined length UN value,
+	 * in both explicit VR little and big endian.</p>
+	 *
+	 * @param	arg	none
+	 */
+	public static void main(String arg[]) {
+		boolean success = true;
+		AttributeTagSet wanted = new AttributeTagSet(new AttributeTag[] { TagFromName.PatientName });
+		for (boolean bigEndian : new boolean[] { false, true }) {
+			String transferSyntaxUID = bigEndian ? TransferSyntax.ExplicitVRBigEndian : TransferSyntax.ExplicitVRLittleEndian;
+			try {
+				DicomInputStream i = new DicomInputStream(new java.io.ByteArrayInputStream(makeDataSetWithNestedUnknownSequence(bigEndian)),transferSyntaxUID,false);
+				AttributeList list = new AttributeList();
+				list.read(i,wanted);
+				String patientName = Attribute.getSingleStringValueOrEmptyString(list,TagFromName.PatientName);
+				if (!patientName.equals("X^Y")) {
+System.err.println("AttributeTagSet.main(): "+transferSyntaxUID+" failed - Patient Name was <"+patientName+">");
+					success = false;
+				}
+				else if (list.get(TagFromName.ReferencedSeriesSequence) != null) {
+System.err.println("AttributeTagSet.main(): "+transferSyntaxUID+" failed - unwanted sequence was read");
+					success = false;
+				}
+				else if (i.isLittleEndian() == bigEndian) {
+System.err.println("AttributeTagSet.main(): "+transferSyntaxUID+" failed - byte order not restored");
+					success = false;
+				}
+			}
+			catch (Exception e) {
+System.err.println("AttributeTagSet.main(): "+transferSyntaxUID+" failed");
+				e.printStackTrace(System.err);
+				success = false;
+			}
+		}
+System.err.println("AttributeTagSet.main(): "+(success ? "passed" : "failed"));
+		if (!success) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,547 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A class to de-identify all the DICOM files in a folder and its sub-folders, writing each to the same relative path in another folder,
+ * using a pool of worker threads.</p>
+ *
+ * <p>Each file is de-identified with {@link com.pixelmed.dicom.ClinicalTrialsAttributes ClinicalTrialsAttributes} by removing any existing
+ * clinical trials attributes and unsafe private attributes, removing or nulling identifying attributes, removing, remapping or keeping UIDs,
+ * and, if requested, adding new clinical trials attributes.</p>
+ *
+ * <p>Pixel Data is never read onto the heap or decoded. The attributes before it are read and de-identified, then it is copied
+ * from the input file to the output file through a small buffer, whether it is native or encapsulated, and any attributes after it
+ * are read and de-identified too. The transfer syntax is not changed. Only files with a deflated or bzip2 compressed data set, which
+ * cannot be copied without being parsed, are read entirely.</p>
+ *
+ * <p>Each output file is written under a temporary name and renamed when complete, so a batch that is stopped may be resumed by
+ * running it again; files for which an output file already exists are skipped. For remapped UIDs to be the same when a batch is resumed,
+ * use a {@link com.pixelmed.dicom.UIDRemapStoreOnDisk UIDRemapStoreOnDisk}, which should not be kept in the output folder,
+ * since it links the original and replacement UIDs.</p>
+ *
+ * <p>The number of files in each state and the time spent in each stage are recorded in the {@link BatchDeidentifier.Metrics Metrics}.</p>
+ */
+public class BatchDeidentifier {
+
+	/***/
+	private static final String temporarySuffix = ".partial";
+	/***/
+	private static final int bufferSize = 65536;
+
+	/**
+	 * <p>The counts and times of each stage of de-identification.</p>
+	 *
+	 * <p>Times are the sums over all threads of a stage, in nanoseconds.</p>
+	 */
+	public static class Metrics {
+		/***/
+		public final AtomicLong filesFound = new AtomicLong();
+		/***/
+		public final AtomicLong filesAlreadyDone = new AtomicLong();
+		/***/
+		public final AtomicLong filesIgnored = new AtomicLong();
+		/***/
+		public final AtomicLong filesFailed = new AtomicLong();
+		/***/
+		public final AtomicLong filesDeidentified = new AtomicLong();
+		/***/
+		public final AtomicLong filesReadEntirely = new AtomicLong();
+		/***/
+		public final AtomicLong pixelDataBytesCopied = new AtomicLong();
+		/***/
+		public final AtomicLong findingTime = new AtomicLong();
+		/***/
+		public final AtomicLong readingTime = new AtomicLong();
+		/***/
+		public final AtomicLong deidentifyingTime = new AtomicLong();
+		/***/
+		public final AtomicLong writingTime = new AtomicLong();
+		/***/
+		public final AtomicLong copyingPixelDataTime = new AtomicLong();
+		/***/
+		public final AtomicLong elapsedTime = new AtomicLong();
+
+		/**
+		 * @param	nanoseconds
+		 * @return			milliseconds as a string
+		 */
+		private static String ms(AtomicLong nanoseconds) {
+			return Long.toString(nanoseconds.get()/1000000)+" ms";
+		}
+
+		/***/
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("Found ");		buffer.append(filesFound.get());
+			buffer.append(", already done ");	buffer.append(filesAlreadyDone.get());
+			buffer.append(", ignored ");		buffer.append(filesIgnored.get());
+			buffer.append(", failed ");		buffer.append(filesFailed.get());
+			buffer.append(", de-identified ");	buffer.append(filesDeidentified.get());
+			buffer.append(" (");			buffer.append(filesReadEntirely.get());
+			buffer.append(" read entirely) files in ");	buffer.append(ms(elapsedTime));
+			buffer.append("\n");
+			buffer.append("Finding ");		buffer.append(ms(findingTime));
+			buffer.append(", reading ");		buffer.append(ms(readingTime));
+			buffer.append(", de-identifying ");	buffer.append(ms(deidentifyingTime));
+			buffer.append(", writing ");		buffer.append(ms(writingTime));
+			buffer.append(", copying ");		buffer.append(pixelDataBytesCopied.get());
+			buffer.append(" bytes of pixel data ");	buffer.append(ms(copyingPixelDataTime));
+			return buffer.toString();
+		}
+	}
+
+	/***/
+	private final int handleUIDs;
+	/***/
+	private final boolean keepDescriptors;
+	/***/
+	private final boolean keepSeriesDescriptors;
+	/***/
+	private final boolean keepPatientCharacteristics;
+	/***/
+	private final boolean keepDeviceIdentity;
+	/***/
+	private final boolean keepInstitutionIdentity;
+	/***/
+	private final UIDRemapStore store;
+	/***/
+	private final Metrics metrics = new Metrics();
+
+	/***/
+	private boolean addClinicalTrialsAttributes;
+	/***/
+	private boolean replaceConventionalAttributes;
+	/***/
+	private String[] clinicalTrialsAttributeValues;
+
+	/***/
+	private String sourceApplicationEntityTitle;
+
+	/***/
+	private static final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>() {
+		protected byte[] initialValue() { return new byte[bufferSize]; }
+	};
+
+	/**
+	 * <p>Create a de-identifier.</p>
+	 *
+	 * @param	handleUIDs			keep, remove or remap the UIDs, one of {@link com.pixelmed.dicom.ClinicalTrialsAttributes.HandleUIDs ClinicalTrialsAttributes.HandleUIDs}
+	 * @param	keepDescriptors			if true, keep the text description and comment attributes
+	 * @param	keepSeriesDescriptors		if true, keep the series description even if all other descriptors are removed
+	 * @param	keepPatientCharacteristics	if true, keep patient characteristics (such as might be needed for PET SUV calculations)
+	 * @param	keepDeviceIdentity		if true, keep device identity
+	 * @param	keepInstitutionIdentity		if true, keep institution identity
+	 * @param	store				the store of original UIDs to replacement UIDs to use when remapping, or null for the one used by {@link com.pixelmed.dicom.ClinicalTrialsAttributes ClinicalTrialsAttributes}
+	 */
+	public BatchDeidentifier(int handleUIDs,boolean keepDescriptors,boolean keepSeriesDescriptors,boolean keepPatientCharacteristics,boolean keepDeviceIdentity,boolean keepInstitutionIdentity,UIDRemapStore store) {
+		this.handleUIDs = handleUIDs;
+		this.keepDescriptors = keepDescriptors;
+		this.keepSeriesDescriptors = keepSeriesDescriptors;
+		this.keepPatientCharacteristics = keepPatientCharacteristics;
+		this.keepDeviceIdentity = keepDeviceIdentity;
+		this.keepInstitutionIdentity = keepInstitutionIdentity;
+		this.store = store == null ? ClinicalTrialsAttributes.getUIDRemapStore() : store;
+	}
+
+	/**
+	 * <p>Add the same clinical trials attributes to every file.</p>
+	 *
+	 * @see com.pixelmed.dicom.ClinicalTrialsAttributes#addClinicalTrialsAttributes(AttributeList,boolean,String,String,String,String,String,String,String,String,String,String)
+	 *
+	 * @param	replaceConventionalAttributes	if true, use the supplied clinical trials attributes in place of the conventional ID attributes as well
+	 * @param	clinicalTrialSponsorName
+	 * @param	clinicalTrialProtocolID
+	 * @param	clinicalTrialProtocolName
+	 * @param	clinicalTrialSiteID
+	 * @param	clinicalTrialSiteName
+	 * @param	clinicalTrialSubjectID
+	 * @param	clinicalTrialSubjectReadingID
+	 * @param	clinicalTrialTimePointID
+	 * @param	clinicalTrialTimePointDescription
+	 * @param	clinicalTrialCoordinatingCenterName
+	 */
+	public void setClinicalTrialsAttributes(boolean replaceConventionalAttributes,
+			String clinicalTrialSponsorName,
+			String clinicalTrialProtocolID,
+			String clinicalTrialProtocolName,
+			String clinicalTrialSiteID,
+			String clinicalTrialSiteName,
+			String clinicalTrialSubjectID,
+			String clinicalTrialSubjectReadingID,
+			String clinicalTrialTimePointID,
+			String clinicalTrialTimePointDescription,
+			String clinicalTrialCoordinatingCenterName) {
+		addClinicalTrialsAttributes = true;
+		this.replaceConventionalAttributes = replaceConventionalAttributes;
+		clinicalTrialsAttributeValues = new String[] {
+			clinicalTrialSponsorName,
+			clinicalTrialProtocolID,
+			clinicalTrialProtocolName,
+			clinicalTrialSiteID,
+			clinicalTrialSiteName,
+			clinicalTrialSubjectID,
+			clinicalTrialSubjectReadingID,
+			clinicalTrialTimePointID,
+			clinicalTrialTimePointDescription,
+			clinicalTrialCoordinatingCenterName
+		};
+	}
+
+	/**
+	 * <p>Set the source AE title to put in the meta information header of each output file.</p>
+	 *
+	 * @param	sourceApplicationEntityTitle	the AE title, or null for none
+	 */
+	public void setSourceApplicationEntityTitle(String sourceApplicationEntityTitle) {
+		this.sourceApplicationEntityTitle = sourceApplicationEntityTitle;
+	}
+
+	/**
+	 * <p>Get the counts and times so far.</p>
+	 *
+	 * @return	the metrics
+	 */
+	public Metrics getMetrics() { return metrics; }
+
+	/**
+	 * <p>De-identify a list of attributes.</p>
+	 *
+	 * @param	list		the attributes, which are changed
+	 * @exception	DicomException
+	 */
+	protected void deidentify(AttributeList list) throws DicomException {
+		ClinicalTrialsAttributes.removeClinicalTrialsAttributes(list);
+		list.removeUnsafePrivateAttributes();
+		ClinicalTrialsAttributes.removeOrNullIdentifyingAttributes(list,handleUIDs,keepDescriptors,keepSeriesDescriptors,keepPatientCharacteristics,keepDeviceIdentity,keepInstitutionIdentity,store);
+		if (addClinicalTrialsAttributes) {
+			String[] v = clinicalTrialsAttributeValues;
+			ClinicalTrialsAttributes.addClinicalTrialsAttributes(list,replaceConventionalAttributes,v[0],v[1],v[2],v[3],v[4],v[5],v[6],v[7],v[8],v[9]);
+		}
+	}
+
+	/**
+	 * <p>Copy Pixel Data from one stream to the other, after its tag has been read.</p>
+	 *
+	 * <p>The value is copied as is, whether it is native or encapsulated, without being decoded.</p>
+	 *
+	 * @param	i		the input, positioned after the tag of Pixel Data, or at the end if there is none
+	 * @param	o		the output
+	 * @param	explicit	whether the transfer syntax is explicit VR
+	 * @return			the number of bytes of value copied, or -1 if there is no Pixel Data
+	 * @exception	IOException
+	 * @exception	DicomException	if the encapsulated items are not valid
+	 */
+	private static long copyPixelData(DicomInputStream i,DicomOutputStream o,boolean explicit) throws IOException, DicomException {
+		byte[] buffer = copyBuffer.get();
+		int first = i.read();
+		if (first == -1) {
+			return -1;		// did not stop at Pixel Data, but reached the end
+		}
+		buffer[0] = (byte)first;
+		i.readInsistently(buffer,1,3);		// VR and reserved bytes, which are always present since OB, OW, OF and UN all have 32 bit value lengths, else the value length
+		o.writeUnsigned16(TagFromName.PixelData.getGroup());
+		o.writeUnsigned16(TagFromName.PixelData.getElement());
+		o.write(buffer,0,4);
+		long vl;
+		if (explicit) {
+			vl = i.readUnsigned32();
+			o.writeUnsigned32(vl);
+		}
+		else {
+			vl = (buffer[0]&0xffl) | ((buffer[1]&0xffl)<<8) | ((buffer[2]&0xffl)<<16) | ((buffer[3]&0xffl)<<24);	// implicit VR is always little endian
+		}
+		long copied = 0;
+		if (vl != 0xffffffffl) {
+			copied += copyBytes(i,o,vl,buffer);
+		}
+		else {
+			while (true) {
+				int group = i.readUnsigned16();
+				int element = i.readUnsigned16();
+				long itemLength = i.readUnsigned32();		// always implicit VR form for items and delimiters
+				o.writeUnsigned16(group);
+				o.writeUnsigned16(element);
+				o.writeUnsigned32(itemLength);
+				int packedTag = (group<<16) | element;
+				if (packedTag == AttributeTag.packedSequenceDelimitationItem) {
+					break;
+				}
+				else if (packedTag != AttributeTag.packedItem || itemLength == 0xffffffffl) {
+					throw new DicomException("Bad encapsulated Pixel Data item "+AttributeTag.valueOf(packedTag)+" VL=<0x"+Long.toHexString(itemLength)+">");
+				}
+				copied += copyBytes(i,o,itemLength,buffer);
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * @param	i
+	 * @param	o
+	 * @param	count
+	 * @param	buffer
+	 * @return			the number of bytes copied
+	 * @exception	IOException
+	 */
+	private static long copyBytes(DicomInputStream i,DicomOutputStream o,long count,byte[] buffer) throws IOException {
+		long remaining = count;
+		while (remaining > 0) {
+			int length = remaining > buffer.length ? buffer.length : (int)remaining;
+			i.readInsistently(buffer,0,length);
+			o.write(buffer,0,length);
+			remaining -= length;
+		}
+		return count;
+	}
+
+	/**
+	 * <p>De-identify the attributes that follow Pixel Data.</p>
+	 *
+	 * <p>These are usually only private attributes, Digital Signatures Sequence and Data Set Trailing Padding, and are de-identified separately
+	 * from those before Pixel Data, since those have already been written. Private groups are self-contained, and remapped UIDs are
+	 * the same as if they were de-identified together.</p>
+	 *
+	 * @param	list		the attributes, which are changed
+	 * @exception	DicomException
+	 */
+	protected void deidentifyTrailingAttributes(AttributeList list) throws DicomException {
+		list.remove(TagFromName.DigitalSignaturesSequence);		// no longer valid once anything has changed
+		list.remove(TagFromName.DataSetTrailingPadding);
+		list.removeUnsafePrivateAttributes();
+		if (handleUIDs != ClinicalTrialsAttributes.HandleUIDs.keep) {
+			ClinicalTrialsAttributes.removeOrRemapUIDAttributes(list,handleUIDs,store);
+		}
+	}
+
+	/**
+	 * <p>De-identify one file.</p>
+	 *
+	 * <p>The transfer syntax is not changed.</p>
+	 *
+	 * @param	inputFile		the file to de-identify
+	 * @param	outputFile		the de-identified file to create, which is written under a temporary name and renamed when complete
+	 * @return				false if ignored, since it is a DICOMDIR
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public boolean deidentify(File inputFile,File outputFile) throws IOException, DicomException {
+		long startTime = System.nanoTime();
+		DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(inputFile),bufferSize));
+		File temporaryFile = new File(outputFile.getParentFile(),outputFile.getName()+temporarySuffix);
+		boolean complete = false;
+		try {
+			if (i.haveMetaHeader()) {
+				AttributeList metaList = new AttributeList();
+				metaList.readOnlyMetaInformationHeader(i);		// leaves i positioned at the start of the data set
+				if (SOPClass.MediaStorageDirectoryStorage.equals(Attribute.getSingleStringValueOrEmptyString(metaList,TagFromName.MediaStorageSOPClassUID))) {
+					return false;	// references files by name, so cannot be de-identified independently of them
+				}
+			}
+			TransferSyntax transferSyntax = i.getTransferSyntaxToReadDataSet() == null ? i.getTransferSyntaxInUse() : i.getTransferSyntaxToReadDataSet();
+			String transferSyntaxUID = transferSyntax.getUID();
+			boolean readEntirely = transferSyntax.isDeflated() || transferSyntax.isBzip2ed();
+			AttributeList list = new AttributeList();
+			list.read(i,readEntirely ? null : TagFromName.PixelData);	// if stopped at Pixel Data, its tag has been read
+			metrics.readingTime.addAndGet(System.nanoTime()-startTime);
+
+			startTime = System.nanoTime();
+			deidentify(list);
+			FileMetaInformation.addFileMetaInformation(list,transferSyntaxUID,sourceApplicationEntityTitle);
+			metrics.deidentifyingTime.addAndGet(System.nanoTime()-startTime);
+
+			startTime = System.nanoTime();
+			FileOutputStream fo = new FileOutputStream(temporaryFile);
+			try {
+				DicomOutputStream o = new DicomOutputStream(new BufferedOutputStream(fo,bufferSize),TransferSyntax.ExplicitVRLittleEndian,transferSyntaxUID);
+				list.write(o,true/*useMeta*/);
+				metrics.writingTime.addAndGet(System.nanoTime()-startTime);
+				if (readEntirely) {
+					metrics.filesReadEntirely.incrementAndGet();
+				}
+				else {
+					startTime = System.nanoTime();
+					long copied = copyPixelData(i,o,transferSyntax.isExplicitVR());
+					if (copied >= 0) {
+						metrics.pixelDataBytesCopied.addAndGet(copied);
+						metrics.copyingPixelDataTime.addAndGet(System.nanoTime()-startTime);
+
+						startTime = System.nanoTime();
+						AttributeList trailingList = new AttributeList();
+						trailingList.read(i);
+						metrics.readingTime.addAndGet(System.nanoTime()-startTime);
+						if (!trailingList.isEmpty()) {
+							startTime = System.nanoTime();
+							deidentifyTrailingAttributes(trailingList);
+							metrics.deidentifyingTime.addAndGet(System.nanoTime()-startTime);
+							startTime = System.nanoTime();
+							trailingList.write(o,false/*useMeta*/);
+							metrics.writingTime.addAndGet(System.nanoTime()-startTime);
+						}
+					}
+				}
+				startTime = System.nanoTime();
+				o.close();
+				metrics.writingTime.addAndGet(System.nanoTime()-startTime);
+			}
+			finally {
+				fo.close();
+			}
+			if (!temporaryFile.renameTo(outputFile)) {
+				throw new IOException("Could not rename "+temporaryFile+" to "+outputFile);
+			}
+			complete = true;
+		}
+		finally {
+			i.close();
+			if (!complete) {
+				temporaryFile.delete();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * <p>De-identify one file found in the input folder, unless it has already been done, and record the outcome.</p>
+	 *
+	 * @param	inputFile
+	 * @param	outputFile
+	 */
+	private void deidentifyIfNotAlreadyDone(File inputFile,File outputFile) {
+		try {
+			if (outputFile.exists()) {
+				metrics.filesAlreadyDone.incrementAndGet();
+			}
+			else {
+				File outputFolder = outputFile.getParentFile();
+				if (!outputFolder.mkdirs() && !outputFolder.isDirectory()) {	// another thread may have just made it
+					throw new IOException("Could not create folder "+outputFolder);
+				}
+				if (deidentify(inputFile,outputFile)) {
+					metrics.filesDeidentified.incrementAndGet();
+				}
+				else {
+					metrics.filesIgnored.incrementAndGet();
+				}
+			}
+		}
+		catch (Exception e) {
+			System.err.println("Could not de-identify "+inputFile+" - "+e);
+			metrics.filesFailed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * <p>De-identify every file in a folder and its sub-folders.</p>
+	 *
+	 * <p>The folder is walked in order of name on the calling thread, and each file found is de-identified by one of the worker threads.
+	 * If all the workers are busy and enough files are waiting, the calling thread de-identifies the next file itself, so files are never found much faster
+	 * than they can be de-identified.</p>
+	 *
+	 * <p>Files that are not DICOM, or cannot be de-identified, are reported and counted, but do not stop the batch.</p>
+	 *
+	 * @param	inputFolder		the folder of files to de-identify
+	 * @param	outputFolder		the folder in which to create a de-identified file at the same relative path as each input file
+	 * @param	threads			the number of worker threads
+	 * @return				the counts and times
+	 * @exception	IOException	if the output folder is within the input folder, or interrupted
+	 */
+	public Metrics deidentify(File inputFolder,File outputFolder,int threads) throws IOException {
+		long startTime = System.nanoTime();
+		final String inputPath = inputFolder.getCanonicalPath();
+		final File canonicalOutputFolder = outputFolder.getCanonicalFile();
+		if ((canonicalOutputFolder.getPath()+File.separator).startsWith(inputPath+File.separator)) {
+			throw new IOException("Output folder "+outputFolder+" must not be within input folder "+inputFolder);
+		}
+		AttributeList.getDictionary();		// make sure the shared dictionary is loaded once, before any thread needs it
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(threads,threads,0,TimeUnit.MILLISECONDS,new ArrayBlockingQueue<Runnable>(threads*4),
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r,"BatchDeidentifier Worker");
+					t.setDaemon(true);
+					return t;
+				}
+			},
+			new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			ArrayDeque<File> pending = new ArrayDeque<File>();
+			pending.push(new File(inputPath));
+			while (!pending.isEmpty()) {
+				long findingStartTime = System.nanoTime();
+				File file = pending.pop();
+				if (file.isDirectory()) {
+					File[] filesAndDirectories = file.listFiles((FilenameFilter)null);	// null FilenameFilter means all names
+					if (filesAndDirectories != null) {
+						Arrays.sort(filesAndDirectories);
+						for (int f=filesAndDirectories.length-1; f>=0; --f) {		// pushed in reverse, so popped in order
+							pending.push(filesAndDirectories[f]);
+						}
+					}
+					metrics.findingTime.addAndGet(System.nanoTime()-findingStartTime);
+				}
+				else if (file.isFile() && !file.getName().endsWith(temporarySuffix)) {
+					final File inputFile = file;
+					final File outputFile = new File(canonicalOutputFolder,file.getPath().substring(inputPath.length()));
+					metrics.filesFound.incrementAndGet();
+					metrics.findingTime.addAndGet(System.nanoTime()-findingStartTime);
+					workers.execute(new Runnable() {
+						public void run() {
+							deidentifyIfNotAlreadyDone(inputFile,outputFile);
+						}
+					});
+				}
+			}
+			workers.shutdown();
+			while (!workers.awaitTermination(1,TimeUnit.SECONDS)) {
+			}
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("De-identification interrupted");
+		}
+		finally {
+			workers.shutdownNow();
+			metrics.elapsedTime.set(System.nanoTime()-startTime);
+		}
+		return metrics;
+	}
+
+	/**
+	 * <p>De-identify every file in a folder and its sub-folders, remapping UIDs.</p>
+	 *
+	 * @param	arg	the input folder, the output folder, optionally the number of threads (default the number of processors),
+	 *			then optionally a file in which to keep remapped UIDs so that they are the same when the batch is resumed
+	 */
+	public static void main(String arg[]) {
+		try {
+			int threads = arg.length > 2 ? Integer.parseInt(arg[2]) : Runtime.getRuntime().availableProcessors();
+			UIDRemapStore store = arg.length > 3 ? new UIDRemapStoreOnDisk(new File(arg[3])) : new UIDRemapStoreInMemory();
+			try {
+				BatchDeidentifier deidentifier = new BatchDeidentifier(ClinicalTrialsAttributes.HandleUIDs.remap,
+					false/*keepDescriptors*/,false/*keepSeriesDescriptors*/,false/*keepPatientCharacteristics*/,false/*keepDeviceIdentity*/,false/*keepInstitutionIdentity*/,store);
+				System.err.println(deidentifier.deidentify(new File(arg[0]),new File(arg[1]),threads));
+			}
+			finally {
+				store.close();
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>A class of static methods to make the synthetic files used by the benchmarks when none is supplied.</p>
+ */
+class BenchmarkFiles {
+
+	private BenchmarkFiles() {}
+
+	/**
+	 * <p>Write a synthetic multi-frame object with 16 bit Pixel Data, in Explicit VR Little Endian with a meta information header.</p>
+	 *
+	 * <p>The Pixel Data element is written one frame at a time, so that it never needs to be on the heap.</p>
+	 *
+	 * @param	file		the file to write
+	 * @param	rows
+	 * @param	columns
+	 * @param	frames
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	static void writeMultiFrameFile(File file,int rows,int columns,int frames) throws IOException, DicomException {
+		long vl = ((long)rows)*columns*2*frames;
+		AttributeList list = new AttributeList();
+		{ Attribute a = new UniqueIdentifierAttribute(TagFromName.SOPClassUID); a.addValue(SOPClass.MultiframeGrayscaleWordSecondaryCaptureImageStorage); list.put(a); }
+		{ Attribute a = new UniqueIdentifierAttribute(TagFromName.SOPInstanceUID); a.addValue(new UIDGenerator().getAnotherNewUID()); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.Rows); a.addValue(rows); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.Columns); a.addValue(columns); list.put(a); }
+		{ Attribute a = new IntegerStringAttribute(TagFromName.NumberOfFrames); a.addValue(frames); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.SamplesPerPixel); a.addValue(1); list.put(a); }
+		{ Attribute a = new CodeStringAttribute(TagFromName.PhotometricInterpretation); a.addValue("MONOCHROME2"); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.BitsAllocated); a.addValue(16); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.BitsStored); a.addValue(16); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.HighBit); a.addValue(15); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.PixelRepresentation); a.addValue(0); list.put(a); }
+		FileMetaInformation.addFileMetaInformation(list,TransferSyntax.ExplicitVRLittleEndian,"BENCHMARK");
+		BufferedOutputStream o = new BufferedOutputStream(new FileOutputStream(file));
+		DicomOutputStream dout = new DicomOutputStream(o,TransferSyntax.ExplicitVRLittleEndian,TransferSyntax.ExplicitVRLittleEndian);
+		list.write(dout,true);
+		// write the Pixel Data element ourselves, so as not to need it all on the heap ...
+		dout.writeUnsigned16(TagFromName.PixelData.getGroup());
+		dout.writeUnsigned16(TagFromName.PixelData.getElement());
+		dout.write(ValueRepresentation.OW,0,2);
+		dout.writeUnsigned16(0);
+		dout.writeUnsigned32(vl);
+		byte[] frame = new byte[rows*columns*2];
+		for (int f=0; f<frames; ++f) {
+			for (int p=0; p<frame.length; p+=2) {
+				int value = (p/2 + f) & 0x0fff;
+				frame[p] = (byte)value;
+				frame[p+1] = (byte)(value>>8);
+			}
+			dout.write(frame);
+		}
+		dout.close();
+	}
+}
@@ -4,6 +4,12 @@ package com.mycompany.pixelmedfork.dicom;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
 import java.util.Date;	// for test timing of routines
 
 /**
@@ -26,6 +32,21 @@ public class BinaryInputStream extends FilterInputStream {
 	byte buffer[];
 	/**/
 	File file;
+	/***/
+	private SharedFileChannel sharedFileChannel;		// created on demand
+
+	/***/
+	static final int arrayBufferSize = 32768;	// must be a multiple of 16 (complex double pairs)
+	/***/
+	private byte arrayBuffer[];			// for reading arrays in chunks, allocated on first use and reused thereafter
+	/***/
+	private boolean arrayBufferViewsAreBigEndian;
+	/***/
+	private ShortBuffer arrayShortBuffer;
+	/***/
+	private FloatBuffer arrayFloatBuffer;
+	/***/
+	private DoubleBuffer arrayDoubleBuffer;
 
 	/**
 	 * @param	big
@@ -35,6 +56,24 @@ public class BinaryInputStream extends FilterInputStream {
 		buffer=new byte[8];
 	}
 
+	/**
+	 * <p>Make sure the chunk buffer used for reading arrays exists, and that the views of it have the current byte order.</p>
+	 *
+	 * <p>The views are only recreated if the byte order has changed since they were last used.</p>
+	 */
+	private void makeArrayBufferViewsIfNecessary() {
+		if (arrayBuffer == null || arrayBufferViewsAreBigEndian != bigEndian) {
+			if (arrayBuffer == null) {
+				arrayBuffer = new byte[arrayBufferSize];
+			}
+			ByteBuffer bb = ByteBuffer.wrap(arrayBuffer).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			arrayShortBuffer = bb.asShortBuffer();
+			arrayFloatBuffer = bb.asFloatBuffer();
+			arrayDoubleBuffer = bb.asDoubleBuffer();
+			arrayBufferViewsAreBigEndian = bigEndian;
+		}
+	}
+
 	/**
 	 * <p>Construct a byte ordered stream from the supplied file.</p>
 	 *
@@ -77,7 +116,21 @@ public class BinaryInputStream extends FilterInputStream {
 	 *
 	 * @param	file	the file associated with this stream, or null if not a file input stream
 	 */
-	public void setFile(File file) { this.file=file; }
+	public void setFile(File file) { this.file=file; sharedFileChannel=null; }
+
+	/**
+	 * <p>Get a channel on the file associated with this stream, to be shared by all the attributes read from this stream whose values are left on disk.</p>
+	 *
+	 * <p>The file is not opened until the channel is used.</p>
+	 *
+	 * @return	the shared channel, or null if not a file input stream
+	 */
+	public SharedFileChannel getSharedFileChannel() {
+		if (sharedFileChannel == null && file != null) {
+			sharedFileChannel = new SharedFileChannel(file);
+		}
+		return sharedFileChannel;
+	}
 
 	/**
 	 * <p>Is the stream byte order big endian ?</p>
@@ -310,36 +363,17 @@ public class BinaryInputStream extends FilterInputStream {
 	 * @exception	IOException
 	 */
 	public final void readUnsigned16(short[] w,int offset,int len) throws IOException {
-		int blen = len*2;
-		byte  b[] = new byte[blen];
-		readInsistently(b,0,blen);
-		int bcount=0;
-		int wcount=0;
-		//long starttime=new Date().getTime();
-		//System.err.println("readUnsigned16: ready to convert at: 0");
-		if (bigEndian) {
-			while (wcount<len) {
-				int highByte=((int)b[bcount++])&0xff;
-				int  lowByte=((int)b[bcount++])&0xff;
-				short value=(short)((highByte<<8) + lowByte);
-				w[offset+wcount++]=(short)value;
-			}
-		}
-		else {
-			//while (wcount<len) {
-			for (;wcount<len;++wcount) {
-				//int  lowByte=((int)b[bcount++])&0xff;
-				//int highByte=((int)b[bcount++])&0xff;
-				//short value=(short)((highByte<<8) + lowByte);
-				//w[wcount++]=(short)value;
-				//w[wcount++]=(short)((b[bcount+1]<<8) + (b[bcount]&0xff));
-				//w[wcount++]=(short)((b[bcount++]&0xff) + (b[bcount++]<<8));	// assumes left to right evaluation
-				w[offset+wcount]=(short)((b[bcount++]&0xff) + (b[bcount++]<<8));	// assumes left to right evaluation
-				//bcount++; bcount++;
-				//bcount+=2;
-			}
+		// read through a reused chunk buffer and let a view of it in the right byte order do the conversion, rather than allocating the whole array as bytes
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/2;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			readInsistently(arrayBuffer,0,n*2);
+			arrayShortBuffer.clear();
+			arrayShortBuffer.get(w,offset,n);
+			offset+=n;
+			len-=n;
 		}
-		//System.err.println("readUnsigned16: exit at: "+(new Date().getTime()-starttime));
 	}
 	
 	/**
@@ -350,7 +384,17 @@ public class BinaryInputStream extends FilterInputStream {
 	 * @exception	IOException
 	 */
 	public final void readFloat(float[] f,int len) throws IOException {
-		for (int i=0; i<len; ++i) f[i]=readFloat();
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/4;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			readInsistently(arrayBuffer,0,n*4);
+			arrayFloatBuffer.clear();
+			arrayFloatBuffer.get(f,offset,n);
+			offset+=n;
+			len-=n;
+		}
 	}
 
 	/**
@@ -362,11 +406,18 @@ public class BinaryInputStream extends FilterInputStream {
 	 * @exception	IOException
 	 */
 	public final void readComplexFloat(float[] freal,float[] fimaginary,int len) throws IOException {
-		for (int i=0; i<len; ++i) {
-			float vreal=readFloat();
-			float vimaginary=readFloat();
-			if (freal != null) freal[i]=vreal;
-			if (fimaginary != null) fimaginary[i]=vimaginary;
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/8;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			readInsistently(arrayBuffer,0,n*8);
+			for (int i=0; i<n; ++i) {
+				if (freal != null) freal[offset+i]=arrayFloatBuffer.get(i*2);
+				if (fimaginary != null) fimaginary[offset+i]=arrayFloatBuffer.get(i*2+1);
+			}
+			offset+=n;
+			len-=n;
 		}
 	}
 
@@ -378,7 +429,17 @@ public class BinaryInputStream extends FilterInputStream {
 	 * @exception	IOException
 	 */
 	public final void readDouble(double[] f,int len) throws IOException {
-		for (int i=0; i<len; ++i) f[i]=readDouble();
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/8;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			readInsistently(arrayBuffer,0,n*8);
+			arrayDoubleBuffer.clear();
+			arrayDoubleBuffer.get(f,offset,n);
+			offset+=n;
+			len-=n;
+		}
 	}
 
 	/**
@@ -390,11 +451,18 @@ public class BinaryInputStream extends FilterInputStream {
 	 * @exception	IOException
 	 */
 	public final void readComplexDouble(double[] freal,double[] fimaginary,int len) throws IOException {
-		for (int i=0; i<len; ++i) {
-			double vreal=readDouble();
-			double vimaginary=readDouble();
-			if (freal != null) freal[i]=vreal;
-			if (fimaginary != null) fimaginary[i]=vimaginary;
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/16;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			readInsistently(arrayBuffer,0,n*16);
+			for (int i=0; i<n; ++i) {
+				if (freal != null) freal[offset+i]=arrayDoubleBuffer.get(i*2);
+				if (fimaginary != null) fimaginary[offset+i]=arrayDoubleBuffer.get(i*2+1);
+			}
+			offset+=n;
+			len-=n;
 		}
 	}
 
@@ -4,6 +4,14 @@ package com.mycompany.pixelmedfork.dicom;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 import java.util.Date;	// for test timing of routines
 
 /**
@@ -26,6 +34,23 @@ public class BinaryOutputStream extends FilterOutputStream {
 	byte buffer[];
 	/***/
 	protected long byteOffset;
+
+	/***/
+	static final int arrayBufferSize = 32768;	// must be a multiple of 8
+	/***/
+	private byte arrayBuffer[];			// for writing arrays in chunks, allocated on first use and reused thereafter
+	/***/
+	private boolean arrayBufferViewsAreBigEndian;
+	/***/
+	private ShortBuffer arrayShortBuffer;
+	/***/
+	private FloatBuffer arrayFloatBuffer;
+	/***/
+	private DoubleBuffer arrayDoubleBuffer;
+	/***/
+	private WritableByteChannel underlyingChannel;	// null if not known, or if bytes written are not written unchanged to a channel
+	/***/
+	private boolean useGatheringWrites;
 	
 	/**
 	 * <p>Get the byte offset where the next byte will be written.</p>
@@ -45,6 +70,24 @@ public class BinaryOutputStream extends FilterOutputStream {
 		byteOffset = 0;
 	}
 
+	/**
+	 * <p>Make sure the chunk buffer used for writing arrays exists, and that the views of it have the current byte order.</p>
+	 *
+	 * <p>The views are only recreated if the byte order has changed since they were last used.</p>
+	 */
+	private void makeArrayBufferViewsIfNecessary() {
+		if (arrayBuffer == null || arrayBufferViewsAreBigEndian != bigEndian) {
+			if (arrayBuffer == null) {
+				arrayBuffer = new byte[arrayBufferSize];
+			}
+			ByteBuffer bb = ByteBuffer.wrap(arrayBuffer).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			arrayShortBuffer = bb.asShortBuffer();
+			arrayFloatBuffer = bb.asFloatBuffer();
+			arrayDoubleBuffer = bb.asDoubleBuffer();
+			arrayBufferViewsAreBigEndian = bigEndian;
+		}
+	}
+
 	// Overload the write(byte[],int,int) method because otherwise the default
 	// method in FilterOutputStream calls the single byte write method,
 	// which is very slow - fixes [bugs.mrmf] (000230) Much slower network performance when transfer syntaxes differ
@@ -101,8 +144,71 @@ public class BinaryOutputStream extends FilterOutputStream {
 	public BinaryOutputStream(OutputStream o,boolean big) {
 		super(o);
 		localInit(big);
+		if (o instanceof FileOutputStream) {
+			underlyingChannel = ((FileOutputStream)o).getChannel();
+		}
 	}
 
+	/**
+	 * <p>Set the channel to which the bytes written to this stream are ultimately written.</p>
+	 *
+	 * <p>This may be used if constructed from a {@link java.io.BufferedOutputStream BufferedOutputStream} on a
+	 * {@link java.io.FileOutputStream FileOutputStream}, so that large values may be transferred to the file directly.
+	 * It must not be used if anything between this stream and the channel changes the bytes, e.g., compresses them.</p>
+	 *
+	 * <p>Not needed if constructed from a {@link java.io.FileOutputStream FileOutputStream}, in which case its channel is used.</p>
+	 *
+	 * @param	channel	the channel, or null if none
+	 */
+	public void setUnderlyingChannel(WritableByteChannel channel) { underlyingChannel=channel; }
+
+	/**
+	 * <p>Flush the stream and get the channel to which the bytes written to this stream are ultimately written.</p>
+	 *
+	 * <p>Bytes may then be written directly to the channel, after which {@link #wroteToUnderlyingChannel(long) wroteToUnderlyingChannel()}
+	 * must be called to keep the byte offset of the stream correct.</p>
+	 *
+	 * @return			the channel, or null if none
+	 * @exception	IOException
+	 */
+	public WritableByteChannel flushAndGetUnderlyingChannel() throws IOException {
+		if (underlyingChannel != null) {
+			flush();
+		}
+		return underlyingChannel;
+	}
+
+	/**
+	 * <p>Set whether or not large values held in memory may be written to the underlying channel together with their preamble, in one gathering write.</p>
+	 *
+	 * @param	useGatheringWrites	true if gathering writes may be used; default is false
+	 */
+	public void setUseGatheringWrites(boolean useGatheringWrites) { this.useGatheringWrites=useGatheringWrites; }
+
+	/**
+	 * <p>Flush the stream and get the channel to which the bytes written to this stream are ultimately written, if gathering writes are to be used.</p>
+	 *
+	 * <p>Bytes may then be written directly to the channel, after which {@link #wroteToUnderlyingChannel(long) wroteToUnderlyingChannel()}
+	 * must be called to keep the byte offset of the stream correct.</p>
+	 *
+	 * @return			the channel, or null if gathering writes are not to be used or the underlying channel does not support them
+	 * @exception	IOException
+	 */
+	public GatheringByteChannel flushAndGetUnderlyingGatheringChannel() throws IOException {
+		if (useGatheringWrites && underlyingChannel instanceof GatheringByteChannel) {
+			flush();
+			return (GatheringByteChannel)underlyingChannel;
+		}
+		return null;
+	}
+
+	/**
+	 * <p>Account for bytes written directly to the channel returned by {@link #flushAndGetUnderlyingChannel() flushAndGetUnderlyingChannel()}.</p>
+	 *
+	 * @param	length	the number of bytes written to the channel
+	 */
+	public void wroteToUnderlyingChannel(long length) { byteOffset+=length; }
+
 	//public BinaryFileOutputStream(String name,boolean big) throws FileNotFoundException {
 	//	super(name);
 	//	localInit(big);
@@ -317,27 +423,18 @@ public class BinaryOutputStream extends FilterOutputStream {
 	 * @exception	IOException
 	 */
 	public final void writeUnsigned16(short[] w,int len) throws IOException {
-		byte  b[] = new byte[len*2];
-		int bcount=0;
-		int wcount=0;
-		//long starttime=new Date().getTime();
-		//System.err.println("writeUnsigned16: write to convert at: 0");
-		if (bigEndian) {
-			while (wcount<len) {
-				short value=w[wcount++];
-				b[bcount++]=(byte)(value>>8);
-				b[bcount++]=(byte)value;
-			}
-		}
-		else {
-			while (wcount<len) {
-				short value=w[wcount++];
-				b[bcount++]=(byte)value;
-				b[bcount++]=(byte)(value>>8);
-			}
+		// convert through a reused chunk buffer with a view of it in the right byte order, rather than allocating the whole array as bytes
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/2;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			arrayShortBuffer.clear();
+			arrayShortBuffer.put(w,offset,n);
+			write(arrayBuffer,0,n*2);
+			offset+=n;
+			len-=n;
 		}
-		//System.err.println("writeUnsigned16: exit at: "+(new Date().getTime()-starttime));
-		write(b,0,(len*2));
 	}
 
 	/**
@@ -348,7 +445,17 @@ public class BinaryOutputStream extends FilterOutputStream {
 	 * @exception	IOException
 	 */
 	public final void writeFloat(float[] f,int len) throws IOException {
-		for (int i=0; i<len; ++i) writeFloat(f[i]);
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/4;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			arrayFloatBuffer.clear();
+			arrayFloatBuffer.put(f,offset,n);
+			write(arrayBuffer,0,n*4);
+			offset+=n;
+			len-=n;
+		}
 	}
 
 	/**
@@ -359,7 +466,17 @@ public class BinaryOutputStream extends FilterOutputStream {
 	 * @exception	IOException
 	 */
 	public final void writeDouble(double[] f,int len) throws IOException {
-		for (int i=0; i<len; ++i) writeDouble(f[i]);
+		makeArrayBufferViewsIfNecessary();
+		int chunk = arrayBufferSize/8;
+		int offset = 0;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			arrayDoubleBuffer.clear();
+			arrayDoubleBuffer.put(f,offset,n);
+			write(arrayBuffer,0,n*8);
+			offset+=n;
+			len-=n;
+		}
 	}
 
 	/**
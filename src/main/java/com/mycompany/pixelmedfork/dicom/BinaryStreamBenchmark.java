@@ -0,0 +1,190 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * <p>A class to measure how quickly, and with how much allocation, arrays of OW, OF and FD values
+ * are read and written by {@link com.pixelmed.dicom.BinaryInputStream BinaryInputStream} and
+ * {@link com.pixelmed.dicom.BinaryOutputStream BinaryOutputStream}, in both byte orders.</p>
+ *
+ * <p>The payloads are held in memory, so that what is measured is the byte order conversion and not the I/O.
+ * For comparison, the same payloads are also read and written one value at a time.</p>
+ *
+ * <p>Allocation is measured with the per-thread allocation counter of the platform's
+ * {@link java.lang.management.ThreadMXBean ThreadMXBean}, if available.</p>
+ */
+public class BinaryStreamBenchmark {
+
+	private BinaryStreamBenchmark() {}
+
+	/***/
+	private static final String[] payloadNames = { "OW", "OF", "FD" };
+	/***/
+	private static final int[] bytesPerValue = { 2, 4, 8 };
+
+	/**
+	 * <p>Read the payload as an array of values of the type corresponding to the VR.</p>
+	 *
+	 * @param	payload	the index into payloadNames
+	 * @param	bytes	the encoded values
+	 * @param	big	the byte order
+	 * @param	bulk	if true use the array methods, otherwise read one value at a time
+	 * @param	values	an array of the right type and length to read into
+	 * @exception	IOException
+	 */
+	private static void read(int payload,byte[] bytes,boolean big,boolean bulk,Object values) throws IOException {
+		BinaryInputStream i = new BinaryInputStream(new ByteArrayInputStream(bytes),big);
+		switch (payload) {
+			case 0: {
+					short[] w = (short[])values;
+					if (bulk) {
+						i.readUnsigned16(w,w.length);
+					}
+					else {
+						for (int v=0; v<w.length; ++v) w[v]=(short)i.readUnsigned16();
+					}
+				}
+				break;
+			case 1: {
+					float[] f = (float[])values;
+					if (bulk) {
+						i.readFloat(f,f.length);
+					}
+					else {
+						for (int v=0; v<f.length; ++v) f[v]=i.readFloat();
+					}
+				}
+				break;
+			case 2: {
+					double[] d = (double[])values;
+					if (bulk) {
+						i.readDouble(d,d.length);
+					}
+					else {
+						for (int v=0; v<d.length; ++v) d[v]=i.readDouble();
+					}
+				}
+				break;
+		}
+	}
+
+	/**
+	 * <p>Write an array of values of the type corresponding to the VR.</p>
+	 *
+	 * @param	payload	the index into payloadNames
+	 * @param	out	where to write the encoded values
+	 * @param	big	the byte order
+	 * @param	bulk	if true use the array methods, otherwise write one value at a time
+	 * @param	values	the array of values to write
+	 * @exception	IOException
+	 */
+	private static void write(int payload,ByteArrayOutputStream out,boolean big,boolean bulk,Object values) throws IOException {
+		out.reset();
+		BinaryOutputStream o = new BinaryOutputStream(out,big);
+		switch (payload) {
+			case 0: {
+					short[] w = (short[])values;
+					if (bulk) {
+						o.writeUnsigned16(w,w.length);
+					}
+					else {
+						for (int v=0; v<w.length; ++v) o.writeUnsigned16(w[v]);
+					}
+				}
+				break;
+			case 1: {
+					float[] f = (float[])values;
+					if (bulk) {
+						o.writeFloat(f,f.length);
+					}
+					else {
+						for (int v=0; v<f.length; ++v) o.writeFloat(f[v]);
+					}
+				}
+				break;
+			case 2: {
+					double[] d = (double[])values;
+					if (bulk) {
+						o.writeDouble(d,d.length);
+					}
+					else {
+						for (int v=0; v<d.length; ++v) o.writeDouble(d[v]);
+					}
+				}
+				break;
+		}
+		o.flush();
+	}
+
+	/**
+	 * @param	payload	the index into payloadNames
+	 * @param	count	the number of values
+	 * @return		an array of the type corresponding to the VR filled with arbitrary values
+	 */
+	private static Object makeValues(int payload,int count) {
+		switch (payload) {
+			case 0: { short[] w = new short[count]; for (int v=0; v<count; ++v) w[v]=(short)(v*31); return w; }
+			case 1: { float[] f = new float[count]; for (int v=0; v<count; ++v) f[v]=v*0.5f; return f; }
+			default: { double[] d = new double[count]; for (int v=0; v<count; ++v) d[v]=v*0.25; return d; }
+		}
+	}
+
+	/**
+	 * @param	label
+	 * @param	bytes
+	 * @param	elapsed
+	 * @param	allocated
+	 */
+	private static void report(String label,long bytes,long elapsed,long allocated) {
+		System.err.println(label+": "+(elapsed/1000000)+" ms"
+			+", "+(long)(bytes/(elapsed/1e9)/(1024*1024))+" MB/s"
+			+(allocated < 0 ? "" : ", "+allocated+" bytes allocated"));
+	}
+
+	/**
+	 * <p>Time reading and writing OW, OF and FD payloads in both byte orders, using the array methods and one value at a time.</p>
+	 *
+	 * @param	arg	optionally the payload size in MB (default 64) and the number of repetitions (default 5)
+	 */
+	public static void main(String arg[]) {
+		try {
+			int megabytes = arg.length > 0 ? Integer.parseInt(arg[0]) : 64;
+			int repetitions = arg.length > 1 ? Integer.parseInt(arg[1]) : 5;
+			int length = megabytes*1024*1024;
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+			for (int payload=0; payload<payloadNames.length; ++payload) {
+				Object values = makeValues(payload,length/bytesPerValue[payload]);
+				for (int e=0; e<2; ++e) {
+					boolean big = e == 1;
+					write(payload,out,big,true,values);
+					byte[] bytes = out.toByteArray();
+					for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+						for (int m=0; m<2; ++m) {
+							boolean bulk = m == 0;
+							String label = "Pass "+r+" "+payloadNames[payload]+" "+(big ? "big   " : "little")+" endian "+(bulk ? "array   " : "by value");
+
+							long startAllocated = HeaderParseBenchmark.getCurrentThreadAllocatedBytes();
+							long startTime = System.nanoTime();
+							read(payload,bytes,big,bulk,values);
+							long elapsed = System.nanoTime() - startTime;
+							long allocated = startAllocated < 0 ? -1 : HeaderParseBenchmark.getCurrentThreadAllocatedBytes() - startAllocated;
+							if (r >= 0) report(label+" read ",length,elapsed,allocated);
+
+							startAllocated = HeaderParseBenchmark.getCurrentThreadAllocatedBytes();
+							startTime = System.nanoTime();
+							write(payload,out,big,bulk,values);
+							elapsed = System.nanoTime() - startTime;
+							allocated = startAllocated < 0 ? -1 : HeaderParseBenchmark.getCurrentThreadAllocatedBytes() - startAllocated;
+							if (r >= 0) report(label+" write",length,elapsed,allocated);
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
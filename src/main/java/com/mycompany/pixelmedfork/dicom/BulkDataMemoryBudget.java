@@ -0,0 +1,222 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.File;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A class to keep track, for the whole process, of how many bytes of bulk data (large OB and OW values, such as the Pixel Data)
+ * read by the {@link com.pixelmed.dicom.AttributeFactory AttributeFactory} are held on the heap, left in a memory mapping,
+ * or left on disk, and to limit how many bytes may be held on the heap.</p>
+ *
+ * <p>A {@link com.pixelmed.dicom.BulkDataPlacementPolicy BulkDataPlacementPolicy} reserves the bytes of a value before deciding to read it
+ * onto the heap, so that concurrent readers cannot together exceed the limit. The bytes are released when the attribute holding the value
+ * is garbage collected, i.e., when no list refers to it any more, not when it is merely removed from a list, so the count lags behind
+ * until the collector has run.</p>
+ *
+ * <p>Values shorter than {@link com.pixelmed.dicom.AttributeFactory#minimumBulkDataValueLength AttributeFactory.minimumBulkDataValueLength}
+ * and values created other than by reading them are not counted.</p>
+ *
+ * @see com.pixelmed.dicom.AttributeFactory#setBulkDataPlacementPolicy(BulkDataPlacementPolicy)
+ */
+public class BulkDataMemoryBudget {
+
+	private BulkDataMemoryBudget() {}
+
+	/***/
+	private static volatile long limit = Runtime.getRuntime().maxMemory()/2;
+
+	/***/
+	private static final AtomicLong[] residentBytes = { new AtomicLong(), new AtomicLong(), new AtomicLong() };	// indexed by placement
+	/***/
+	private static final AtomicLong[] numberPlaced = { new AtomicLong(), new AtomicLong(), new AtomicLong() };	// indexed by placement, never decreases
+	/***/
+	private static final AtomicLong numberOfRefusals = new AtomicLong();
+
+	/**
+	 * <p>A reference that is queued once the attribute holding a value has been collected.</p>
+	 */
+	private static class TrackedValue extends PhantomReference<Attribute> {
+		/***/
+		final int placement;
+		/***/
+		final long length;
+
+		TrackedValue(Attribute a,int placement,long length) {
+			super(a,collected);
+			this.placement = placement;
+			this.length = length;
+		}
+	}
+
+	/***/
+	private static final ReferenceQueue<Attribute> collected = new ReferenceQueue<Attribute>();
+	/***/
+	private static final Set<TrackedValue> tracked = Collections.newSetFromMap(new ConcurrentHashMap<TrackedValue,Boolean>());	// keeps the references reachable until queued
+
+	/**
+	 * <p>Release the bytes of values whose attributes have been collected.</p>
+	 */
+	private static void releaseCollected() {
+		Reference<? extends Attribute> r;
+		while ((r = collected.poll()) != null) {
+			TrackedValue t = (TrackedValue)r;
+			if (tracked.remove(t)) {
+//System.err.println("BulkDataMemoryBudget.releaseCollected(): releasing "+t.length+" bytes placed "+BulkDataPlacementPolicy.toString(t.placement));
+				residentBytes[t.placement].addAndGet(-t.length);
+			}
+		}
+	}
+
+	/**
+	 * <p>Set the maximum number of bytes of bulk data to hold on the heap.</p>
+	 *
+	 * @param	bytes	the limit, which defaults to half the maximum heap size
+	 */
+	public static void setLimit(long bytes) { limit = bytes; }
+
+	/**
+	 * @return	the maximum number of bytes of bulk data to hold on the heap
+	 */
+	public static long getLimit() { return limit; }
+
+	/**
+	 * <p>Reserve space on the heap for a value, if doing so would not exceed the limit.</p>
+	 *
+	 * @param	length	the number of bytes
+	 * @return		true if reserved, false if the limit would be exceeded
+	 */
+	public static boolean tryReserve(long length) {
+		releaseCollected();
+		AtomicLong heapBytes = residentBytes[BulkDataPlacementPolicy.HEAP];
+		while (true) {
+			long current = heapBytes.get();
+			if (current+length > limit) {
+				numberOfRefusals.incrementAndGet();
+				return false;
+			}
+			if (heapBytes.compareAndSet(current,current+length)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * <p>Reserve space on the heap for a value regardless of the limit.</p>
+	 *
+	 * <p>For use when there is no alternative to reading a value onto the heap, so that it is still counted.</p>
+	 *
+	 * @param	length	the number of bytes
+	 */
+	public static void reserve(long length) {
+		releaseCollected();
+		residentBytes[BulkDataPlacementPolicy.HEAP].addAndGet(length);
+	}
+
+	/**
+	 * <p>Release space reserved on the heap for a value that was not then read onto the heap after all.</p>
+	 *
+	 * @param	length	the number of bytes
+	 */
+	static void release(long length) {
+		residentBytes[BulkDataPlacementPolicy.HEAP].addAndGet(-length);
+	}
+
+	/**
+	 * <p>Count a value, until the attribute holding it is collected.</p>
+	 *
+	 * <p>The space for a value placed on the heap must already have been reserved.</p>
+	 *
+	 * @param	a		the attribute
+	 * @param	placement	where the value was placed
+	 * @param	length		the number of bytes
+	 */
+	static void track(Attribute a,int placement,long length) {
+		if (placement != BulkDataPlacementPolicy.HEAP) {
+			residentBytes[placement].addAndGet(length);
+		}
+		numberPlaced[placement].incrementAndGet();
+		tracked.add(new TrackedValue(a,placement,length));
+	}
+
+	/**
+	 * @return	the number of bytes of bulk data currently held on the heap (or reserved to be)
+	 */
+	public static long getHeapBytes() {
+		releaseCollected();
+		return residentBytes[BulkDataPlacementPolicy.HEAP].get();
+	}
+
+	/**
+	 * @return	the number of bytes of bulk data currently left in memory mappings
+	 */
+	public static long getMappedBytes() {
+		releaseCollected();
+		return residentBytes[BulkDataPlacementPolicy.MAPPED].get();
+	}
+
+	/**
+	 * @return	the number of bytes of bulk data currently left on disk
+	 */
+	public static long getOnDiskBytes() {
+		releaseCollected();
+		return residentBytes[BulkDataPlacementPolicy.ONDISK].get();
+	}
+
+	/**
+	 * @param	placement	one of {@link com.pixelmed.dicom.BulkDataPlacementPolicy#HEAP HEAP}, {@link com.pixelmed.dicom.BulkDataPlacementPolicy#MAPPED MAPPED} or {@link com.pixelmed.dicom.BulkDataPlacementPolicy#ONDISK ONDISK}
+	 * @return			the number of values that have been placed there since the process started
+	 */
+	public static long getNumberPlaced(int placement) {
+		return numberPlaced[placement].get();
+	}
+
+	/**
+	 * @return	the number of times a reservation has been refused because the limit would have been exceeded
+	 */
+	public static long getNumberOfRefusals() {
+		return numberOfRefusals.get();
+	}
+
+	/**
+	 * @return	a summary of the counters
+	 */
+	public static String getStatistics() {
+		return "Bulk data: heap "+getHeapBytes()+" of limit "+limit+" bytes, mapped "+getMappedBytes()+" bytes, on disk "+getOnDiskBytes()+" bytes; "
+			+"values placed on heap "+getNumberPlaced(BulkDataPlacementPolicy.HEAP)
+			+", mapped "+getNumberPlaced(BulkDataPlacementPolicy.MAPPED)
+			+", on disk "+getNumberPlaced(BulkDataPlacementPolicy.ONDISK)
+			+"; reservations refused "+getNumberOfRefusals();
+	}
+
+	/**
+	 * <p>Read files with the memory budget placement policy, keeping all the lists, and report the counters.</p>
+	 *
+	 * @param	arg	the limit in bytes, then the files to read
+	 */
+	public static void main(String arg[]) {
+		try {
+			setLimit(Long.parseLong(arg[0]));
+			AttributeFactory.setBulkDataPlacementPolicy(BulkDataPlacementPolicy.WITHINMEMORYBUDGET);
+			AttributeList[] lists = new AttributeList[arg.length-1];
+			for (int f=1; f<arg.length; ++f) {
+				lists[f-1] = new AttributeList();
+				lists[f-1].read(new File(arg[f]).getCanonicalPath());
+				System.err.println(arg[f]+": "+getStatistics());
+			}
+			lists = null;
+			System.gc();
+			System.err.println("After release: "+getStatistics());
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.mycompany.pixelmedfork.dicom;
+
+/**
+ * <p>This is an abstract class to support deciding where the {@link com.pixelmed.dicom.AttributeFactory AttributeFactory} places
+ * the values of bulk data (large OB and OW values, such as the Pixel Data) as they are read: on the heap, left in a memory mapping,
+ * or left on disk.</p>
+ *
+ * <p>Concrete subclasses implement various different policies, which may be instantiated themselves, or accessed by the enumerated fields in this class.
+ * The policy in use is set with {@link com.pixelmed.dicom.AttributeFactory#setBulkDataPlacementPolicy(BulkDataPlacementPolicy) AttributeFactory.setBulkDataPlacementPolicy()}
+ * and applies to the whole process.</p>
+ *
+ * <p>A policy that decides to place a value on the heap must first reserve the space for it in the {@link com.pixelmed.dicom.BulkDataMemoryBudget BulkDataMemoryBudget},
+ * either with {@link com.pixelmed.dicom.BulkDataMemoryBudget#tryReserve(long) tryReserve()}, which fails if the limit would be exceeded,
+ * or with {@link com.pixelmed.dicom.BulkDataMemoryBudget#reserve(long) reserve()}, which does not.</p>
+ *
+ * <p>A value is placed as decided only if possible:</p>
+ * <ul>
+ * <li>a value read from a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream} is always left in the mapping, unless left on disk</li>
+ * <li>a value read from any other stream on a file and not placed on the heap is left on disk, by an
+ * {@link com.pixelmed.dicom.OtherWordAttributeOnDisk OtherWordAttributeOnDisk} or {@link com.pixelmed.dicom.OtherByteAttributeOnDisk OtherByteAttributeOnDisk},
+ * the values of which are mapped on demand, and counted as mapped or on disk as decided</li>
+ * <li>a value read from a stream that is not on a file is always placed on the heap, and counted regardless of the limit</li>
+ * </ul>
+ */
+public abstract class BulkDataPlacementPolicy {
+
+	/**
+	 * <p>Read the value onto the heap.</p>
+	 */
+	public static final int HEAP = 0;
+
+	/**
+	 * <p>Leave the value in the file, accessed through a memory mapping.</p>
+	 */
+	public static final int MAPPED = 1;
+
+	/**
+	 * <p>Leave the value in the file, read only when needed.</p>
+	 */
+	public static final int ONDISK = 2;
+
+	protected BulkDataPlacementPolicy() {}
+
+	/**
+	 * <p>Leave Pixel Data of more than one byte per sample that is larger than 4096*4096*2 bytes on disk, and read everything else onto the heap
+	 * regardless of the budget, which is how values were always placed before there was a choice.</p>
+	 *
+	 * @see com.pixelmed.dicom.BulkDataPlacementPolicyThreshold
+	 */
+	public static final BulkDataPlacementPolicy LARGEPIXELDATAONDISK = new BulkDataPlacementPolicyThreshold(4096*4096*2);
+
+	/**
+	 * <p>Read values onto the heap until the limit of the {@link com.pixelmed.dicom.BulkDataMemoryBudget BulkDataMemoryBudget} is reached,
+	 * and then leave them in a memory mapping or on disk.</p>
+	 *
+	 * @see com.pixelmed.dicom.BulkDataPlacementPolicyMemoryBudget
+	 */
+	public static final BulkDataPlacementPolicy WITHINMEMORYBUDGET = new BulkDataPlacementPolicyMemoryBudget();
+
+	/**
+	 * <p>Get the default policy.</p>
+	 * @return		the default policy (which is LARGEPIXELDATAONDISK)
+	 */
+	public static final BulkDataPlacementPolicy getDefaultPolicy() { return LARGEPIXELDATAONDISK; }
+
+	/**
+	 * <p>Decide where to place a value.</p>
+	 *
+	 * @param	tag			the tag of the attribute
+	 * @param	vl			the value length of the attribute
+	 * @param	bytesPerSample		1 or 2 bytes per sample if Pixel Data
+	 * @param	canBeMapped		whether the stream is a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream}
+	 * @param	canBeLeftOnDisk		whether the stream is on a file
+	 * @return				one of HEAP, MAPPED or ONDISK, having reserved the space for the value if HEAP
+	 */
+	public abstract int getPlacement(AttributeTag tag,long vl,int bytesPerSample,boolean canBeMapped,boolean canBeLeftOnDisk);
+
+	/**
+	 * @param	placement	one of HEAP, MAPPED or ONDISK
+	 * @return			a description of the placement
+	 */
+	public static String toString(int placement) {
+		return placement == HEAP ? "heap" : (placement == MAPPED ? "mapped" : (placement == ONDISK ? "on disk" : "unrecognized placement "+placement));
+	}
+}
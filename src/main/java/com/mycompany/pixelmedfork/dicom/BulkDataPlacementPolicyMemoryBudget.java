@@ -0,0 +1,57 @@
+package com.mycompany.pixelmedfork.dicom;
+
+/**
+ * <p>A policy to read bulk data onto the heap only while the limit of the {@link com.pixelmed.dicom.BulkDataMemoryBudget BulkDataMemoryBudget}
+ * will not be exceeded, and otherwise to leave it on disk, so that many lists read at the same time, e.g., by many concurrent
+ * associations, cannot together exhaust the heap.</p>
+ *
+ * <p>Values read from a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream} are always left in the mapping, since
+ * they then take no space on the heap. Values read from a stream that is not on a file have to be read onto the heap even if
+ * the limit is exceeded.</p>
+ *
+ * @see com.pixelmed.dicom.BulkDataPlacementPolicy#WITHINMEMORYBUDGET
+ */
+public class BulkDataPlacementPolicyMemoryBudget extends BulkDataPlacementPolicy {
+
+	/***/
+	private long maximumInMemoryValueLength;
+
+	/**
+	 * <p>Read any value onto the heap that is within the budget.</p>
+	 */
+	public BulkDataPlacementPolicyMemoryBudget() {
+		this(Long.MAX_VALUE);
+	}
+
+	/**
+	 * <p>Read values onto the heap that are within the budget and no larger than the specified length.</p>
+	 *
+	 * @param	maximumInMemoryValueLength	the largest value length to read onto the heap when it can be left on disk
+	 */
+	public BulkDataPlacementPolicyMemoryBudget(long maximumInMemoryValueLength) {
+		this.maximumInMemoryValueLength = maximumInMemoryValueLength;
+	}
+
+	/**
+	 * @param	tag			the tag of the attribute
+	 * @param	vl			the value length of the attribute
+	 * @param	bytesPerSample		1 or 2 bytes per sample if Pixel Data
+	 * @param	canBeMapped		whether the stream is a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream}
+	 * @param	canBeLeftOnDisk		whether the stream is on a file
+	 * @return				MAPPED if possible, else HEAP if within the budget, else ONDISK if possible, else HEAP
+	 */
+	public int getPlacement(AttributeTag tag,long vl,int bytesPerSample,boolean canBeMapped,boolean canBeLeftOnDisk) {
+		if (canBeMapped) {
+			return MAPPED;
+		}
+		if (!canBeLeftOnDisk) {
+			BulkDataMemoryBudget.reserve(vl);
+			return HEAP;
+		}
+		if (vl <= maximumInMemoryValueLength && BulkDataMemoryBudget.tryReserve(vl)) {
+			return HEAP;
+		}
+//System.err.println("BulkDataPlacementPolicyMemoryBudget.getPlacement(): leaving "+vl+" bytes of "+tag+" on disk");
+		return ONDISK;
+	}
+}
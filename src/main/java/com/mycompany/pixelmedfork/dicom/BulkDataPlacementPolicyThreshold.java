@@ -0,0 +1,41 @@
+package com.mycompany.pixelmedfork.dicom;
+
+/**
+ * <p>A policy to leave Pixel Data of more than one byte per sample on disk if it is larger than a fixed threshold, and to
+ * read all other bulk data onto the heap regardless of the {@link com.pixelmed.dicom.BulkDataMemoryBudget BulkDataMemoryBudget}.</p>
+ *
+ * <p>Values read from a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream} are left in the mapping.</p>
+ *
+ * @see com.pixelmed.dicom.BulkDataPlacementPolicy#LARGEPIXELDATAONDISK
+ */
+public class BulkDataPlacementPolicyThreshold extends BulkDataPlacementPolicy {
+
+	/***/
+	private long maximumInMemoryPixelDataValueLength;
+
+	/**
+	 * @param	maximumInMemoryPixelDataValueLength	the largest Pixel Data value length to read onto the heap
+	 */
+	public BulkDataPlacementPolicyThreshold(long maximumInMemoryPixelDataValueLength) {
+		this.maximumInMemoryPixelDataValueLength = maximumInMemoryPixelDataValueLength;
+	}
+
+	/**
+	 * @param	tag			the tag of the attribute
+	 * @param	vl			the value length of the attribute
+	 * @param	bytesPerSample		1 or 2 bytes per sample if Pixel Data
+	 * @param	canBeMapped		whether the stream is a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream}
+	 * @param	canBeLeftOnDisk		whether the stream is on a file
+	 * @return				MAPPED if possible, else ONDISK if large Pixel Data, else HEAP
+	 */
+	public int getPlacement(AttributeTag tag,long vl,int bytesPerSample,boolean canBeMapped,boolean canBeLeftOnDisk) {
+		if (canBeMapped) {
+			return MAPPED;
+		}
+		if (canBeLeftOnDisk && tag.equals(TagFromName.PixelData) && bytesPerSample > 1 && vl > maximumInMemoryPixelDataValueLength) {
+			return ONDISK;
+		}
+		BulkDataMemoryBudget.reserve(vl);
+		return HEAP;
+	}
+}
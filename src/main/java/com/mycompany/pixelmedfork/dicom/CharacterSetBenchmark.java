@@ -0,0 +1,193 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+
+/**
+ * <p>A class to measure how quickly data sets with many string values are read and decoded by {@link com.pixelmed.dicom.SpecificCharacterSet SpecificCharacterSet}.</p>
+ *
+ * <p>Synthetic Explicit VR Little Endian data sets are created with a Content Sequence of many items, each with a Person Name and a Text Value,
+ * in ISO 2022 IR 87 Japanese, ISO 2022 IR 149 Korean, ISO_IR 192 (UTF-8) Chinese and ISO_IR 100 with only ASCII values. Each item has
+ * its own Specific Character Set, so the handler is looked up for every item. Each data set is read repeatedly and every string value decoded.</p>
+ */
+public class CharacterSetBenchmark {
+
+	private CharacterSetBenchmark() {}
+
+	/***/
+	private static final byte[] japaneseExample = {		// from PS 3.5 H.3.1
+		(byte)0x59,(byte)0x61,(byte)0x6d,(byte)0x61,(byte)0x64,(byte)0x61,(byte)0x5e,(byte)0x54,(byte)0x61,(byte)0x72,(byte)0x6f,(byte)0x75,(byte)0x3d,(byte)0x1b,
+		(byte)0x24,(byte)0x42,(byte)0x3b,(byte)0x33,(byte)0x45,(byte)0x44,(byte)0x1b,(byte)0x28,(byte)0x42,(byte)0x5e,(byte)0x1b,(byte)0x24,(byte)0x42,(byte)0x42,
+		(byte)0x40,(byte)0x4f,(byte)0x3a,(byte)0x1b,(byte)0x28,(byte)0x42,(byte)0x3d,(byte)0x1b,(byte)0x24,(byte)0x42,(byte)0x24,(byte)0x64,(byte)0x24,(byte)0x5e,
+		(byte)0x24,(byte)0x40,(byte)0x1b,(byte)0x28,(byte)0x42,(byte)0x5e,(byte)0x1b,(byte)0x24,(byte)0x42,(byte)0x24,(byte)0x3f,(byte)0x24,(byte)0x6d,(byte)0x24,
+		(byte)0x26,(byte)0x1b,(byte)0x28,(byte)0x42
+	};
+
+	/***/
+	private static final byte[] koreanExample = {		// from PS 3.5 I.2
+		(byte)0x48,(byte)0x6f,(byte)0x6e,(byte)0x67,(byte)0x5e,(byte)0x47,(byte)0x69,(byte)0x6c,(byte)0x64,(byte)0x6f,(byte)0x6e,(byte)0x67,(byte)0x3d,
+		(byte)0x1b,(byte)0x24,(byte)0x29,(byte)0x43,(byte)0xfb,(byte)0xf3,(byte)0x5e,(byte)0x1b,(byte)0x24,(byte)0x29,(byte)0x43,(byte)0xd1,(byte)0xce,
+		(byte)0xd4,(byte)0xd7,(byte)0x3d,(byte)0x1b,(byte)0x24,(byte)0x29,(byte)0x43,(byte)0xc8,(byte)0xab,(byte)0x5e,(byte)0x1b,(byte)0x24,(byte)0x29,
+		(byte)0x43,(byte)0xb1,(byte)0xe6,(byte)0xb5,(byte)0xbf
+	};
+
+	/***/
+	private static final byte[] chineseExample = {		// from PS 3.5 J.1
+		(byte)0x57,(byte)0x61,(byte)0x6e,(byte)0x67,(byte)0x5e,(byte)0x58,(byte)0x69,(byte)0x61,(byte)0x6f,(byte)0x44,(byte)0x6f,(byte)0x6e,(byte)0x67,(byte)0x3d,
+		(byte)0xe7,(byte)0x8e,(byte)0x8b,(byte)0x5e,(byte)0xe5,(byte)0xb0,(byte)0x8f,(byte)0xe6,(byte)0x9d,(byte)0xb1,(byte)0x3d
+	};
+
+	/**
+	 * @param	o
+	 * @param	tag
+	 * @param	vr
+	 * @param	value
+	 * @exception	Exception
+	 */
+	private static void writeShortElement(BinaryOutputStream o,AttributeTag tag,byte[] vr,byte[] value) throws Exception {
+		o.writeUnsigned16(tag.getGroup());
+		o.writeUnsigned16(tag.getElement());
+		o.write(vr);
+		int length = value.length;
+		boolean pad = length%2 != 0;
+		o.writeUnsigned16(pad ? length+1 : length);
+		o.write(value);
+		if (pad) o.write((byte)' ');
+	}
+
+	/**
+	 * @param	o
+	 * @param	tag
+	 * @param	vr
+	 * @param	value
+	 * @exception	Exception
+	 */
+	private static void writeLongElement(BinaryOutputStream o,AttributeTag tag,byte[] vr,byte[] value) throws Exception {
+		o.writeUnsigned16(tag.getGroup());
+		o.writeUnsigned16(tag.getElement());
+		o.write(vr);
+		o.writeUnsigned16(0);
+		int length = value.length;
+		boolean pad = length%2 != 0;
+		o.writeUnsigned32(pad ? length+1 : length);
+		o.write(value);
+		if (pad) o.write((byte)' ');
+	}
+
+	/**
+	 * @param	o
+	 * @param	tag
+	 * @param	length
+	 * @exception	Exception
+	 */
+	private static void writeDelimiter(BinaryOutputStream o,AttributeTag tag,long length) throws Exception {
+		o.writeUnsigned16(tag.getGroup());
+		o.writeUnsigned16(tag.getElement());
+		o.writeUnsigned32(length);
+	}
+
+	/**
+	 * @param	specificCharacterSet	the value of Specific Character Set
+	 * @param	example			the encoded name, which is repeated to make the text
+	 * @param	items			the number of content items
+	 * @return				an encoded Explicit VR Little Endian data set without a meta information header
+	 * @exception	Exception
+	 */
+	private static byte[] makeDataSet(String specificCharacterSet,byte[] example,int items) throws Exception {
+		byte[] scs = specificCharacterSet.getBytes("ASCII");
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		for (int r=0; r<20; ++r) {
+			text.write(example);
+			text.write(' ');
+		}
+		byte[] textBytes = text.toByteArray();
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		BinaryOutputStream o = new BinaryOutputStream(bo,false);
+		writeShortElement(o,TagFromName.SpecificCharacterSet,"CS".getBytes("ASCII"),scs);
+		writeShortElement(o,TagFromName.PatientName,"PN".getBytes("ASCII"),example);
+		{
+			AttributeTag tag = TagFromName.ContentSequence;
+			o.writeUnsigned16(tag.getGroup());
+			o.writeUnsigned16(tag.getElement());
+			o.write("SQ".getBytes("ASCII"));
+			o.writeUnsigned16(0);
+			o.writeUnsigned32(0xffffffffl);
+		}
+		for (int i=0; i<items; ++i) {
+			writeDelimiter(o,TagFromName.Item,0xffffffffl);
+			writeShortElement(o,TagFromName.SpecificCharacterSet,"CS".getBytes("ASCII"),scs);
+			writeShortElement(o,TagFromName.PersonName,"PN".getBytes("ASCII"),example);
+			writeLongElement(o,TagFromName.TextValue,"UT".getBytes("ASCII"),textBytes);
+			writeDelimiter(o,TagFromName.ItemDelimitationItem,0);
+		}
+		writeDelimiter(o,TagFromName.SequenceDelimitationItem,0);
+		o.close();
+		return bo.toByteArray();
+	}
+
+	/**
+	 * @param	list
+	 * @return		the number of characters decoded
+	 * @exception	DicomException
+	 */
+	private static long decodeAllStrings(AttributeList list) throws DicomException {
+		long count = 0;
+		Iterator<Attribute> i = list.values().iterator();
+		while (i.hasNext()) {
+			Attribute a = i.next();
+			if (a instanceof SequenceAttribute) {
+				SequenceAttribute s = (SequenceAttribute)a;
+				int n = s.getNumberOfItems();
+				for (int j=0; j<n; ++j) {
+					count += decodeAllStrings(s.getItem(j).getAttributeList());
+				}
+			}
+			else if (a instanceof StringAttributeAffectedBySpecificCharacterSet || a instanceof TextAttribute) {
+				String[] values = a.getStringValues();
+				if (values != null) {
+					for (String value : values) {
+						count += value.length();
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * <p>Time reading and decoding string heavy data sets.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5), then optionally the number of content items (default 20000)
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			int items = arg.length > 1 ? Integer.parseInt(arg[1]) : 20000;
+			String[] names = { "Japanese (ISO 2022 IR 87) ", "Korean (ISO 2022 IR 149)  ", "Chinese (ISO_IR 192)      ", "ASCII (ISO_IR 100)        " };
+			byte[][] dataSets = {
+				makeDataSet("\\ISO 2022 IR 87",japaneseExample,items),
+				makeDataSet("\\ISO 2022 IR 149",koreanExample,items),
+				makeDataSet("ISO_IR 192",chineseExample,items),
+				makeDataSet("ISO_IR 100","Doe^John^Q^Dr^Jr=Smith^Jane".getBytes("ASCII"),items)
+			};
+			for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+				for (int d=0; d<dataSets.length; ++d) {
+					long startTime = System.nanoTime();
+					AttributeList list = new AttributeList();
+					DicomInputStream i = new DicomInputStream(new ByteArrayInputStream(dataSets[d]),TransferSyntax.ExplicitVRLittleEndian,false);
+					list.read(i);
+					i.close();
+					long characters = decodeAllStrings(list);
+					long elapsed = System.nanoTime() - startTime;
+					if (r >= 0) {
+						System.err.println("Pass "+r+" "+names[d]+": "+dataSets[d].length+" bytes, "+characters+" characters, "+(elapsed/1000000)+" ms, "+((long)dataSets[d].length*1000/elapsed)+" MB/s");
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
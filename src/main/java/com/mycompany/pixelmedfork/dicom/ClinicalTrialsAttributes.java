@@ -29,8 +29,8 @@ abstract public class ClinicalTrialsAttributes {
 	protected static final String defaultValueForMissingNonZeroLengthStrings = "NONE";
 	protected static final String defaultValueForMissingPossiblyZeroLengthStrings = "";
 	
-	protected static Map mapOfOriginalToReplacementUIDs = null;
-	protected static UIDGenerator uidGenerator = null;	
+	protected static volatile UIDRemapStore uidRemapStore = null;
+	protected static boolean uidRemapStoreIsDefault = false;		// true only if uidRemapStore was created by getUIDRemapStore() rather than set; guarded by the class lock
 
 	private ClinicalTrialsAttributes() {};
 	
@@ -198,7 +198,7 @@ abstract public class ClinicalTrialsAttributes {
 			PersonIdentification[] operatorIdentifications) throws DicomException {
 
 		Attribute aSpecificCharacterSet = list.get(TagFromName.SpecificCharacterSet);
-		SpecificCharacterSet specificCharacterSet = aSpecificCharacterSet == null ? null : new SpecificCharacterSet(aSpecificCharacterSet.getStringValues());
+		SpecificCharacterSet specificCharacterSet = aSpecificCharacterSet == null ? null : SpecificCharacterSet.valueOf(aSpecificCharacterSet.getStringValues());
 
 		AttributeList newItemList = new AttributeList();
 		
@@ -297,7 +297,7 @@ abstract public class ClinicalTrialsAttributes {
 			String clinicalTrialCoordinatingCenterName) throws DicomException {
 			
 		Attribute aSpecificCharacterSet = list.get(TagFromName.SpecificCharacterSet);
-		SpecificCharacterSet specificCharacterSet = aSpecificCharacterSet == null ? null : new SpecificCharacterSet(aSpecificCharacterSet.getStringValues());
+		SpecificCharacterSet specificCharacterSet = aSpecificCharacterSet == null ? null : SpecificCharacterSet.valueOf(aSpecificCharacterSet.getStringValues());
 			
 		// Clinical Trial Subject Module
 
@@ -689,11 +689,71 @@ abstract public class ClinicalTrialsAttributes {
 		return safe;
 	}
 	
+	/**
+	 * <p>Get the store of original UIDs to replacement UIDs used when remapping.</p>
+	 *
+	 * @return	the store, which is a new {@link com.pixelmed.dicom.UIDRemapStoreInMemory UIDRemapStoreInMemory} if none has been set
+	 */
+	public static UIDRemapStore getUIDRemapStore() {
+		UIDRemapStore store = uidRemapStore;
+		if (store == null) {
+			synchronized (ClinicalTrialsAttributes.class) {
+				store = uidRemapStore;
+				if (store == null) {
+					store = new UIDRemapStoreInMemory();
+					uidRemapStore = store;
+					uidRemapStoreIsDefault = true;
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * <p>Set the store of original UIDs to replacement UIDs used when remapping.</p>
+	 *
+	 * <p>For example, use a {@link com.pixelmed.dicom.UIDRemapStoreOnDisk UIDRemapStoreOnDisk} to remap more UIDs than will fit on the heap,
+	 * or to remap consistently across runs. The previous store is not closed.</p>
+	 *
+	 * @param	store	the store, or null to use a new {@link com.pixelmed.dicom.UIDRemapStoreInMemory UIDRemapStoreInMemory} when next needed
+	 */
+	public static void setUIDRemapStore(UIDRemapStore store) {
+		synchronized (ClinicalTrialsAttributes.class) {
+			uidRemapStore = store;
+			uidRemapStoreIsDefault = false;
+		}
+	}
+
 	/**
 	 * <p>Flush (remove all entries in) the map of original UIDs to replacement UIDs.</p>
+	 *
+	 * <p>If a store has been set with {@link #setUIDRemapStore(UIDRemapStore) setUIDRemapStore()}, it is cleared, otherwise the default in memory store is discarded.
+	 * If the store cannot be cleared, it is no longer used.</p>
 	 */
 	public static void flushMapOfUIDs() {
-		mapOfOriginalToReplacementUIDs = null;
+		UIDRemapStore store = null;
+		synchronized (ClinicalTrialsAttributes.class) {
+			if (uidRemapStoreIsDefault) {
+				uidRemapStore = null;		// discard rather than clear, so that its entries are released in one go
+				uidRemapStoreIsDefault = false;
+			}
+			else {
+				store = uidRemapStore;
+			}
+		}
+		if (store != null) {
+			try {
+				store.clear();
+			}
+			catch (DicomException e) {
+				e.printStackTrace(System.err);
+				synchronized (ClinicalTrialsAttributes.class) {
+					if (uidRemapStore == store) {
+						uidRemapStore = null;
+					}
+				}
+			}
+		}
 	}
 	
 	public class HandleUIDs {
@@ -712,6 +772,17 @@ abstract public class ClinicalTrialsAttributes {
 		removeOrRemapUIDAttributes(list,HandleUIDs.remap);
 	}
 	
+	/**
+	 * <p>Remap UID attributes in a list of attributes, recursively iterating through nested sequences.</p>
+	 *
+	 * @param	list		the list of attributes to be cleaned up
+	 * @param	store		the store of original UIDs to replacement UIDs to use
+	 * @throws	DicomException
+	 */
+	public static void remapUIDAttributes(AttributeList list,UIDRemapStore store) throws DicomException {
+		removeOrRemapUIDAttributes(list,HandleUIDs.remap,store);
+	}
+	
 	/**
 	 * <p>Remove UID attributes in a list of attributes, recursively iterating through nested sequences.</p>
 	 *
@@ -730,6 +801,18 @@ abstract public class ClinicalTrialsAttributes {
 	 * @throws	DicomException
 	 */
 	protected static void removeOrRemapUIDAttributes(AttributeList list,int handleUIDs) throws DicomException {
+		removeOrRemapUIDAttributes(list,handleUIDs,handleUIDs == HandleUIDs.remap ? getUIDRemapStore() : null);
+	}
+	
+	/**
+	 * <p>Remove or remap UID attributes in a list of attributes, recursively iterating through nested sequences.</p>
+	 *
+	 * @param	list		the list of attributes to be cleaned up
+	 * @param	handleUIDs	remove or remap the UIDs
+	 * @param	store		the store of original UIDs to replacement UIDs to use when remapping
+	 * @throws	DicomException
+	 */
+	protected static void removeOrRemapUIDAttributes(AttributeList list,int handleUIDs,UIDRemapStore store) throws DicomException {
 		// iterate through list to remove all UIDs, and recursively iterate through any sequences ...
 		LinkedList forRemovalOrRemapping = null;
 		Iterator i = list.values().iterator();
@@ -744,7 +827,7 @@ abstract public class ClinicalTrialsAttributes {
 						if (item != null) {
 							AttributeList itemAttributeList = item.getAttributeList();
 							if (itemAttributeList != null) {
-								removeOrRemapUIDAttributes(itemAttributeList,handleUIDs);
+								removeOrRemapUIDAttributes(itemAttributeList,handleUIDs,store);
 							}
 						}
 					}
@@ -775,18 +858,7 @@ abstract public class ClinicalTrialsAttributes {
 					String originalUIDValue = Attribute.getSingleStringValueOrNull(list,tag);
 //if (tag.equals(TagFromName.SOPInstanceUID)) { System.err.println("ClinicalTrialsAttributes.removeOrRemapUIDAttributes(): requesting replacement of SOP Instance UID "+originalUIDValue); }
 					if (originalUIDValue != null) {
-						String replacementUIDValue = null;
-						if (mapOfOriginalToReplacementUIDs == null) {
-							mapOfOriginalToReplacementUIDs = new HashMap();
-						}
-						replacementUIDValue = (String)(mapOfOriginalToReplacementUIDs.get(originalUIDValue));
-						if (replacementUIDValue == null) {
-							if (uidGenerator == null) {
-								uidGenerator = new UIDGenerator();
-							}
-							replacementUIDValue = uidGenerator.getAnotherNewUID();
-							mapOfOriginalToReplacementUIDs.put(originalUIDValue,replacementUIDValue);
-						}
+						String replacementUIDValue = store.getReplacementUID(originalUIDValue);
 						assert replacementUIDValue != null;
 						list.remove(tag);
 						Attribute a = new UniqueIdentifierAttribute(tag);
@@ -880,10 +952,34 @@ abstract public class ClinicalTrialsAttributes {
 	 * @throws	DicomException
 	 */
 	public static void removeOrNullIdentifyingAttributes(AttributeList list,int handleUIDs,boolean keepDescriptors,boolean keepSeriesDescriptors,boolean keepPatientCharacteristics,boolean keepDeviceIdentity,boolean keepInstitutionIdentity) throws DicomException {
+		removeOrNullIdentifyingAttributes(list,handleUIDs,keepDescriptors,keepSeriesDescriptors,keepPatientCharacteristics,keepDeviceIdentity,keepInstitutionIdentity,
+			handleUIDs == HandleUIDs.remap ? getUIDRemapStore() : null);
+	}
+	
+	/**
+	 * <p>Deidentify a list of attributes.</p>
+	 *
+	 * <p>De-identifies attributes within nested sequences, other than Context Sequence.</p>
+	 *
+	 * <p>Handles UIDs as requested, including within nested sequences, including Context Sequence.</p>
+	 *
+	 * <p>Also adds record that de-identification has been performed.</p>
+	 *
+	 * @param	list		the list of attributes to be cleaned up
+	 * @param	handleUIDs	keep, remove or remap the UIDs
+	 * @param	keepDescriptors	if true, keep the text description and comment attributes
+	 * @param	keepSeriesDescriptors	if true, keep the series description even if all other descriptors are removed
+	 * @param	keepPatientCharacteristics	if true, keep patient characteristics (such as might be needed for PET SUV calculations)
+	 * @param	keepDeviceIdentity	if true, keep device identity
+	 * @param	keepInstitutionIdentity	if true, keep device identity
+	 * @param	store		the store of original UIDs to replacement UIDs to use when remapping
+	 * @throws	DicomException
+	 */
+	public static void removeOrNullIdentifyingAttributes(AttributeList list,int handleUIDs,boolean keepDescriptors,boolean keepSeriesDescriptors,boolean keepPatientCharacteristics,boolean keepDeviceIdentity,boolean keepInstitutionIdentity,UIDRemapStore store) throws DicomException {
 		removeOrNullIdentifyingAttributesRecursively(list,handleUIDs,keepDescriptors,keepSeriesDescriptors,keepPatientCharacteristics,keepDeviceIdentity,keepInstitutionIdentity);
 		
 		if (handleUIDs != HandleUIDs.keep) {
-			removeOrRemapUIDAttributes(list,handleUIDs);
+			removeOrRemapUIDAttributes(list,handleUIDs,store);
 		}
 		
 		{ AttributeTag tag = TagFromName.PatientIdentityRemoved; list.remove(tag); Attribute a = new CodeStringAttribute(tag); a.addValue("YES"); list.put(tag,a); }
@@ -0,0 +1,135 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * <p>A class to measure the latency of decompressing a small image, comparing looking up and creating a reader for every
+ * image, as {@link com.pixelmed.dicom.AttributeList AttributeList} used to, with reusing the reader pooled for the thread by the
+ * {@link com.pixelmed.dicom.TransferSyntaxCodecRegistry TransferSyntaxCodecRegistry}.</p>
+ *
+ * <p>The compressed image is the first frame of a DICOM file, e.g., a 512x512 JPEG Lossless image, or if none is supplied,
+ * a synthetic 512x512 8 bit image compressed with the JPEG Baseline writer from the registry.</p>
+ */
+public class CodecLatencyBenchmark {
+
+	private CodecLatencyBenchmark() {}
+
+	/**
+	 * @return	a synthetic 512x512 8 bit image compressed with JPEG Baseline
+	 * @exception	Exception
+	 */
+	private static byte[] makeJPEGBaselineImage() throws Exception {
+		BufferedImage image = new BufferedImage(512,512,BufferedImage.TYPE_BYTE_GRAY);
+		WritableRaster raster = image.getRaster();
+		for (int y=0; y<512; ++y) {
+			for (int x=0; x<512; ++x) {
+				raster.setSample(x,y,0,(x*y/7+x+y)&0xff);
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageWriter writer = TransferSyntaxCodecRegistry.getWriter(TransferSyntax.JPEGBaseline);
+		ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+		writer.setOutput(ios);
+		writer.write(image);
+		ios.close();
+		writer.reset();
+		return out.toByteArray();
+	}
+
+	/**
+	 * <p>Decompress the way AttributeList used to, looking up the reader by format name and checking its description each time.</p>
+	 *
+	 * @param	bytes
+	 * @param	tsuid
+	 * @exception	Exception
+	 */
+	private static void decompressLookingUpReader(byte[] bytes,String tsuid) throws Exception {
+		ImageReader reader = ImageIO.getImageReadersByFormatName(TransferSyntaxCodecRegistry.getFormatName(tsuid)).next();
+		ImageReaderSpi spi = reader.getOriginatingProvider();
+		String readerDescription = spi.getDescription(Locale.US);
+		String readerVendorName = spi.getVendorName();
+		if (tsuid.equals(TransferSyntax.JPEGExtended) && readerDescription.equals("Standard JPEG Image Reader") && readerVendorName.equals("Sun Microsystems, Inc.")) {
+			throw new DicomException("Reader "+readerDescription+" does not support extended lossy JPEG Transfer Syntax "+tsuid);
+		}
+		ImageInputStream iiois = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+		reader.setInput(iiois,true/*seekForwardOnly*/,true/*ignoreMetadata*/);
+		BufferedImage image = reader.read(0);
+		iiois.close();
+		reader.dispose();
+	}
+
+	/**
+	 * <p>Decompress with the reader pooled for this thread by the registry.</p>
+	 *
+	 * @param	bytes
+	 * @param	tsuid
+	 * @exception	Exception
+	 */
+	private static void decompressWithPooledReader(byte[] bytes,String tsuid) throws Exception {
+		ImageReader reader = TransferSyntaxCodecRegistry.getReader(tsuid);
+		ImageInputStream iiois = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+		reader.setInput(iiois,true/*seekForwardOnly*/,true/*ignoreMetadata*/);
+		BufferedImage image = reader.read(0);
+		iiois.close();
+		reader.reset();
+	}
+
+	/**
+	 * <p>Time decompression of a small image with and without the pooled reader.</p>
+	 *
+	 * @param	arg	optionally the number of images to decompress per pass (default 2000), then optionally a DICOM file with compressed Pixel Data
+	 */
+	public static void main(String arg[]) {
+		try {
+			int count = arg.length > 0 ? Integer.parseInt(arg[0]) : 2000;
+			byte[] bytes;
+			String tsuid;
+			if (arg.length > 1) {
+				EncapsulatedPixelDataFrameIndex index = new EncapsulatedPixelDataFrameIndex(new File(arg[1]));
+				bytes = index.getCompressedFrame(0);
+				tsuid = index.getTransferSyntaxUID();
+				index.close();
+			}
+			else {
+				bytes = makeJPEGBaselineImage();
+				tsuid = TransferSyntax.JPEGBaseline;
+			}
+			System.err.println("Decompressing "+bytes.length+" bytes of Transfer Syntax "+tsuid+" "+count+" times per pass");
+			for (int r=-1; r<5; ++r) {		// pass -1 is to warm up
+				for (int m=0; m<2; ++m) {
+					boolean pooled = m == 1;
+					long startTime = System.nanoTime();
+					for (int c=0; c<count; ++c) {
+						if (pooled) {
+							decompressWithPooledReader(bytes,tsuid);
+						}
+						else {
+							decompressLookingUpReader(bytes,tsuid);
+						}
+					}
+					long elapsed = System.nanoTime() - startTime;
+					if (r >= 0) {
+						System.err.println("Pass "+r+" "+(pooled ? "pooled reader    " : "reader per image ")+": "+(elapsed/count/1000)+" us per image");
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,834 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.io.*;
+
+/**
+ * <p>The {@link com.pixelmed.dicom.CompactAttributeList CompactAttributeList} class is an
+ * {@link com.pixelmed.dicom.AttributeList AttributeList} that stores its attributes in
+ * sorted parallel arrays of packed integer tags and attribute values, rather than in the nodes
+ * of the {@link java.util.TreeMap java.util.TreeMap} that the super class is implemented with.</p>
+ *
+ * <p>Each entry costs only an int and a reference, rather than a tree node, so the footprint of
+ * large numbers of lists held in memory (such as headers of entire studies) is substantially reduced.
+ * Lookup is by binary search on the packed tags, and since attributes are almost always
+ * read in ascending order, insertion of a tag greater than the last one present is a simple append.</p>
+ *
+ * <p>The {@link java.util.Map Map} methods, iteration in ascending tag order (including removal
+ * through iterators) and all the {@link com.pixelmed.dicom.AttributeList AttributeList} methods
+ * behave as they do for the super class. The range views of {@link java.util.NavigableMap NavigableMap}
+ * (such as {@link #headMap(Object) headMap()}, {@link #subMap(Object,Object) subMap()} and the descending views)
+ * are taken from a copy of the list made on each call, so they are not backed by the list; changes to one are not
+ * reflected in the other.</p>
+ *
+ * <p>Items of any sequences read into such a list are themselves created as instances of this class.</p>
+ *
+ * <pre>
+ * 	AttributeList list = new CompactAttributeList();
+ * 	list.read(arg[0]);
+ * </pre>
+ *
+ * @see com.pixelmed.dicom.AttributeList
+ */
+public class CompactAttributeList extends AttributeList {
+
+	/***/
+	private static final long serialVersionUID = 1L;
+
+	private static final int defaultInitialCapacity = 16;
+
+	private static final int[] emptyTags = new int[0];
+	private static final Attribute[] emptyAttributes = new Attribute[0];
+
+	/***/
+	private int[] tags;
+	/***/
+	private Attribute[] attributes;
+	/***/
+	private int count;
+	/***/
+	private transient int modificationCount;
+
+	/**
+	 * <p>Construct an empty list.</p>
+	 */
+	public CompactAttributeList() {
+		super();
+		tags = emptyTags;
+		attributes = emptyAttributes;
+		count = 0;
+	}
+
+	/**
+	 * <p>Construct an empty list with room for the specified number of attributes before it needs to grow.</p>
+	 *
+	 * @param	initialCapacity	the number of attributes to allow for
+	 */
+	public CompactAttributeList(int initialCapacity) {
+		super();
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("Negative initial capacity "+initialCapacity);
+		}
+		tags = initialCapacity == 0 ? emptyTags : new int[initialCapacity];
+		attributes = initialCapacity == 0 ? emptyAttributes : new Attribute[initialCapacity];
+		count = 0;
+	}
+
+	/**
+	 * <p>Construct a list containing the same attributes as another list.</p>
+	 *
+	 * <p>The attributes themselves are not copied.</p>
+	 *
+	 * @param	list	the list whose attributes are to be placed in this list
+	 */
+	public CompactAttributeList(AttributeList list) {
+		this(list == null ? 0 : list.size());
+		if (list != null) {
+			putAll(list);
+		}
+	}
+
+	/**
+	 * <p>Get a single integer that represents a tag and sorts in the same order.</p>
+	 *
+	 * @param	group	the 16 bit unsigned binary group
+	 * @param	element	the 16 bit unsigned binary element
+	 * @return		the packed tag
+	 */
+	static final int pack(int group,int element) {
+		return AttributeTag.toPacked(group,element);
+	}
+
+	/**
+	 * <p>Get a single integer that represents a tag and sorts in the same order.</p>
+	 *
+	 * @param	t	the tag
+	 * @return		the packed tag
+	 */
+	static final int pack(AttributeTag t) {
+		return pack(t.getGroup(),t.getElement());
+	}
+
+	/**
+	 * <p>Find the index of a packed tag.</p>
+	 *
+	 * @param	key	the packed tag
+	 * @return		the index if found, else (-(insertion point) - 1)
+	 */
+	private int indexOf(int key) {
+		int n = count;
+		if (n > 0) {
+			int last = tags[n-1];
+			if (last == key) {
+				return n-1;
+			}
+			else if (Integer.compareUnsigned(key,last) > 0) {
+				return -(n+1);		// fast path for appending in ascending order, which is by far the most common during reading
+			}
+		}
+		int low = 0;
+		int high = n-1;
+		while (low <= high) {
+			int mid = (low+high) >>> 1;
+			int c = Integer.compareUnsigned(tags[mid],key);
+			if (c < 0) {
+				low = mid+1;
+			}
+			else if (c > 0) {
+				high = mid-1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -(low+1);
+	}
+
+	/**
+	 * <p>Find the index of a key, which may be of any type.</p>
+	 *
+	 * @param	key	the key
+	 * @return		the index if found, else a negative value
+	 */
+	private int indexOfKey(Object key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		return indexOf(pack((AttributeTag)key));		// ClassCastException if not a tag, as for TreeMap
+	}
+
+	/**
+	 * @param	minimumCapacity
+	 */
+	private void ensureCapacity(int minimumCapacity) {
+		int oldCapacity = tags.length;
+		if (minimumCapacity > oldCapacity) {
+			int newCapacity = oldCapacity == 0 ? defaultInitialCapacity : oldCapacity + (oldCapacity >> 1);
+			if (newCapacity < minimumCapacity) {
+				newCapacity = minimumCapacity;
+			}
+			tags = Arrays.copyOf(tags,newCapacity);
+			attributes = Arrays.copyOf(attributes,newCapacity);
+		}
+	}
+
+	/**
+	 * @param	index
+	 * @param	key
+	 * @param	a
+	 */
+	private void insertAt(int index,int key,Attribute a) {
+		ensureCapacity(count+1);
+		if (index < count) {
+			System.arraycopy(tags,index,tags,index+1,count-index);
+			System.arraycopy(attributes,index,attributes,index+1,count-index);
+		}
+		tags[index] = key;
+		attributes[index] = a;
+		++count;
+		++modificationCount;
+	}
+
+	/**
+	 * @param	index
+	 * @return		the attribute that was removed
+	 */
+	private Attribute removeAt(int index) {
+		Attribute old = attributes[index];
+		int numberToMove = count-index-1;
+		if (numberToMove > 0) {
+			System.arraycopy(tags,index+1,tags,index,numberToMove);
+			System.arraycopy(attributes,index+1,attributes,index,numberToMove);
+		}
+		--count;
+		attributes[count] = null;
+		++modificationCount;
+		return old;
+	}
+
+	/**
+	 * <p>Get the key at the specified index.</p>
+	 *
+	 * <p>Uses the tag of the attribute itself rather than allocating a new tag whenever that is possible.</p>
+	 *
+	 * @param	index
+	 * @return		the tag
+	 */
+	private AttributeTag keyAt(int index) {
+		int key = tags[index];
+		AttributeTag t = attributes[index].getTag();
+		if (t == null || pack(t) != key) {
+			t = AttributeTag.valueOf(key);
+		}
+		return t;
+	}
+
+	/**
+	 * <p>Reduce the storage used by the list to that needed for the attributes currently present.</p>
+	 *
+	 * <p>Worth calling after reading if the list is to be retained in memory for a long time.</p>
+	 *
+	 * <p>Does not recurse into sequence items.</p>
+	 */
+	public void trimToSize() {
+		if (count < tags.length) {
+			tags = count == 0 ? emptyTags : Arrays.copyOf(tags,count);
+			attributes = count == 0 ? emptyAttributes : Arrays.copyOf(attributes,count);
+		}
+	}
+
+	/**
+	 * <p>Create a new empty list to hold the contents of a sequence item during reading.</p>
+	 *
+	 * @return	a new empty {@link com.pixelmed.dicom.CompactAttributeList CompactAttributeList}
+	 */
+	protected AttributeList newAttributeListForSequenceItem() {
+		return new CompactAttributeList();
+	}
+
+	// Map methods ...
+
+	public int size() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public void clear() {
+		for (int i=0; i<count; ++i) {
+			attributes[i] = null;
+		}
+		count = 0;
+		++modificationCount;
+	}
+
+	public boolean containsKey(Object key) {
+		return indexOfKey(key) >= 0;
+	}
+
+	public boolean containsValue(Object value) {
+		for (int i=0; i<count; ++i) {
+			if (value == null ? attributes[i] == null : value.equals(attributes[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public Attribute get(Object key) {
+		int index = indexOfKey(key);
+		return index >= 0 ? attributes[index] : null;
+	}
+
+	public Attribute get(AttributeTag t) {
+		int index = indexOfKey(t);
+		return index >= 0 ? attributes[index] : null;
+	}
+
+	/**
+	 * <p>Returns the value (attribute) to which this map maps the specified group and element.</p>
+	 *
+	 * <p>Does not need to allocate a tag to perform the lookup.</p>
+	 *
+	 * @param	group	the 16 bit unsigned binary group
+	 * @param	element	the 16 bit unsigned binary element
+	 * @return		the attribute, or null if not present
+	 */
+	public Attribute get(int group,int element) {
+		int index = indexOf(pack(group,element));
+		return index >= 0 ? attributes[index] : null;
+	}
+
+	public Attribute put(AttributeTag t, Attribute a) throws NullPointerException,ClassCastException {
+		if (a == null || t == null) {
+			throw new NullPointerException();
+		}
+		int key = pack(t);
+		int index = indexOf(key);
+		if (index >= 0) {
+			Attribute old = attributes[index];
+			attributes[index] = a;
+			return old;
+		}
+		else {
+			insertAt(-(index+1),key,a);
+			return null;
+		}
+	}
+
+	public void putAll(Map<? extends AttributeTag,? extends Attribute> map) {
+		ensureCapacity(count+map.size());
+		for (Map.Entry<? extends AttributeTag,? extends Attribute> e : map.entrySet()) {
+			put(e.getKey(),e.getValue());
+		}
+	}
+
+	public Attribute remove(Object key) {
+		int index = indexOfKey(key);
+		return index >= 0 ? removeAt(index) : null;
+	}
+
+	public Attribute remove(AttributeTag tag) {
+		int index = indexOfKey(tag);
+		return index >= 0 ? removeAt(index) : null;
+	}
+
+	public Attribute putIfAbsent(AttributeTag key,Attribute value) {
+		Attribute old = get(key);
+		if (old == null) {
+			put(key,value);
+		}
+		return old;
+	}
+
+	public boolean remove(Object key,Object value) {
+		int index = indexOfKey(key);
+		if (index >= 0 && Objects.equals(attributes[index],value)) {
+			removeAt(index);
+			return true;
+		}
+		return false;
+	}
+
+	public Attribute replace(AttributeTag key,Attribute value) {
+		int index = indexOfKey(key);
+		if (index >= 0) {
+			if (value == null) {
+				throw new NullPointerException();
+			}
+			Attribute old = attributes[index];
+			attributes[index] = value;
+			return old;
+		}
+		return null;
+	}
+
+	public boolean replace(AttributeTag key,Attribute oldValue,Attribute newValue) {
+		int index = indexOfKey(key);
+		if (index >= 0 && Objects.equals(attributes[index],oldValue)) {
+			if (newValue == null) {
+				throw new NullPointerException();
+			}
+			attributes[index] = newValue;
+			return true;
+		}
+		return false;
+	}
+
+	public Attribute computeIfAbsent(AttributeTag key,Function<? super AttributeTag,? extends Attribute> mappingFunction) {
+		Attribute old = get(key);
+		if (old == null) {
+			Attribute a = mappingFunction.apply(key);
+			if (a != null) {
+				put(key,a);
+			}
+			return a;
+		}
+		return old;
+	}
+
+	public Attribute computeIfPresent(AttributeTag key,BiFunction<? super AttributeTag,? super Attribute,? extends Attribute> remappingFunction) {
+		int index = indexOfKey(key);
+		if (index >= 0) {
+			Attribute a = remappingFunction.apply(key,attributes[index]);
+			index = indexOfKey(key);	// function may have modified the list
+			if (a == null) {
+				if (index >= 0) {
+					removeAt(index);
+				}
+			}
+			else {
+				put(key,a);
+			}
+			return a;
+		}
+		return null;
+	}
+
+	public Attribute compute(AttributeTag key,BiFunction<? super AttributeTag,? super Attribute,? extends Attribute> remappingFunction) {
+		Attribute a = remappingFunction.apply(key,get(key));
+		if (a == null) {
+			remove(key);
+		}
+		else {
+			put(key,a);
+		}
+		return a;
+	}
+
+	public Attribute merge(AttributeTag key,Attribute value,BiFunction<? super Attribute,? super Attribute,? extends Attribute> remappingFunction) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		Attribute old = get(key);
+		Attribute a = old == null ? value : remappingFunction.apply(old,value);
+		if (a == null) {
+			remove(key);
+		}
+		else {
+			put(key,a);
+		}
+		return a;
+	}
+
+	public void forEach(BiConsumer<? super AttributeTag,? super Attribute> action) {
+		int expectedModificationCount = modificationCount;
+		for (int i=0; i<count; ++i) {
+			action.accept(keyAt(i),attributes[i]);
+			if (expectedModificationCount != modificationCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	public void replaceAll(BiFunction<? super AttributeTag,? super Attribute,? extends Attribute> function) {
+		int expectedModificationCount = modificationCount;
+		for (int i=0; i<count; ++i) {
+			Attribute a = function.apply(keyAt(i),attributes[i]);
+			if (expectedModificationCount != modificationCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (a == null) {
+				throw new NullPointerException();
+			}
+			attributes[i] = a;
+		}
+	}
+
+	// SortedMap and NavigableMap methods that do not return views ...
+
+	public AttributeTag firstKey() {
+		if (count == 0) {
+			throw new NoSuchElementException();
+		}
+		return keyAt(0);
+	}
+
+	public AttributeTag lastKey() {
+		if (count == 0) {
+			throw new NoSuchElementException();
+		}
+		return keyAt(count-1);
+	}
+
+	/**
+	 * @param	index
+	 * @return		an immutable snapshot of the entry, or null if index is out of range
+	 */
+	private Map.Entry<AttributeTag,Attribute> exportEntry(int index) {
+		return index >= 0 && index < count ? new AbstractMap.SimpleImmutableEntry<AttributeTag,Attribute>(keyAt(index),attributes[index]) : null;
+	}
+
+	/**
+	 * @param	index
+	 * @return		the key, or null if index is out of range
+	 */
+	private AttributeTag exportKey(int index) {
+		return index >= 0 && index < count ? keyAt(index) : null;
+	}
+
+	/**
+	 * @param	key
+	 * @param	inclusive	whether or not an exact match is acceptable
+	 * @return		the index of the least key greater than (or equal to) the key
+	 */
+	private int indexOfHigher(AttributeTag key,boolean inclusive) {
+		int index = indexOfKey(key);
+		return index >= 0 ? (inclusive ? index : index+1) : -(index+1);
+	}
+
+	/**
+	 * @param	key
+	 * @param	inclusive	whether or not an exact match is acceptable
+	 * @return		the index of the greatest key less than (or equal to) the key
+	 */
+	private int indexOfLower(AttributeTag key,boolean inclusive) {
+		int index = indexOfKey(key);
+		return index >= 0 ? (inclusive ? index : index-1) : -(index+1)-1;
+	}
+
+	public Map.Entry<AttributeTag,Attribute> firstEntry()								{ return exportEntry(0); }
+	public Map.Entry<AttributeTag,Attribute> lastEntry()								{ return exportEntry(count-1); }
+	public Map.Entry<AttributeTag,Attribute> lowerEntry(AttributeTag key)				{ return exportEntry(indexOfLower(key,false)); }
+	public Map.Entry<AttributeTag,Attribute> floorEntry(AttributeTag key)				{ return exportEntry(indexOfLower(key,true)); }
+	public Map.Entry<AttributeTag,Attribute> ceilingEntry(AttributeTag key)				{ return exportEntry(indexOfHigher(key,true)); }
+	public Map.Entry<AttributeTag,Attribute> higherEntry(AttributeTag key)				{ return exportEntry(indexOfHigher(key,false)); }
+	public AttributeTag lowerKey(AttributeTag key)										{ return exportKey(indexOfLower(key,false)); }
+	public AttributeTag floorKey(AttributeTag key)										{ return exportKey(indexOfLower(key,true)); }
+	public AttributeTag ceilingKey(AttributeTag key)									{ return exportKey(indexOfHigher(key,true)); }
+	public AttributeTag higherKey(AttributeTag key)										{ return exportKey(indexOfHigher(key,false)); }
+
+	public Map.Entry<AttributeTag,Attribute> pollFirstEntry() {
+		Map.Entry<AttributeTag,Attribute> e = exportEntry(0);
+		if (e != null) {
+			removeAt(0);
+		}
+		return e;
+	}
+
+	public Map.Entry<AttributeTag,Attribute> pollLastEntry() {
+		Map.Entry<AttributeTag,Attribute> e = exportEntry(count-1);
+		if (e != null) {
+			removeAt(count-1);
+		}
+		return e;
+	}
+
+	// NavigableMap and SortedMap views ...
+
+	/**
+	 * <p>Copy the list into a {@link java.util.TreeMap TreeMap}, from which the views are taken.</p>
+	 *
+	 * <p>Since the tags are already sorted, the tree is built in linear time without comparing them.</p>
+	 *
+	 * @return	a new tree containing the same attributes
+	 */
+	private TreeMap<AttributeTag,Attribute> toTreeMap() {
+		return new TreeMap<AttributeTag,Attribute>(this);
+	}
+
+	public NavigableMap<AttributeTag,Attribute> descendingMap()							{ return toTreeMap().descendingMap(); }
+	public NavigableSet<AttributeTag> navigableKeySet()									{ return toTreeMap().navigableKeySet(); }
+	public NavigableSet<AttributeTag> descendingKeySet()								{ return toTreeMap().descendingKeySet(); }
+	public NavigableMap<AttributeTag,Attribute> headMap(AttributeTag toKey,boolean inclusive)		{ return toTreeMap().headMap(toKey,inclusive); }
+	public NavigableMap<AttributeTag,Attribute> tailMap(AttributeTag fromKey,boolean inclusive)	{ return toTreeMap().tailMap(fromKey,inclusive); }
+	public SortedMap<AttributeTag,Attribute> subMap(AttributeTag fromKey,AttributeTag toKey)		{ return toTreeMap().subMap(fromKey,toKey); }
+	public SortedMap<AttributeTag,Attribute> headMap(AttributeTag toKey)						{ return toTreeMap().headMap(toKey); }
+	public SortedMap<AttributeTag,Attribute> tailMap(AttributeTag fromKey)						{ return toTreeMap().tailMap(fromKey); }
+
+	public NavigableMap<AttributeTag,Attribute> subMap(AttributeTag fromKey,boolean fromInclusive,AttributeTag toKey,boolean toInclusive) {
+		return toTreeMap().subMap(fromKey,fromInclusive,toKey,toInclusive);
+	}
+
+	/**
+	 * <p>Make a shallow copy of the list.</p>
+	 *
+	 * <p>The attributes themselves are not copied.</p>
+	 *
+	 * @return	a new {@link com.pixelmed.dicom.CompactAttributeList CompactAttributeList} with the same attributes
+	 */
+	public Object clone() {
+		CompactAttributeList list = (CompactAttributeList)(super.clone());		// the (empty) tree of the super class is cloned too
+		list.tags = count == 0 ? emptyTags : Arrays.copyOf(tags,count);
+		list.attributes = count == 0 ? emptyAttributes : Arrays.copyOf(attributes,count);
+		list.modificationCount = 0;
+		return list;
+	}
+
+	// Collection views ...
+
+	private abstract class ArrayIterator<T> implements Iterator<T> {
+		int next = 0;
+		int lastReturned = -1;
+		int expectedModificationCount = modificationCount;
+
+		public boolean hasNext() {
+			return next < count;
+		}
+
+		int nextIndex() {
+			if (expectedModificationCount != modificationCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= count) {
+				throw new NoSuchElementException();
+			}
+			lastReturned = next++;
+			return lastReturned;
+		}
+
+		public void remove() {
+			if (lastReturned < 0) {
+				throw new IllegalStateException();
+			}
+			if (expectedModificationCount != modificationCount) {
+				throw new ConcurrentModificationException();
+			}
+			removeAt(lastReturned);
+			next = lastReturned;
+			lastReturned = -1;
+			expectedModificationCount = modificationCount;
+		}
+	}
+
+	private class KeyIterator extends ArrayIterator<AttributeTag> {
+		public AttributeTag next() { return keyAt(nextIndex()); }
+	}
+
+	private class ValueIterator extends ArrayIterator<Attribute> {
+		public Attribute next() { return attributes[nextIndex()]; }
+	}
+
+	private class EntryIterator extends ArrayIterator<Map.Entry<AttributeTag,Attribute>> {
+		public Map.Entry<AttributeTag,Attribute> next() { return new Entry(nextIndex()); }
+	}
+
+	private class Entry implements Map.Entry<AttributeTag,Attribute> {
+		private final AttributeTag key;
+		private Attribute value;
+
+		Entry(int index) {
+			key = keyAt(index);
+			value = attributes[index];
+		}
+
+		public AttributeTag getKey()	{ return key; }
+		public Attribute getValue()		{ return value; }
+
+		public Attribute setValue(Attribute a) {
+			if (a == null) {
+				throw new NullPointerException();
+			}
+			int index = indexOf(pack(key));
+			if (index < 0) {
+				throw new IllegalStateException("Entry no longer in list");
+			}
+			Attribute old = attributes[index];
+			attributes[index] = a;
+			value = a;
+			return old;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+			return key.equals(e.getKey()) && Objects.equals(value,e.getValue());
+		}
+
+		public int hashCode()		{ return key.hashCode() ^ Objects.hashCode(value); }
+		public String toString()	{ return key+"="+value; }
+	}
+
+	private class KeySet extends AbstractSet<AttributeTag> {
+		public Iterator<AttributeTag> iterator()	{ return new KeyIterator(); }
+		public int size()							{ return count; }
+		public boolean contains(Object o)			{ return o instanceof AttributeTag && containsKey(o); }
+		public boolean remove(Object o)				{ return o instanceof AttributeTag && CompactAttributeList.this.remove(o) != null; }
+		public void clear()							{ CompactAttributeList.this.clear(); }
+	}
+
+	private class Values extends AbstractCollection<Attribute> {
+		public Iterator<Attribute> iterator()		{ return new ValueIterator(); }
+		public int size()							{ return count; }
+		public boolean contains(Object o)			{ return containsValue(o); }
+		public void clear()							{ CompactAttributeList.this.clear(); }
+	}
+
+	private class EntrySet extends AbstractSet<Map.Entry<AttributeTag,Attribute>> {
+		public Iterator<Map.Entry<AttributeTag,Attribute>> iterator()	{ return new EntryIterator(); }
+		public int size()												{ return count; }
+		public void clear()												{ CompactAttributeList.this.clear(); }
+
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+			Object key = e.getKey();
+			if (!(key instanceof AttributeTag)) {
+				return false;
+			}
+			int index = indexOfKey(key);
+			return index >= 0 && Objects.equals(attributes[index],e.getValue());
+		}
+
+		public boolean remove(Object o) {
+			if (contains(o)) {
+				CompactAttributeList.this.remove(((Map.Entry<?,?>)o).getKey());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	public Set<AttributeTag> keySet() {
+		return new KeySet();
+	}
+
+	public Collection<Attribute> values() {
+		return new Values();
+	}
+
+	public Set<Map.Entry<AttributeTag,Attribute>> entrySet() {
+		return new EntrySet();
+	}
+
+	// Benchmark ...
+
+	/**
+	 * @return		the number of bytes of heap in use after collecting garbage
+	 */
+	private static long getUsedMemoryAfterGarbageCollection() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i=0; i<4; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e) {
+			}
+			long nowUsed = runtime.totalMemory() - runtime.freeMemory();
+			if (nowUsed < used) {
+				used = nowUsed;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @param	fileNames
+	 * @param	compact
+	 * @return		the lists read
+	 */
+	private static AttributeList[] readHeaders(String[] fileNames,boolean compact) throws IOException, DicomException {
+		AttributeList[] lists = new AttributeList[fileNames.length];
+		for (int f=0; f<fileNames.length; ++f) {
+			AttributeList list = compact ? new CompactAttributeList() : new AttributeList();
+			list.read(fileNames[f],TagFromName.PixelData);
+			if (compact) {
+				((CompactAttributeList)list).trimToSize();
+			}
+			lists[f] = list;
+		}
+		return lists;
+	}
+
+	private static final AttributeTag[] benchmarkLookupTags = {
+		TagFromName.SOPInstanceUID, TagFromName.StudyInstanceUID, TagFromName.SeriesInstanceUID,
+		TagFromName.PatientID, TagFromName.PatientName, TagFromName.Modality, TagFromName.InstanceNumber,
+		TagFromName.ImagePositionPatient, TagFromName.ImageOrientationPatient, TagFromName.Rows, TagFromName.Columns,
+		TagFromName.PixelSpacing, TagFromName.SliceThickness, TagFromName.WindowCenter, TagFromName.WindowWidth,
+		TagFromName.RescaleIntercept, TagFromName.RescaleSlope, TagFromName.AccessionNumber, TagFromName.StudyDate,
+		new AttributeTag(0x0029,0x1010)		// often absent
+	};
+
+	/**
+	 * @param	lists
+	 * @param	repetitions
+	 * @return		a count of the attributes found, to prevent the lookups being optimized away
+	 */
+	private static long lookupCommonAttributes(AttributeList[] lists,int repetitions) {
+		AttributeTag[] wanted = benchmarkLookupTags;
+		long found = 0;
+		for (int r=0; r<repetitions; ++r) {
+			for (AttributeList list : lists) {
+				for (AttributeTag t : wanted) {
+					if (list.get(t) != null) {
+						++found;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * <p>Compare the heap footprint and lookup speed of this class against {@link com.pixelmed.dicom.AttributeList AttributeList}.</p>
+	 *
+	 * <p>Reads the header (up to but not including the Pixel Data) of each file into both types of list,
+	 * then reports the heap used per header and the time for repeated lookups of commonly used attributes.</p>
+	 *
+	 * @param	arg	the names of the DICOM files to use (e.g., all the files of a CT or MR series)
+	 */
+	public static void main(String arg[]) {
+		if (arg.length == 0) {
+			System.err.println("Usage: java com.pixelmed.dicom.CompactAttributeList file [file ...]");
+			System.exit(1);
+		}
+		try {
+			int repetitions = 100;
+			readHeaders(arg,true);		// warm up
+			readHeaders(arg,false);
+
+			for (int pass=0; pass<2; ++pass) {
+				boolean compact = pass == 1;
+				String label = compact ? "CompactAttributeList" : "AttributeList       ";
+				long before = getUsedMemoryAfterGarbageCollection();
+				long startReadTime = System.nanoTime();
+				AttributeList[] lists = readHeaders(arg,compact);
+				long readTime = System.nanoTime() - startReadTime;
+				long after = getUsedMemoryAfterGarbageCollection();
+				lookupCommonAttributes(lists,repetitions);	// warm up
+				long startLookupTime = System.nanoTime();
+				long found = lookupCommonAttributes(lists,repetitions);
+				long lookupTime = System.nanoTime() - startLookupTime;
+				long lookups = (long)repetitions*lists.length*benchmarkLookupTags.length;
+				System.err.println(label+": "+lists.length+" headers"
+					+", read "+(readTime/1000000)+" ms"
+					+", heap "+((after-before)/lists.length)+" bytes/header"
+					+", lookup "+(lookupTime/lookups)+" ns/get ("+found+" found)");
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
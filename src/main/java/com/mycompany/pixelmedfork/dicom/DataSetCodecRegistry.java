@@ -0,0 +1,190 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>A class to supply the codecs that compress and decompress the whole data set, for the Deflated Explicit VR Little Endian
+ * and the (private) bzip2 Transfer Syntaxes, to {@link com.pixelmed.dicom.AttributeList AttributeList},
+ * {@link com.pixelmed.dicom.DicomStreamCopier DicomStreamCopier} and the other classes that read and write data sets.</p>
+ *
+ * <p>The bzip2 codec, which is not part of the JRE, is looked up (by reflection, in the context class loader of the first thread
+ * that needs it) only once, and the result remembered, whether or not it is found.</p>
+ *
+ * <p>The deflate compression level, and the number of blocks that may be compressed at the same time by a {@link com.pixelmed.dicom.ParallelDeflaterOutputStream ParallelDeflaterOutputStream},
+ * apply to the whole process. If the parallelism is 1, as it is by default, a {@link java.util.zip.DeflaterOutputStream DeflaterOutputStream} is used as before.</p>
+ */
+public class DataSetCodecRegistry {
+
+	private DataSetCodecRegistry() {}
+
+	/***/
+	private static final String bzip2InputStreamClassName = "org.apache.excalibur.bzip2.CBZip2InputStream";
+	/***/
+	private static final String bzip2OutputStreamClassName = "org.apache.excalibur.bzip2.CBZip2OutputStream";
+
+	/***/
+	private static volatile int deflateLevel = Deflater.BEST_COMPRESSION;
+	/***/
+	private static volatile int deflateParallelism = 1;
+
+	/***/
+	private static boolean haveResolvedBzip2;
+	/***/
+	private static Constructor<?> bzip2InputStreamConstructor;
+	/***/
+	private static Constructor<?> bzip2OutputStreamConstructor;
+	/***/
+	private static String bzip2Failure;		// why the codec could not be resolved, if it could not
+
+	/**
+	 * <p>Set the compression level used when writing deflated data sets.</p>
+	 *
+	 * @param	level	0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION Deflater.DEFAULT_COMPRESSION}; default is {@link java.util.zip.Deflater#BEST_COMPRESSION Deflater.BEST_COMPRESSION}
+	 */
+	public static void setDeflateLevel(int level) {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid deflate level "+level);
+		}
+		deflateLevel = level;
+	}
+
+	/**
+	 * @return	the compression level used when writing deflated data sets
+	 */
+	public static int getDeflateLevel() { return deflateLevel; }
+
+	/**
+	 * <p>Set the maximum number of blocks of a deflated data set to compress at the same time.</p>
+	 *
+	 * @param	parallelism	the number of blocks, e.g., Runtime.getRuntime().availableProcessors(); default is 1, which compresses the data set as one stream in the calling thread
+	 */
+	public static void setDeflateParallelism(int parallelism) { deflateParallelism = parallelism < 1 ? 1 : parallelism; }
+
+	/**
+	 * @return	the maximum number of blocks of a deflated data set to compress at the same time
+	 */
+	public static int getDeflateParallelism() { return deflateParallelism; }
+
+	/**
+	 * <p>Look up the bzip2 codec, once only.</p>
+	 */
+	private static synchronized void resolveBzip2() {
+		if (!haveResolvedBzip2) {
+			haveResolvedBzip2 = true;
+			try {
+				ClassLoader loader = Thread.currentThread().getContextClassLoader();
+				bzip2InputStreamConstructor = loader.loadClass(bzip2InputStreamClassName).getConstructor(InputStream.class);
+				bzip2OutputStreamConstructor = loader.loadClass(bzip2OutputStreamClassName).getConstructor(OutputStream.class);
+			}
+			catch (Exception e) {	// may be ClassNotFoundException,NoSuchMethodException,SecurityException
+				bzip2InputStreamConstructor = null;
+				bzip2OutputStreamConstructor = null;
+				bzip2Failure = e.toString();
+			}
+		}
+	}
+
+	/**
+	 * @return	true if the bzip2 codec is available
+	 */
+	public static boolean isBzip2Available() {
+		resolveBzip2();
+		return bzip2InputStreamConstructor != null;
+	}
+
+	/**
+	 * <p>Insert a decompressor for the data set on an input stream, if the Transfer Syntax needs one.</p>
+	 *
+	 * @param	i			the stream positioned at the start of the compressed data set
+	 * @param	transferSyntax		the Transfer Syntax of the data set
+	 * @return				a stream from which to read the decompressed data set, or null if the data set is not compressed
+	 * @exception	DicomException	if the codec is not available or the stream is not correctly encoded
+	 */
+	public static InputStream getDecompressingInputStream(InputStream i,TransferSyntax transferSyntax) throws DicomException {
+		if (transferSyntax.isDeflated()) {
+			return new InflaterInputStream(i,new Inflater(true/*nowrap*/));
+		}
+		else if (transferSyntax.isBzip2ed()) {
+			resolveBzip2();
+			if (bzip2InputStreamConstructor == null) {
+				throw new DicomException("Could not instantiate bzip2 codec - "+bzip2Failure);
+			}
+			try {
+				return (InputStream)(bzip2InputStreamConstructor.newInstance(new Object[] { i }));
+			}
+			catch (InvocationTargetException e) {
+				throw new DicomException("Not a correctly encoded bzip2 bitstream - "+e);
+			}
+			catch (Exception e) {	// may be InstantiationException,IllegalAccessException
+				throw new DicomException("Could not instantiate bzip2 codec - "+e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * <p>Insert a compressor for the data set on an output stream, if the Transfer Syntax needs one.</p>
+	 *
+	 * <p>The compressor must be finished with {@link #finish(OutputStream) finish()}, or closed, once the data set has been written.</p>
+	 *
+	 * @param	o			the stream to write the compressed data set to
+	 * @param	transferSyntax		the Transfer Syntax of the data set
+	 * @return				a stream to which to write the uncompressed data set, or null if the data set is not compressed
+	 * @exception	DicomException	if the codec is not available
+	 */
+	public static OutputStream getCompressingOutputStream(OutputStream o,TransferSyntax transferSyntax) throws DicomException {
+		if (transferSyntax.isDeflated()) {
+			int parallelism = deflateParallelism;
+			if (parallelism > 1) {
+				return new ParallelDeflaterOutputStream(o,deflateLevel,parallelism);
+			}
+			else {
+				return new DeflaterOutputStream(o,new Deflater(deflateLevel,true/*nowrap*/));
+			}
+		}
+		else if (transferSyntax.isBzip2ed()) {
+			resolveBzip2();
+			if (bzip2OutputStreamConstructor == null) {
+				throw new DicomException("Could not instantiate bzip2 codec - "+bzip2Failure);
+			}
+			try {
+				return (OutputStream)(bzip2OutputStreamConstructor.newInstance(new Object[] { o }));
+			}
+			catch (Exception e) {	// may be InstantiationException,IllegalAccessException,InvocationTargetException
+				throw new DicomException("Could not instantiate bzip2 codec - "+e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * <p>Write whatever remains of a compressed data set.</p>
+	 *
+	 * <p>A deflate compressor is finished without closing the underlying stream (e.g., a network association); a bzip2 compressor
+	 * is closed, since nothing short of that writes the remainder, and so closes the underlying stream too.</p>
+	 *
+	 * @param	compressor	a stream returned by {@link #getCompressingOutputStream(OutputStream,TransferSyntax) getCompressingOutputStream()}
+	 * @exception	IOException
+	 */
+	public static void finish(OutputStream compressor) throws IOException {
+		if (compressor instanceof DeflaterOutputStream) {
+			((DeflaterOutputStream)compressor).finish();
+		}
+		else if (compressor instanceof ParallelDeflaterOutputStream) {
+			((ParallelDeflaterOutputStream)compressor).finish();
+		}
+		else {
+			compressor.close();			// flush() alone is not sufficient :(
+		}
+	}
+}
@@ -6,10 +6,26 @@ import com.mycompany.pixelmedfork.dicom.SequenceItem;
 import javax.swing.tree.*;
 import javax.swing.event.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.io.File;
 import java.io.IOException;
 
 /**
+ * <p>A class to create a DICOMDIR from a set of DICOM files, or to read one and present it as a tree.</p>
+ *
+ * <p>When creating a directory for a large number of files, the headers of the files (up to but not including the Pixel Data)
+ * may be read by more than one thread at once. The records are still added in the order in which the files were listed, so the
+ * DICOMDIR created is the same regardless of how many threads are used. Existing patient, study and series records are found by
+ * an index rather than by searching all their siblings.</p>
+ *
+ * <p>When reading a DICOMDIR, the referenced file and the directory record for a SOP Instance UID may be found in constant time
+ * once the index has been built, which is done in a single walk of the tree the first time it is needed.</p>
+ *
  * @author	dclunie
  */
 public class DicomDirectory implements TreeModel {
@@ -87,7 +103,9 @@ public class DicomDirectory implements TreeModel {
 	// Methods specific to DicomDirectory
 
 	/***/
-	private TreeMap mapOffsetToSequenceItemAttributeList;
+	private HashMap<Long,AttributeList> mapOffsetToSequenceItemAttributeList;
+	/***/
+	private HashSet<Long> visitedOffsets;		// offsets of records already added, so that a record referenced more than once is not followed again
 	/***/
 	private DicomDirectoryRecordFactory nodeFactory;
 	
@@ -176,37 +194,49 @@ public class DicomDirectory implements TreeModel {
 	}
 
 	/**
+	 * <p>Add the record at the offset and all its following siblings as children of the parent, each with its own children.</p>
+	 *
+	 * <p>Siblings are followed in a loop rather than by recursion, since a series may have very many instances, so the depth of
+	 * recursion is only the depth of the directory.</p>
+	 *
+	 * <p>A record that has already been added is not added again, nor are its children or following siblings, so that a loop of offsets is not followed forever.</p>
+	 *
 	 * @param	parent
 	 * @param	offset
 	 * @exception	DicomException
 	 */
-	private DicomDirectoryRecord processSubTree(DicomDirectoryRecord parent,long offset) throws DicomException {
+	private void processSubTree(DicomDirectoryRecord parent,long offset) throws DicomException {
 //System.err.println("processSubTree:");
+		while (offset != 0) {
+			if (!visitedOffsets.add(offset)) {
+System.err.println("DicomDirectory: directory record at offset 0x"+Long.toHexString(offset)+" is referenced more than once - ignoring the second reference and anything following it");
+				break;
+			}
+			AttributeList list = mapOffsetToSequenceItemAttributeList.get(offset);
+			if (list == null) {
+				throw new DicomException("No directory record at offset 0x"+Long.toHexString(offset));
+			}
+			DicomDirectoryRecord node = nodeFactory.getNewDicomDirectoryRecord(parent,list);
 
-		AttributeList list = (AttributeList)(mapOffsetToSequenceItemAttributeList.get(new Long(offset)));
-		DicomDirectoryRecord node = nodeFactory.getNewDicomDirectoryRecord(parent,list);
-
-		long offsetOfFirstChild = 0;
-		Attribute aOffsetOfReferencedLowerLevelDirectoryEntity = list.get(TagFromName.OffsetOfReferencedLowerLevelDirectoryEntity);
-		if (aOffsetOfReferencedLowerLevelDirectoryEntity != null && aOffsetOfReferencedLowerLevelDirectoryEntity.getVM() > 0) {
-			offsetOfFirstChild = aOffsetOfReferencedLowerLevelDirectoryEntity.getLongValues()[0];
-		}
-		if (offsetOfFirstChild != 0) {
+			long offsetOfFirstChild = 0;
+			Attribute aOffsetOfReferencedLowerLevelDirectoryEntity = list.get(TagFromName.OffsetOfReferencedLowerLevelDirectoryEntity);
+			if (aOffsetOfReferencedLowerLevelDirectoryEntity != null && aOffsetOfReferencedLowerLevelDirectoryEntity.getVM() > 0) {
+				offsetOfFirstChild = aOffsetOfReferencedLowerLevelDirectoryEntity.getLongValues()[0];
+			}
+			if (offsetOfFirstChild != 0) {
 //System.err.println("processSubTree: addChild offset=0x"+Long.toHexString(offsetOfFirstChild)+" to node "+node);
-			node.addChild(processSubTree(node,offsetOfFirstChild));
-		}
+				processSubTree(node,offsetOfFirstChild);
+			}
+			parent.addChild(node);
 
-		long offsetOfNextSibling = 0;
-		Attribute aOffsetOfTheNextDirectoryRecord = list.get(TagFromName.OffsetOfTheNextDirectoryRecord);
-		if (aOffsetOfTheNextDirectoryRecord != null && aOffsetOfTheNextDirectoryRecord.getVM() > 0) {
-			offsetOfNextSibling = aOffsetOfTheNextDirectoryRecord.getLongValues()[0];
-		}
-		if (offsetOfNextSibling != 0) {
-//System.err.println("processSubTree: addSibling offset=0x"+Long.toHexString(offsetOfNextSibling)+" to parent "+parent);
-			node.addSibling(processSubTree(parent,offsetOfNextSibling));
+			long offsetOfNextSibling = 0;
+			Attribute aOffsetOfTheNextDirectoryRecord = list.get(TagFromName.OffsetOfTheNextDirectoryRecord);
+			if (aOffsetOfTheNextDirectoryRecord != null && aOffsetOfTheNextDirectoryRecord.getVM() > 0) {
+				offsetOfNextSibling = aOffsetOfTheNextDirectoryRecord.getLongValues()[0];
+			}
+//System.err.println("processSubTree: next sibling offset=0x"+Long.toHexString(offsetOfNextSibling)+" of parent "+parent);
+			offset = offsetOfNextSibling;
 		}
-
-		return node;
 	}
 
 	/**
@@ -223,7 +253,8 @@ public class DicomDirectory implements TreeModel {
 
 //System.err.println("Make offset mapping");
 
-		mapOffsetToSequenceItemAttributeList = new TreeMap();
+		mapOffsetToSequenceItemAttributeList = new HashMap<Long,AttributeList>();
+		visitedOffsets = new HashSet<Long>();
 
 		Attribute aDirectoryRecordSequence = list.get(TagFromName.DirectoryRecordSequence);
 		if (aDirectoryRecordSequence == null || !(aDirectoryRecordSequence instanceof SequenceAttribute)) {
@@ -249,7 +280,7 @@ public class DicomDirectory implements TreeModel {
 		}
 		else {
 			root = nodeFactory.getNewTopDirectoryRecord();		// we create our own (empty) root on top
-			root.addChild(processSubTree(root,offsetOfRoot));	// the DICOMDIR "root" is really the first of many siblings
+			processSubTree(root,offsetOfRoot);			// the DICOMDIR "root" is really the first of many siblings
 		}
 //currentTime = System.currentTimeMillis();
 //System.err.println("Walk tree took = "+(currentTime-startTime)+" ms");
@@ -265,6 +296,7 @@ public class DicomDirectory implements TreeModel {
 		// Step 4 ... clean up intermediate data structures ...
 
 		mapOffsetToSequenceItemAttributeList=null;
+		visitedOffsets=null;
 		nodeFactory=null;
 
 //System.err.println(toString());
@@ -275,14 +307,14 @@ public class DicomDirectory implements TreeModel {
 	 * @param		candidate
 	 */
 	private DicomDirectoryRecord findExistingDirectoryRecordOrMakeNewOne(DicomDirectoryRecord parent,DicomDirectoryRecord candidate) {
-		int existingIndex = parent.getIndex(candidate);	// this assumes that the equals() test in getIndex() tests semantic equivalance and not object equality
-		if (existingIndex == -1) {
+		DicomDirectoryRecord existing = parent.getMatchingChild(candidate);	// uses the same test of semantic equivalence and not object equality as getIndex(), but indexed
+		if (existing == null) {
 			candidate.setParent(parent);
 			parent.addChild(candidate);
 //System.err.println("DicomDirectory.findExistingDirectoryRecordOrMakeNewOne():  creating new "+candidate.getClass());
 		}
 		else {
-			candidate = (DicomDirectoryRecord)parent.getChildAt(existingIndex);
+			candidate = existing;
 //System.err.println("DicomDirectory.findExistingDirectoryRecordOrMakeNewOne():  using existing "+candidate.getClass());
 			// could at this perform some kind of merge, adding any "new" attributes (or values) in candidate.getAttributeList(), etc. :(
 			// could at this perform check for other attributes that were used in matching for equality :(
@@ -351,9 +383,7 @@ public class DicomDirectory implements TreeModel {
 	public void readDicomFileAndAddToDirectory(File rootDirectoryName,String fileName) throws DicomException, IOException {
 //System.err.println("DicomDirectory.readDicomFileAndAddToDirectory(): rootDirectoryName = "+rootDirectoryName);
 //System.err.println("DicomDirectory.readDicomFileAndAddToDirectory(): fileName = "+fileName);
-		AttributeList list = new AttributeList();
-		list.read(new File(rootDirectoryName,fileName).getCanonicalPath());
-		addAttributeListFromDicomFileToDirectory(list,fileName);
+		addAttributeListFromDicomFileToDirectory(readHeader(rootDirectoryName,fileName),fileName);
 	}
 
 	/**
@@ -362,9 +392,22 @@ public class DicomDirectory implements TreeModel {
 	 */
 	public void readDicomFileAndAddToDirectory(String fileName) throws DicomException, IOException {
 //System.err.println("DicomDirectory.readDicomFileAndAddToDirectory(): fileName = "+fileName);
+		addAttributeListFromDicomFileToDirectory(readHeader(null,fileName),fileName);
+	}
+
+	/**
+	 * <p>Read what is needed from a DICOM file to make its directory records, which is everything up to but not including the Pixel Data.</p>
+	 *
+	 * @param		rootDirectoryName	the folder relative to which the file name is specified, or null if relative to the current working directory
+	 * @param		fileName
+	 * @return					the attributes read
+	 * @exception	DicomException
+	 * @exception	IOException
+	 */
+	private static AttributeList readHeader(File rootDirectoryName,String fileName) throws DicomException, IOException {
 		AttributeList list = new AttributeList();
-		list.read(fileName);
-		addAttributeListFromDicomFileToDirectory(list,fileName);
+		list.read(new File(rootDirectoryName,fileName),TagFromName.PixelData);
+		return list;
 	}
 		
 	/**
@@ -659,9 +702,8 @@ public class DicomDirectory implements TreeModel {
 			}
 			
 			if (instanceDirectoryRecord != null) {
-				int existingIndex = seriesDirectoryRecord.getIndex(instanceDirectoryRecord);
-				if (existingIndex != -1) {
-					DicomDirectoryRecord existingInstanceDirectoryRecord = (DicomDirectoryRecord)seriesDirectoryRecord.getChildAt(existingIndex);
+				DicomDirectoryRecord existingInstanceDirectoryRecord = seriesDirectoryRecord.getMatchingChild(instanceDirectoryRecord);
+				if (existingInstanceDirectoryRecord != null) {
 					AttributeList existingInstanceDirectoryRecordList = existingInstanceDirectoryRecord == null ? null : existingInstanceDirectoryRecord.getAttributeList();
 					String existingFileName = existingInstanceDirectoryRecordList == null ? "-unknown-" : Attribute.getDelimitedStringValuesOrDefault(existingInstanceDirectoryRecordList,TagFromName.ReferencedFileID,"-unknown-");
 					throw new DicomException("Instance already exists within series for UID "+sopInstanceUID+" from file "+existingFileName+" - not adding file "+fileName);
@@ -689,19 +731,7 @@ public class DicomDirectory implements TreeModel {
 	 * @param		fileNames
 	 */
 	public DicomDirectory(String[] fileNames) {
-		mapOfDirectoryRecordsToSequenceItems = new HashMap();
-		nodeFactory=new DicomDirectoryRecordFactory();
-		root = nodeFactory.getNewTopDirectoryRecord();		// we create our own (empty) root on top
-		for (int i=0; i<fileNames.length; ++i) {
-			String fileName = fileNames[i];
-			try {
-				readDicomFileAndAddToDirectory(fileName);
-			}
-			catch (Exception e) {
-				// Do NOT fail just because one file is unreadable or has a problem
-				e.printStackTrace(System.err);
-			}
-		}
+		this(null,fileNames,1);
 	}
 	
 	/**
@@ -715,19 +745,102 @@ public class DicomDirectory implements TreeModel {
 	 * @param		fileNames
 	 */
 	public DicomDirectory(File rootDirectoryName,String[] fileNames) {
+		this(rootDirectoryName,fileNames,1);
+	}
+	
+	/**
+	 * <p>Create a new DicomDirectory from a list of existing DICOM files contained within a specified root directory, reading more than one file at once.</p>
+	 *
+	 * <p>The specified root directory will NOT be included in the referenced file name in the DICOMDIR records.</p>
+	 *
+	 * <p>The files are read concurrently, but their records are added in the order listed, so the result is the same as when they are read one at a time.</p>
+	 *
+	 * <p>Filenames are NOT checked for compliance with restrictions on length and character set.</p>
+	 *
+	 * @param		rootDirectoryName	the folder relative to which the file names are specified, or null if relative to the current working directory
+	 * @param		fileNames
+	 * @param		parallelism		the number of files to read at once
+	 */
+	public DicomDirectory(File rootDirectoryName,String[] fileNames,int parallelism) {
 		mapOfDirectoryRecordsToSequenceItems = new HashMap();
 		nodeFactory=new DicomDirectoryRecordFactory();
 		root = nodeFactory.getNewTopDirectoryRecord();		// we create our own (empty) root on top
-		for (int i=0; i<fileNames.length; ++i) {
-			String fileName = fileNames[i];
-			try {
-				readDicomFileAndAddToDirectory(rootDirectoryName,fileName);
+		if (parallelism <= 1 || fileNames.length <= 1) {
+			for (int i=0; i<fileNames.length; ++i) {
+				String fileName = fileNames[i];
+				try {
+					readDicomFileAndAddToDirectory(rootDirectoryName,fileName);
+				}
+				catch (Exception e) {
+					// Do NOT fail just because one file is unreadable or has a problem
+					e.printStackTrace(System.err);
+				}
 			}
-			catch (Exception e) {
-				// Do NOT fail just because one file is unreadable or has a problem
-				e.printStackTrace(System.err);
+		}
+		else {
+			readDicomFilesConcurrentlyAndAddToDirectory(rootDirectoryName,fileNames,parallelism);
+		}
+	}
+
+	/***/
+	private static final int filesReadAheadPerThread = 16;		// enough to keep the threads busy whilst records are added, without holding many headers
+	
+	/**
+	 * <p>Read the headers of files concurrently, and add them to the directory in the order listed.</p>
+	 *
+	 * <p>No more than a fixed number of files per thread are read ahead of the one being added, so memory use does not depend on the number of files.</p>
+	 *
+	 * @param		rootDirectoryName	the folder relative to which the file names are specified, or null if relative to the current working directory
+	 * @param		fileNames
+	 * @param		parallelism		the number of files to read at once
+	 */
+	private void readDicomFilesConcurrentlyAndAddToDirectory(final File rootDirectoryName,final String[] fileNames,int parallelism) {
+		AttributeList.getDictionary();		// make sure the shared dictionary is loaded once, before any thread needs it
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism,new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,"DicomDirectory");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			int readAhead = parallelism*filesReadAheadPerThread;
+			ArrayDeque<Future<AttributeList>> pending = new ArrayDeque<Future<AttributeList>>(readAhead);
+			int submitted = 0;
+			for (int i=0; i<fileNames.length; ++i) {
+				while (submitted < fileNames.length && submitted < i+readAhead) {
+					final String fileName = fileNames[submitted++];
+					pending.add(executor.submit(new Callable<AttributeList>() {
+						public AttributeList call() throws Exception {
+							return readHeader(rootDirectoryName,fileName);
+						}
+					}));
+				}
+				String fileName = fileNames[i];
+				try {
+					AttributeList list;
+					try {
+						list = pending.remove().get();
+					}
+					catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						throw cause instanceof Exception ? (Exception)cause : e;
+					}
+					addAttributeListFromDicomFileToDirectory(list,fileName);
+				}
+				catch (InterruptedException e) {
+					e.printStackTrace(System.err);
+					break;
+				}
+				catch (Exception e) {
+					// Do NOT fail just because one file is unreadable or has a problem
+					e.printStackTrace(System.err);
+				}
 			}
 		}
+		finally {
+			executor.shutdownNow();
+		}
 	}
 	
 	/**
@@ -781,7 +894,7 @@ public class DicomDirectory implements TreeModel {
 	/***/
 	private AttributeList walkTreeToBuildAttributeList() throws DicomException {
 		AttributeList list = new AttributeList();
-		FileMetaInformation.addFileMetaInformation(list,SOPClass.MediaStorageDirectoryStorage,new UIDGenerator().getAnotherNewUID(),TransferSyntax.ExplicitVRLittleEndian,null);
+		FileMetaInformation.addFileMetaInformation(list,SOPClass.MediaStorageDirectoryStorage,UIDGenerator.getUniqueUID(),TransferSyntax.ExplicitVRLittleEndian,null);
 		{ AttributeTag t = TagFromName.OffsetOfTheFirstDirectoryRecordOfTheRootDirectoryEntity; Attribute a = new UnsignedLongAttribute(t); a.addValue(0); list.put(t,a); }
 		{ AttributeTag t = TagFromName.OffsetOfTheLastDirectoryRecordOfTheRootDirectoryEntity; Attribute a = new UnsignedLongAttribute(t); a.addValue(0); list.put(t,a); }
 		{ AttributeTag t = TagFromName.FileSetConsistencyFlag; Attribute a = new UnsignedShortAttribute(t); a.addValue(0); list.put(t,a); }
@@ -863,6 +976,37 @@ public class DicomDirectory implements TreeModel {
 	/***/
 	private Map mapOfSOPInstanceUIDToReferencedFileName;
 
+	/***/
+	private Map<String,DicomDirectoryRecord> mapOfSOPInstanceUIDToDirectoryRecord;
+
+	/**
+	 * @param	record
+	 */
+	private void addToMapOfSOPInstanceUIDToDirectoryRecord(DicomDirectoryRecord record) {
+		String uid = Attribute.getSingleStringValueOrNull(record.getAttributeList(),TagFromName.ReferencedSOPInstanceUIDInFile);
+		if (uid != null) {
+			mapOfSOPInstanceUIDToDirectoryRecord.put(uid,record);
+		}
+		int n = getChildCount(record);
+		for (int i=0; i<n; ++i) addToMapOfSOPInstanceUIDToDirectoryRecord((DicomDirectoryRecord)getChild(record,i));
+	}
+
+	/**
+	 * <p>Get the directory record that references a SOP Instance.</p>
+	 *
+	 * <p>The index of all the records is built the first time this is called, after which each lookup takes constant time.</p>
+	 *
+	 * @param	sopInstanceUID
+	 * @return			the directory record, or null if none references the SOP Instance
+	 */
+	public DicomDirectoryRecord getDirectoryRecordForSOPInstanceUID(String sopInstanceUID) {
+		if (mapOfSOPInstanceUIDToDirectoryRecord == null) {
+			mapOfSOPInstanceUIDToDirectoryRecord = new HashMap<String,DicomDirectoryRecord>();
+			addToMapOfSOPInstanceUIDToDirectoryRecord(root);
+		}
+		return mapOfSOPInstanceUIDToDirectoryRecord.get(sopInstanceUID);
+	}
+
 	/**
 	 * @param	record
 	 * @param	parentFilePath
@@ -908,6 +1052,20 @@ public class DicomDirectory implements TreeModel {
 
 	// Convenience methods and their supporting methods ...
 
+	/**
+	 * <p>Get the file that contains a SOP Instance.</p>
+	 *
+	 * <p>The index of all the referenced files is built the first time this (or {@link #getMapOfSOPInstanceUIDToReferencedFileName(String) getMapOfSOPInstanceUIDToReferencedFileName()})
+	 * is called, after which each lookup takes constant time.</p>
+	 *
+	 * @param	sopInstanceUID
+	 * @param	parentFilePath		the folder in which the DICOMDIR lives (i.e., the base for contained references)
+	 * @return				the file name fully qualified by the specified parent, or null if the SOP Instance is not referenced
+	 */
+	public String getReferencedFileNameForSOPInstanceUID(String sopInstanceUID,String parentFilePath) {
+		return (String)(getMapOfSOPInstanceUIDToReferencedFileName(parentFilePath).get(sopInstanceUID));
+	}
+
 	/**
 	 * @param	sopInstanceUID
 	 */
@@ -977,8 +1135,18 @@ public class DicomDirectory implements TreeModel {
 	 * @param	parentFilePath		the folder in which the DICOMDIR lives (i.e., the base for contained references)
 	 * @return				a java.util.HashMap whose keys are string file names fully qualified by the specified parent, mapped to DicomDirectoryRecords
 	 */
-	public static HashMap findAllContainedReferencedFileNamesAndTheirRecords(DicomDirectoryRecord record,String parentFilePath) {
-		HashMap map = new HashMap();
+	public static HashMap<String,DicomDirectoryRecord> findAllContainedReferencedFileNamesAndTheirRecords(DicomDirectoryRecord record,String parentFilePath) {
+		HashMap<String,DicomDirectoryRecord> map = new HashMap<String,DicomDirectoryRecord>();
+		findAllContainedReferencedFileNamesAndTheirRecords(record,parentFilePath,map);
+		return map;
+	}
+
+	/**
+	 * @param	record
+	 * @param	parentFilePath		the folder in which the DICOMDIR lives (i.e., the base for contained references)
+	 * @param	map			the map to add to, rather than making a new one for every record and copying it into that of the parent
+	 */
+	private static void findAllContainedReferencedFileNamesAndTheirRecords(DicomDirectoryRecord record,String parentFilePath,HashMap<String,DicomDirectoryRecord> map) {
 		String name = getReferencedFileName(record,parentFilePath);
 		if (name != null && name.length() > 0) {
 			map.put(name,record);
@@ -986,9 +1154,8 @@ public class DicomDirectory implements TreeModel {
 		int nChildren = record.getChildCount();
 		for (int i=0; i<nChildren; ++i) {
 			DicomDirectoryRecord child=(DicomDirectoryRecord)(record.getChildAt(i));
-			map.putAll(findAllContainedReferencedFileNamesAndTheirRecords(child,parentFilePath));
+			findAllContainedReferencedFileNamesAndTheirRecords(child,parentFilePath,map);
 		}
-		return map;
 	}
 
 
@@ -998,7 +1165,7 @@ public class DicomDirectory implements TreeModel {
 	 * @param	parentFilePath		the folder in which the DICOMDIR lives (i.e., the base for contained references)
 	 * @return				a java.util.HashMap whose keys are string file names fully qualified by the specified parent, mapped to DicomDirectoryRecords
 	 */
-	public HashMap findAllContainedReferencedFileNamesAndTheirRecords(String parentFilePath) {
+	public HashMap<String,DicomDirectoryRecord> findAllContainedReferencedFileNamesAndTheirRecords(String parentFilePath) {
 		return findAllContainedReferencedFileNamesAndTheirRecords((DicomDirectoryRecord)(getRoot()),parentFilePath);
 	}
 
@@ -1102,13 +1269,7 @@ public class DicomDirectory implements TreeModel {
 				int nFiles  = arg.length - offset;
 				String[] sourceFiles = new String[nFiles];
 				System.arraycopy(arg,offset,sourceFiles,0,nFiles);
-				DicomDirectory dicomDirectory;
-				if (rootDirectoryName == null) {
-					dicomDirectory = new DicomDirectory(sourceFiles);
-				}
-				else {
-					dicomDirectory = new DicomDirectory(rootDirectoryName,sourceFiles);
-				}
+				DicomDirectory dicomDirectory = new DicomDirectory(rootDirectoryName,sourceFiles,Runtime.getRuntime().availableProcessors());
 //System.err.println("DicomDirectory.main(): created:\n"+dicomDirectory);
 				dicomDirectory.write(dicomdirName);
 			}
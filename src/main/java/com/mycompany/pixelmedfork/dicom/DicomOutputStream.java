@@ -39,6 +39,8 @@ public class DicomOutputStream extends BinaryOutputStream {
 
 	/***/
 	private long byteOffsetOfStartOfData;
+	/***/
+	private boolean writeDefinedLengthSequences;
 
 	/**
 	 * @param	metaTransferSyntaxUID
@@ -175,6 +177,20 @@ public class DicomOutputStream extends BinaryOutputStream {
 	 * @return		true if implicit VR, false if explicit VR
 	 */
 	public boolean isImplicitVR() { return transferSyntaxInUse.isImplicitVR(); }
+
+	/**
+	 * <p>Set whether or not sequences and their items are to be written with defined rather than undefined lengths.</p>
+	 *
+	 * @param	writeDefinedLengthSequences	true if defined lengths are to be written; default is false
+	 */
+	public void setWriteDefinedLengthSequences(boolean writeDefinedLengthSequences) { this.writeDefinedLengthSequences=writeDefinedLengthSequences; }
+
+	/**
+	 * <p>Are sequences and their items to be written with defined rather than undefined lengths ?</p>
+	 *
+	 * @return		true if defined lengths are to be written
+	 */
+	public boolean isWriteDefinedLengthSequences() { return writeDefinedLengthSequences; }
 }
 
 
@@ -4,14 +4,27 @@ package com.mycompany.pixelmedfork.dicom;
 
 import java.io.*;
 
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
 import java.util.zip.*;
 
 import com.pixelmed.utils.ByteArray;
+import com.pixelmed.utils.CopyStream;
 
 /**
  * <p>A class to copy DICOM attributes from anm input stream to an output stream,
  * converting the encoding of the attributes between transfer syntaxes if necessary.</p>
  *
+ * <p>If the input and output transfer syntaxes are {@link #isByteCompatible(TransferSyntax,TransferSyntax) byte compatible},
+ * the data set may instead be copied verbatim, without parsing it. Note that a verbatim copy retains any group lengths,
+ * Length to End and Data Set Trailing Padding, which the parsing copy removes, and does not convert defined length
+ * sequences and items to undefined length.</p>
+ *
+ * <p>A file may also be copied replacing only its meta information header, e.g., to change the transfer syntax UID, using
+ * {@link #copyReplacingMetaInformationHeader(File,File,String,String) copyReplacingMetaInformationHeader()}.</p>
+ *
  * @see com.pixelmed.dicom.DicomInputStream
  * @see com.pixelmed.dicom.DicomOutputStream
  *
@@ -29,7 +42,7 @@ public class DicomStreamCopier {
 	private void createDictionaryifNecessary() {
 		if (dictionary == null) {
 //System.err.println("DicomStreamCopier.createDictionaryifNecessary(): creating static dictionary");
-			dictionary = new DicomDictionary();
+			dictionary = AttributeList.getDictionary();		// share the one already loaded, if any, rather than paying for a second
 		}
 	}
 
@@ -40,6 +53,8 @@ public class DicomStreamCopier {
 
 	/***/
 	private static final int bufferSize = 32768;	// must be a multiple of largest VR word size re. endianness, which is 8 for for FD
+	/***/
+	private static final int verbatimBufferSize = 262144;
 
 	/**
 	 * @exception	IOException
@@ -141,30 +156,13 @@ public class DicomStreamCopier {
 		if (i.areReadingDataSet()) {
 			// Test to see whether or not a codec needs to be pushed on the stream ... after the first time, the TransferSyntax will always be ExplicitVRLittleEndian 
 //System.err.println("DicomStreamCopier.copy(): Input stream - testing for deflate and bzip2 TS");
-			if (i.getTransferSyntaxToReadDataSet().isDeflated()) {
-				// insert deflate into input stream and make a new DicomInputStream
+			InputStream decompressingInputStream = DataSetCodecRegistry.getDecompressingInputStream(i,i.getTransferSyntaxToReadDataSet());
+			if (decompressingInputStream != null) {
+				// insert deflate or bzip2 into input stream and make a new DicomInputStream
 //System.err.println("DicomStreamCopier.copy(): Input stream - creating new DicomInputStream from deflate");
-				i = new DicomInputStream(new InflaterInputStream(i,new Inflater(true)),TransferSyntax.ExplicitVRLittleEndian,false);
+				i = new DicomInputStream(decompressingInputStream,TransferSyntax.ExplicitVRLittleEndian,false);
 				byteOffset=0;
 			}
-			else if (i.getTransferSyntaxToReadDataSet().isBzip2ed()) {
-				// insert bzip2 into input stream and make a new DicomInputStream
-//System.err.println("DicomStreamCopier.copy(): Input stream - creating new DicomInputStream from bzip2");
-				try {
-					Class classToUse = Thread.currentThread().getContextClassLoader().loadClass("org.apache.excalibur.bzip2.CBZip2InputStream");
-					Class [] argTypes  = {InputStream.class};
-					Object[] argValues = {i};
-					InputStream bzipInputStream = (InputStream)(classToUse.getConstructor(argTypes).newInstance(argValues));
-					i = new DicomInputStream(bzipInputStream,TransferSyntax.ExplicitVRLittleEndian,false);
-					byteOffset=0;
-				}
-				catch (java.lang.reflect.InvocationTargetException e) {
-					throw new DicomException("Not a correctly encoded bzip2 bitstream - "+e);
-				}
-				catch (Exception e) {	// may be ClassNotFoundException,NoSuchMethodException,InstantiationException
-					throw new DicomException("Could not instantiate bzip2 codec - "+e);
-				}
-			}
 		}
 		
 		if (o.areWritingDataSet()) {
@@ -172,37 +170,17 @@ public class DicomStreamCopier {
 //System.err.println("DicomStreamCopier.copy(): o.isImplicitVR() = "+o.isImplicitVR());
 			// Test to see whether or not a codec needs to be pushed on the stream ... after the first time, the TransferSyntax will always be ExplicitVRLittleEndian 
 //System.err.println("DicomStreamCopier.copy(): Output stream - testing for deflate and bzip2 TS");
-			if (o.getTransferSyntaxToWriteDataSet().isDeflated()) {
-				// insert deflate into output stream and make a new DicomOutputStream
-//System.err.println("DicomStreamCopier.copy(): Output stream - creating new DicomOutputStream from deflate");
-				OutputStream deflaterOutputStream = new DeflaterOutputStream(o,new Deflater(Deflater.BEST_COMPRESSION,true/*don't wrap with zlib*/));
+			OutputStream compressingOutputStream = DataSetCodecRegistry.getCompressingOutputStream(o,o.getTransferSyntaxToWriteDataSet());
+			if (compressingOutputStream != null) {
+				// insert deflate or bzip2 into output stream and make a new DicomOutputStream
+//System.err.println("DicomStreamCopier.copy(): Output stream - creating new DicomOutputStream from deflate or bzip2");
 				o = new DicomOutputStream(
-					deflaterOutputStream,
+					compressingOutputStream,
 					null,	// no meta-header
 					TransferSyntax.ExplicitVRLittleEndian);
 				byteOffset=0;
 				// assert closeWhenDone=true;
 			}
-			else if (o.getTransferSyntaxToWriteDataSet().isBzip2ed()) {
-				// insert bzip2 into output stream and make a new DicomOutputStream
-//System.err.println("DicomStreamCopier.copy(): Output stream - creating new DicomOutputStream from bzip2");
-				try {
-					Class classToUse = Thread.currentThread().getContextClassLoader().loadClass("org.apache.excalibur.bzip2.CBZip2OutputStream");
-					Class [] argTypes  = {OutputStream.class};
-					Object[] argValues = {o};
-					//Object[] argValues = {o.getUnderlyingOutputStream()};
-					OutputStream bzip2OutputStream = (OutputStream)(classToUse.getConstructor(argTypes).newInstance(argValues));
-					o = new DicomOutputStream(
-						bzip2OutputStream,
-						null,	// no meta-header
-						TransferSyntax.ExplicitVRLittleEndian);
-					byteOffset=0;
-					// assert closeWhenDone=true;
-				}
-				catch (Exception e) {	// may be ClassNotFoundException,NoSuchMethodException,InstantiationException
-					throw new DicomException("Could not instantiate bzip2 codec - "+e);
-				}
-			}
 		}
 		
 		byte[] buffer = new byte[bufferSize];
@@ -493,6 +471,161 @@ System.err.println("Ignoring bad Item at "+byteOffset+" "+tag+" VL=<0x"+Long.toH
 		copy(0,0xffffffffl,false/*stopAfterMetaInformationHeader*/,false/*copyMetaInformationHeader*/,true/*doCopy*/,true/*closeWhenDone*/);
 	}
 	
+	/**
+	 * <p>Copy a dicom input stream to a dicom output stream, using any meta information header if present in input, but not copying it.</p>
+	 *
+	 * <p>If requested, and the transfer syntaxes of the input and output data sets are {@link #isByteCompatible(TransferSyntax,TransferSyntax) byte compatible},
+	 * the data set is copied verbatim without being parsed, otherwise it is parsed and recreated.</p>
+	 *
+	 * @param	i					the input stream
+	 * @param	o					the output stream, which is closed after the copy is done
+	 * @param	copyVerbatimIfByteCompatible	if true, copy the data set verbatim if the transfer syntaxes permit
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public DicomStreamCopier(DicomInputStream i,DicomOutputStream o,boolean copyVerbatimIfByteCompatible) throws DicomException,IOException {
+		this.i=i;
+		this.o=o;
+		if (copyVerbatimIfByteCompatible && o.areWritingDataSet()) {
+			if (i.areReadingMetaHeader()) {
+				new AttributeList().readOnlyMetaInformationHeader(i);	// leaves i positioned at the start of the data set
+			}
+			TransferSyntax inputTransferSyntax = i.getTransferSyntaxToReadDataSet() == null ? i.getTransferSyntaxInUse() : i.getTransferSyntaxToReadDataSet();
+			if (isByteCompatible(inputTransferSyntax,o.getTransferSyntaxToWriteDataSet())) {
+//System.err.println("DicomStreamCopier(): copying verbatim from "+inputTransferSyntax+" to "+o.getTransferSyntaxToWriteDataSet());
+				CopyStream.copy(verbatimBufferSize,i,o);
+				o.close();
+				return;
+			}
+		}
+		copy(0,0xffffffffl,false/*stopAfterMetaInformationHeader*/,false/*copyMetaInformationHeader*/,true/*doCopy*/,true/*closeWhenDone*/);
+	}
+
+	/**
+	 * <p>Are data sets encoded in one transfer syntax also correctly encoded in another, without any change?</p>
+	 *
+	 * <p>This is the case if the transfer syntaxes are the same, or both have the same VR explicitness and endianness and
+	 * are neither encapsulated nor compressed as a whole, or the input is encapsulated with a bitstream that is also valid in the
+	 * output (e.g., JPEG Lossless SV1 in JPEG Lossless, or JPEG 2000 Lossless Only in JPEG 2000).</p>
+	 *
+	 * @param	inputTransferSyntax	the transfer syntax of the data set to be copied
+	 * @param	outputTransferSyntax	the transfer syntax to copy the data set to
+	 * @return				true if the data set may be copied verbatim
+	 */
+	public static boolean isByteCompatible(TransferSyntax inputTransferSyntax,TransferSyntax outputTransferSyntax) {
+		String inputUID = inputTransferSyntax.getUID();
+		String outputUID = outputTransferSyntax.getUID();
+		if (inputUID.equals(outputUID)) {
+			return true;
+		}
+		if (inputTransferSyntax.isDeflated() || inputTransferSyntax.isBzip2ed() || outputTransferSyntax.isDeflated() || outputTransferSyntax.isBzip2ed()
+		 || inputTransferSyntax.isExplicitVR() != outputTransferSyntax.isExplicitVR()
+		 || inputTransferSyntax.isBigEndian() != outputTransferSyntax.isBigEndian()) {
+			return false;
+		}
+		if (inputTransferSyntax.isNotEncapsulated() && outputTransferSyntax.isNotEncapsulated()) {
+			return true;
+		}
+		return (inputUID.equals(TransferSyntax.JPEGLosslessSV1)  && outputUID.equals(TransferSyntax.JPEGLossless))
+		    || (inputUID.equals(TransferSyntax.JPEGBaseline)     && outputUID.equals(TransferSyntax.JPEGExtended))
+		    || (inputUID.equals(TransferSyntax.JPEG2000Lossless) && outputUID.equals(TransferSyntax.JPEG2000));
+	}
+
+	/**
+	 * <p>Copy the remainder of a file verbatim to a dicom output stream.</p>
+	 *
+	 * <p>The bytes are transferred from the file channel directly to the channel underlying the output stream, if it has one,
+	 * otherwise through the output stream.</p>
+	 *
+	 * @param	inputFile	the file to copy from
+	 * @param	byteOffset	the offset in the file of the first byte to copy, e.g., the start of the data set
+	 * @param	o		the output stream, which is left open
+	 * @return			the number of bytes copied
+	 * @exception	IOException
+	 */
+	public static long copyVerbatim(File inputFile,long byteOffset,DicomOutputStream o) throws IOException {
+		FileInputStream fi = new FileInputStream(inputFile);
+		try {
+			FileChannel inputChannel = fi.getChannel();
+			long length = inputChannel.size() - byteOffset;
+			WritableByteChannel outputChannel = o.flushAndGetUnderlyingChannel();
+			boolean direct = outputChannel != null;
+			if (!direct) {
+				outputChannel = Channels.newChannel(o);		// o keeps track of the bytes written through it
+			}
+			long position = byteOffset;
+			long remaining = length;
+			while (remaining > 0) {
+				long transferred = inputChannel.transferTo(position,remaining,outputChannel);
+				if (transferred <= 0) {
+					throw new EOFException("Could not copy "+remaining+" bytes from "+inputFile+" at byte offset "+position);
+				}
+				position+=transferred;
+				remaining-=transferred;
+			}
+			if (direct) {
+				o.wroteToUnderlyingChannel(length);
+			}
+			return length;
+		}
+		finally {
+			fi.close();
+		}
+	}
+
+	/**
+	 * <p>Copy one file to another, replacing only the meta information header.</p>
+	 *
+	 * <p>A new meta information header is written with the specified transfer syntax and the same SOP Class and Instance UIDs.
+	 * If the input and output transfer syntaxes are {@link #isByteCompatible(TransferSyntax,TransferSyntax) byte compatible},
+	 * the data set is then copied verbatim from one file to the other, otherwise it is parsed and recreated.</p>
+	 *
+	 * @param	inputFile			the file to copy from, which must have a meta information header
+	 * @param	outputFile			the file to copy to
+	 * @param	outputTransferSyntaxUID		the transfer syntax of the output data set
+	 * @param	sourceApplicationEntityTitle	the source AE title to put in the new meta information header, or null to keep that of the input, if any
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static void copyReplacingMetaInformationHeader(File inputFile,File outputFile,String outputTransferSyntaxUID,String sourceApplicationEntityTitle) throws IOException, DicomException {
+		DicomInputStream din = new DicomInputStream(inputFile);
+		try {
+			if (!din.haveMetaHeader()) {
+				throw new DicomException("Cannot replace meta information header of "+inputFile+" since it has none");
+			}
+			AttributeList inputMetaList = new AttributeList();
+			inputMetaList.readOnlyMetaInformationHeader(din);
+			if (sourceApplicationEntityTitle == null) {
+				sourceApplicationEntityTitle = Attribute.getSingleStringValueOrNull(inputMetaList,TagFromName.SourceApplicationEntityTitle);
+			}
+			AttributeList outputMetaList = new FileMetaInformation(
+				Attribute.getSingleStringValueOrNull(inputMetaList,TagFromName.MediaStorageSOPClassUID),
+				Attribute.getSingleStringValueOrNull(inputMetaList,TagFromName.MediaStorageSOPInstanceUID),
+				outputTransferSyntaxUID,sourceApplicationEntityTitle).getAttributeList();
+			long metaGroupLength = Attribute.getSingleLongValueOrDefault(inputMetaList,TagFromName.FileMetaInformationGroupLength,0);
+			
+			FileOutputStream fo = new FileOutputStream(outputFile);
+			DicomOutputStream dout = new DicomOutputStream(new BufferedOutputStream(fo),TransferSyntax.ExplicitVRLittleEndian,outputTransferSyntaxUID);
+			dout.setUnderlyingChannel(fo.getChannel());
+			outputMetaList.write(dout,true/*useMeta*/);
+			dout.setWritingDataSet();
+			TransferSyntax inputTransferSyntax = din.getTransferSyntaxToReadDataSet();
+			if (metaGroupLength > 0 && isByteCompatible(inputTransferSyntax,new TransferSyntax(outputTransferSyntaxUID))) {
+				// the group length element itself is always 12 bytes (explicit VR UL) and precedes the rest of the group
+//System.err.println("DicomStreamCopier.copyReplacingMetaInformationHeader(): copying data set verbatim from "+inputTransferSyntax+" to "+outputTransferSyntaxUID);
+				copyVerbatim(inputFile,din.getByteOffsetOfStartOfData()+12+metaGroupLength,dout);
+				dout.close();
+			}
+			else {
+//System.err.println("DicomStreamCopier.copyReplacingMetaInformationHeader(): parsing data set to convert from "+inputTransferSyntax+" to "+outputTransferSyntaxUID);
+				new DicomStreamCopier(din,dout);	// closes dout
+			}
+		}
+		finally {
+			din.close();
+		}
+	}
+
 	/**
 	 * <p>Copy one file to another parsing and recreating the DICOM attributes using the specified transfer syntaxes.</p>
 	 *
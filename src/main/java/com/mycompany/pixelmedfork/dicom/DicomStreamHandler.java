@@ -0,0 +1,109 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.IOException;
+
+/**
+ * <p>An interface to receive the events generated by a {@link com.pixelmed.dicom.DicomStreamParser DicomStreamParser}
+ * as it pushes a DICOM stream through, in the manner of a SAX content handler.</p>
+ *
+ * <p>Values are delivered in chunks of bounded size in the byte order of the transfer syntax in use, so a handler
+ * need never hold an entire value (or data set) in memory. Encapsulated Pixel Data is delivered as a sequence
+ * (with a VR of OB or OW rather than SQ) each of whose items is one fragment, the bytes of which are delivered
+ * as value chunks between the start and end of the item.</p>
+ *
+ * <p>A handler that needs more information than is passed to it, such as the transfer syntax or byte offset, or wants
+ * to read a whole value as an {@link com.pixelmed.dicom.Attribute Attribute}, can keep a reference to the parser.</p>
+ *
+ * <p>The byte array for the value representation and the buffer for value chunks are reused by the parser, so must not be retained.</p>
+ *
+ * @see com.pixelmed.dicom.DicomStreamParser#parse(DicomStreamHandler)
+ */
+public interface DicomStreamHandler {
+
+	/**
+	 * <p>The meta information header, if any, has been read, and the data set is about to start.</p>
+	 *
+	 * @param	transferSyntax		the transfer syntax of the data set
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void startDataSet(TransferSyntax transferSyntax) throws IOException, DicomException;
+
+	/**
+	 * <p>A data element that is not a sequence has been encountered.</p>
+	 *
+	 * @param	tag		the tag
+	 * @param	vr		the value representation
+	 * @param	vl		the value length
+	 * @return			true if the value is wanted as chunks, false if it is to be skipped (or has been read with {@link com.pixelmed.dicom.DicomStreamParser#readValueAsAttribute(SpecificCharacterSet,int,boolean) readValueAsAttribute()})
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public boolean startElement(AttributeTag tag,byte[] vr,long vl) throws IOException, DicomException;
+
+	/**
+	 * <p>The next chunk of the value of the current data element or fragment.</p>
+	 *
+	 * @param	buffer		the buffer containing the chunk
+	 * @param	offset		the offset of the chunk in the buffer
+	 * @param	length		the length of the chunk
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void valueChunk(byte[] buffer,int offset,int length) throws IOException, DicomException;
+
+	/**
+	 * <p>The end of a data element that is not a sequence.</p>
+	 *
+	 * @param	tag		the tag
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void endElement(AttributeTag tag) throws IOException, DicomException;
+
+	/**
+	 * <p>A sequence, or encapsulated Pixel Data, has been encountered.</p>
+	 *
+	 * @param	tag		the tag
+	 * @param	vr		the value representation, SQ (or UN) for a sequence, or OB or OW for encapsulated Pixel Data
+	 * @param	vl		the value length, which may be undefined (0xffffffffl)
+	 * @return			true if the contents are wanted, false if the entire sequence is to be skipped
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public boolean startSequence(AttributeTag tag,byte[] vr,long vl) throws IOException, DicomException;
+
+	/**
+	 * <p>An item of a sequence, or a fragment of encapsulated Pixel Data, has been encountered.</p>
+	 *
+	 * @param	vl		the value length of the item, which may be undefined (0xffffffffl) for sequence items
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void startItem(long vl) throws IOException, DicomException;
+
+	/**
+	 * <p>The end of an item or fragment.</p>
+	 *
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void endItem() throws IOException, DicomException;
+
+	/**
+	 * <p>The end of a sequence or encapsulated Pixel Data.</p>
+	 *
+	 * @param	tag		the tag
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void endSequence(AttributeTag tag) throws IOException, DicomException;
+
+	/**
+	 * <p>The end of the data set.</p>
+	 *
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void endDataSet() throws IOException, DicomException;
+}
@@ -0,0 +1,659 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>A class to parse a DICOM stream as a sequence of events, without building an {@link com.pixelmed.dicom.AttributeList AttributeList},
+ * so that arbitrarily large objects can be processed with constant memory.</p>
+ *
+ * <p>The parser may be used in a "pull" style, by calling {@link #next() next()} repeatedly and then the accessors
+ * to find out about each event, or in a "push" style, by calling {@link #parse(DicomStreamHandler) parse()}
+ * with a {@link com.pixelmed.dicom.DicomStreamHandler DicomStreamHandler}, in the manner of a SAX parser, e.g.:</p>
+ *
+ * <pre>
+ * DicomStreamParser parser = new DicomStreamParser(new DicomInputStream(new BufferedInputStream(new FileInputStream(name))));
+ * int event;
+ * while ((event = parser.next()) != DicomStreamParser.END_DATA_SET) {
+ *     if (event == DicomStreamParser.START_ELEMENT &amp;&amp; parser.getTag().equals(TagFromName.SOPInstanceUID)) {
+ *         Attribute a = parser.readValueAsAttribute(null,0,false);
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * <p>The events are:</p>
+ * <ul>
+ * <li>{@link #START_DATA_SET START_DATA_SET}, after the meta information header (if any) and before the first data set element</li>
+ * <li>{@link #START_ELEMENT START_ELEMENT}, followed by zero or more {@link #VALUE_CHUNK VALUE_CHUNK} and then {@link #END_ELEMENT END_ELEMENT}, for data elements other than sequences</li>
+ * <li>{@link #START_SEQUENCE START_SEQUENCE}, followed by zero or more items and then {@link #END_SEQUENCE END_SEQUENCE}, for sequences and encapsulated Pixel Data</li>
+ * <li>{@link #START_ITEM START_ITEM} and {@link #END_ITEM END_ITEM}, around the data elements of a sequence item, or the {@link #VALUE_CHUNK VALUE_CHUNK}s of a fragment of encapsulated Pixel Data</li>
+ * <li>{@link #END_DATA_SET END_DATA_SET}, at the end of the stream</li>
+ * </ul>
+ *
+ * <p>Values are read in chunks no larger than the chunk size, in the byte order of the transfer syntax in use, and
+ * the meta information header, deflate and bzip2 compression are handled in the same way as by {@link com.pixelmed.dicom.AttributeList AttributeList}.
+ * Encapsulated Pixel Data is not decompressed.</p>
+ *
+ * @see com.pixelmed.dicom.AttributeList#read(DicomStreamParser)
+ * @see com.pixelmed.dicom.DicomStreamRewriter
+ */
+public class DicomStreamParser {
+
+	/***/
+	public static final int START_DATA_SET = 1;
+	/***/
+	public static final int START_ELEMENT = 2;
+	/***/
+	public static final int VALUE_CHUNK = 3;
+	/***/
+	public static final int END_ELEMENT = 4;
+	/***/
+	public static final int START_SEQUENCE = 5;
+	/***/
+	public static final int START_ITEM = 6;
+	/***/
+	public static final int END_ITEM = 7;
+	/***/
+	public static final int END_SEQUENCE = 8;
+	/***/
+	public static final int END_DATA_SET = 9;
+
+	/***/
+	public static final int defaultChunkSize = 32768;
+
+	// the types of nested context ...
+
+	/***/
+	private static final int DATA_SET = 0;
+	/***/
+	private static final int SEQUENCE = 1;
+	/***/
+	private static final int ITEM = 2;
+	/***/
+	private static final int ENCAPSULATED = 3;
+
+	/***/
+	private DicomInputStream i;
+	/***/
+	private DicomDictionary dictionary;
+	/***/
+	private boolean explicit;
+	/***/
+	private long byteOffset;
+	/***/
+	private TransferSyntax transferSyntaxOfDataSet;
+	/***/
+	private boolean startedDataSet;
+	/***/
+	private long metaInformationEndByteOffset;
+	/***/
+	private boolean done;
+
+	/***/
+	private int[] contextType;
+	/***/
+	private long[] contextEndByteOffset;		// -1 if undefined length
+	/***/
+	private AttributeTag[] contextTag;
+	/***/
+	private int depth;
+
+	/***/
+	private int lastEvent;
+	/***/
+	private int pendingEvent;
+	/***/
+	private AttributeTag tag;
+	/***/
+	private byte[] vr;
+	/***/
+	private long vl;
+	/***/
+	private long valueByteOffset;
+	/***/
+	private long valueRemaining;
+	/***/
+	private boolean inValue;
+	/***/
+	private boolean inFragment;
+	/***/
+	private boolean valueAlreadyInChunk;
+	/***/
+	private byte[] chunk;
+	/***/
+	private int chunkLength;
+
+	/**
+	 * <p>Construct a parser for the supplied stream using the default chunk size.</p>
+	 *
+	 * @param	i		the stream to parse, positioned at the start of the meta information header or data set
+	 */
+	public DicomStreamParser(DicomInputStream i) {
+		this(i,defaultChunkSize);
+	}
+
+	/**
+	 * <p>Construct a parser for the supplied stream.</p>
+	 *
+	 * @param	i		the stream to parse, positioned at the start of the meta information header or data set
+	 * @param	chunkSize	the maximum number of bytes of a value to deliver at a time, which must be a multiple of 8 if the chunks are to be byte swapped
+	 */
+	public DicomStreamParser(DicomInputStream i,int chunkSize) {
+		this.i = i;
+		dictionary = AttributeList.getDictionary();
+		explicit = i.getTransferSyntaxInUse().isExplicitVR();
+		byteOffset = i.getByteOffsetOfStartOfData();
+		metaInformationEndByteOffset = -1;
+		contextType = new int[16];
+		contextEndByteOffset = new long[16];
+		contextTag = new AttributeTag[16];
+		depth = 0;
+		pushContext(DATA_SET,-1,null);
+		vr = new byte[2];
+		chunk = new byte[chunkSize];
+	}
+
+	/**
+	 * @param	type
+	 * @param	endByteOffset
+	 * @param	t
+	 */
+	private void pushContext(int type,long endByteOffset,AttributeTag t) {
+		if (depth == contextType.length) {
+			int[] newContextType = new int[depth*2];
+			long[] newContextEndByteOffset = new long[depth*2];
+			AttributeTag[] newContextTag = new AttributeTag[depth*2];
+			System.arraycopy(contextType,0,newContextType,0,depth);
+			System.arraycopy(contextEndByteOffset,0,newContextEndByteOffset,0,depth);
+			System.arraycopy(contextTag,0,newContextTag,0,depth);
+			contextType = newContextType;
+			contextEndByteOffset = newContextEndByteOffset;
+			contextTag = newContextTag;
+		}
+		contextType[depth] = type;
+		contextEndByteOffset[depth] = endByteOffset;
+		contextTag[depth] = t;
+		++depth;
+	}
+
+	/**
+	 * @return	the event for the end of the context popped
+	 */
+	private int popContext() {
+		--depth;
+		if (contextType[depth] == ITEM) {
+			return END_ITEM;
+		}
+		else {
+			tag = contextTag[depth];
+			return END_SEQUENCE;
+		}
+	}
+
+	/**
+	 * @exception	IOException
+	 */
+	private int readPackedAttributeTag() throws IOException {
+		int group   = i.readUnsigned16();
+		int element = i.readUnsigned16();
+		return AttributeTag.toPacked(group,element);
+	}
+
+	/**
+	 * <p>Switch from the meta information header (if any) to the data set, pushing a codec on the stream if necessary.</p>
+	 *
+	 * @exception	DicomException
+	 */
+	private void switchToDataSet() throws DicomException {
+		if (i.areReadingMetaHeader()) {
+			i.setReadingDataSet();
+		}
+		transferSyntaxOfDataSet = i.getTransferSyntaxToReadDataSet() == null ? i.getTransferSyntaxInUse() : i.getTransferSyntaxToReadDataSet();
+		InputStream decompressingInputStream = DataSetCodecRegistry.getDecompressingInputStream(i,transferSyntaxOfDataSet);
+		if (decompressingInputStream != null) {
+//System.err.println("DicomStreamParser.switchToDataSet(): Creating new DicomInputStream from deflate or bzip2");
+			try {
+				i = new DicomInputStream(decompressingInputStream,TransferSyntax.ExplicitVRLittleEndian,false);
+			}
+			catch (IOException e) {
+				throw new DicomException("Could not create decompressor - "+e);
+			}
+			byteOffset=0;
+		}
+		explicit = i.getTransferSyntaxInUse().isExplicitVR();
+		startedDataSet = true;
+	}
+
+	/**
+	 * <p>Take note of the values of the meta information header that determine how the data set is to be read.</p>
+	 *
+	 * @param	packedTag
+	 */
+	private void noteMetaInformationValue(int packedTag) {
+		if (packedTag == 0x00020000 && chunkLength == 4) {				// FileMetaInformationGroupLength, always little endian
+			long metaLength = (chunk[0]&0xff) | ((chunk[1]&0xff)<<8) | ((chunk[2]&0xff)<<16) | (((long)(chunk[3]&0xff))<<24);
+			metaInformationEndByteOffset = byteOffset + metaLength;
+		}
+		else if (packedTag == 0x00020010) {						// TransferSyntaxUID
+			String transferSyntaxUID = new String(chunk,0,chunkLength).trim();	// remove trailing null or space padding
+			i.setTransferSyntaxToReadDataSet(new TransferSyntax(transferSyntaxUID));
+		}
+	}
+
+	/**
+	 * <p>Read the VR and VL of a data element, correcting the VR in the same way as {@link com.pixelmed.dicom.AttributeList AttributeList}.</p>
+	 *
+	 * @param	packedTag
+	 * @exception	IOException
+	 */
+	private void readElementHeader(int packedTag) throws IOException {
+		tag = AttributeTag.valueOf(packedTag);
+		boolean encounteredIncorrectImplicitVRElementEncodinginExplicitVR = false;		// DicomWorks bug
+		if (explicit) {
+			boolean checkForIncorrectImplicitVRElementEncodinginExplicitVR = i.markSupported();
+			if (checkForIncorrectImplicitVRElementEncodinginExplicitVR) {
+				i.mark(4/*forward read limit*/);
+			}
+			i.readInsistently(vr,0,2);
+			if (checkForIncorrectImplicitVRElementEncodinginExplicitVR && (vr[0] < 'A' || vr[1] < 'A')) {	// i.e., not a valid explicit VR
+System.err.println("DicomStreamParser.readElementHeader(): "+tag+" encountered incorrect Implicit VR Element encoding in Explicit VR Transfer Syntax ... compensating");
+				encounteredIncorrectImplicitVRElementEncodinginExplicitVR = true;
+				i.reset();
+				vr[0]='U';
+				vr[1]='N';
+			}
+			else {
+				byteOffset+=2;
+			}
+		}
+		else {
+			byte[] vrd = dictionary.getValueRepresentationFromTag(tag);
+			if (vrd == null) {
+				vr[0]='U';
+				vr[1]='N';
+			}
+			else {
+				vr[0]=vrd[0];
+				vr[1]=vrd[1];
+			}
+		}
+		if (explicit && !encounteredIncorrectImplicitVRElementEncodinginExplicitVR) {
+			if (ValueRepresentation.isShortValueLengthVR(vr)) {
+				vl=i.readUnsigned16();
+				byteOffset+=2;
+			}
+			else {
+				i.readUnsigned16();	// reserved bytes
+				vl=i.readUnsigned32();
+				byteOffset+=6;
+			}
+		}
+		else {
+			vl=i.readUnsigned32();
+			byteOffset+=4;
+		}
+		if (explicit && ValueRepresentation.isUnknownVR(vr)) {
+			// do not do this until AFTER the value length has been read, since explicit UN uses the long form of length
+			byte vrd[] = dictionary.getValueRepresentationFromTag(tag);
+			if (vrd != null && vrd.length >= 2 && !ValueRepresentation.isSequenceVR(vrd)) {
+				vr[0] = vrd[0];
+				vr[1] = vrd[1];
+			}
+		}
+		if (tag.isPrivateCreator()) {	// silently override VR, whether it be explictly UN or just wrong, or the default UN up to this point for implicit
+			vr[0] = 'L';
+			vr[1] = 'O';
+		}
+	}
+
+	/**
+	 * <p>Advance to the next event.</p>
+	 *
+	 * @return			the event, which once the end of the stream is reached is always {@link #END_DATA_SET END_DATA_SET}
+	 * @exception	IOException
+	 * @exception	DicomException	if the stream is not correctly encoded
+	 */
+	public int next() throws IOException, DicomException {
+		lastEvent = nextEvent();
+		return lastEvent;
+	}
+
+	/**
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private int nextEvent() throws IOException, DicomException {
+		if (pendingEvent != 0) {
+			int event = pendingEvent;
+			pendingEvent = 0;
+			return event;
+		}
+		if (done) {
+			return END_DATA_SET;
+		}
+		if (inValue) {
+			if (valueAlreadyInChunk) {
+				valueAlreadyInChunk = false;
+				if (chunkLength > 0) {
+					return VALUE_CHUNK;
+				}
+			}
+			if (valueRemaining > 0) {
+				chunkLength = (int)(valueRemaining > chunk.length ? chunk.length : valueRemaining);
+				i.readInsistently(chunk,0,chunkLength);
+				byteOffset+=chunkLength;
+				valueRemaining-=chunkLength;
+				return VALUE_CHUNK;
+			}
+			inValue = false;
+			if (inFragment) {
+				inFragment = false;
+				return END_ITEM;
+			}
+			return END_ELEMENT;
+		}
+		while (true) {
+			int type = contextType[depth-1];
+			long endByteOffset = contextEndByteOffset[depth-1];
+			if (type != DATA_SET && endByteOffset >= 0 && byteOffset >= endByteOffset) {
+				return popContext();				// end of defined length item or sequence
+			}
+			if (type == DATA_SET && !startedDataSet && (!i.areReadingMetaHeader() || (metaInformationEndByteOffset >= 0 && byteOffset >= metaInformationEndByteOffset))) {
+				switchToDataSet();
+				return START_DATA_SET;
+			}
+			int packedTag;
+			try {
+				packedTag = readPackedAttributeTag();
+			}
+			catch (EOFException e) {
+				if (depth > 1) throw e;
+				done = true;
+				return END_DATA_SET;
+			}
+			catch (IOException e) {
+				if (depth > 1) throw e;
+				done = true;					// InflaterInputStream seems to throw IOException rather than EOFException
+				return END_DATA_SET;
+			}
+			byteOffset+=4;
+//System.err.println("DicomStreamParser.nextEvent(): tag="+AttributeTag.valueOf(packedTag)+" at "+(byteOffset-4));
+			if (type == SEQUENCE || type == ENCAPSULATED) {
+				long itemLength = i.readUnsigned32();		// always implicit VR form for items and delimiters
+				byteOffset+=4;
+				if (packedTag == AttributeTag.packedSequenceDelimitationItem) {
+					return popContext();
+				}
+				else if (packedTag == AttributeTag.packedItem) {
+					vl = itemLength;
+					if (type == SEQUENCE) {
+						pushContext(ITEM,itemLength == 0xffffffffl ? -1 : byteOffset+itemLength,null);
+					}
+					else {
+						inValue = true;
+						inFragment = true;
+						valueByteOffset = byteOffset;
+						valueRemaining = itemLength;
+					}
+					return START_ITEM;
+				}
+				else {
+					throw new DicomException("Bad tag "+AttributeTag.valueOf(packedTag)+"(not Item or Sequence Delimiter) in Sequence at byte offset "+byteOffset);
+				}
+			}
+			if (packedTag == AttributeTag.packedItemDelimitationItem) {
+				i.readUnsigned32();		// Read and discard value length
+				byteOffset+=4;
+				if (type == ITEM) {
+					return popContext();
+				}
+				done = true;			// as for AttributeList.read(), stop at a delimiter in the top level data set
+				return END_DATA_SET;
+			}
+			if (packedTag == AttributeTag.packedItem) {
+				// this is bad ... there shouldn't be Items here, however, try to work around Philips bug ...
+				long itemLength = i.readUnsigned32();
+				byteOffset+=4;
+System.err.println("Ignoring bad Item at "+byteOffset+" "+TagFromName.Item+" VL=<0x"+Long.toHexString(itemLength)+">");
+				continue;
+			}
+			readElementHeader(packedTag);
+			if (ValueRepresentation.isSequenceVR(vr) || (ValueRepresentation.isUnknownVR(vr) && vl == 0xffffffffl)) {
+				pushContext(SEQUENCE,vl == 0xffffffffl ? -1 : byteOffset+vl,tag);
+				return START_SEQUENCE;
+			}
+			if (vl == 0xffffffffl) {
+				pushContext(ENCAPSULATED,-1,tag);
+				return START_SEQUENCE;
+			}
+			inValue = true;
+			valueByteOffset = byteOffset;
+			valueRemaining = vl;
+			if (i.areReadingMetaHeader() && vl <= chunk.length) {
+				// read the (small) meta information header values now, since the parser needs some of them itself
+				chunkLength = (int)vl;
+				i.readInsistently(chunk,0,chunkLength);
+				byteOffset+=vl;
+				valueRemaining = 0;
+				valueAlreadyInChunk = true;
+				noteMetaInformationValue(packedTag);
+			}
+			return START_ELEMENT;
+		}
+	}
+
+	/**
+	 * <p>Skip the value of the current element or fragment, or the entire contents of the current sequence.</p>
+	 *
+	 * <p>May be called after {@link #START_ELEMENT START_ELEMENT} or a {@link #VALUE_CHUNK VALUE_CHUNK}, in which case the next event will be
+	 * {@link #END_ELEMENT END_ELEMENT} (or {@link #END_ITEM END_ITEM} for a fragment), or after {@link #START_SEQUENCE START_SEQUENCE}, in which case the next event
+	 * will be {@link #END_SEQUENCE END_SEQUENCE}.</p>
+	 *
+	 * <p>Values are skipped without being read, and the items of a sequence are only parsed as far as necessary to find their end.</p>
+	 *
+	 * @exception	IOException
+	 * @exception	DicomException	if there is nothing to skip
+	 */
+	public void skipValue() throws IOException, DicomException {
+		if (inValue) {
+			valueAlreadyInChunk = false;
+			if (valueRemaining > 0) {
+				i.skipInsistently(valueRemaining);
+				byteOffset+=valueRemaining;
+				valueRemaining = 0;
+			}
+		}
+		else if (lastEvent == START_SEQUENCE) {
+			int sequenceDepth = depth;
+			AttributeTag sequenceTag = contextTag[depth-1];
+			long endByteOffset = contextEndByteOffset[depth-1];
+			if (endByteOffset >= 0) {
+				i.skipInsistently(endByteOffset - byteOffset);
+				byteOffset = endByteOffset;
+				--depth;
+			}
+			else {
+				while (depth >= sequenceDepth) {
+					if (nextEvent() == END_DATA_SET) {
+						throw new DicomException("Unexpected end of data set while skipping "+sequenceTag);
+					}
+					if (inValue && valueRemaining > 0) {
+						i.skipInsistently(valueRemaining);
+						byteOffset+=valueRemaining;
+						valueRemaining = 0;
+					}
+					valueAlreadyInChunk = false;
+				}
+			}
+			tag = sequenceTag;
+			pendingEvent = END_SEQUENCE;
+		}
+		else {
+			throw new DicomException("Not in a value or at the start of a sequence, so nothing to skip");
+		}
+	}
+
+	/**
+	 * <p>Read the entire value of the current element as an {@link com.pixelmed.dicom.Attribute Attribute}.</p>
+	 *
+	 * <p>Must be called immediately after {@link #START_ELEMENT START_ELEMENT}, and the next event will be {@link #END_ELEMENT END_ELEMENT}.</p>
+	 *
+	 * @param	specificCharacterSet	the character set of the enclosing data set or item, or null if none
+	 * @param	bytesPerSample		1 or 2 bytes per sample indicating whether to use OB or OW for pixel data
+	 * @param	decodeValuesLazily	whether or not to decode string and text values only when first requested
+	 * @return				the attribute
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public Attribute readValueAsAttribute(SpecificCharacterSet specificCharacterSet,int bytesPerSample,boolean decodeValuesLazily) throws IOException, DicomException {
+		if (lastEvent != START_ELEMENT || !inValue) {
+			throw new DicomException("Not at the start of a data element");
+		}
+		Attribute a;
+		if (valueAlreadyInChunk) {
+			DicomInputStream ci = new DicomInputStream(new ByteArrayInputStream(chunk,0,chunkLength),TransferSyntax.ExplicitVRLittleEndian,false);	// meta information header
+			a = AttributeFactory.newAttribute(tag,vr,vl,ci,specificCharacterSet,true,bytesPerSample,valueByteOffset,decodeValuesLazily);
+			valueAlreadyInChunk = false;
+		}
+		else {
+			a = AttributeFactory.newAttribute(tag,vr,vl,i,specificCharacterSet,explicit,bytesPerSample,valueByteOffset,decodeValuesLazily);
+			byteOffset+=vl;
+			valueRemaining = 0;
+		}
+		return a;
+	}
+
+	/**
+	 * <p>Parse the entire stream, pushing each event to the supplied handler.</p>
+	 *
+	 * <p>Values that the handler does not want, and sequences whose contents it does not want, are skipped without being read.</p>
+	 *
+	 * @param	handler		the handler to receive the events
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public void parse(DicomStreamHandler handler) throws IOException, DicomException {
+		while (true) {
+			switch (next()) {
+				case START_DATA_SET:
+					handler.startDataSet(transferSyntaxOfDataSet);
+					break;
+				case START_ELEMENT:
+					if (!handler.startElement(tag,vr,vl)) {
+						skipValue();
+					}
+					break;
+				case VALUE_CHUNK:
+					handler.valueChunk(chunk,0,chunkLength);
+					break;
+				case END_ELEMENT:
+					handler.endElement(tag);
+					break;
+				case START_SEQUENCE:
+					if (!handler.startSequence(tag,vr,vl)) {
+						skipValue();
+					}
+					break;
+				case START_ITEM:
+					handler.startItem(vl);
+					break;
+				case END_ITEM:
+					handler.endItem();
+					break;
+				case END_SEQUENCE:
+					handler.endSequence(tag);
+					break;
+				case END_DATA_SET:
+					handler.endDataSet();
+					return;
+			}
+		}
+	}
+
+	/**
+	 * @return	the tag of the current element or sequence
+	 */
+	public AttributeTag getTag() { return tag; }
+
+	/**
+	 * @return	the value representation of the current element or sequence, which is reused and must not be retained
+	 */
+	public byte[] getValueRepresentation() { return vr; }
+
+	/**
+	 * @return	the value length of the current element, sequence, item or fragment, which may be undefined (0xffffffffl)
+	 */
+	public long getValueLength() { return vl; }
+
+	/**
+	 * @return	the byte offset of the start of the value of the current element or fragment
+	 */
+	public long getValueByteOffset() { return valueByteOffset; }
+
+	/**
+	 * @return	the byte offset of the next byte to be read
+	 */
+	public long getByteOffset() { return byteOffset; }
+
+	/**
+	 * @return	the buffer containing the current chunk of the value, which is reused and must not be retained
+	 */
+	public byte[] getChunk() { return chunk; }
+
+	/**
+	 * @return	the length of the current chunk of the value
+	 */
+	public int getChunkLength() { return chunkLength; }
+
+	/**
+	 * @return	the nesting depth, 1 for the top level data set, 2 within a sequence, 3 within an item of that sequence, and so on
+	 */
+	public int getDepth() { return depth; }
+
+	/**
+	 * @return	true if reading the meta information header
+	 */
+	public boolean areReadingMetaHeader() { return !startedDataSet; }
+
+	/**
+	 * @return	the transfer syntax of the data set (which may be deflated), or null if not yet known
+	 */
+	public TransferSyntax getTransferSyntaxOfDataSet() { return transferSyntaxOfDataSet; }
+
+	/**
+	 * @return	the transfer syntax in which the current element is encoded
+	 */
+	public TransferSyntax getTransferSyntaxInUse() { return i.getTransferSyntaxInUse(); }
+
+	/**
+	 * <p>Dump the events for a DICOM file.</p>
+	 *
+	 * @param	arg	the name of the file
+	 */
+	public static void main(String arg[]) {
+		try {
+			DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(arg[0])));
+			DicomStreamParser parser = new DicomStreamParser(i);
+			StringBuffer indent = new StringBuffer();
+			int event;
+			while ((event = parser.next()) != END_DATA_SET) {
+				switch (event) {
+					case START_DATA_SET:	System.err.println("Start of data set "+parser.getTransferSyntaxOfDataSet().getUID()); break;
+					case START_ELEMENT:	System.err.println(indent+parser.getTag().toString()+" "+ValueRepresentation.getAsString(parser.getValueRepresentation())+" VL=0x"+Long.toHexString(parser.getValueLength())); parser.skipValue(); break;
+					case START_SEQUENCE:	System.err.println(indent+parser.getTag().toString()+" "+ValueRepresentation.getAsString(parser.getValueRepresentation())+" VL=0x"+Long.toHexString(parser.getValueLength())); indent.append(">"); break;
+					case START_ITEM:	System.err.println(indent+"Item VL=0x"+Long.toHexString(parser.getValueLength())); break;
+					case END_SEQUENCE:	indent.setLength(indent.length()-1); break;
+				}
+			}
+			i.close();
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
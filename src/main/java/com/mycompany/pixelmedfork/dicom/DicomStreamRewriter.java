@@ -0,0 +1,259 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * <p>A class to rewrite a DICOM stream, replacing or inserting top level attributes and optionally removing private attributes,
+ * using a {@link com.pixelmed.dicom.DicomStreamParser DicomStreamParser}, so that objects of any size can be rewritten without
+ * holding them in memory.</p>
+ *
+ * <p>This is an example of a {@link com.pixelmed.dicom.DicomStreamHandler DicomStreamHandler} that transforms the stream as it passes through.</p>
+ *
+ * <p>The output is in the same transfer syntax as the input, including the meta information header, if any, which is copied unchanged.
+ * Sequences and items are written with undefined length, since their contents may change, and group lengths (other than that of the
+ * meta information header) are removed.</p>
+ *
+ * @see com.pixelmed.dicom.DicomStreamParser
+ */
+public class DicomStreamRewriter implements DicomStreamHandler {
+
+	/***/
+	private DicomStreamParser parser;
+	/***/
+	private OutputStream out;
+	/***/
+	private DicomOutputStream o;
+	/***/
+	private boolean removePrivate;
+	/***/
+	private Iterator<Attribute> replacements;
+	/***/
+	private Attribute nextReplacement;
+	/***/
+	private ArrayList<Boolean> sequenceIsEncapsulated;	// for each open sequence
+	/***/
+	private boolean skippedSequence;			// the endSequence() that follows skipping a sequence has nothing to close
+
+	/**
+	 * <p>Rewrite a DICOM stream.</p>
+	 *
+	 * @param	i			the stream to read from
+	 * @param	out			the stream to write to, which is closed when done
+	 * @param	removePrivate		true if private attributes are to be removed
+	 * @param	replacementAttributes	top level attributes to replace or insert, or null if none
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public DicomStreamRewriter(DicomInputStream i,OutputStream out,boolean removePrivate,AttributeList replacementAttributes) throws IOException, DicomException {
+		this.out = out;
+		this.removePrivate = removePrivate;
+		replacements = replacementAttributes == null ? null : replacementAttributes.values().iterator();
+		advanceReplacement();
+		sequenceIsEncapsulated = new ArrayList<Boolean>();
+		if (i.haveMetaHeader()) {
+			o = new DicomOutputStream(out,TransferSyntax.ExplicitVRLittleEndian,TransferSyntax.ExplicitVRLittleEndian/*replaced when data set starts*/);
+		}
+		parser = new DicomStreamParser(i);
+		parser.parse(this);
+	}
+
+	/***/
+	private void advanceReplacement() {
+		nextReplacement = replacements != null && replacements.hasNext() ? replacements.next() : null;
+	}
+
+	/**
+	 * <p>Write any replacements that come before the specified tag, and the replacement for the tag itself, if any.</p>
+	 *
+	 * @param	tag	the tag of the next top level element in the input, or null at the end of the data set
+	 * @return		true if the element in the input has been replaced
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private boolean writeReplacements(AttributeTag tag) throws IOException, DicomException {
+		while (nextReplacement != null) {
+			int c = tag == null ? -1 : nextReplacement.getTag().compareTo(tag);
+			if (c > 0) {
+				break;
+			}
+			nextReplacement.write(o);
+			advanceReplacement();
+			if (c == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param	tag
+	 * @param	topLevel	true if the element or sequence is in the top level data set
+	 * @return			true if the element is to be dropped or has been replaced
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private boolean dropOrReplace(AttributeTag tag,boolean topLevel) throws IOException, DicomException {
+		if (removePrivate && tag.isPrivate()) {
+			return true;
+		}
+		if (tag.getGroup() > 0x0002 && tag.isGroupLength()) {
+			return true;
+		}
+		return topLevel && !parser.areReadingMetaHeader() && writeReplacements(tag);
+	}
+
+	/**
+	 * @param	tag
+	 * @param	vr
+	 * @param	vl
+	 * @exception	IOException
+	 */
+	private void writeElementHeader(AttributeTag tag,byte[] vr,long vl) throws IOException {
+		o.writeUnsigned16(tag.getGroup());
+		o.writeUnsigned16(tag.getElement());
+		if (o.isExplicitVR()) {
+			o.write(vr,0,2);
+			if (ValueRepresentation.isShortValueLengthVR(vr)) {
+				o.writeUnsigned16((int)vl);
+			}
+			else {
+				o.writeUnsigned16(0);	// reserved bytes
+				o.writeUnsigned32(vl);
+			}
+		}
+		else {
+			o.writeUnsigned32(vl);
+		}
+	}
+
+	/**
+	 * @param	tag
+	 * @param	vl
+	 * @exception	IOException
+	 */
+	private void writeItemOrDelimiter(AttributeTag tag,long vl) throws IOException {
+		o.writeUnsigned16(tag.getGroup());
+		o.writeUnsigned16(tag.getElement());
+		o.writeUnsigned32(vl);
+	}
+
+	public void startDataSet(TransferSyntax transferSyntax) throws IOException, DicomException {
+		if (o == null) {
+			o = new DicomOutputStream(out,null,transferSyntax.getUID());
+		}
+		else {
+			o.setTransferSyntaxToWriteDataSet(transferSyntax);
+			o.setWritingDataSet();
+		}
+		if (transferSyntax.isDeflated()) {
+			o = new DicomOutputStream(DataSetCodecRegistry.getCompressingOutputStream(o,transferSyntax),null,TransferSyntax.ExplicitVRLittleEndian);
+		}
+		else if (transferSyntax.isBzip2ed()) {
+			throw new DicomException("Rewriting bzip2 compressed data sets is not supported");
+		}
+	}
+
+	public boolean startElement(AttributeTag tag,byte[] vr,long vl) throws IOException, DicomException {
+		if (dropOrReplace(tag,parser.getDepth() == 1)) {
+			return false;
+		}
+		writeElementHeader(tag,vr,vl);
+		return true;
+	}
+
+	public void valueChunk(byte[] buffer,int offset,int length) throws IOException, DicomException {
+		o.write(buffer,offset,length);
+	}
+
+	public void endElement(AttributeTag tag) throws IOException, DicomException {
+	}
+
+	public boolean startSequence(AttributeTag tag,byte[] vr,long vl) throws IOException, DicomException {
+		if (dropOrReplace(tag,parser.getDepth() == 2)) {		// the sequence has already been entered
+			skippedSequence = true;
+			return false;
+		}
+		writeElementHeader(tag,vr,0xffffffffl);		// sequences converted to undefined length, since lengths may change
+		sequenceIsEncapsulated.add(!ValueRepresentation.isSequenceVR(vr) && !ValueRepresentation.isUnknownVR(vr));
+		return true;
+	}
+
+	public void startItem(long vl) throws IOException, DicomException {
+		if (sequenceIsEncapsulated.get(sequenceIsEncapsulated.size()-1)) {
+			writeItemOrDelimiter(TagFromName.Item,vl);			// fragment, which is copied as is
+		}
+		else {
+			writeItemOrDelimiter(TagFromName.Item,0xffffffffl);
+		}
+	}
+
+	public void endItem() throws IOException, DicomException {
+		if (!sequenceIsEncapsulated.get(sequenceIsEncapsulated.size()-1)) {
+			writeItemOrDelimiter(TagFromName.ItemDelimitationItem,0);
+		}
+	}
+
+	public void endSequence(AttributeTag tag) throws IOException, DicomException {
+		if (skippedSequence) {
+			skippedSequence = false;
+		}
+		else {
+			writeItemOrDelimiter(TagFromName.SequenceDelimitationItem,0);
+			sequenceIsEncapsulated.remove(sequenceIsEncapsulated.size()-1);
+		}
+	}
+
+	public void endDataSet() throws IOException, DicomException {
+		writeReplacements(null);
+		o.close();		// finishes any compression
+	}
+
+	/**
+	 * <p>Rewrite a DICOM file, replacing or inserting top level attributes and optionally removing private attributes.</p>
+	 *
+	 * @param	arg	the input file, the output file, then optionally -removeprivate, and any number of -replace keyword value
+	 */
+	public static void main(String arg[]) {
+		try {
+			boolean removePrivate = false;
+			AttributeList replacements = new AttributeList();
+			DicomDictionary dictionary = AttributeList.getDictionary();
+			for (int a=2; a<arg.length; ++a) {
+				if (arg[a].equals("-removeprivate")) {
+					removePrivate = true;
+				}
+				else if (arg[a].equals("-replace") && a+2 < arg.length) {
+					AttributeTag tag = dictionary.getTagFromName(arg[++a]);
+					if (tag == null) {
+						throw new DicomException("Unrecognized keyword "+arg[a]);
+					}
+					Attribute replacement = AttributeFactory.newAttribute(tag,dictionary.getValueRepresentationFromTag(tag));
+					replacement.addValue(arg[++a]);
+					replacements.put(tag,replacement);
+				}
+				else {
+					System.err.println("Usage: java com.pixelmed.dicom.DicomStreamRewriter infile outfile [-removeprivate] [-replace keyword value]...");
+					System.exit(1);
+				}
+			}
+			Runtime runtime = Runtime.getRuntime();
+			long startTime = System.currentTimeMillis();
+			DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(arg[0])));
+			new DicomStreamRewriter(i,new BufferedOutputStream(new FileOutputStream(arg[1])),removePrivate,replacements);
+			i.close();
+			System.err.println("Rewrote in "+(System.currentTimeMillis()-startTime)+" ms, heap in use "+((runtime.totalMemory()-runtime.freeMemory())/(1024*1024))+" MB");
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+			System.exit(1);
+		}
+	}
+}
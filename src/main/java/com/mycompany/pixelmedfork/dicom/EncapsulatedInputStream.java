@@ -4,6 +4,10 @@ package com.mycompany.pixelmedfork.dicom;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
 import java.util.Date;			// for test timing of routines
 
 /**
@@ -35,6 +39,10 @@ public class EncapsulatedInputStream extends InputStream {
 	/***/
 	private byte buffer[];			// just for read() one byte method
 	/***/
+	private byte arrayBuffer[];		// for reading arrays in chunks, allocated on first use and reused thereafter
+	/***/
+	private ShortBuffer arrayShortBuffer;	// view of arrayBuffer in the byte order of the stream
+	/***/
 	private boolean firstTime;
 	/***/
 	private byte fragment[];
@@ -58,35 +66,38 @@ public class EncapsulatedInputStream extends InputStream {
 	}
 	
 	/**
-	 * @param	i
+	 * <p>Read a group and element pair and return them packed in a single integer without allocating a tag.</p>
+	 *
+	 * @see com.pixelmed.dicom.AttributeTag#toPacked(int,int)
+	 *
 	 * @exception	IOException
 	 */
-	private AttributeTag readAttributeTag() throws IOException {
+	private int readPackedAttributeTag() throws IOException {
 		int group   = i.readUnsigned16();
 		int element = i.readUnsigned16();
 		bytesRead+=4;
-		return new AttributeTag(group,element);
+		return AttributeTag.toPacked(group,element);
 	}
 
 	private long readItemTag() throws IOException {
-		AttributeTag tag = readAttributeTag();
-//System.err.println("EncapsulatedInputStream.readItemTag: tag="+tag);
+		int tag = readPackedAttributeTag();
+//System.err.println("EncapsulatedInputStream.readItemTag: tag="+AttributeTag.valueOf(tag));
 		long vl = i.readUnsigned32();		// always implicit VR form for items and delimiters
 		bytesRead+=4;
-		if (tag.equals(TagFromName.SequenceDelimitationItem)) {
+		if (tag == AttributeTag.packedSequenceDelimitationItem) {
 //System.err.println("EncapsulatedInputStream.readItemTag: SequenceDelimitationItem");
 			vl=0;	// regardless of what was read
 			sequenceDelimiterEncountered=true;
 		}
-		else if (!tag.equals(TagFromName.Item)) {
-			throw new IOException("Unexpected DICOM tag "+tag+" (vl="+vl+") in encapsulated data whilst expecting Item or SequenceDelimitationItem");
+		else if (tag != AttributeTag.packedItem) {
+			throw new IOException("Unexpected DICOM tag "+AttributeTag.valueOf(tag)+" (vl="+vl+") in encapsulated data whilst expecting Item or SequenceDelimitationItem");
 		}
 //System.err.println("EncapsulatedInputStream.readItemTag: length="+vl);
 		return vl;
 	}
 	
 //	private void readItemDelimiter() throws IOException {
-//		AttributeTag tag = readAttributeTag();
+//		AttributeTag tag = AttributeTag.valueOf(readPackedAttributeTag());
 //System.err.println("EncapsulatedInputStream.readItemDelimiter: tag="+tag);
 //		i.readUnsigned32();		// always implicit VR form for items and delimiters
 //		if (!tag.equals(TagFromName.ItemDelimitationItem)) {
@@ -133,6 +144,26 @@ public class EncapsulatedInputStream extends InputStream {
 		endOfFrameEncountered=false;
 	}
 
+	/**
+	 * <p>Skip the entire encapsulated value, including the Sequence Delimiter, the length of which is already known.</p>
+	 *
+	 * <p>Must be called before anything else has been read.</p>
+	 *
+	 * @see com.pixelmed.dicom.EncapsulatedPixelDataFrameIndex#getEndByteOffset()
+	 *
+	 * @param	length		the number of bytes from the start of the Item header of the Basic Offset Table to after the Sequence Delimiter
+	 * @exception	IOException
+	 */
+	public void skipEncapsulatedValue(long length) throws IOException {
+		if (!firstTime) {
+			throw new IOException("Cannot skip the encapsulated value once reading of fragments has started");
+		}
+		i.skipInsistently(length);
+		bytesRead+=length;
+		firstTime=false;
+		sequenceDelimiterEncountered=true;
+	}
+
 	// Our own specific methods a la BinaryInputStream ...
 	
 	/**
@@ -144,21 +175,20 @@ public class EncapsulatedInputStream extends InputStream {
 	 * @exception	IOException
 	 */
 	public final void readUnsigned16(short[] w,int offset,int len) throws IOException {
-		int blen = len*2;
-		byte  b[] = new byte[blen];
-		read(b,0,blen);				// read the bytes from the fragment(s)
-		bytesRead+=blen;
-		int bcount=0;
-		int wcount=0;
-		if (bigEndian) {
-			for (;wcount<len;++wcount) {
-				w[offset+wcount]=(short)((b[bcount++]<<8) + (b[bcount++]&0xff));	// assumes left to right evaluation
-			}
+		if (arrayBuffer == null) {
+			arrayBuffer = new byte[BinaryInputStream.arrayBufferSize];
+			arrayShortBuffer = ByteBuffer.wrap(arrayBuffer).order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN).asShortBuffer();
 		}
-		else {
-			for (;wcount<len;++wcount) {
-				w[offset+wcount]=(short)((b[bcount++]&0xff) + (b[bcount++]<<8));	// assumes left to right evaluation
-			}
+		int chunk = arrayBuffer.length/2;
+		while (len > 0) {
+			int n = len > chunk ? chunk : len;
+			int blen = n*2;
+			read(arrayBuffer,0,blen);		// read the bytes from the fragment(s)
+			bytesRead+=blen;
+			arrayShortBuffer.clear();
+			arrayShortBuffer.get(w,offset,n);
+			offset+=n;
+			len-=n;
 		}
 	}
 	
@@ -0,0 +1,444 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.awt.image.BufferedImage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * <p>A class to provide random access to the individual frames of encapsulated (compressed) Pixel Data in a file,
+ * without reading or decompressing any of the other frames.</p>
+ *
+ * <p>The header is read up to the Pixel Data with a {@link com.pixelmed.dicom.DicomStreamParser DicomStreamParser}, which
+ * supplies the byte offset of the encapsulated Pixel Data in the file. The position of each frame is then obtained from the
+ * Basic Offset Table, if it is present, or otherwise from a single scan of the Item headers of the fragments, during which
+ * fragments are assigned to frames one to one if the number of fragments and frames match, or else by the presence of a
+ * JPEG family end of image marker at the end of the last fragment of each frame. Only the 8 byte Item headers are read during
+ * the scan; the fragment values are skipped by positioning the file.</p>
+ *
+ * <p>The bytes of a frame are read by positioned reads on a shared {@link java.nio.channels.FileChannel FileChannel},
+ * so fetching the compressed bytes of different frames from multiple threads is safe. Decoding a frame uses the calling thread's
+ * reader from the {@link com.pixelmed.dicom.TransferSyntaxCodecRegistry TransferSyntaxCodecRegistry}, so is also safe.</p>
+ *
+ * <p>For example, to decompress only the last frame of a multi-frame image:</p>
+ *
+ * <pre>
+ * EncapsulatedPixelDataFrameIndex index = new EncapsulatedPixelDataFrameIndex(file);
+ * BufferedImage image = index.getDecompressedFrame(index.getNumberOfFrames()-1);
+ * index.close();
+ * </pre>
+ *
+ * <p>Deflated and bzip2 compressed data sets cannot be indexed, since the Pixel Data cannot be positioned to in the file.</p>
+ *
+ * @see com.pixelmed.dicom.EncapsulatedInputStream
+ */
+public class EncapsulatedPixelDataFrameIndex {
+
+	/***/
+	private static final int packedPixelData = 0x7fe00010;
+
+	/***/
+	private File file;
+	/***/
+	private RandomAccessFile raf;
+	/***/
+	private FileChannel channel;
+	/***/
+	private AttributeList list;		// top level attributes other than sequences preceding the Pixel Data
+	/***/
+	private String transferSyntaxUID;
+	/***/
+	private int numberOfFrames;
+	/**
+	 * @return	a buffer for reading Item headers, which are always little endian for encapsulated transfer syntaxes
+	 */
+	private static ByteBuffer newItemHeaderBuffer() {
+		return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/***/
+	private long[] frameStart;		// byte offset in file of the Item header of the first fragment of each frame
+	/***/
+	private long[] frameEnd;		// byte offset in file after the last fragment of each frame, or -1 if terminated by the Sequence Delimiter
+	/***/
+	private long endByteOffset;		// byte offset in file after the Sequence Delimiter
+	/***/
+	private boolean haveBasicOffsetTable;
+
+	/**
+	 * <p>Index the encapsulated Pixel Data of a DICOM file.</p>
+	 *
+	 * @param	file		the file, with or without a meta information header
+	 * @exception	IOException
+	 * @exception	DicomException	if the Pixel Data is not encapsulated, or cannot be indexed
+	 */
+	public EncapsulatedPixelDataFrameIndex(File file) throws IOException, DicomException {
+		this.file = file;
+		list = new AttributeList();
+		long pixelDataByteOffset = -1;
+		DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			DicomStreamParser parser = new DicomStreamParser(i);
+			int event;
+			while (pixelDataByteOffset < 0 && (event = parser.next()) != DicomStreamParser.END_DATA_SET) {
+				if (event == DicomStreamParser.START_ELEMENT) {
+					if (parser.getDepth() == 1 && parser.getTag().getPacked() == packedPixelData) {
+						throw new DicomException("Pixel Data is not encapsulated");
+					}
+					else if (parser.getDepth() == 1) {
+						Attribute a = parser.readValueAsAttribute(null,0,false);
+						list.put(a.getTag(),a);
+					}
+					else {
+						parser.skipValue();
+					}
+				}
+				else if (event == DicomStreamParser.START_SEQUENCE) {
+					if (parser.getDepth() == 2 && parser.getTag().getPacked() == packedPixelData
+					 && !ValueRepresentation.isSequenceVR(parser.getValueRepresentation()) && !ValueRepresentation.isUnknownVR(parser.getValueRepresentation())) {
+						TransferSyntax ts = parser.getTransferSyntaxOfDataSet();
+						if (ts.isDeflated() || ts.isBzip2ed()) {
+							throw new DicomException("Cannot index Pixel Data in compressed data set");
+						}
+						transferSyntaxUID = ts.getUID();
+						pixelDataByteOffset = parser.getByteOffset();		// the Item header of the Basic Offset Table
+					}
+					else {
+						parser.skipValue();
+					}
+				}
+			}
+		}
+		finally {
+			i.close();
+		}
+		if (pixelDataByteOffset < 0) {
+			throw new DicomException("No encapsulated Pixel Data in "+file);
+		}
+		openAndBuildIndex(pixelDataByteOffset,Attribute.getSingleIntegerValueOrDefault(list,TagFromName.NumberOfFrames,1));
+	}
+
+	/**
+	 * <p>Index the encapsulated Pixel Data of a DICOM file, the position of which is already known.</p>
+	 *
+	 * <p>Used when the header has already been read by other means, such as by an {@link com.pixelmed.dicom.AttributeList AttributeList},
+	 * in which case the attribute list of the index is empty.</p>
+	 *
+	 * @param	file			the file
+	 * @param	pixelDataByteOffset	the byte offset in the file of the Item header of the Basic Offset Table
+	 * @param	transferSyntaxUID	the transfer syntax of the data set, which must not be deflated or bzip2 compressed
+	 * @param	numberOfFrames		the number of frames
+	 * @exception	IOException
+	 * @exception	DicomException	if the Pixel Data cannot be indexed
+	 */
+	public EncapsulatedPixelDataFrameIndex(File file,long pixelDataByteOffset,String transferSyntaxUID,int numberOfFrames) throws IOException, DicomException {
+		this.file = file;
+		this.transferSyntaxUID = transferSyntaxUID;
+		list = new AttributeList();
+		openAndBuildIndex(pixelDataByteOffset,numberOfFrames);
+	}
+
+	/**
+	 * @param	pixelDataByteOffset	the byte offset in the file of the Item header of the Basic Offset Table
+	 * @param	numberOfFrames		the number of frames
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private void openAndBuildIndex(long pixelDataByteOffset,int numberOfFrames) throws IOException, DicomException {
+		this.numberOfFrames = numberOfFrames < 1 ? 1 : numberOfFrames;
+		raf = new RandomAccessFile(file,"r");
+		channel = raf.getChannel();
+		try {
+			buildIndex(pixelDataByteOffset);
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+		catch (DicomException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param	dst
+	 * @param	position
+	 * @exception	IOException
+	 */
+	private void readFully(ByteBuffer dst,long position) throws IOException {
+		while (dst.hasRemaining()) {
+			int count = channel.read(dst,position);
+			if (count < 0) {
+				throw new EOFException("Unexpected end of file reading encapsulated Pixel Data at byte offset "+position);
+			}
+			position+=count;
+		}
+	}
+
+	/**
+	 * <p>Read the Item or Sequence Delimiter header at the specified position.</p>
+	 *
+	 * @param	itemHeader	a buffer of 8 bytes to read into, so that it is not shared between threads
+	 * @param	position	the byte offset in the file
+	 * @return			the value length of an Item, or -1 if a Sequence Delimiter
+	 * @exception	IOException
+	 * @exception	DicomException	if neither an Item nor a Sequence Delimiter
+	 */
+	private long readItemHeader(ByteBuffer itemHeader,long position) throws IOException, DicomException {
+		itemHeader.clear();
+		readFully(itemHeader,position);
+		int group   = itemHeader.getShort(0) & 0xffff;
+		int element = itemHeader.getShort(2) & 0xffff;
+		int packedTag = AttributeTag.toPacked(group,element);
+		if (packedTag == AttributeTag.packedSequenceDelimitationItem) {
+			return -1;
+		}
+		else if (packedTag != AttributeTag.packedItem) {
+			throw new DicomException("Unexpected DICOM tag "+AttributeTag.valueOf(packedTag)+" in encapsulated data at byte offset "+position+" whilst expecting Item or SequenceDelimitationItem");
+		}
+		return itemHeader.getInt(4) & 0xffffffffl;
+	}
+
+	/**
+	 * <p>Does the fragment end with a JPEG family end of image marker (0xffd9), allowing for a trailing padding byte ?</p>
+	 *
+	 * @param	valueOffset	the byte offset in the file of the fragment value
+	 * @param	vl		the length of the fragment value
+	 * @return			true if the fragment ends a frame
+	 * @exception	IOException
+	 */
+	private boolean fragmentEndsWithEndOfImage(long valueOffset,long vl) throws IOException {
+		if (vl < 2) {
+			return false;
+		}
+		int n = vl < 3 ? 2 : 3;
+		ByteBuffer tail = ByteBuffer.allocate(n);
+		readFully(tail,valueOffset+vl-n);
+		for (int j=n-2; j>=0; --j) {
+			if ((tail.get(j)&0xff) == 0xff && (tail.get(j+1)&0xff) == 0xd9) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param	pixelDataByteOffset	the byte offset in the file of the Item header of the Basic Offset Table
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private void buildIndex(long pixelDataByteOffset) throws IOException, DicomException {
+		frameStart = new long[numberOfFrames];
+		frameEnd = new long[numberOfFrames];
+		ByteBuffer itemHeader = newItemHeaderBuffer();
+		long offsetTableLength = readItemHeader(itemHeader,pixelDataByteOffset);
+		if (offsetTableLength < 0) {
+			throw new DicomException("Expected offset table item tag; got sequence delimiter");
+		}
+		long firstFragmentByteOffset = pixelDataByteOffset+8+offsetTableLength;
+		if (offsetTableLength >= numberOfFrames*4l) {
+//System.err.println("EncapsulatedPixelDataFrameIndex.buildIndex(): using Basic Offset Table");
+			haveBasicOffsetTable = true;
+			ByteBuffer offsets = ByteBuffer.allocate(numberOfFrames*4).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(offsets,pixelDataByteOffset+8);
+			for (int f=0; f<numberOfFrames; ++f) {
+				frameStart[f] = firstFragmentByteOffset + (offsets.getInt(f*4) & 0xffffffffl);
+				if (f > 0) {
+					frameEnd[f-1] = frameStart[f];
+				}
+			}
+			frameEnd[numberOfFrames-1] = -1;
+			long position = frameStart[numberOfFrames-1];
+			long vl;
+			while ((vl = readItemHeader(itemHeader,position)) >= 0) {
+				position+=8+vl;
+			}
+			endByteOffset = position+8;
+		}
+		else {
+//System.err.println("EncapsulatedPixelDataFrameIndex.buildIndex(): scanning fragments");
+			if (offsetTableLength != 0) {
+System.err.println("EncapsulatedPixelDataFrameIndex: ignoring Basic Offset Table of length "+offsetTableLength+" that does not match "+numberOfFrames+" frames");
+			}
+			// first pass counts the fragments, so that the simple case of one fragment per frame need not look at the values
+			int numberOfFragments = 0;
+			long position = firstFragmentByteOffset;
+			long vl;
+			while ((vl = readItemHeader(itemHeader,position)) >= 0) {
+				++numberOfFragments;
+				position+=8+vl;
+			}
+			endByteOffset = position+8;
+			boolean oneFragmentPerFrame = numberOfFragments == numberOfFrames;
+			if (numberOfFrames == 1) {
+				frameStart[0] = firstFragmentByteOffset;
+				frameEnd[0] = -1;
+			}
+			else {
+				int f = 0;
+				boolean startOfFrame = true;
+				position = firstFragmentByteOffset;
+				while ((vl = readItemHeader(itemHeader,position)) >= 0) {
+					if (startOfFrame) {
+						if (f >= numberOfFrames) {
+							throw new DicomException("More frames in encapsulated Pixel Data than Number of Frames "+numberOfFrames);
+						}
+						frameStart[f] = position;
+						startOfFrame = false;
+					}
+					position+=8+vl;
+					if (oneFragmentPerFrame || fragmentEndsWithEndOfImage(position-vl,vl)) {
+						frameEnd[f++] = position;
+						startOfFrame = true;
+					}
+				}
+				if (f != numberOfFrames) {
+					throw new DicomException("Could not find the start of each of "+numberOfFrames+" frames in "+numberOfFragments+" fragments of encapsulated Pixel Data (found "+f+")");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return	the attributes at the top level of the data set, other than sequences, that precede the Pixel Data
+	 */
+	public AttributeList getAttributeList() { return list; }
+
+	/**
+	 * @return	the transfer syntax of the data set
+	 */
+	public String getTransferSyntaxUID() { return transferSyntaxUID; }
+
+	/**
+	 * @return	the number of frames
+	 */
+	public int getNumberOfFrames() { return numberOfFrames; }
+
+	/**
+	 * @return	the byte offset in the file after the Sequence Delimiter that ends the Pixel Data
+	 */
+	public long getEndByteOffset() { return endByteOffset; }
+
+	/**
+	 * @return	true if the index was built from the Basic Offset Table rather than by scanning the fragments
+	 */
+	public boolean haveBasicOffsetTable() { return haveBasicOffsetTable; }
+
+	/**
+	 * <p>Get the compressed bytes of a frame.</p>
+	 *
+	 * <p>The values of the one or more fragments of the frame are concatenated.</p>
+	 *
+	 * @param	frame		the frame number, from 0
+	 * @return			the compressed bytes
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public byte[] getCompressedFrame(int frame) throws IOException, DicomException {
+		if (frame < 0 || frame >= numberOfFrames) {
+			throw new DicomException("Frame "+frame+" out of range 0 to "+(numberOfFrames-1));
+		}
+		long end = frameEnd[frame];
+		ByteBuffer itemHeader = newItemHeaderBuffer();
+		// first pass over the Item headers to find the total length, so that the values can be read directly into an array of the right size
+		long length = 0;
+		long position = frameStart[frame];
+		long vl;
+		while ((end < 0 || position < end) && (vl = readItemHeader(itemHeader,position)) >= 0) {
+			length+=vl;
+			position+=8+vl;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new DicomException("Frame "+frame+" of "+length+" bytes is too large");
+		}
+		byte[] bytes = new byte[(int)length];
+		int offset = 0;
+		position = frameStart[frame];
+		while (offset < bytes.length) {
+			vl = readItemHeader(itemHeader,position);
+			readFully(ByteBuffer.wrap(bytes,offset,(int)vl),position+8);
+			offset+=(int)vl;
+			position+=8+vl;
+		}
+		return bytes;
+	}
+
+	/**
+	 * <p>Decompress a frame.</p>
+	 *
+	 * <p>Only the compressed bytes of the requested frame are read.</p>
+	 *
+	 * @param	frame		the frame number, from 0
+	 * @return			the decompressed frame
+	 * @exception	IOException
+	 * @exception	DicomException	if the transfer syntax is not supported or there is no reader available
+	 */
+	public BufferedImage getDecompressedFrame(int frame) throws IOException, DicomException {
+		ImageReader reader = TransferSyntaxCodecRegistry.getReader(transferSyntaxUID);
+		ImageInputStream iiois = ImageIO.createImageInputStream(new ByteArrayInputStream(getCompressedFrame(frame)));
+		try {
+			reader.setInput(iiois,true/*seekForwardOnly*/,true/*ignoreMetadata*/);
+			BufferedImage image = reader.read(0);
+			if (image == null) {
+				throw new DicomException("Reader returned null image for frame "+frame+" of Transfer Syntax "+transferSyntaxUID);
+			}
+			return image;
+		}
+		finally {
+			reader.reset();
+			iiois.close();
+		}
+	}
+
+	/**
+	 * <p>Close the file.</p>
+	 *
+	 * @exception	IOException
+	 */
+	public void close() throws IOException {
+		if (raf != null) {
+			raf.close();		// also closes the channel
+			raf = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * <p>List the frames of encapsulated Pixel Data in a file, and optionally decompress one of them.</p>
+	 *
+	 * @param	arg	the file, and optionally the frame number, from 0, to decompress
+	 */
+	public static void main(String arg[]) {
+		try {
+			EncapsulatedPixelDataFrameIndex index = new EncapsulatedPixelDataFrameIndex(new File(arg[0]));
+			System.err.println("Transfer Syntax "+index.getTransferSyntaxUID()+", "+index.getNumberOfFrames()+" frames, "
+				+(index.haveBasicOffsetTable() ? "from Basic Offset Table" : "from scan of fragments"));
+			for (int f=0; f<index.getNumberOfFrames(); ++f) {
+				System.err.println("Frame "+f+" at byte offset "+index.frameStart[f]+", "+index.getCompressedFrame(f).length+" bytes");
+			}
+			if (arg.length > 1) {
+				BufferedImage image = index.getDecompressedFrame(Integer.parseInt(arg[1]));
+				System.err.println("Decompressed frame "+arg[1]+" "+image.getWidth()+" x "+image.getHeight());
+			}
+			index.close();
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+
+import java.util.Arrays;
+
+/**
+ * <p>A class to measure how long it takes to obtain the first and the last frame of a compressed multi-frame image.</p>
+ *
+ * <p>For comparison, the time taken by {@link com.pixelmed.dicom.AttributeList#read(String) AttributeList.read()}, which
+ * decompresses every frame before either the first or the last is available, is measured, and then the time to open an
+ * {@link com.pixelmed.dicom.EncapsulatedPixelDataFrameIndex EncapsulatedPixelDataFrameIndex} and fetch, or fetch and
+ * decompress, only the frame wanted.</p>
+ *
+ * <p>Optionally, the time taken to read and decompress all the frames with more than one frame decompressed at a time
+ * is also measured, and the pixels checked to be the same as when decompressed one frame at a time.</p>
+ */
+public class FrameAccessBenchmark {
+
+	private FrameAccessBenchmark() {}
+
+	/**
+	 * @param	file
+	 * @param	frame		the frame, or -1 for the last frame
+	 * @param	decompress	whether to decompress the frame or just fetch the compressed bytes
+	 * @return			the elapsed time in ns
+	 * @exception	Exception
+	 */
+	private static long timeIndexedFrame(File file,int frame,boolean decompress) throws Exception {
+		long startTime = System.nanoTime();
+		EncapsulatedPixelDataFrameIndex index = new EncapsulatedPixelDataFrameIndex(file);
+		if (frame < 0) {
+			frame = index.getNumberOfFrames()-1;
+		}
+		if (decompress) {
+			BufferedImage image = index.getDecompressedFrame(frame);
+		}
+		else {
+			byte[] bytes = index.getCompressedFrame(frame);
+		}
+		index.close();
+		return System.nanoTime() - startTime;
+	}
+
+	/**
+	 * @param	file
+	 * @param	parallelism
+	 * @return			the list read, with all frames decompressed
+	 * @exception	Exception
+	 */
+	private static AttributeList readAllFrames(File file,int parallelism) throws Exception {
+		AttributeList list = new AttributeList();
+		list.setDecompressionParallelism(parallelism);
+		list.read(file.getCanonicalPath());
+		return list;
+	}
+
+	/**
+	 * @param	a
+	 * @param	b
+	 * @return		true if the Pixel Data values are the same
+	 * @exception	DicomException
+	 */
+	private static boolean samePixelData(AttributeList a,AttributeList b) throws DicomException {
+		Attribute pa = a.get(TagFromName.PixelData);
+		Attribute pb = b.get(TagFromName.PixelData);
+		if (pa instanceof OtherWordAttribute && pb instanceof OtherWordAttribute) {
+			return Arrays.equals(pa.getShortValues(),pb.getShortValues());
+		}
+		else if (pa instanceof OtherByteAttribute && pb instanceof OtherByteAttribute) {
+			return Arrays.equals(pa.getByteValues(),pb.getByteValues());
+		}
+		return false;
+	}
+
+	/**
+	 * @param	label
+	 * @param	elapsed
+	 */
+	private static void report(String label,long elapsed) {
+		System.err.println(label+": "+(elapsed/1000000)+" ms");
+	}
+
+	/**
+	 * <p>Time access to the first and the last frame of a compressed multi-frame image, before and after indexing the frames.</p>
+	 *
+	 * @param	arg	the file, and optionally the number of repetitions (default 5) and the number of frames to decompress at a time when reading all frames
+	 */
+	public static void main(String arg[]) {
+		try {
+			File file = new File(arg[0]);
+			int repetitions = arg.length > 1 ? Integer.parseInt(arg[1]) : 5;
+			int parallelism = arg.length > 2 ? Integer.parseInt(arg[2]) : 1;
+			for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+				String pass = "Pass "+r+" ";
+
+				long startTime = System.nanoTime();
+				AttributeList list = readAllFrames(file,1);
+				long elapsed = System.nanoTime() - startTime;
+				if (r >= 0) report(pass+"read all frames, first or last frame available",elapsed);
+
+				if (parallelism > 1) {
+					startTime = System.nanoTime();
+					AttributeList parallelList = readAllFrames(file,parallelism);
+					elapsed = System.nanoTime() - startTime;
+					if (r >= 0) report(pass+"read all frames "+parallelism+" at a time",elapsed);
+					if (!samePixelData(list,parallelList)) {
+						System.err.println("Pixel Data decompressed "+parallelism+" frames at a time differs from one frame at a time");
+					}
+				}
+
+				for (int m=0; m<2; ++m) {
+					boolean decompress = m == 1;
+					String what = decompress ? "decompress" : "fetch     ";
+					elapsed = timeIndexedFrame(file,0,decompress);
+					if (r >= 0) report(pass+"indexed "+what+" first frame",elapsed);
+					elapsed = timeIndexedFrame(file,-1,decompress);
+					if (r >= 0) report(pass+"indexed "+what+" last frame ",elapsed);
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import com.pixelmed.utils.FileUtilities;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import java.util.ArrayList;
+
+/**
+ * <p>A class to measure how quickly, and with how much allocation, the headers of a corpus of DICOM files can be parsed.</p>
+ *
+ * <p>Each file is read up to, but not including, the Pixel Data, which is the typical pattern for indexing,
+ * routing and browsing. The corpus is parsed once to warm up and then the specified number of times, and
+ * the elapsed time, files per second and bytes allocated per file and per attribute are reported.</p>
+ *
+ * <p>After each file is parsed, the handful of attributes that routing and indexing typically use are extracted,
+ * so that when values are decoded lazily the cost of decoding those that are actually used is included.</p>
+ *
+ * <p>Optionally, the same corpus can also be parsed reading only the attributes that indexing typically uses, with everything else
+ * skipped, to compare with parsing the entire header.</p>
+ *
+ * <p>Allocation is measured with the per-thread allocation counter of the platform's
+ * {@link java.lang.management.ThreadMXBean ThreadMXBean}, if available.</p>
+ */
+public class HeaderParseBenchmark {
+
+	private HeaderParseBenchmark() {}
+
+	/**
+	 * <p>Get the number of bytes allocated so far by the current thread.</p>
+	 *
+	 * @return	the number of bytes, or -1 if not supported by the platform
+	 */
+	static long getCurrentThreadAllocatedBytes() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		catch (Throwable e) {		// e.g., NoClassDefFoundError on platforms without com.sun.management
+		}
+		return -1;
+	}
+
+	/**
+	 * <p>Find up to the specified number of DICOM files in the supplied files and folders.</p>
+	 *
+	 * @param	paths		the files and folders to search
+	 * @param	maximumFiles	the maximum number of files to return
+	 * @return			the DICOM files found
+	 */
+	static File[] findDicomFiles(String[] paths,int maximumFiles) {
+		ArrayList<File> files = new ArrayList<File>();
+		for (String path : paths) {
+			for (Object o : FileUtilities.listFilesRecursively(new File(path))) {
+				File f = (File)o;
+				if (files.size() >= maximumFiles) {
+					break;
+				}
+				if (DicomFileUtilities.isDicomOrAcrNemaFile(f)) {
+					files.add(f);
+				}
+			}
+		}
+		return files.toArray(new File[files.size()]);
+	}
+
+	/**
+	 * <p>Count the attributes in a list, including those nested in sequence items.</p>
+	 *
+	 * @param	list
+	 * @return		the number of attributes
+	 */
+	static long countAttributes(AttributeList list) {
+		long count = 0;
+		for (Attribute a : list.values()) {
+			++count;
+			if (a instanceof SequenceAttribute) {
+				SequenceAttribute s = (SequenceAttribute)a;
+				int n = s.getNumberOfItems();
+				for (int i=0; i<n; ++i) {
+					SequenceItem item = s.getItem(i);
+					if (item != null && item.getAttributeList() != null) {
+						count += countAttributes(item.getAttributeList());
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/***/
+	private static final AttributeTag[] typicallyUsedTags = {
+		TagFromName.SOPClassUID,
+		TagFromName.SOPInstanceUID,
+		TagFromName.StudyInstanceUID,
+		TagFromName.SeriesInstanceUID,
+		TagFromName.PatientID,
+		TagFromName.PatientName,
+		TagFromName.AccessionNumber,
+		TagFromName.Modality,
+		TagFromName.StudyDate,
+		TagFromName.SeriesNumber,
+		TagFromName.InstanceNumber,
+		TagFromName.ImageType
+	};
+
+	/**
+	 * <p>Make the set of about 30 attributes that indexing typically uses, including some nested in sequences.</p>
+	 *
+	 * @return	the set
+	 */
+	static AttributeTagSet makeIndexingTags() {
+		AttributeTagSet wanted = new AttributeTagSet(typicallyUsedTags);
+		wanted.add(TagFromName.PatientBirthDate);
+		wanted.add(TagFromName.PatientSex);
+		wanted.add(TagFromName.StudyTime);
+		wanted.add(TagFromName.StudyID);
+		wanted.add(TagFromName.StudyDescription);
+		wanted.add(TagFromName.ReferringPhysicianName);
+		wanted.add(TagFromName.SeriesDate);
+		wanted.add(TagFromName.SeriesDescription);
+		wanted.add(TagFromName.ProtocolName);
+		wanted.add(TagFromName.BodyPartExamined);
+		wanted.add(TagFromName.Manufacturer);
+		wanted.add(TagFromName.ManufacturerModelName);
+		wanted.add(TagFromName.InstitutionName);
+		wanted.add(TagFromName.StationName);
+		wanted.add(TagFromName.AcquisitionNumber);
+		wanted.add(TagFromName.ContentDate);
+		wanted.add(TagFromName.ContentTime);
+		wanted.add(TagFromName.FrameOfReferenceUID);
+		wanted.add(TagFromName.Rows);
+		wanted.add(TagFromName.Columns);
+		wanted.add(TagFromName.NumberOfFrames);
+		wanted.add(TagFromName.PhotometricInterpretation);
+		wanted.addPath(TagFromName.RequestAttributesSequence,TagFromName.RequestedProcedureID);
+		wanted.addPath(TagFromName.RequestAttributesSequence,TagFromName.ScheduledProcedureStepID);
+		wanted.addPath(TagFromName.ProcedureCodeSequence,TagFromName.CodeValue);
+		return wanted;
+	}
+
+	/**
+	 * <p>Extract the values of the attributes that routing and indexing typically use.</p>
+	 *
+	 * @param	list
+	 * @return		the total length of the values, so that the work cannot be optimized away
+	 */
+	static long useTypicalAttributes(AttributeList list) {
+		long length = 0;
+		for (AttributeTag tag : typicallyUsedTags) {
+			length += Attribute.getDelimitedStringValuesOrEmptyString(list,tag).length();
+		}
+		return length;
+	}
+
+	/**
+	 * <p>Parse the headers of all the files once.</p>
+	 *
+	 * @param	files
+	 * @param	compact			whether or not to read into a {@link com.pixelmed.dicom.CompactAttributeList CompactAttributeList}
+	 * @param	decodeValuesLazily	whether or not to decode values only when first requested
+	 * @param	wantedTags		the only attributes to read, or null to read the entire header
+	 * @return				the total number of attributes read
+	 */
+	static long parseAll(File[] files,boolean compact,boolean decodeValuesLazily,AttributeTagSet wantedTags) throws IOException, DicomException {
+		long attributes = 0;
+		long length = 0;
+		for (File f : files) {
+			AttributeList list = compact ? new CompactAttributeList() : new AttributeList();
+			list.setDecodeValuesLazily(decodeValuesLazily);
+			if (wantedTags == null) {
+				list.read(f,TagFromName.PixelData);
+			}
+			else {
+				list.read(f,wantedTags);
+			}
+			length += useTypicalAttributes(list);
+			attributes += countAttributes(list);
+		}
+//System.err.println("HeaderParseBenchmark.parseAll(): length of typically used values = "+length);
+		return attributes;
+	}
+
+	/**
+	 * <p>Parse the headers of all the files once and report the parse time and allocation.</p>
+	 *
+	 * @param	label
+	 * @param	files
+	 * @param	compact			whether or not to read into a {@link com.pixelmed.dicom.CompactAttributeList CompactAttributeList}
+	 * @param	decodeValuesLazily	whether or not to decode values only when first requested
+	 * @param	wantedTags		the only attributes to read, or null to read the entire header
+	 * @return				the elapsed time in ns
+	 */
+	static long timeParseAll(String label,File[] files,boolean compact,boolean decodeValuesLazily,AttributeTagSet wantedTags) throws IOException, DicomException {
+		long startAllocated = getCurrentThreadAllocatedBytes();
+		long startTime = System.nanoTime();
+		long attributes = parseAll(files,compact,decodeValuesLazily,wantedTags);
+		long elapsed = System.nanoTime() - startTime;
+		long allocated = getCurrentThreadAllocatedBytes() - startAllocated;
+		System.err.println(label+": "+(elapsed/1000000)+" ms"
+			+", "+(long)(files.length/(elapsed/1e9))+" files/s"
+			+", "+attributes+" attributes"
+			+(startAllocated < 0 ? "" : ", "+(allocated/files.length)+" bytes allocated/file, "+(attributes == 0 ? 0 : allocated/attributes)+" bytes allocated/attribute"));
+		return elapsed;
+	}
+
+	/**
+	 * <p>Parse the headers of a corpus of DICOM files and report the parse time and allocation.</p>
+	 *
+	 * @param	arg	optionally -n maximumFiles (default 1000), -r repetitions (default 5), -compact,
+	 *				-lazy (to compare decoding values while reading with decoding them only when requested),
+	 *				-wanted (to compare reading the entire header with reading only the attributes indexing typically uses),
+	 *				followed by one or more files or folders containing the corpus
+	 */
+	public static void main(String arg[]) {
+		int maximumFiles = 1000;
+		int repetitions = 5;
+		boolean compact = false;
+		boolean lazy = false;
+		boolean wanted = false;
+		ArrayList<String> paths = new ArrayList<String>();
+		for (int i=0; i<arg.length; ++i) {
+			if (arg[i].equals("-n") && i+1 < arg.length) {
+				maximumFiles = Integer.parseInt(arg[++i]);
+			}
+			else if (arg[i].equals("-r") && i+1 < arg.length) {
+				repetitions = Integer.parseInt(arg[++i]);
+			}
+			else if (arg[i].equals("-compact")) {
+				compact = true;
+			}
+			else if (arg[i].equals("-lazy")) {
+				lazy = true;
+			}
+			else if (arg[i].equals("-wanted")) {
+				wanted = true;
+			}
+			else {
+				paths.add(arg[i]);
+			}
+		}
+		if (paths.isEmpty()) {
+			System.err.println("Usage: java com.pixelmed.dicom.HeaderParseBenchmark [-n maximumFiles] [-r repetitions] [-compact] [-lazy] [-wanted] path [path ...]");
+			System.exit(1);
+		}
+		try {
+			File[] files = findDicomFiles(paths.toArray(new String[paths.size()]),maximumFiles);
+			System.err.println("Corpus of "+files.length+" files");
+			AttributeTagSet indexingTags = wanted ? makeIndexingTags() : null;
+			parseAll(files,compact,false,null);		// warm up, and get the file system cache loaded
+			if (lazy) {
+				parseAll(files,compact,true,null);
+			}
+			if (wanted) {
+				parseAll(files,compact,false,indexingTags);
+			}
+			for (int r=0; r<repetitions; ++r) {
+				long elapsedEntire = timeParseAll("Pass "+r+(lazy ? " decoding while reading" : "")+(wanted ? " entire header" : ""),files,compact,false,null);
+				if (lazy) {
+					timeParseAll("Pass "+r+" decoding lazily",files,compact,true,null);
+				}
+				if (wanted) {
+					long elapsedWanted = timeParseAll("Pass "+r+" only wanted attributes",files,compact,false,indexingTags);
+					System.err.println("Pass "+r+" reading only wanted attributes is "+(elapsedWanted == 0 ? 0 : ((double)elapsedEntire)/elapsedWanted)+" times the throughput");
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * <p>A class to compare the time and memory taken to convert DICOM objects to and from JSON by {@link com.pixelmed.dicom.JSONRepresentationOfDicomObjectFactory JSONRepresentationOfDicomObjectFactory}
+ * with that taken to convert them to and from XML by {@link com.pixelmed.dicom.XMLRepresentationOfDicomObjectFactory XMLRepresentationOfDicomObjectFactory}.</p>
+ *
+ * <p>The same synthetic objects as {@link com.pixelmed.dicom.XMLRepresentationBenchmark XMLRepresentationBenchmark} are converted to XML by way of a DOM tree and by streaming,
+ * and to JSON from the {@link com.pixelmed.dicom.AttributeList AttributeList} and directly from the DICOM stream, then each is read back.</p>
+ */
+public class JSONRepresentationBenchmark {
+
+	private JSONRepresentationBenchmark() {}
+
+	/***/
+	private static final int XML_DOM = 0;
+	/***/
+	private static final int XML_STREAMED = 1;
+	/***/
+	private static final int JSON_FROM_LIST = 2;
+	/***/
+	private static final int JSON_FROM_STREAM = 3;
+
+	/***/
+	private static final String[] modeNames = { "XML DOM tree    ", "XML streamed    ", "JSON from list  ", "JSON from stream" };
+
+	/**
+	 * @param	list
+	 * @param	dicom	the list encoded as DICOM
+	 * @param	mode
+	 * @return		the XML or JSON
+	 * @exception	Exception
+	 */
+	private static byte[] write(AttributeList list,byte[] dicom,int mode) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		switch (mode) {
+			case XML_DOM:		XMLRepresentationOfDicomObjectFactory.createDocumentAndWriteIt(list,out); break;
+			case XML_STREAMED:	XMLRepresentationOfDicomObjectFactory.write(out,list); break;
+			case JSON_FROM_LIST:	JSONRepresentationOfDicomObjectFactory.write(out,list); break;
+			case JSON_FROM_STREAM:	JSONRepresentationOfDicomObjectFactory.write(out,new DicomInputStream(new ByteArrayInputStream(dicom))); break;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param	bytes	the XML or JSON
+	 * @param	mode
+	 * @return		the list of attributes
+	 * @exception	Exception
+	 */
+	private static AttributeList read(byte[] bytes,int mode) throws Exception {
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		switch (mode) {
+			case XML_DOM:		return new XMLRepresentationOfDicomObjectFactory().getAttributeList(in);
+			case XML_STREAMED:	return XMLRepresentationOfDicomObjectFactory.read(in);
+			default:		return JSONRepresentationOfDicomObjectFactory.read(in);
+		}
+	}
+
+	/**
+	 * <p>Time converting synthetic objects to and from XML and JSON.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5)
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			AttributeList.getDictionary();
+			String[] names = { "deep SR          ", "enhanced CT      " };
+			AttributeList[] lists = { XMLRepresentationBenchmark.makeDeepStructuredReport(), XMLRepresentationBenchmark.makeEnhancedMultiFrameHeader() };
+			for (int l=0; l<lists.length; ++l) {
+				AttributeList list = lists[l];
+				String expect = list.toString();		// before writing, which records the byte offsets of items
+				byte[] dicom;
+				{
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					DicomOutputStream o = new DicomOutputStream(out,null,TransferSyntax.ExplicitVRLittleEndian);
+					list.write(o);
+					o.close();
+					dicom = out.toByteArray();
+				}
+				{
+					if (!new String(write(list,dicom,JSON_FROM_LIST),"UTF-8").equals(new String(write(list,dicom,JSON_FROM_STREAM),"UTF-8"))) {
+						System.err.println("JSON of "+names[l]+" from list differs from that from stream");
+					}
+					if (!read(write(list,dicom,JSON_FROM_STREAM),JSON_FROM_STREAM).toString().equals(expect)) {
+						System.err.println("JSON of "+names[l]+" read back differs from the original");
+					}
+				}
+				for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+					for (int m=0; m<modeNames.length; ++m) {
+						long startAllocated = XMLRepresentationBenchmark.getAllocatedBytes();
+						long startTime = System.nanoTime();
+						byte[] bytes = write(list,dicom,m);
+						long writeElapsed = System.nanoTime() - startTime;
+						long writeAllocated = XMLRepresentationBenchmark.getAllocatedBytes() - startAllocated;
+						startAllocated = XMLRepresentationBenchmark.getAllocatedBytes();
+						startTime = System.nanoTime();
+						AttributeList check = read(bytes,m);
+						long readElapsed = System.nanoTime() - startTime;
+						long readAllocated = XMLRepresentationBenchmark.getAllocatedBytes() - startAllocated;
+						if (check.size() != list.size()) {
+							System.err.println("Read back "+check.size()+" attributes of "+names[l]+" rather than "+list.size());
+						}
+						if (r >= 0) {
+							System.err.println("Pass "+r+" "+names[l]+" "+modeNames[m]+": "+bytes.length+" bytes"
+								+", write "+(writeElapsed/1000000)+" ms"+(startAllocated < 0 ? "" : (" "+(writeAllocated/(1024*1024))+" MB allocated"))
+								+", read "+(readElapsed/1000000)+" ms"+(startAllocated < 0 ? "" : (" "+(readAllocated/(1024*1024))+" MB allocated")));
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,1391 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+
+/**
+ * <p>A class to write and read DICOM objects in the JSON representation of the DICOM JSON Model defined in PS 3.18 Annex F.</p>
+ *
+ * <p>Each data set or item is a JSON object whose members are named by the eight upper case hexadecimal digits of the group and element
+ * of each attribute, in tag order, and each attribute is an object with a "vr" member and, unless the attribute is empty, a "Value" array,
+ * an "InlineBinary" Base64 string, or a "BulkDataURI". Numeric values are JSON numbers, person names are objects with "Alphabetic",
+ * "Ideographic" and "Phonetic" members, sequence items are objects, and empty values within multiple values are null. Group lengths
+ * are not included.</p>
+ *
+ * <p>Nothing is built between the DICOM and the JSON; no tree of JSON objects, nor of XML, is ever created. An {@link com.pixelmed.dicom.AttributeList AttributeList}
+ * may be written with {@link #write(OutputStream,AttributeList) write(OutputStream,AttributeList)}, or better, a DICOM stream may be written
+ * as it is parsed, without ever building an {@link com.pixelmed.dicom.AttributeList AttributeList}, with
+ * {@link #write(OutputStream,DicomInputStream,String,long) write(OutputStream,DicomInputStream,String,long)}, in which case
+ * binary values such as Pixel Data are copied through chunk by chunk, or if they are larger than a threshold, described by a BulkDataURI.
+ * For example:</p>
+ * <pre>
+try {
+    DicomInputStream i = new DicomInputStream(new File("dicomfile"));
+    JSONRepresentationOfDicomObjectFactory.write(System.out,i,new File("dicomfile").toURI().toString(),1024);
+    i.close();
+} catch (Exception e) {
+    e.printStackTrace(System.err);
+ }
+ * </pre>
+ *
+ * <p>A BulkDataURI is the supplied URI of the file with a query of the form "?offset=n&amp;length=n", giving the byte offset and length of the value in the file,
+ * which {@link #read(InputStream) read(InputStream)} resolves for file URIs by referencing the value on disk rather than reading it.</p>
+ *
+ * <p>Encapsulated Pixel Data, which is only encountered when writing a DICOM stream, is written as a BulkDataURI of the entire encapsulated value,
+ * from the Item of the Basic Offset Table up to and including the Sequence Delimiter, whatever its length, if the URI of the stream is supplied
+ * and the stream is not deflated, else that value is written as InlineBinary. When read, either is decompressed into native Pixel Data if the
+ * Transfer Syntax UID of the meta information header is an encapsulated one that is supported, as it is when reading DICOM.</p>
+ *
+ * @see com.pixelmed.dicom.XMLRepresentationOfDicomObjectFactory
+ * @see com.pixelmed.dicom.DicomStreamParser
+ */
+public class JSONRepresentationOfDicomObjectFactory {
+
+	/***/
+	public static final long defaultBulkDataThreshold = 1024;
+
+	/***/
+	private static final char[] hexDigits = "0123456789ABCDEF".toCharArray();
+
+	/***/
+	private static final char[] base64Digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/***/
+	private static final String[] personNameGroups = { "Alphabetic", "Ideographic", "Phonetic" };
+
+	private JSONRepresentationOfDicomObjectFactory() {}
+
+	/**
+	 * @param	vr
+	 * @return		true if the values are written as InlineBinary or a BulkDataURI
+	 */
+	private static boolean isBinaryVR(byte[] vr) {
+		return ValueRepresentation.isOtherByteOrWordVR(vr)
+		    || ValueRepresentation.isOtherFloatVR(vr)
+		    || ValueRepresentation.isUnknownVR(vr)
+		    || ValueRepresentation.isUnspecifiedShortOrOtherWordVR(vr);
+	}
+
+	/**
+	 * @param	vr
+	 * @return		true if the values are written as JSON numbers
+	 */
+	private static boolean isNumberVR(byte[] vr) {
+		return ValueRepresentation.isIntegerStringVR(vr)
+		    || ValueRepresentation.isDecimalStringVR(vr)
+		    || ValueRepresentation.isUnsignedShortVR(vr)
+		    || ValueRepresentation.isSignedShortVR(vr)
+		    || ValueRepresentation.isUnsignedLongVR(vr)
+		    || ValueRepresentation.isSignedLongVR(vr)
+		    || ValueRepresentation.isFloatSingleVR(vr)
+		    || ValueRepresentation.isFloatDoubleVR(vr)
+		    || ValueRepresentation.isUnspecifiedShortVR(vr);
+	}
+
+	/**
+	 * <p>Get the VR to write, replacing those that the dictionary uses when the real VR is not known.</p>
+	 *
+	 * @param	vr
+	 * @return		the VR
+	 */
+	private static String getVRToWrite(byte[] vr) {
+		if (ValueRepresentation.isOtherUnspecifiedVR(vr) || ValueRepresentation.isUnspecifiedShortOrOtherWordVR(vr)) {
+			return "OW";
+		}
+		else if (ValueRepresentation.isUnspecifiedShortVR(vr)) {
+			return "US";
+		}
+		return ValueRepresentation.getAsString(vr);
+	}
+
+	/**
+	 * @param	tag
+	 * @return		true if a group length or other attribute not to be written or read
+	 */
+	private static boolean isIgnored(AttributeTag tag) {
+		int group = tag.getGroup();
+		int element = tag.getElement();
+		return (group%2 == 0 && element == 0) || (group == 0x0008 && element == 0x0001) || (group == 0xfffc && element == 0xfffc);
+	}
+
+	/**
+	 * @param	s
+	 * @return		true if the string is a valid JSON number
+	 */
+	private static boolean isJSONNumber(String s) {
+		int length = s.length();
+		int i = 0;
+		if (i < length && s.charAt(i) == '-') ++i;
+		if (i >= length) return false;
+		if (s.charAt(i) == '0') {
+			++i;
+		}
+		else if (s.charAt(i) >= '1' && s.charAt(i) <= '9') {
+			while (i < length && s.charAt(i) >= '0' && s.charAt(i) <= '9') ++i;
+		}
+		else {
+			return false;
+		}
+		if (i < length && s.charAt(i) == '.') {
+			++i;
+			int start = i;
+			while (i < length && s.charAt(i) >= '0' && s.charAt(i) <= '9') ++i;
+			if (i == start) return false;
+		}
+		if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			++i;
+			if (i < length && (s.charAt(i) == '+' || s.charAt(i) == '-')) ++i;
+			int start = i;
+			while (i < length && s.charAt(i) >= '0' && s.charAt(i) <= '9') ++i;
+			if (i == start) return false;
+		}
+		return i == length;
+	}
+
+	/**
+	 * <p>Write JSON to a character stream, reusing its buffers for every attribute.</p>
+	 */
+	private static final class JSONWriter {
+		/***/
+		private Writer w;
+		/***/
+		private long bulkDataThreshold;
+		/***/
+		private char[] scratch = new char[16];
+		/***/
+		private byte[] bytes = new byte[8192];
+		/***/
+		private byte[] carry = new byte[3];
+		/***/
+		private int carryLength;
+		/***/
+		private byte[] itemHeader = new byte[8];
+
+		/**
+		 * @param	w
+		 * @param	bulkDataThreshold
+		 */
+		JSONWriter(Writer w,long bulkDataThreshold) {
+			this.w = w;
+			this.bulkDataThreshold = bulkDataThreshold;
+		}
+
+		/**
+		 * @param	tag
+		 * @param	vr
+		 * @exception	IOException
+		 */
+		void writeKeyAndVR(AttributeTag tag,String vr) throws IOException {
+			int group = tag.getGroup();
+			int element = tag.getElement();
+			scratch[0] = '"';
+			for (int i=0; i<4; ++i) {
+				scratch[4-i] = hexDigits[(group >> (i*4)) & 0xf];
+				scratch[8-i] = hexDigits[(element >> (i*4)) & 0xf];
+			}
+			scratch[9] = '"';
+			w.write(scratch,0,10);
+			w.write(":{\"vr\":\"");
+			w.write(vr);
+			w.write('"');
+		}
+
+		/**
+		 * @param	s
+		 * @exception	IOException
+		 */
+		void writeString(String s) throws IOException {
+			w.write('"');
+			int length = s.length();
+			int start = 0;
+			for (int i=0; i<length; ++i) {
+				char c = s.charAt(i);
+				if (c == '"' || c == '\\' || c < 0x20) {
+					if (i > start) {
+						w.write(s,start,i-start);
+					}
+					w.write('\\');
+					switch (c) {
+						case '"':	w.write('"'); break;
+						case '\\':	w.write('\\'); break;
+						case '\n':	w.write('n'); break;
+						case '\r':	w.write('r'); break;
+						case '\t':	w.write('t'); break;
+						case '\b':	w.write('b'); break;
+						case '\f':	w.write('f'); break;
+						default:
+							w.write("u00");
+							w.write(hexDigits[(c >> 4) & 0xf]);
+							w.write(hexDigits[c & 0xf]);
+					}
+					start = i+1;
+				}
+			}
+			if (length > start) {
+				w.write(s,start,length-start);
+			}
+			w.write('"');
+		}
+
+		/**
+		 * @param	s	a number, which is written as a string if it is not valid JSON (such as "NaN" or "+1")
+		 * @exception	IOException
+		 */
+		void writeNumber(String s) throws IOException {
+			if (isJSONNumber(s)) {
+				w.write(s);
+			}
+			else {
+				writeString(s);
+			}
+		}
+
+		/**
+		 * @param	s	a person name, with component groups delimited by '='
+		 * @exception	IOException
+		 */
+		void writePersonName(String s) throws IOException {
+			boolean started = false;
+			int start = 0;
+			for (int g=0; g<personNameGroups.length && start <= s.length(); ++g) {
+				int end = s.indexOf('=',start);
+				if (end < 0) {
+					end = s.length();
+				}
+				if (end > start) {
+					w.write(started ? ",\"" : "{\"");
+					w.write(personNameGroups[g]);
+					w.write("\":");
+					writeString(s.substring(start,end));
+					started = true;
+				}
+				start = end+1;
+			}
+			w.write(started ? "}" : "null");
+		}
+
+		/**
+		 * @exception	IOException
+		 */
+		void startInlineBinary() throws IOException {
+			w.write(",\"InlineBinary\":\"");
+			carryLength = 0;
+		}
+
+		/**
+		 * <p>Write bytes as Base64, keeping any that do not make a whole group of three until the next call.</p>
+		 *
+		 * @param	b
+		 * @param	offset
+		 * @param	length
+		 * @exception	IOException
+		 */
+		void writeInlineBinary(byte[] b,int offset,int length) throws IOException {
+			int end = offset+length;
+			while (carryLength > 0 && carryLength < 3 && offset < end) {
+				carry[carryLength++] = b[offset++];
+			}
+			if (carryLength == 3) {
+				writeBase64Group(carry,0,3);
+				carryLength = 0;
+			}
+			while (end - offset >= 3) {
+				writeBase64Group(b,offset,3);
+				offset+=3;
+			}
+			while (offset < end) {
+				carry[carryLength++] = b[offset++];
+			}
+		}
+
+		/**
+		 * @param	b
+		 * @param	offset
+		 * @param	length	1 to 3 bytes, padded if fewer than 3
+		 * @exception	IOException
+		 */
+		private void writeBase64Group(byte[] b,int offset,int length) throws IOException {
+			int v = (b[offset]&0xff) << 16;
+			if (length > 1) v |= (b[offset+1]&0xff) << 8;
+			if (length > 2) v |= (b[offset+2]&0xff);
+			scratch[0] = base64Digits[(v >> 18) & 0x3f];
+			scratch[1] = base64Digits[(v >> 12) & 0x3f];
+			scratch[2] = length > 1 ? base64Digits[(v >> 6) & 0x3f] : '=';
+			scratch[3] = length > 2 ? base64Digits[v & 0x3f] : '=';
+			w.write(scratch,0,4);
+		}
+
+		/**
+		 * @exception	IOException
+		 */
+		void endInlineBinary() throws IOException {
+			if (carryLength > 0) {
+				writeBase64Group(carry,0,carryLength);
+				carryLength = 0;
+			}
+			w.write('"');
+		}
+
+		/**
+		 * <p>Write the header of an Item or Sequence Delimiter of encapsulated Pixel Data as Base64, in little endian byte order.</p>
+		 *
+		 * @param	tag
+		 * @param	vl
+		 * @exception	IOException
+		 */
+		private void writeInlineItemHeader(AttributeTag tag,long vl) throws IOException {
+			int group = tag.getGroup();
+			int element = tag.getElement();
+			itemHeader[0] = (byte)group;
+			itemHeader[1] = (byte)(group >> 8);
+			itemHeader[2] = (byte)element;
+			itemHeader[3] = (byte)(element >> 8);
+			itemHeader[4] = (byte)vl;
+			itemHeader[5] = (byte)(vl >> 8);
+			itemHeader[6] = (byte)(vl >> 16);
+			itemHeader[7] = (byte)(vl >> 24);
+			writeInlineBinary(itemHeader,0,8);
+		}
+
+		/**
+		 * @param	uri
+		 * @param	offset
+		 * @param	length
+		 * @exception	IOException
+		 */
+		void writeBulkDataURI(String uri,long offset,long length) throws IOException {
+			w.write(",\"BulkDataURI\":");
+			writeString(uri+"?offset="+offset+"&length="+length);
+		}
+
+		/**
+		 * <p>Write the values of a binary attribute, as a BulkDataURI if left on disk, else inline, in little endian byte order.</p>
+		 *
+		 * @param	a
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private void writeBinaryValues(Attribute a) throws IOException, DicomException {
+			long vl = a.getVL();
+			if (vl > bulkDataThreshold && a instanceof OtherByteAttributeOnDisk && ((OtherByteAttributeOnDisk)a).getFile() != null) {
+				writeBulkDataURI(((OtherByteAttributeOnDisk)a).getFile().toURI().toString(),((OtherByteAttributeOnDisk)a).getByteOffset(),vl);
+			}
+			else if (vl > bulkDataThreshold && a instanceof OtherWordAttributeOnDisk && ((OtherWordAttributeOnDisk)a).getFile() != null && !((OtherWordAttributeOnDisk)a).isBigEndian()) {
+				writeBulkDataURI(((OtherWordAttributeOnDisk)a).getFile().toURI().toString(),((OtherWordAttributeOnDisk)a).getByteOffset(),vl);
+			}
+			else if (ValueRepresentation.isOtherFloatVR(a.getVR())) {
+				float[] v = a.getFloatValues();
+				if (v != null && v.length > 0) {
+					startInlineBinary();
+					int n = 0;
+					for (int i=0; i<v.length; ++i) {
+						int f = Float.floatToRawIntBits(v[i]);
+						bytes[n++] = (byte)f;
+						bytes[n++] = (byte)(f >> 8);
+						bytes[n++] = (byte)(f >> 16);
+						bytes[n++] = (byte)(f >> 24);
+						if (n == bytes.length) {
+							writeInlineBinary(bytes,0,n);
+							n = 0;
+						}
+					}
+					writeInlineBinary(bytes,0,n);
+					endInlineBinary();
+				}
+			}
+			else if (ValueRepresentation.isOtherWordVR(a.getVR())) {
+				short[] v = a.getShortValues();
+				if (v != null && v.length > 0) {
+					startInlineBinary();
+					int n = 0;
+					for (int i=0; i<v.length; ++i) {
+						short s = v[i];
+						bytes[n++] = (byte)s;
+						bytes[n++] = (byte)(s >> 8);
+						if (n == bytes.length) {
+							writeInlineBinary(bytes,0,n);
+							n = 0;
+						}
+					}
+					writeInlineBinary(bytes,0,n);
+					endInlineBinary();
+				}
+			}
+			else {
+				byte[] v = a.getByteValues();
+				if (v != null && v.length > 0) {
+					startInlineBinary();
+					writeInlineBinary(v,0,v.length);
+					endInlineBinary();
+				}
+			}
+		}
+
+		/**
+		 * <p>Write the values of an attribute that is not a sequence, if any, and close the attribute's object.</p>
+		 *
+		 * @param	a
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		void writeValues(Attribute a) throws IOException, DicomException {
+			byte[] vr = a.getVR();
+			if (isBinaryVR(vr)) {
+				writeBinaryValues(a);
+			}
+			else if (ValueRepresentation.isAttributeTagVR(vr)) {
+				AttributeTag[] v = ((AttributeTagAttribute)a).getAttributeTagValues();
+				if (v != null && v.length > 0) {
+					w.write(",\"Value\":[");
+					for (int i=0; i<v.length; ++i) {
+						if (i > 0) w.write(',');
+						int group = v[i].getGroup();
+						int element = v[i].getElement();
+						scratch[0] = '"';
+						for (int j=0; j<4; ++j) {
+							scratch[4-j] = hexDigits[(group >> (j*4)) & 0xf];
+							scratch[8-j] = hexDigits[(element >> (j*4)) & 0xf];
+						}
+						scratch[9] = '"';
+						w.write(scratch,0,10);
+					}
+					w.write(']');
+				}
+			}
+			else {
+				String[] v = null;
+				boolean isNumber = isNumberVR(vr);
+				// avoid any formatting that getStringValues() might apply to floating point values, since full precision is wanted
+				if (ValueRepresentation.isFloatDoubleVR(vr)) {
+					double[] dv = a.getDoubleValues();
+					if (dv != null) {
+						v = new String[dv.length];
+						for (int i=0; i<dv.length; ++i) {
+							v[i] = Double.toString(dv[i]);
+						}
+					}
+				}
+				else if (ValueRepresentation.isFloatSingleVR(vr)) {
+					float[] fv = a.getFloatValues();
+					if (fv != null) {
+						v = new String[fv.length];
+						for (int i=0; i<fv.length; ++i) {
+							v[i] = Float.toString(fv[i]);
+						}
+					}
+				}
+				else {
+					v = a.getStringValues();
+				}
+				if (v != null && v.length > 0) {
+					boolean isPersonName = ValueRepresentation.isPersonNameVR(vr);
+					w.write(",\"Value\":[");
+					for (int i=0; i<v.length; ++i) {
+						if (i > 0) w.write(',');
+						String s = v[i];
+						if (s == null || s.length() == 0) {
+							w.write("null");
+						}
+						else if (isPersonName) {
+							writePersonName(s);
+						}
+						else if (isNumber) {
+							writeNumber(s);
+						}
+						else {
+							writeString(s);
+						}
+					}
+					w.write(']');
+				}
+			}
+			w.write('}');
+		}
+
+		/**
+		 * @param	list
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		void writeList(AttributeList list) throws IOException, DicomException {
+			w.write('{');
+			boolean started = false;
+			Iterator<Attribute> i = list.values().iterator();
+			while (i.hasNext()) {
+				Attribute a = i.next();
+				AttributeTag tag = a.getTag();
+				if (isIgnored(tag)) {
+					continue;
+				}
+				if (started) {
+					w.write(',');
+				}
+				started = true;
+				if (a instanceof SequenceAttribute) {
+					writeKeyAndVR(tag,"SQ");
+					SequenceAttribute s = (SequenceAttribute)a;
+					int n = s.getNumberOfItems();
+					if (n > 0) {
+						w.write(",\"Value\":[");
+						for (int j=0; j<n; ++j) {
+							if (j > 0) w.write(',');
+							writeList(s.getItem(j).getAttributeList());
+						}
+						w.write(']');
+					}
+					w.write('}');
+				}
+				else {
+					writeKeyAndVR(tag,getVRToWrite(a.getVR()));
+					writeValues(a);
+				}
+			}
+			w.write('}');
+		}
+
+		/**
+		 * <p>Write the data set of a stream as it is parsed.</p>
+		 *
+		 * @param	parser
+		 * @param	bulkDataURI	the URI of the stream to use for values larger than the threshold, or null if they are always to be written inline
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		void writeStream(DicomStreamParser parser,String bulkDataURI) throws IOException, DicomException {
+			// levels alternate between data set or item (even) and sequence (odd)
+			boolean[] started = new boolean[16];			// whether anything has been written yet in the object or array at each level
+			SpecificCharacterSet[] characterSets = new SpecificCharacterSet[16];
+			int level = 0;
+			boolean inInlineBinary = false;
+			boolean inEncapsulated = false;		// copying the fragments of encapsulated Pixel Data inline
+			boolean swapShorts = false;
+			boolean swapFloats = false;
+			boolean skippedSequence = false;
+			w.write('{');
+			int event;
+			while ((event = parser.next()) != DicomStreamParser.END_DATA_SET) {
+				switch (event) {
+					case DicomStreamParser.START_ELEMENT: {
+						AttributeTag tag = parser.getTag();
+						byte[] vr = parser.getValueRepresentation();
+						if (isIgnored(tag)) {
+							parser.skipValue();
+							break;
+						}
+						if (started[level]) {
+							w.write(',');
+						}
+						started[level] = true;
+						if (isBinaryVR(vr)) {
+							writeKeyAndVR(tag,getVRToWrite(vr));
+							long vl = parser.getValueLength();
+							TransferSyntax ts = parser.getTransferSyntaxOfDataSet();
+							boolean canReferToFile = bulkDataURI != null && !parser.areReadingMetaHeader() && ts != null && !ts.isDeflated() && !ts.isBzip2ed();
+							boolean bigEndian = parser.getTransferSyntaxInUse().isBigEndian();
+							boolean isBytes = ValueRepresentation.isOtherByteVR(vr) || ValueRepresentation.isUnknownVR(vr);
+							if (vl > bulkDataThreshold && canReferToFile && (isBytes || !bigEndian)) {		// the file is only referred to if it is in little endian order
+								writeBulkDataURI(bulkDataURI,parser.getValueByteOffset(),vl);
+								parser.skipValue();
+								w.write('}');			// there will be no value chunks, and nothing more to write at the end
+							}
+							else if (vl > 0) {
+								swapFloats = bigEndian && ValueRepresentation.isOtherFloatVR(vr);
+								swapShorts = bigEndian && !swapFloats && !isBytes;
+								startInlineBinary();
+								inInlineBinary = true;
+							}
+							else {
+								w.write('}');
+							}
+						}
+						else {
+							Attribute a = parser.readValueAsAttribute(characterSets[level],1,false);
+							writeKeyAndVR(tag,getVRToWrite(a.getVR()));
+							writeValues(a);
+							if (tag.equals(TagFromName.SpecificCharacterSet)) {
+								characterSets[level] = SpecificCharacterSet.valueOf(a.getStringValues(),a.getByteValues());
+							}
+						}
+						break;
+					}
+					case DicomStreamParser.VALUE_CHUNK: {
+						if (inInlineBinary) {
+							byte[] chunk = parser.getChunk();
+							int length = parser.getChunkLength();
+							if (swapShorts) {
+								for (int i=0; i+1<length; i+=2) {
+									byte b = chunk[i]; chunk[i] = chunk[i+1]; chunk[i+1] = b;
+								}
+							}
+							else if (swapFloats) {
+								for (int i=0; i+3<length; i+=4) {
+									byte b = chunk[i]; chunk[i] = chunk[i+3]; chunk[i+3] = b;
+									b = chunk[i+1]; chunk[i+1] = chunk[i+2]; chunk[i+2] = b;
+								}
+							}
+							writeInlineBinary(chunk,0,length);
+						}
+						break;
+					}
+					case DicomStreamParser.END_ELEMENT: {
+						if (inInlineBinary) {
+							endInlineBinary();
+							w.write('}');
+							inInlineBinary = false;
+						}
+						break;
+					}
+					case DicomStreamParser.START_SEQUENCE: {
+						AttributeTag tag = parser.getTag();
+						byte[] vr = parser.getValueRepresentation();
+						if (started[level]) {
+							w.write(',');
+						}
+						started[level] = true;
+						if (ValueRepresentation.isSequenceVR(vr) || ValueRepresentation.isUnknownVR(vr)) {
+							writeKeyAndVR(tag,"SQ");
+							if (level+2 >= started.length) {
+								boolean[] newStarted = new boolean[started.length*2];
+								SpecificCharacterSet[] newCharacterSets = new SpecificCharacterSet[started.length*2];
+								System.arraycopy(started,0,newStarted,0,started.length);
+								System.arraycopy(characterSets,0,newCharacterSets,0,started.length);
+								started = newStarted;
+								characterSets = newCharacterSets;
+							}
+							++level;
+							started[level] = false;
+						}
+						else {
+							writeKeyAndVR(tag,getVRToWrite(vr));	// encapsulated Pixel Data
+							TransferSyntax ts = parser.getTransferSyntaxOfDataSet();
+							if (bulkDataURI != null && ts != null && !ts.isDeflated() && !ts.isBzip2ed()) {
+								long offset = parser.getByteOffset();		// the Item header of the Basic Offset Table
+								parser.skipValue();
+								writeBulkDataURI(bulkDataURI,offset,parser.getByteOffset()-offset);	// up to and including the Sequence Delimiter
+								w.write('}');
+								skippedSequence = true;
+							}
+							else {
+								startInlineBinary();
+								inEncapsulated = true;
+								inInlineBinary = true;
+								swapShorts = false;
+								swapFloats = false;
+							}
+						}
+						break;
+					}
+					case DicomStreamParser.START_ITEM: {
+						if (inEncapsulated) {
+							writeInlineItemHeader(TagFromName.Item,parser.getValueLength());
+							break;
+						}
+						w.write(started[level] ? "," : ",\"Value\":[");
+						started[level] = true;
+						w.write('{');
+						++level;
+						started[level] = false;
+						characterSets[level] = characterSets[level-2];		// an item may have its own, else inherits
+						break;
+					}
+					case DicomStreamParser.END_ITEM: {
+						if (inEncapsulated) {
+							break;
+						}
+						w.write('}');
+						--level;
+						break;
+					}
+					case DicomStreamParser.END_SEQUENCE: {
+						if (skippedSequence) {
+							skippedSequence = false;
+						}
+						else if (inEncapsulated) {
+							writeInlineItemHeader(TagFromName.SequenceDelimitationItem,0);
+							endInlineBinary();
+							w.write('}');
+							inEncapsulated = false;
+							inInlineBinary = false;
+						}
+						else {
+							if (started[level]) {
+								w.write(']');
+							}
+							w.write('}');
+							--level;
+						}
+						break;
+					}
+				}
+			}
+			w.write('}');
+		}
+
+		/**
+		 * @exception	IOException
+		 */
+		void flush() throws IOException {
+			w.flush();
+		}
+	}
+
+	/**
+	 * @param	out
+	 * @return		a buffered writer of UTF-8 that does not need to be closed
+	 * @exception	IOException
+	 */
+	private static Writer makeWriter(OutputStream out) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(out,"UTF-8"),65536);
+	}
+
+	/**
+	 * <p>Write a DICOM attribute list as JSON.</p>
+	 *
+	 * <p>Binary values are written inline, unless they have been left on disk and are larger than the {@link #defaultBulkDataThreshold default threshold},
+	 * in which case they are written as a BulkDataURI of the file.</p>
+	 *
+	 * <p>Leaves the stream open.</p>
+	 *
+	 * @param	out		the output stream to write to
+	 * @param	list		the list of DICOM attributes
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static void write(OutputStream out,AttributeList list) throws IOException, DicomException {
+		JSONWriter writer = new JSONWriter(makeWriter(out),defaultBulkDataThreshold);
+		writer.writeList(list);
+		writer.flush();
+	}
+
+	/**
+	 * <p>Write a DICOM stream as JSON as it is parsed, without building an attribute list.</p>
+	 *
+	 * <p>Binary values larger than the threshold are written as a BulkDataURI if the URI of the stream is supplied, and the stream is neither
+	 * deflated nor big endian, else all are written inline, copied through in chunks. Encapsulated Pixel Data is written as a BulkDataURI
+	 * whatever its length, if the URI is supplied and the stream is not deflated, else inline.</p>
+	 *
+	 * <p>Leaves both streams open.</p>
+	 *
+	 * @param	out			the output stream to write to
+	 * @param	i			the DICOM stream, positioned at the start of the meta information header or data set
+	 * @param	bulkDataURI		the URI of the DICOM stream, or null if binary values are always to be written inline
+	 * @param	bulkDataThreshold	the length in bytes above which binary values are written as a BulkDataURI
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static void write(OutputStream out,DicomInputStream i,String bulkDataURI,long bulkDataThreshold) throws IOException, DicomException {
+		JSONWriter writer = new JSONWriter(makeWriter(out),bulkDataThreshold);
+		writer.writeStream(new DicomStreamParser(i),bulkDataURI);
+		writer.flush();
+	}
+
+	/**
+	 * <p>Write a DICOM stream as JSON as it is parsed, without building an attribute list, with all binary values inline.</p>
+	 *
+	 * <p>Leaves both streams open.</p>
+	 *
+	 * @param	out			the output stream to write to
+	 * @param	i			the DICOM stream, positioned at the start of the meta information header or data set
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static void write(OutputStream out,DicomInputStream i) throws IOException, DicomException {
+		write(out,i,null,defaultBulkDataThreshold);
+	}
+
+	/**
+	 * <p>Read JSON directly into attribute lists, from a buffer that is reused for the whole stream.</p>
+	 */
+	private static final class JSONReader {
+		/***/
+		private Reader r;
+		/***/
+		private char[] buffer = new char[65536];
+		/***/
+		private int position;
+		/***/
+		private int limit;
+		/***/
+		private StringBuilder text = new StringBuilder();
+		/***/
+		private DicomDictionary dictionary;
+		/***/
+		private String transferSyntaxUID;		// of the meta information header, if any, to know whether Pixel Data is encapsulated
+
+		/**
+		 * @param	r
+		 */
+		JSONReader(Reader r) {
+			this.r = r;
+			dictionary = AttributeList.getDictionary();
+		}
+
+		/**
+		 * @return		the next character, without consuming it, or -1 at the end of the stream
+		 * @exception	IOException
+		 */
+		private int peek() throws IOException {
+			if (position >= limit) {
+				limit = r.read(buffer,0,buffer.length);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position];
+		}
+
+		/**
+		 * @return		the next character that is not white space, without consuming it, or -1 at the end of the stream
+		 * @exception	IOException
+		 */
+		private int peekSkippingWhiteSpace() throws IOException {
+			int c;
+			while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+				++position;
+			}
+			return c;
+		}
+
+		/**
+		 * @param	expected
+		 * @exception	IOException
+		 * @exception	DicomException	if the next character that is not white space is not the one expected
+		 */
+		private void expect(char expected) throws IOException, DicomException {
+			int c = peekSkippingWhiteSpace();
+			if (c != expected) {
+				throw new DicomException("Could not read JSON - expected '"+expected+"' but got "+(c < 0 ? "end of stream" : ("'"+(char)c+"'")));
+			}
+			++position;
+		}
+
+		/**
+		 * @param	expected
+		 * @return			true if the next character that is not white space is the one expected, in which case it is consumed
+		 * @exception	IOException
+		 */
+		private boolean consumeIf(char expected) throws IOException {
+			if (peekSkippingWhiteSpace() == expected) {
+				++position;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return		the string
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private String readString() throws IOException, DicomException {
+			expect('"');
+			text.setLength(0);
+			while (true) {
+				int c = peek();
+				if (c < 0) {
+					throw new DicomException("Could not read JSON - end of stream in string");
+				}
+				++position;
+				if (c == '"') {
+					break;
+				}
+				else if (c == '\\') {
+					c = peek();
+					++position;
+					switch (c) {
+						case 'n':	text.append('\n'); break;
+						case 'r':	text.append('\r'); break;
+						case 't':	text.append('\t'); break;
+						case 'b':	text.append('\b'); break;
+						case 'f':	text.append('\f'); break;
+						case 'u': {
+							int v = 0;
+							for (int i=0; i<4; ++i) {
+								int d = Character.digit(peek(),16);
+								if (d < 0) {
+									throw new DicomException("Could not read JSON - bad unicode escape in string");
+								}
+								++position;
+								v = (v << 4) | d;
+							}
+							text.append((char)v);
+							break;
+						}
+						default:
+							if (c < 0) {
+								throw new DicomException("Could not read JSON - end of stream in string");
+							}
+							text.append((char)c);		// '"', '\\' and '/'
+					}
+				}
+				else {
+					text.append((char)c);
+				}
+			}
+			return text.toString();
+		}
+
+		/**
+		 * @return		the characters of a number, true, false or null
+		 * @exception	IOException
+		 */
+		private String readLiteral() throws IOException {
+			text.setLength(0);
+			int c;
+			while ((c = peek()) >= 0 && c != ',' && c != ']' && c != '}' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				text.append((char)c);
+				++position;
+			}
+			return text.toString();
+		}
+
+		/**
+		 * <p>Skip a value of any type.</p>
+		 *
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private void skipValue() throws IOException, DicomException {
+			int c = peekSkippingWhiteSpace();
+			if (c == '"') {
+				readString();
+			}
+			else if (c == '{') {
+				++position;
+				if (!consumeIf('}')) {
+					do {
+						readString();
+						expect(':');
+						skipValue();
+					} while (consumeIf(','));
+					expect('}');
+				}
+			}
+			else if (c == '[') {
+				++position;
+				if (!consumeIf(']')) {
+					do {
+						skipValue();
+					} while (consumeIf(','));
+					expect(']');
+				}
+			}
+			else {
+				readLiteral();
+			}
+		}
+
+		/**
+		 * <p>Read a person name object, the name of whose first member has already been read.</p>
+		 *
+		 * @param	firstName
+		 * @return			the person name with component groups delimited by '='
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private String readPersonName(String firstName) throws IOException, DicomException {
+			String[] groups = new String[personNameGroups.length];
+			String name = firstName;
+			while (true) {
+				expect(':');
+				int g = 0;
+				while (g < personNameGroups.length && !personNameGroups[g].equals(name)) ++g;
+				if (g < personNameGroups.length && peekSkippingWhiteSpace() == '"') {
+					groups[g] = readString();
+				}
+				else {
+					skipValue();
+				}
+				if (!consumeIf(',')) {
+					break;
+				}
+				name = readString();
+			}
+			expect('}');
+			StringBuffer buf = new StringBuffer();
+			int last = groups.length-1;
+			while (last >= 0 && groups[last] == null) --last;
+			for (int g=0; g<=last; ++g) {
+				if (g > 0) buf.append('=');
+				if (groups[g] != null) buf.append(groups[g]);
+			}
+			return buf.toString();
+		}
+
+		/**
+		 * @param	name
+		 * @return		true if eight hexadecimal digits
+		 */
+		private boolean isTagName(String name) {
+			if (name.length() != 8) {
+				return false;
+			}
+			for (int i=0; i<8; ++i) {
+				if (Character.digit(name.charAt(i),16) < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * <p>Read the values of the "Value" array.</p>
+		 *
+		 * @param	values				to add strings (numbers as their literal text, null as empty) or item lists to
+		 * @param	specificCharacterSet	of the enclosing data set or item
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private void readValueArray(ArrayList<Object> values,SpecificCharacterSet specificCharacterSet) throws IOException, DicomException {
+			expect('[');
+			if (consumeIf(']')) {
+				return;
+			}
+			do {
+				int c = peekSkippingWhiteSpace();
+				if (c == '"') {
+					values.add(readString());
+				}
+				else if (c == '{') {
+					++position;
+					if (consumeIf('}')) {
+						values.add(new AttributeList());		// empty item, or empty person name
+					}
+					else {
+						String name = readString();
+						if (isTagName(name)) {
+							AttributeList item = new AttributeList();
+							readMembers(item,name,specificCharacterSet);
+							values.add(item);
+						}
+						else {
+							values.add(readPersonName(name));
+						}
+					}
+				}
+				else if (c == '[') {
+					skipValue();
+				}
+				else {
+					String literal = readLiteral();
+					values.add(literal.equals("null") ? "" : literal);
+				}
+			} while (consumeIf(','));
+			expect(']');
+		}
+
+		/**
+		 * @param	uri
+		 * @param	tag
+		 * @param	vr
+		 * @return		an attribute referring to or containing the value, or null if the URI is not of a file with an offset and length
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private Attribute resolveBulkDataURI(String uri,AttributeTag tag,byte[] vr) throws IOException, DicomException {
+			long offset = -1;
+			long length = -1;
+			File file = null;
+			try {
+				URI u = new URI(uri);
+				String query = u.getRawQuery();
+				if ("file".equals(u.getScheme()) && query != null) {
+					for (String parameter : query.split("&")) {
+						if (parameter.startsWith("offset=")) {
+							offset = Long.parseLong(parameter.substring(7));
+						}
+						else if (parameter.startsWith("length=")) {
+							length = Long.parseLong(parameter.substring(7));
+						}
+					}
+					file = new File(new URI(u.getScheme(),u.getUserInfo(),u.getHost(),u.getPort(),u.getPath(),null,null));
+				}
+			}
+			catch (URISyntaxException e) {
+			}
+			catch (NumberFormatException e) {
+			}
+			catch (IllegalArgumentException e) {
+			}
+			if (file == null || offset < 0 || length < 0 || !file.exists()) {
+				return null;
+			}
+			Attribute a;
+			DicomInputStream i = new DicomInputStream(file,TransferSyntax.ExplicitVRLittleEndian,false);
+			try {
+				i.skipInsistently(offset);
+				if (ValueRepresentation.isOtherByteVR(vr)) {
+					a = new OtherByteAttributeOnDisk(tag,length,i,offset);
+				}
+				else if (ValueRepresentation.isOtherWordVR(vr) || ValueRepresentation.isOtherUnspecifiedVR(vr)) {
+					a = new OtherWordAttributeOnDisk(tag,length,i,offset);
+				}
+				else {
+					a = AttributeFactory.newAttribute(tag,vr,length,i,null,true,1,offset);
+				}
+			}
+			finally {
+				i.close();
+			}
+			return a;
+		}
+
+		/**
+		 * @param	tag
+		 * @param	specificCharacterSet
+		 * @return				the attribute, or null if it is to be ignored
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private Attribute readAttribute(AttributeTag tag,SpecificCharacterSet specificCharacterSet) throws IOException, DicomException {
+			String vrString = null;
+			ArrayList<Object> values = null;
+			String inlineBinary = null;
+			String bulkDataURI = null;
+			expect('{');
+			if (!consumeIf('}')) {
+				do {
+					String name = readString();
+					expect(':');
+					if (name.equals("vr")) {
+						vrString = readString();
+					}
+					else if (name.equals("Value")) {
+						values = new ArrayList<Object>();
+						readValueArray(values,specificCharacterSet);
+					}
+					else if (name.equals("InlineBinary")) {
+						inlineBinary = readString();
+					}
+					else if (name.equals("BulkDataURI")) {
+						bulkDataURI = readString();
+					}
+					else {
+						skipValue();
+					}
+				} while (consumeIf(','));
+				expect('}');
+			}
+			if (isIgnored(tag)) {
+				return null;
+			}
+			byte[] vr = vrString != null && vrString.length() == 2 ? vrString.getBytes("US-ASCII") : dictionary.getValueRepresentationFromTag(tag);
+			if (vr == null) {
+				vr = ValueRepresentation.UN;
+			}
+			Attribute a = null;
+			if (ValueRepresentation.isSequenceVR(vr)) {
+				SequenceAttribute s = new SequenceAttribute(tag);
+				if (values != null) {
+					for (Object value : values) {
+						if (value instanceof AttributeList) {
+							s.addItem((AttributeList)value);
+						}
+					}
+				}
+				a = s;
+			}
+			else if (isBinaryVR(vr) && (inlineBinary != null || bulkDataURI != null)) {
+				if (inlineBinary != null) {
+					byte[] bytes = Base64.getMimeDecoder().decode(inlineBinary);		// ignores line separators and other whitespace, without copying the string first
+					DicomInputStream i = new DicomInputStream(new ByteArrayInputStream(bytes),TransferSyntax.ExplicitVRLittleEndian,false);
+					a = AttributeFactory.newAttribute(tag,vr,bytes.length,i,null,true,ValueRepresentation.isOtherByteVR(vr) ? 1 : 2,0);
+				}
+				else {
+					a = resolveBulkDataURI(bulkDataURI,tag,vr);
+					if (a == null) {
+System.err.println("JSONRepresentationOfDicomObjectFactory.readAttribute(): "+tag+" cannot resolve BulkDataURI "+bulkDataURI+" so leaving empty");
+						a = AttributeFactory.newAttribute(tag,vr);
+					}
+				}
+			}
+			else {
+				a = AttributeFactory.newAttribute(tag,vr,specificCharacterSet);
+				if (values != null) {
+					boolean isAttributeTag = ValueRepresentation.isAttributeTagVR(vr);
+					for (Object value : values) {
+						String s = value instanceof String ? (String)value : "";	// an empty object for a person name
+						if (isAttributeTag) {
+							if (isTagName(s)) {
+								int packed = (int)Long.parseLong(s,16);
+								((AttributeTagAttribute)a).addValue((packed >>> 16) & 0xffff,packed & 0xffff);
+							}
+						}
+						else {
+							a.addValue(s);
+						}
+					}
+				}
+			}
+			return a;
+		}
+
+		/**
+		 * <p>Read the members of a data set or item object.</p>
+		 *
+		 * @param	list
+		 * @param	firstName			the name of the first member if it has already been read, else null
+		 * @param	specificCharacterSet	of the enclosing data set, if any
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		private void readMembers(AttributeList list,String firstName,SpecificCharacterSet specificCharacterSet) throws IOException, DicomException {
+			String name = firstName;
+			if (name == null) {
+				if (consumeIf('}')) {
+					return;
+				}
+				name = readString();
+			}
+			while (true) {
+				expect(':');
+				if (!isTagName(name)) {
+					throw new DicomException("Could not read JSON - member name "+name+" is not a tag");
+				}
+				int packed = (int)Long.parseLong(name,16);
+				AttributeTag tag = new AttributeTag((packed >>> 16) & 0xffff,packed & 0xffff);
+				Attribute a = readAttribute(tag,specificCharacterSet);
+				if (a != null && tag.equals(TagFromName.PixelData) && a.getVL() > 0
+				 && transferSyntaxUID != null && new TransferSyntax(transferSyntaxUID).isEncapsulated()) {
+					int bytesPerSample = (Attribute.getSingleIntegerValueOrDefault(list,TagFromName.BitsAllocated,16)-1)/8+1;
+					a = list.readEncapsulatedPixelData(tag,a.getByteValues(),transferSyntaxUID,bytesPerSample);		// null if it cannot be decompressed, as when reading DICOM
+				}
+				if (a != null) {
+					list.put(tag,a);
+					if (tag.equals(TagFromName.SpecificCharacterSet)) {
+						specificCharacterSet = SpecificCharacterSet.valueOf(a.getStringValues());
+					}
+					else if (tag.equals(TagFromName.TransferSyntaxUID)) {
+						transferSyntaxUID = a.getSingleStringValueOrNull();
+					}
+				}
+				if (!consumeIf(',')) {
+					break;
+				}
+				name = readString();
+			}
+			expect('}');
+		}
+
+		/**
+		 * @return		the list of attributes of the top level object
+		 * @exception	IOException
+		 * @exception	DicomException
+		 */
+		AttributeList read() throws IOException, DicomException {
+			AttributeList list = new AttributeList();
+			if (peekSkippingWhiteSpace() == '[') {
+				++position;			// a response may be an array of data sets, of which only the first is read
+			}
+			expect('{');
+			readMembers(list,null,null);
+			return list;
+		}
+	}
+
+	/**
+	 * <p>Read a DICOM object encoded as JSON from a stream, directly into a list of attributes.</p>
+	 *
+	 * <p>If the stream contains an array of objects, only the first is read. A BulkDataURI that refers to a range of a file that exists is resolved by
+	 * referring to the value on disk, else the attribute is left empty.</p>
+	 *
+	 * @param	stream		the input stream containing UTF-8 JSON
+	 * @return			the list of DICOM attributes
+	 * @exception	IOException
+	 * @exception	DicomException	if the JSON cannot be parsed
+	 */
+	public static AttributeList read(InputStream stream) throws IOException, DicomException {
+		return new JSONReader(new InputStreamReader(stream,"UTF-8")).read();
+	}
+
+	/**
+	 * <p>Read a DICOM object encoded as JSON from a named file, directly into a list of attributes.</p>
+	 *
+	 * @param	name		the input file containing the JSON
+	 * @return			the list of DICOM attributes
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static AttributeList read(String name) throws IOException, DicomException {
+		InputStream fi = new FileInputStream(name);
+		BufferedInputStream bi = new BufferedInputStream(fi);
+		try {
+			return read(bi);
+		}
+		finally {
+			bi.close();
+			fi.close();
+		}
+	}
+
+	/**
+	 * <p>Read a DICOM dataset and write a JSON representation of it to the standard output, or vice versa.</p>
+	 *
+	 * @param	arg	either one filename of the file containing the DICOM dataset, or a direction argument (toDICOM or toJSON, case insensitive) and an input filename
+	 */
+	public static void main(String arg[]) {
+		try {
+			boolean bad = true;
+			boolean toJSON = true;
+			String filename = null;
+			if (arg.length == 1) {
+				bad = false;
+				toJSON = true;
+				filename = arg[0];
+			}
+			else if (arg.length == 2) {
+				filename = arg[1];
+				if (arg[0].toLowerCase(java.util.Locale.US).equals("tojson")) {
+					bad = false;
+					toJSON = true;
+				}
+				else if (arg[0].toLowerCase(java.util.Locale.US).equals("todicom") || arg[0].toLowerCase(java.util.Locale.US).equals("todcm")) {
+					bad = false;
+					toJSON = false;
+				}
+			}
+			if (bad) {
+				System.err.println("usage: JSONRepresentationOfDicomObjectFactory [toDICOM|toJSON] inputfile");
+			}
+			else {
+				if (toJSON) {
+					File file = new File(filename);
+					DicomInputStream i = new DicomInputStream(file);
+					OutputStream out = new BufferedOutputStream(System.out);
+					write(out,i,file.toURI().toString(),defaultBulkDataThreshold);
+					out.flush();
+					i.close();
+				}
+				else {
+					AttributeList list = read(filename);
+					String sourceApplicationEntityTitle = Attribute.getSingleStringValueOrEmptyString(list,TagFromName.SourceApplicationEntityTitle);
+					list.removeMetaInformationHeaderAttributes();
+					FileMetaInformation.addFileMetaInformation(list,TransferSyntax.ExplicitVRLittleEndian,sourceApplicationEntityTitle);
+					list.write(System.out,TransferSyntax.ExplicitVRLittleEndian,true/*useMeta*/,true/*useBufferedStream*/);
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
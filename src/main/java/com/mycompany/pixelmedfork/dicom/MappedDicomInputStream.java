@@ -0,0 +1,185 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * <p>A class that extends {@link com.pixelmed.dicom.DicomInputStream DicomInputStream} by reading from a memory mapped file
+ * rather than from a stream.</p>
+ *
+ * <p>When an {@link com.pixelmed.dicom.AttributeList AttributeList} is read from this stream, the values of
+ * {@link com.pixelmed.dicom.OtherByteAttribute OtherByteAttribute}, {@link com.pixelmed.dicom.OtherWordAttribute OtherWordAttribute}
+ * and {@link com.pixelmed.dicom.OtherFloatAttribute OtherFloatAttribute} (including the Pixel Data) are left in the mapping
+ * as read-only views rather than being copied onto the heap, and are only copied if a caller asks for them as an array.
+ * Callers that can use the views (e.g., {@link com.pixelmed.dicom.OtherWordAttribute#getShortBufferValues() getShortBufferValues()})
+ * avoid the copy (and the garbage collection that follows from it) entirely, which matters for large multi-frame objects.</p>
+ *
+ * <p>The file must not be truncated or modified while the attributes read from it are in use.</p>
+ *
+ * <p>If the data set is deflate or bzip2 compressed, the inflated values are read onto the heap as usual.</p>
+ *
+ * @see com.pixelmed.dicom.MappedFileInputStream
+ * @see com.pixelmed.dicom.AttributeList#readMapped(File,AttributeTag)
+ */
+public class MappedDicomInputStream extends DicomInputStream {
+
+	/**
+	 * <p>Construct a stream to read DICOM data sets from the supplied file.</p>
+	 *
+	 * <p>Look for a meta information header; if absent guess at a transfer syntax based on the contents.</p>
+	 *
+	 * @param	file			the file to read from
+	 * @exception	IOException
+	 */
+	public MappedDicomInputStream(File file) throws IOException {
+		this(file,null,true);
+	}
+
+	/**
+	 * <p>Construct a stream to read DICOM data sets from the supplied file.</p>
+	 *
+	 * @param	file			the file to read from
+	 * @param	transferSyntaxUID	use this transfer syntax (may be null)
+	 * @param	tryMeta			if true, try to find a meta information header
+	 * @exception	IOException
+	 */
+	public MappedDicomInputStream(File file,String transferSyntaxUID,boolean tryMeta) throws IOException {
+		super(new MappedFileInputStream(file),transferSyntaxUID,tryMeta);
+		setFile(file);
+	}
+
+	/**
+	 * <p>Get a read-only view of the bytes at the current position without copying them, and advance past them.</p>
+	 *
+	 * <p>The byte order of the view is set to the byte order of the stream.</p>
+	 *
+	 * @param	count			the number of bytes
+	 * @return				a read-only buffer positioned at zero with a limit of count
+	 * @exception	IOException
+	 */
+	public ByteBuffer readByteBuffer(long count) throws IOException {
+		ByteBuffer view = ((MappedFileInputStream)in).readByteBuffer(count);
+		view.order(isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		return view;
+	}
+
+	/**
+	 * <p>Get the current position in the file.</p>
+	 *
+	 * @return	the byte offset from the start of the file
+	 */
+	public long getPosition() {
+		return ((MappedFileInputStream)in).getPosition();
+	}
+
+	/**
+	 * <p>Get the total number of garbage collections so far.</p>
+	 *
+	 * @return	the count
+	 */
+	private static long getGarbageCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += bean.getCollectionCount();
+		}
+		return count;
+	}
+
+	/**
+	 * <p>Get the total time spent in garbage collection so far.</p>
+	 *
+	 * @return	the time in ms
+	 */
+	private static long getGarbageCollectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += bean.getCollectionTime();
+		}
+		return time;
+	}
+
+	/**
+	 * <p>Read the file and visit every frame of the Pixel Data, either through the stream into the heap or through the mapping.</p>
+	 *
+	 * @param	file
+	 * @param	mapped
+	 * @return		a checksum of a sample of the pixels, so that the work cannot be optimized away
+	 */
+	private static long readAndVisitPixels(File file,boolean mapped) throws IOException, DicomException {
+		AttributeList list = new AttributeList();
+		ShortBuffer pixels;
+		if (mapped) {
+			list.readMapped(file,null);
+			pixels = ((OtherWordAttribute)(list.get(TagFromName.PixelData))).getShortBufferValues();
+		}
+		else {
+			DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(file)));	// no File, so Pixel Data is read onto the heap rather than left on disk
+			list.read(i);
+			i.close();
+			pixels = ShortBuffer.wrap(list.get(TagFromName.PixelData).getShortValues());
+		}
+		long sum = 0;
+		int n = pixels.limit();
+		for (int p=0; p<n; p+=509) {	// touch every page
+			sum += pixels.get(p) & 0xffff;
+		}
+		return sum;
+	}
+
+	/**
+	 * <p>Compare reading a large multi-frame object through the stream with reading it through the mapping.</p>
+	 *
+	 * @param	arg	either -generate file megabytes (e.g., 1024),
+	 *			or -benchmark file [repetitions], to time each method and report the heap used and garbage collection
+	 */
+	public static void main(String arg[]) {
+		try {
+			if (arg.length >= 3 && arg[0].equals("-generate")) {
+				int rows = 512;
+				int columns = 512;
+				int frames = (int)((((long)Integer.parseInt(arg[2]))*1024*1024)/(rows*columns*2));
+				BenchmarkFiles.writeMultiFrameFile(new File(arg[1]),rows,columns,frames);
+			}
+			else if (arg.length >= 2 && arg[0].equals("-benchmark")) {
+				File file = new File(arg[1]);
+				int repetitions = arg.length > 2 ? Integer.parseInt(arg[2]) : 3;
+				Runtime runtime = Runtime.getRuntime();
+				for (int r=0; r<repetitions; ++r) {
+					for (int m=0; m<2; ++m) {
+						boolean mapped = m == 1;
+						System.gc();
+						long startUsed = runtime.totalMemory() - runtime.freeMemory();
+						long startCount = getGarbageCollectionCount();
+						long startGCTime = getGarbageCollectionTime();
+						long startTime = System.nanoTime();
+						long sum = readAndVisitPixels(file,mapped);
+						long elapsed = System.nanoTime() - startTime;
+						long used = runtime.totalMemory() - runtime.freeMemory() - startUsed;
+						System.err.println("Pass "+r+" "+(mapped ? "mapped" : "stream")+": "+(elapsed/1000000)+" ms"
+							+", "+(long)(file.length()/(elapsed/1e9)/(1024*1024))+" MB/s"
+							+", heap grew "+(used/(1024*1024))+" MB"
+							+", "+(getGarbageCollectionCount() - startCount)+" collections"
+							+" taking "+(getGarbageCollectionTime() - startGCTime)+" ms"
+							+" (checksum "+sum+")");
+					}
+				}
+			}
+			else {
+				System.err.println("Usage: java com.pixelmed.dicom.MappedDicomInputStream -generate file megabytes | -benchmark file [repetitions]");
+				System.exit(1);
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
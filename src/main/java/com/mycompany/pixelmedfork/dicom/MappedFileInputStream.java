@@ -0,0 +1,241 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>A class that implements {@link java.io.InputStream InputStream} by mapping a file into memory
+ * with a {@link java.nio.channels.FileChannel FileChannel}, rather than by reading it.</p>
+ *
+ * <p>The file is mapped in windows of (by default) up to 1 GB, so files larger than can be
+ * addressed by a single {@link java.nio.MappedByteBuffer MappedByteBuffer} are supported.</p>
+ *
+ * <p>Besides the usual stream methods, which copy from the mapping, a read-only view of the bytes at the current
+ * position can be obtained without copying them with {@link #readByteBuffer(long) readByteBuffer()}, which is how bulk data
+ * values are left in the mapping rather than being read onto the heap.</p>
+ *
+ * <p>The views remain valid after the stream is closed, until they are garbage collected.</p>
+ *
+ * <p>Mark and reset are supported, with no limit on how far ahead the mark remains valid.</p>
+ *
+ * @see com.pixelmed.dicom.MappedDicomInputStream
+ */
+public class MappedFileInputStream extends InputStream {
+
+	/***/
+	private static final long defaultWindowSize = 1l<<30;
+
+	/***/
+	private RandomAccessFile raf;
+	/***/
+	private FileChannel channel;
+	/***/
+	private long length;
+	/***/
+	private long windowSize;
+	/***/
+	private MappedByteBuffer window;
+	/***/
+	private long windowStart;
+	/***/
+	private long windowEnd;
+	/***/
+	private long position;
+	/***/
+	private long markPosition;
+
+	/**
+	 * <p>Construct a stream that maps the supplied file.</p>
+	 *
+	 * @param	file		the file to map
+	 * @exception	IOException
+	 */
+	public MappedFileInputStream(File file) throws IOException {
+		this(file,defaultWindowSize);
+	}
+
+	/**
+	 * <p>Construct a stream that maps the supplied file.</p>
+	 *
+	 * @param	file		the file to map
+	 * @param	windowSize	the maximum number of bytes to map at once
+	 * @exception	IOException
+	 */
+	public MappedFileInputStream(File file,long windowSize) throws IOException {
+		raf = new RandomAccessFile(file,"r");
+		channel = raf.getChannel();
+		length = channel.size();
+		this.windowSize = windowSize > Integer.MAX_VALUE ? Integer.MAX_VALUE : windowSize;
+		window = null;
+		windowStart = 0;
+		windowEnd = 0;
+		position = 0;
+		markPosition = -1;
+	}
+
+	/**
+	 * <p>Make sure that the current window includes the current position, if not at the end of the file.</p>
+	 *
+	 * @exception	IOException
+	 */
+	private void mapWindowIfNecessary() throws IOException {
+		if (window == null || position < windowStart || position >= windowEnd) {
+			if (channel == null) {
+				throw new IOException("Stream closed");
+			}
+			long size = length - position;
+			if (size > windowSize) {
+				size = windowSize;
+			}
+//System.err.println("MappedFileInputStream.mapWindowIfNecessary(): mapping "+size+" bytes from "+position);
+			window = channel.map(FileChannel.MapMode.READ_ONLY,position,size);
+			windowStart = position;
+			windowEnd = position + size;
+		}
+	}
+
+	/**
+	 * <p>Get the length of the file.</p>
+	 *
+	 * @return	the length in bytes
+	 */
+	public long getLength() { return length; }
+
+	/**
+	 * <p>Get the current position in the file.</p>
+	 *
+	 * @return	the number of bytes read or skipped so far
+	 */
+	public long getPosition() { return position; }
+
+	/**
+	 * <p>Get a read-only view of the bytes at the current position without copying them, and advance past them.</p>
+	 *
+	 * <p>The view is a slice of the current window if the bytes lie within it, otherwise the bytes are mapped separately.</p>
+	 *
+	 * <p>The byte order of the view is big endian, as for any new {@link java.nio.ByteBuffer ByteBuffer}; the caller is expected to change it if necessary.</p>
+	 *
+	 * @param	count			the number of bytes
+	 * @return				a read-only buffer positioned at zero with a limit of count
+	 * @exception	IOException	if there are fewer than count bytes remaining, or too many bytes to fit in a single buffer
+	 */
+	public ByteBuffer readByteBuffer(long count) throws IOException {
+		if (count > length - position) {
+			throw new EOFException("Cannot map "+count+" bytes at "+position+" - only "+(length - position)+" remaining");
+		}
+		if (count > Integer.MAX_VALUE) {
+			throw new IOException("Cannot map "+count+" bytes as a single buffer");
+		}
+		ByteBuffer view;
+		if (count == 0) {
+			view = ByteBuffer.allocate(0);
+		}
+		else {
+			mapWindowIfNecessary();
+			if (position + count <= windowEnd) {
+				ByteBuffer b = window.duplicate();
+				int start = (int)(position - windowStart);
+				b.position(start);
+				b.limit(start + (int)count);
+				view = b.slice();
+			}
+			else {
+//System.err.println("MappedFileInputStream.readByteBuffer(): mapping "+count+" bytes from "+position+" outside window");
+				view = channel.map(FileChannel.MapMode.READ_ONLY,position,count);
+			}
+		}
+		position += count;
+		return view.asReadOnlyBuffer();
+	}
+
+	/***/
+	public int read() throws IOException {
+		if (position >= length) {
+			return -1;
+		}
+		mapWindowIfNecessary();
+		int b = window.get((int)(position - windowStart)) & 0xff;
+		++position;
+		return b;
+	}
+
+	/***/
+	public int read(byte[] b,int offset,int count) throws IOException {
+		if (count == 0) {
+			return 0;
+		}
+		if (position >= length) {
+			return -1;
+		}
+		mapWindowIfNecessary();
+		long inWindow = windowEnd - position;
+		if (count > inWindow) {
+			count = (int)inWindow;
+		}
+		window.position((int)(position - windowStart));
+		window.get(b,offset,count);
+		position += count;
+		return count;
+	}
+
+	/***/
+	public long skip(long count) throws IOException {
+		if (count <= 0) {
+			return 0;
+		}
+		long remaining = length - position;
+		if (count > remaining) {
+			count = remaining;
+		}
+		position += count;		// no need to touch the mapping
+		return count;
+	}
+
+	/***/
+	public int available() throws IOException {
+		long remaining = length - position;
+		return remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)remaining;
+	}
+
+	/***/
+	public boolean markSupported() { return true; }
+
+	/***/
+	public void mark(int readlimit) {
+		markPosition = position;
+	}
+
+	/***/
+	public void reset() throws IOException {
+		if (markPosition < 0) {
+			throw new IOException("Mark not set");
+		}
+		position = markPosition;
+	}
+
+	/**
+	 * <p>Close the file.</p>
+	 *
+	 * <p>Views already obtained remain valid.</p>
+	 *
+	 * @exception	IOException
+	 */
+	public void close() throws IOException {
+		window = null;
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+		if (raf != null) {
+			raf.close();
+			raf = null;
+		}
+	}
+}
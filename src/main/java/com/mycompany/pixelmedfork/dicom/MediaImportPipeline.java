@@ -0,0 +1,611 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A class to import the DICOM files on interchange media, or in a folder, using several threads, on behalf of a {@link MediaImporter MediaImporter}.</p>
+ *
+ * <p>There are three stages connected by bounded queues:</p>
+ * <ul>
+ * <li>the calling thread reads the DICOMDIR, or walks the folder, and submits each file found to be read</li>
+ * <li>a pool of reader threads reads the meta information header of each file (and, if not known from the DICOMDIR, the Series Instance UID),
+ * and decides whether it is suitable to import</li>
+ * <li>a pool of importer threads calls {@link MediaImporter#doSomethingWithDicomFileOnMedia(String) doSomethingWithDicomFileOnMedia()} for each suitable file</li>
+ * </ul>
+ *
+ * <p>Files are passed from the readers to the importers in the order in which they were found, whichever reader finishes first, and all the files of
+ * the same series are passed to the same importer, so the files of a series are always imported in order by one thread. Files of different series
+ * may be imported concurrently. Messages are logged by one thread in the order in which files were found.</p>
+ *
+ * <p>Since each queue is bounded, a stage that cannot keep up blocks those before it, rather than memory filling with files waiting to be read or imported.
+ * The time each stage spends working and waiting is recorded in the {@link MediaImportPipeline.Metrics Metrics}.</p>
+ */
+public class MediaImportPipeline {
+
+	/**
+	 * <p>The counts and times of each stage of the pipeline.</p>
+	 *
+	 * <p>Times are the sums over all threads of a stage, in nanoseconds.</p>
+	 */
+	public static class Metrics {
+		/***/
+		public final AtomicLong filesFound = new AtomicLong();
+		/***/
+		public final AtomicLong filesRead = new AtomicLong();
+		/***/
+		public final AtomicLong filesRejected = new AtomicLong();
+		/***/
+		public final AtomicLong filesImported = new AtomicLong();
+		/***/
+		public final AtomicLong findingTime = new AtomicLong();
+		/***/
+		public final AtomicLong findingWaitingForReadersTime = new AtomicLong();
+		/***/
+		public final AtomicLong readingTime = new AtomicLong();
+		/***/
+		public final AtomicLong dispatchingWaitingForImportersTime = new AtomicLong();
+		/***/
+		public final AtomicLong importingTime = new AtomicLong();
+		/***/
+		public final AtomicLong importingWaitingForFilesTime = new AtomicLong();
+		/***/
+		public final AtomicLong elapsedTime = new AtomicLong();
+
+		/**
+		 * @param	nanoseconds
+		 * @return			milliseconds as a string
+		 */
+		private static String ms(AtomicLong nanoseconds) {
+			return Long.toString(nanoseconds.get()/1000000)+" ms";
+		}
+
+		/***/
+		public String toString() {
+			StringBuffer buffer = new StringBuffer();
+			buffer.append("Found ");		buffer.append(filesFound.get());
+			buffer.append(", read ");		buffer.append(filesRead.get());
+			buffer.append(", rejected ");		buffer.append(filesRejected.get());
+			buffer.append(", imported ");		buffer.append(filesImported.get());
+			buffer.append(" files in ");		buffer.append(ms(elapsedTime));
+			buffer.append("\n");
+			buffer.append("Finding ");		buffer.append(ms(findingTime));
+			buffer.append(", waiting for readers ");	buffer.append(ms(findingWaitingForReadersTime));
+			buffer.append("\n");
+			buffer.append("Reading ");		buffer.append(ms(readingTime));
+			buffer.append(", dispatching waiting for importers ");	buffer.append(ms(dispatchingWaitingForImportersTime));
+			buffer.append("\n");
+			buffer.append("Importing ");		buffer.append(ms(importingTime));
+			buffer.append(", waiting for files ");	buffer.append(ms(importingWaitingForFilesTime));
+			return buffer.toString();
+		}
+	}
+
+	/**
+	 * <p>A file found on the media, and what is known about it.</p>
+	 */
+	private static class MediaFile {
+		/***/
+		final String fileName;
+		/***/
+		String sopClassUID;
+		/***/
+		String transferSyntaxUID;
+		/***/
+		String seriesInstanceUID;
+		/***/
+		boolean fromDicomDirectory;
+		/***/
+		boolean hasNoDirectoryRecordAttributes;		// referenced by a DICOMDIR record that could not be read, so not to be trusted or read
+		/***/
+		boolean couldNotRead;
+		/***/
+		boolean hasMetaHeader;
+		/***/
+		boolean isOKToImport;
+
+		/**
+		 * @param	fileName
+		 */
+		MediaFile(String fileName) {
+			this.fileName = fileName;
+		}
+	}
+
+	/***/
+	private static final int defaultQueueCapacityPerThread = 16;
+
+	/***/
+	private final MediaImporter importer;
+	/***/
+	private final int readerThreads;
+	/***/
+	private final int importerThreads;
+	/***/
+	private final int queueCapacity;
+	/***/
+	private final Metrics metrics = new Metrics();
+
+	/***/
+	private static final MediaFile endOfFiles = new MediaFile(null);
+	/***/
+	private static final Future<MediaFile> endOfReads = new FutureTask<MediaFile>(new Callable<MediaFile>() {
+		public MediaFile call() { return endOfFiles; }
+	});
+
+	/**
+	 * <p>Construct a pipeline to import files on behalf of an importer.</p>
+	 *
+	 * @param	importer		the importer whose {@link MediaImporter#doSomethingWithDicomFileOnMedia(String) doSomethingWithDicomFileOnMedia()}, {@link MediaImporter#isOKToImport(String,String) isOKToImport()} and logger are used
+	 * @param	readerThreads		the number of threads that read the headers of files
+	 * @param	importerThreads		the number of threads that import files
+	 * @param	queueCapacity		the number of files that may be waiting to be read, and to be imported by each importer thread
+	 */
+	public MediaImportPipeline(MediaImporter importer,int readerThreads,int importerThreads,int queueCapacity) {
+		this.importer = importer;
+		this.readerThreads = Math.max(1,readerThreads);
+		this.importerThreads = Math.max(1,importerThreads);
+		this.queueCapacity = Math.max(1,queueCapacity);
+	}
+
+	/**
+	 * <p>Construct a pipeline to import files on behalf of an importer.</p>
+	 *
+	 * @param	importer		the importer whose {@link MediaImporter#doSomethingWithDicomFileOnMedia(String) doSomethingWithDicomFileOnMedia()}, {@link MediaImporter#isOKToImport(String,String) isOKToImport()} and logger are used
+	 * @param	readerThreads		the number of threads that read the headers of files
+	 * @param	importerThreads		the number of threads that import files
+	 */
+	public MediaImportPipeline(MediaImporter importer,int readerThreads,int importerThreads) {
+		this(importer,readerThreads,importerThreads,Math.max(1,readerThreads)*defaultQueueCapacityPerThread);
+	}
+
+	/**
+	 * <p>Get the counts and times of each stage, so far or when the import is complete.</p>
+	 *
+	 * @return	the metrics
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param	name
+	 * @return		a factory for daemon threads with the name
+	 */
+	private static ThreadFactory getThreadFactory(final String name) {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * <p>Read the meta information header of a file, and if it is suitable to import and not already known, the Series Instance UID.</p>
+	 *
+	 * @param	mediaFile
+	 * @return			the same file, with what was learned about it
+	 */
+	private MediaFile readHeader(MediaFile mediaFile) {
+		long startTime = System.nanoTime();
+		if (mediaFile.hasNoDirectoryRecordAttributes) {
+			mediaFile.isOKToImport = false;
+			metrics.filesRead.incrementAndGet();
+			metrics.readingTime.addAndGet(System.nanoTime()-startTime);
+			return mediaFile;
+		}
+		boolean needMetaHeader = mediaFile.sopClassUID == null || mediaFile.transferSyntaxUID == null;
+		boolean needSeries = mediaFile.seriesInstanceUID == null;
+		if (needMetaHeader || needSeries) {
+			try {
+				DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(mediaFile.fileName)));
+				try {
+					if (i.haveMetaHeader()) {
+						AttributeList metaList = new AttributeList();
+						metaList.readOnlyMetaInformationHeader(i);
+						mediaFile.hasMetaHeader = true;
+						// Don't replace them unless they were null; they might be missing in the meta header !
+						if (mediaFile.sopClassUID == null) {
+							mediaFile.sopClassUID = Attribute.getSingleStringValueOrNull(metaList,TagFromName.MediaStorageSOPClassUID);
+						}
+						if (mediaFile.transferSyntaxUID == null) {
+							mediaFile.transferSyntaxUID = Attribute.getSingleStringValueOrNull(metaList,TagFromName.TransferSyntaxUID);
+						}
+						if (needSeries && importer.isOKToImport(mediaFile.sopClassUID,mediaFile.transferSyntaxUID)) {
+							AttributeList list = new AttributeList();
+							list.read(i,new AttributeTagSet().add(TagFromName.SeriesInstanceUID));		// stops as soon as past it
+							mediaFile.seriesInstanceUID = Attribute.getSingleStringValueOrNull(list,TagFromName.SeriesInstanceUID);
+						}
+					}
+				}
+				finally {
+					i.close();
+				}
+			}
+			catch (Exception e) {
+				// ignore the error ... will fail on null sopClassUID or transferSyntaxUID
+				mediaFile.couldNotRead = true;
+			}
+		}
+		mediaFile.isOKToImport = importer.isOKToImport(mediaFile.sopClassUID,mediaFile.transferSyntaxUID);
+		metrics.filesRead.incrementAndGet();
+		metrics.readingTime.addAndGet(System.nanoTime()-startTime);
+		return mediaFile;
+	}
+
+	/**
+	 * <p>Log what was learned about a file, in the same words as {@link MediaImporter#importDicomFiles(String) MediaImporter.importDicomFiles()}.</p>
+	 *
+	 * @param	mediaFile
+	 */
+	private void logResult(MediaFile mediaFile) {
+		if (mediaFile.fromDicomDirectory) {
+			if (mediaFile.hasNoDirectoryRecordAttributes) {
+				importer.logLn("Not a suitable DICOMDIR referenced file, since its directory record has no attributes: "+mediaFile.fileName);
+			}
+			else if (mediaFile.isOKToImport) {
+				importer.logLn("Is a suitable DICOMDIR referenced file: "+mediaFile.fileName);
+			}
+			else {
+				importer.logLn("Is a DICOM file but bad meta-header, not a storage object, or is compressed: "
+					+mediaFile.fileName+" SOP Class="+mediaFile.sopClassUID+", Transfer Syntax="+mediaFile.transferSyntaxUID);
+				importer.logLn("Not a suitable DICOMDIR referenced file: "+mediaFile.fileName);
+			}
+		}
+		else if (mediaFile.isOKToImport) {
+			importer.logLn("Is a DICOM file: "+mediaFile.fileName);
+		}
+		else if (mediaFile.couldNotRead) {
+			importer.logLn("Not a DICOM file: "+mediaFile.fileName);
+		}
+		else {
+			if (mediaFile.hasMetaHeader) {
+				importer.logLn("Is a DICOM file but bad meta-header, not a storage object, or is compressed: "
+					+mediaFile.fileName+" SOP Class="+mediaFile.sopClassUID+", Transfer Syntax="+mediaFile.transferSyntaxUID);
+			}
+			importer.logLn("Not a DICOM PS 3.10 file: "+mediaFile.fileName);
+		}
+	}
+
+	/**
+	 * <p>The importer threads, each of which takes files from its own queue.</p>
+	 */
+	private class Importer implements Runnable {
+		/***/
+		final BlockingQueue<MediaFile> queue;
+		/***/
+		volatile boolean stopped;
+
+		/***/
+		Importer() {
+			queue = new ArrayBlockingQueue<MediaFile>(queueCapacity);
+		}
+
+		/**
+		 * <p>Pass a file to this importer, waiting while its queue is full, unless it has stopped taking files.</p>
+		 *
+		 * @param	mediaFile
+		 * @return				false if this importer has stopped, so the file will not be imported
+		 * @exception	InterruptedException
+		 */
+		boolean put(MediaFile mediaFile) throws InterruptedException {
+			while (!stopped) {
+				if (queue.offer(mediaFile,100,TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * <p>Tell this importer that there are no more files, without blocking forever if it has stopped taking them.</p>
+		 *
+		 * @param	cancel	true if the files already waiting are to be discarded rather than imported
+		 */
+		void noMoreFiles(boolean cancel) {
+			boolean interrupted = false;
+			if (cancel) {
+				queue.clear();
+			}
+			while (!stopped) {
+				try {
+					if (queue.offer(endOfFiles,100,TimeUnit.MILLISECONDS)) {
+						break;
+					}
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+					queue.clear();		// cancelled while waiting, so discard the files waiting to make room
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/***/
+		public void run() {
+			try {
+				while (true) {
+					long startTime = System.nanoTime();
+					MediaFile mediaFile = queue.take();
+					long gotTime = System.nanoTime();
+					metrics.importingWaitingForFilesTime.addAndGet(gotTime-startTime);
+					if (mediaFile == endOfFiles) {
+						break;
+					}
+					try {
+						importer.doSomethingWithDicomFileOnMedia(mediaFile.fileName);
+					}
+					catch (RuntimeException e) {
+						// should have been handled by the importer, but do NOT stop importing other files
+						e.printStackTrace(System.err);
+					}
+					metrics.filesImported.incrementAndGet();
+					metrics.importingTime.addAndGet(System.nanoTime()-gotTime);
+				}
+			}
+			catch (InterruptedException e) {
+				// stop
+			}
+			finally {
+				stopped = true;
+			}
+		}
+	}
+
+	/**
+	 * <p>The thread that takes files from the readers, in the order they were found, and passes them to the importers.</p>
+	 */
+	private class Dispatcher implements Runnable {
+		/***/
+		final BlockingQueue<Future<MediaFile>> reads;
+		/***/
+		final Importer[] importers;
+
+		/**
+		 * @param	reads
+		 * @param	importers
+		 */
+		Dispatcher(BlockingQueue<Future<MediaFile>> reads,Importer[] importers) {
+			this.reads = reads;
+			this.importers = importers;
+		}
+
+		/***/
+		public void run() {
+			boolean cancelled = false;
+			try {
+				long sequence = 0;
+				while (true) {
+					Future<MediaFile> read = reads.take();
+					if (read == endOfReads) {
+						break;
+					}
+					MediaFile mediaFile;
+					try {
+						mediaFile = read.get();
+					}
+					catch (ExecutionException e) {
+						e.printStackTrace(System.err);		// should not happen, since readHeader() catches its own exceptions
+						continue;
+					}
+					logResult(mediaFile);
+					if (mediaFile.isOKToImport) {
+						int which = mediaFile.seriesInstanceUID == null
+							? (int)(sequence++ % importers.length)					// no order to keep
+							: (mediaFile.seriesInstanceUID.hashCode() & 0x7fffffff) % importers.length;	// same series always to same importer
+						long startTime = System.nanoTime();
+						boolean passed = importers[which].put(mediaFile);
+						metrics.dispatchingWaitingForImportersTime.addAndGet(System.nanoTime()-startTime);
+						if (!passed) {
+System.err.println("MediaImportPipeline: importer has stopped, so not importing "+mediaFile.fileName);
+							metrics.filesRejected.incrementAndGet();
+						}
+					}
+					else {
+						metrics.filesRejected.incrementAndGet();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				cancelled = true;		// stop, and have the importers stop too rather than import what is waiting
+			}
+			finally {
+				for (Importer i : importers) {
+					i.noMoreFiles(cancelled);
+				}
+				if (cancelled) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Find the files referenced by a DICOMDIR.</p>
+	 *
+	 * @param	dicomdirFile
+	 * @return				the files in order of their names, with what the directory records say about them
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private static TreeMap<String,MediaFile> findFilesInDicomDirectory(File dicomdirFile) throws IOException, DicomException {
+		DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(dicomdirFile)));
+		AttributeList list = new AttributeList();
+		list.read(i);
+		i.close();
+		DicomDirectory dicomDirectory = new DicomDirectory(list);
+		Map<String,DicomDirectoryRecord> allDicomFiles = dicomDirectory.findAllContainedReferencedFileNamesAndTheirRecords(dicomdirFile.getParentFile().getPath());
+		TreeMap<String,MediaFile> mediaFiles = new TreeMap<String,MediaFile>();		// sorted, so that the order is the same every time
+		Iterator<Map.Entry<String,DicomDirectoryRecord>> it = allDicomFiles.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String,DicomDirectoryRecord> entry = it.next();
+			String mediaFileName = entry.getKey();
+			if (mediaFileName != null) {
+				MediaFile mediaFile = new MediaFile(mediaFileName);
+				mediaFile.fromDicomDirectory = true;
+				DicomDirectoryRecord record = entry.getValue();
+				AttributeList rlist = record == null ? null : record.getAttributeList();
+				if (rlist == null) {
+					mediaFile.hasNoDirectoryRecordAttributes = true;		// rejected rather than read
+				}
+				else {
+					mediaFile.sopClassUID = Attribute.getSingleStringValueOrNull(rlist,TagFromName.ReferencedSOPClassUIDInFile);
+					mediaFile.transferSyntaxUID = Attribute.getSingleStringValueOrNull(rlist,TagFromName.ReferencedTransferSyntaxUIDInFile);
+					for (DicomDirectoryRecord ancestor = (DicomDirectoryRecord)record.getParent(); ancestor != null; ancestor = (DicomDirectoryRecord)ancestor.getParent()) {
+						if (ancestor instanceof DicomDirectoryRecordFactory.SeriesDirectoryRecord) {
+							mediaFile.seriesInstanceUID = Attribute.getSingleStringValueOrNull(ancestor.getAttributeList(),TagFromName.SeriesInstanceUID);
+							break;
+						}
+					}
+				}
+				mediaFiles.put(mediaFileName,mediaFile);
+			}
+		}
+		return mediaFiles;
+	}
+
+	/**
+	 * <p>Read a DICOMDIR file, or walk a folder if there is none, and import the DICOM files found.</p>
+	 *
+	 * <p>Returns when all the files have been imported.</p>
+	 *
+	 * @param	pathName		the path name to a DICOMDIR file or folder containing a DICOMDIR file or DICOM files
+	 * @exception	IOException		thrown if the DICOMDIR file (but not any referenced files) cannot be opened or read, or if interrupted
+	 * @exception	DicomException		thrown if the DICOMDIR file cannot be parsed
+	 */
+	public void importDicomFiles(String pathName) throws IOException, DicomException {
+		if (pathName == null) {
+			return;
+		}
+		long startTime = System.nanoTime();
+		AttributeList.getDictionary();		// make sure the shared dictionary is loaded once, before any thread needs it
+		File path = new File(pathName);
+		File dicomdirFile = MediaImporter.findDicomdirFile(path);
+		Iterator<MediaFile> dicomDirectoryFiles = null;
+		if (dicomdirFile != null) {
+			importer.logLn("Found DICOMDIR at: "+dicomdirFile);
+			dicomDirectoryFiles = findFilesInDicomDirectory(dicomdirFile).values().iterator();		// before starting any threads, so nothing to clean up if it fails
+		}
+		ExecutorService readers = Executors.newFixedThreadPool(readerThreads,getThreadFactory("MediaImportPipeline Reader"));
+		BlockingQueue<Future<MediaFile>> reads = new ArrayBlockingQueue<Future<MediaFile>>(queueCapacity);
+		Importer[] importers = new Importer[importerThreads];
+		Thread[] importerThreadArray = new Thread[importerThreads];
+		for (int t=0; t<importerThreads; ++t) {
+			importers[t] = new Importer();
+			importerThreadArray[t] = getThreadFactory("MediaImportPipeline Importer").newThread(importers[t]);
+			importerThreadArray[t].start();
+		}
+		Thread dispatcherThread = getThreadFactory("MediaImportPipeline Dispatcher").newThread(new Dispatcher(reads,importers));
+		dispatcherThread.start();
+		try {
+			if (dicomDirectoryFiles != null) {
+				while (dicomDirectoryFiles.hasNext()) {
+					submit(readers,reads,dicomDirectoryFiles.next());
+				}
+			}
+			else {
+				walkAndSubmit(path,readers,reads);
+			}
+			reads.put(endOfReads);
+			dispatcherThread.join();
+			for (Thread t : importerThreadArray) {
+				t.join();
+			}
+		}
+		catch (InterruptedException e) {
+			dispatcherThread.interrupt();
+			for (Thread t : importerThreadArray) {
+				t.interrupt();
+			}
+			throw new InterruptedIOException("Media import interrupted");
+		}
+		finally {
+			readers.shutdownNow();
+			metrics.elapsedTime.set(System.nanoTime()-startTime);
+		}
+		importer.logLn("Media import complete");
+	}
+
+	/**
+	 * <p>Submit a file to be read, waiting if too many are already waiting.</p>
+	 *
+	 * @param	readers
+	 * @param	reads
+	 * @param	mediaFile
+	 * @exception	InterruptedException
+	 */
+	private void submit(ExecutorService readers,BlockingQueue<Future<MediaFile>> reads,final MediaFile mediaFile) throws InterruptedException {
+		metrics.filesFound.incrementAndGet();
+		Future<MediaFile> read = readers.submit(new Callable<MediaFile>() {
+			public MediaFile call() {
+				return readHeader(mediaFile);
+			}
+		});
+		long startTime = System.nanoTime();
+		reads.put(read);
+		metrics.findingWaitingForReadersTime.addAndGet(System.nanoTime()-startTime);
+	}
+
+	/**
+	 * <p>Walk a folder and all its sub-folders in order of name, submitting each file as it is found rather than listing them all first.</p>
+	 *
+	 * @param	path
+	 * @param	readers
+	 * @param	reads
+	 * @exception	InterruptedException
+	 */
+	private void walkAndSubmit(File path,ExecutorService readers,BlockingQueue<Future<MediaFile>> reads) throws InterruptedException {
+		ArrayDeque<File> pending = new ArrayDeque<File>();
+		pending.push(path);
+		while (!pending.isEmpty()) {
+			long startTime = System.nanoTime();
+			File file = pending.pop();
+			if (file.isDirectory()) {
+				File[] filesAndDirectories = null;
+				try {
+					filesAndDirectories = file.listFiles((FilenameFilter)null);	// null FilenameFilter means all names
+				}
+				catch (SecurityException e) {
+					e.printStackTrace(System.err);
+				}
+				if (filesAndDirectories != null) {
+					Arrays.sort(filesAndDirectories);
+					for (int i=filesAndDirectories.length-1; i>=0; --i) {		// pushed in reverse, so popped in order
+						pending.push(filesAndDirectories[i]);
+					}
+				}
+				metrics.findingTime.addAndGet(System.nanoTime()-startTime);
+			}
+			else if (file.isFile()) {
+				metrics.findingTime.addAndGet(System.nanoTime()-startTime);
+				submit(readers,reads,new MediaFile(file.getPath()));
+			}
+		}
+	}
+}
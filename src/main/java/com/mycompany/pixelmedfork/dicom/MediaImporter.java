@@ -141,6 +141,41 @@ public class MediaImporter {
 		     || transferSyntaxUID.equals(TransferSyntax.ExplicitVRBigEndian));
 	}
 
+	/**
+	 * <p>Look for a DICOMDIR file at the path or in the folder that it names, with various case permutations.</p>
+	 *
+	 * @param	path	the path to a DICOMDIR file or folder containing a DICOMDIR file
+	 * @return		the DICOMDIR file, or null if there is none
+	 */
+	static File findDicomdirFile(File path) {
+		File dicomdirFile = null;		// look for DICOMDIR here or in root folder of here, with various case permutations
+		if (path != null && path.exists()) {
+			if (path.isFile() && path.getName().toUpperCase(java.util.Locale.US).equals("DICOMDIR")) {
+				dicomdirFile=path;
+			}
+			else if (path.isDirectory()) {
+				File tryFile = new File(path,"DICOMDIR");
+				if (tryFile != null && tryFile.exists()) {
+					dicomdirFile=tryFile;
+				}
+				else {
+					tryFile = new File(path,"Dicomdir");
+					if (tryFile != null && tryFile.exists()) {
+						dicomdirFile=tryFile;
+					}
+					else {
+						tryFile = new File(path,"dicomdir");
+						if (tryFile != null && tryFile.exists()) {
+							dicomdirFile=tryFile;
+						}
+						// else give up
+					}
+				}
+			}
+		}
+		return dicomdirFile;
+	}
+
 	/**
 	 * <p>Read a DICOMDIR file, and then import any DICOM files that it references.</p>
 	 *
@@ -157,31 +192,7 @@ public class MediaImporter {
 	public void importDicomFiles(String pathName) throws IOException, DicomException {
 		if (pathName != null) {
 			File path = new File(pathName);
-			File dicomdirFile = null;		// look for DICOMDIR here or in root folder of here, with various case permutations
-			if (path != null && path.exists()) {
-				if (path.isFile() && path.getName().toUpperCase(java.util.Locale.US).equals("DICOMDIR")) {
-					dicomdirFile=path;
-				}
-				else if (path.isDirectory()) {
-					File tryFile = new File(path,"DICOMDIR");
-					if (tryFile != null && tryFile.exists()) {
-						dicomdirFile=tryFile;
-					}
-					else {
-						tryFile = new File(path,"Dicomdir");
-						if (tryFile != null && tryFile.exists()) {
-							dicomdirFile=tryFile;
-						}
-						else {
-							tryFile = new File(path,"dicomdir");
-							if (tryFile != null && tryFile.exists()) {
-								dicomdirFile=tryFile;
-							}
-							// else give up
-						}
-					}
-				}
-			}
+			File dicomdirFile = findDicomdirFile(path);
 			if (dicomdirFile != null) {
 				logLn("Found DICOMDIR at: "+dicomdirFile);
 				DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(dicomdirFile)));
@@ -306,6 +317,27 @@ public class MediaImporter {
 		}
 		logLn("Media import complete");
 	}
+
+	/**
+	 * <p>Read a DICOMDIR file, or walk a folder if there is none, and import the DICOM files found, using more than one thread.</p>
+	 *
+	 * <p>The headers of the files are read by one pool of threads and the files are then imported by another, as described for
+	 * {@link MediaImportPipeline MediaImportPipeline}. Since {@link MediaImporter#doSomethingWithDicomFileOnMedia(String) doSomethingWithDicomFileOnMedia}
+	 * will then be called concurrently for files of different series (though always in order and by the same thread for files of the
+	 * same series), it must be safe to do so in the sub-class. The progress bar, if any, is not updated.</p>
+	 *
+	 * @param	pathName		the path name to a DICOMDIR file or folder containing a DICOMDIR file or DICOM files
+	 * @param	readerThreads		the number of threads that read the headers of files
+	 * @param	importerThreads		the number of threads that import files
+	 * @return				the counts and times of each stage
+	 * @exception	IOException		thrown if the DICOMDIR file (but not any referenced files) cannot be opened or read
+	 * @exception	DicomException		thrown if the DICOMDIR file cannot be parsed
+	 */
+	public MediaImportPipeline.Metrics importDicomFiles(String pathName,int readerThreads,int importerThreads) throws IOException, DicomException {
+		MediaImportPipeline pipeline = new MediaImportPipeline(this,readerThreads,importerThreads);
+		pipeline.importDicomFiles(pathName);
+		return pipeline.getMetrics();
+	}
 	
 	/**
 	 * <p>Do something with the referenced DICOM file that has been encountered.</p>
@@ -327,7 +359,8 @@ public class MediaImporter {
 	 *
 	 * @param	arg	array of one string - the path to the media or folder containing
 	 * the files to check are importable (in which case will write messages to
-	 * stderr), or else will pop up a file chooser dialog (and write messages to
+	 * stderr), optionally followed by the number of reader and importer threads to use
+	 * a pipeline, or else will pop up a file chooser dialog (and write messages to
 	 * a dialog box)
 	 */
 	public static void main(String arg[]) {
@@ -343,8 +376,15 @@ public class MediaImporter {
 				MediaImporter importer = new MediaImporter(logger);
 				importer.importDicomFiles(pathName);
 			}
+			else if (arg.length == 3) {
+				String           pathName=arg[0];
+				MessageLogger logger = new PrintStreamMessageLogger(System.err);
+				MediaImporter importer = new MediaImporter(logger);
+				MediaImportPipeline.Metrics metrics = importer.importDicomFiles(pathName,Integer.parseInt(arg[1]),Integer.parseInt(arg[2]));
+				System.err.println(metrics);
+			}
 			else {
-				throw new Exception("Argument list must be zero or one value");
+				throw new Exception("Argument list must be zero, one or three values");
 			}
 		}
 		catch (Exception e) {
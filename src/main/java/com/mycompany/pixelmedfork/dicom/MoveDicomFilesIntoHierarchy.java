@@ -5,8 +5,13 @@ package com.mycompany.pixelmedfork.dicom;
 import com.pixelmed.utils.FileUtilities;
 
 import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <p>This class provides a main method that recursively searches the supplied paths for DICOM files
@@ -16,6 +21,11 @@ import java.util.*;
  * create the hierarchical path name from the attributes, etc., since these may be useful in their
  * own right.</p>
  *
+ * <p>For very many files, {@link #processFilesRecursivelyInParallel(File,String,int,String,String) processFilesRecursivelyInParallel()}
+ * walks the folders with a work-stealing pool of threads, reads each file only once (computing its digest whilst the
+ * attributes up to the Pixel Data are read, then over the remainder of the file), and remembers the digest of every file moved,
+ * so that duplicates are detected without reading the destination files again.</p>
+ *
  * @author	dclunie
  */
 public class MoveDicomFilesIntoHierarchy {
@@ -292,6 +302,357 @@ public class MoveDicomFilesIntoHierarchy {
 		return renameFileWithHierarchicalPathFromAttributes(new File(fileName),defaultHierarchicalFolderName,defaultDuplicatesFolderNamePrefix);
 	}
 	
+	/***/
+	static private final String digestAlgorithm = "MD5";		// same as FileUtilities.md5() used when not in parallel
+	/***/
+	static private final int digestBufferSize = 32768;
+
+	/**
+	 * <p>A file that has been moved into the hierarchy, or was found there already.</p>
+	 */
+	static private class DestinationRecord {
+		/***/
+		final byte[] pathDigest;
+		/***/
+		final byte[] contentDigest;
+
+		/**
+		 * @param	pathDigest
+		 * @param	contentDigest
+		 */
+		DestinationRecord(byte[] pathDigest,byte[] contentDigest) {
+			this.pathDigest = pathDigest;
+			this.contentDigest = contentDigest;
+		}
+	}
+
+	/**
+	 * <p>An index of the files in the hierarchy by SOP Instance UID, with a digest of the destination path and of the content of each,
+	 * so that duplicates can be detected without reading files already in the hierarchy more than once.</p>
+	 *
+	 * <p>Only digests are kept rather than path names, to keep the index small enough for millions of files.</p>
+	 */
+	static private class DuplicateIndex {
+		/***/
+		private final ConcurrentHashMap<String,ArrayList<DestinationRecord>> index = new ConcurrentHashMap<String,ArrayList<DestinationRecord>>();
+
+		/**
+		 * @param	sopInstanceUID
+		 * @return			the records for the SOP Instance UID, which must be synchronized on whilst used, since they are also used by other threads
+		 */
+		ArrayList<DestinationRecord> getRecords(String sopInstanceUID) {
+			ArrayList<DestinationRecord> records = index.get(sopInstanceUID);
+			if (records == null) {
+				records = new ArrayList<DestinationRecord>(1);
+				ArrayList<DestinationRecord> existing = index.putIfAbsent(sopInstanceUID,records);
+				if (existing != null) {
+					records = existing;
+				}
+			}
+			return records;
+		}
+
+		/**
+		 * @param	records
+		 * @param	pathDigest
+		 * @return			the record for the destination path, or null if none
+		 */
+		static DestinationRecord find(ArrayList<DestinationRecord> records,byte[] pathDigest) {
+			for (DestinationRecord record : records) {
+				if (Arrays.equals(record.pathDigest,pathDigest)) {
+					return record;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * @param	s
+	 * @return		the digest of the string
+	 * @exception	NoSuchAlgorithmException
+	 * @exception	UnsupportedEncodingException
+	 */
+	static private byte[] digestOfString(String s) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+		return MessageDigest.getInstance(digestAlgorithm).digest(s.getBytes("UTF8"));
+	}
+
+	/**
+	 * <p>Compute the digest of what remains of a stream, and close it.</p>
+	 *
+	 * @param	in
+	 * @param	md	the digest through which everything in the stream will already have been, or will be, read
+	 * @return		the digest
+	 * @exception	IOException
+	 */
+	static private byte[] finishDigest(InputStream in,MessageDigest md) throws IOException {
+		try {
+			byte[] readBuffer = new byte[digestBufferSize];
+			while (in.read(readBuffer,0,digestBufferSize) > 0);
+		}
+		finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+	/**
+	 * <p>A digesting stream that reads rather than skips what is skipped, so that nothing is left out of the digest.</p>
+	 */
+	static private class SkipDigestingInputStream extends DigestInputStream {
+		/**
+		 * @param	in
+		 * @param	md
+		 */
+		SkipDigestingInputStream(InputStream in,MessageDigest md) {
+			super(in,md);
+		}
+
+		/**
+		 * @param	n
+		 */
+		public long skip(long n) throws IOException {
+			byte[] skipBuffer = new byte[(int)Math.min(n,digestBufferSize)];
+			long skipped = 0;
+			while (skipped < n) {
+				int count = read(skipBuffer,0,(int)Math.min(n-skipped,skipBuffer.length));
+				if (count < 0) {
+					break;
+				}
+				skipped += count;
+			}
+			return skipped;
+		}
+	}
+
+	/**
+	 * @param	file
+	 * @return		the digest of the content of the file
+	 * @exception	IOException
+	 * @exception	NoSuchAlgorithmException
+	 */
+	static private byte[] digestOfFile(File file) throws IOException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
+		return finishDigest(new DigestInputStream(new FileInputStream(file),md),md);
+	}
+
+	/**
+	 * <p>Read the attributes of a DICOM file up to the Pixel Data, and the digest of the whole file, in one pass.</p>
+	 *
+	 * @param	file
+	 * @param	list	to read the attributes into
+	 * @return		the digest of the content of the file
+	 * @exception	IOException
+	 * @exception	DicomException
+	 * @exception	NoSuchAlgorithmException
+	 */
+	static private byte[] readAttributesAndDigest(File file,AttributeList list) throws IOException, DicomException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance(digestAlgorithm);
+		InputStream in = new BufferedInputStream(new SkipDigestingInputStream(new FileInputStream(file),md));	// buffered outside the digest, so every byte is digested exactly once
+		try {
+			DicomInputStream i = new DicomInputStream(in);
+			list.read(i,TagFromName.PixelData);
+		}
+		catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		catch (DicomException e) {
+			in.close();
+			throw e;
+		}
+		return finishDigest(in,md);		// continue from wherever the header ended, without parsing
+	}
+
+	/**
+	 * <p>Rename a DICOM file into a folder hierarchy, using an index of the files already moved there to detect duplicates.</p>
+	 *
+	 * <p>Behaves as {@link #renameFileWithHierarchicalPathFromAttributes(File,AttributeList,String,String) renameFileWithHierarchicalPathFromAttributes()},
+	 * except that the content of a destination file is compared using the digest remembered when it was moved, and a destination file
+	 * that was already present before sorting started is read only the first time it is encountered.</p>
+	 *
+	 * @param	file						the DICOM file
+	 * @param	list						the attributes of the file (already read in)
+	 * @param	contentDigest				the digest of the content of the file
+	 * @param	hierarchicalFolderName		where to store the renamed file
+	 * @param	duplicatesFolderNamePrefix	where to store the renamed file if it is a non-identical duplicate of the existing file
+	 * @param	duplicateIndex				the files already in the hierarchy
+	 * @return								true if successful, false if not
+	 * @exception	IOException
+	 * @exception	NoSuchAlgorithmException
+	 */
+	static private boolean renameFileWithHierarchicalPathFromAttributes(File file,AttributeList list,byte[] contentDigest,
+			String hierarchicalFolderName,String duplicatesFolderNamePrefix,DuplicateIndex duplicateIndex) throws IOException, NoSuchAlgorithmException {
+		boolean success = false;
+		String newFileName = makeHierarchicalPathFromAttributes(list);
+		if (newFileName.length() > 0) {
+			File newFile = new File(hierarchicalFolderName,newFileName);
+			if (file.getCanonicalPath().equals(newFile.getCanonicalPath())) {		// Note that file.equals(newFile) is NOT sufficient, and if used will lead to deletion when hash values match below
+				System.err.println("\""+file+"\": source and destination same - doing nothing");
+			}
+			else {
+				String sopInstanceUID = Attribute.getSingleStringValueOrEmptyString(list,TagFromName.SOPInstanceUID);
+				ArrayList<DestinationRecord> records = duplicateIndex.getRecords(sopInstanceUID);
+				synchronized (records) {		// only one file with the same SOP Instance UID may be moved at a time, since they may have the same destination
+					int duplicateCount=0;
+					while (true) {
+						byte[] pathDigest = digestOfString(newFile.getPath());
+						DestinationRecord record = DuplicateIndex.find(records,pathDigest);
+						if (record == null && newFile.exists()) {	// was there before we started, so this is the only time it is read
+							record = new DestinationRecord(pathDigest,digestOfFile(newFile));
+							records.add(record);
+						}
+						if (record == null) {
+							File newParentDirectory = newFile.getParentFile();
+							if (newParentDirectory != null && !newParentDirectory.exists()) {
+								if (!newParentDirectory.mkdirs() && !newParentDirectory.isDirectory()) {		// may have been created by another thread in the meantime
+									System.err.println("\""+file+"\": parent directory creation failed for \""+newFile+"\"");
+									// don't suppress move; might still succeed
+								}
+							}
+							if (file.renameTo(newFile)) {
+								success = true;
+								records.add(new DestinationRecord(pathDigest,contentDigest));
+								System.err.println("\""+file+"\" moved to \""+newFile+"\"");
+							}
+							else {
+								System.err.println("\""+file+"\": move attempt failed to \""+newFile+"\"");
+							}
+							break;
+						}
+						else if (Arrays.equals(record.contentDigest,contentDigest)) {
+							System.err.println("\""+file+"\": destination exists and is identical - not overwriting - removing original \""+newFile+"\"");
+							if (!file.delete()) {
+								System.err.println("\""+file+"\": deletion of duplicate original unsuccessful");
+							}
+							break;
+						}
+						else {
+							System.err.println("\""+file+"\": destination exists and is different - not overwriting - move duplicate elsewhere \""+newFile+"\"");
+							newFile = new File(duplicatesFolderNamePrefix+"_"+Integer.toString(++duplicateCount),newFileName);
+							// loop around rather than proceed
+						}
+					}
+				}
+			}
+		}
+		else {
+			System.err.println("\""+file+"\": no SOP Instance UID - doing nothing");
+		}
+		return success;
+	}
+
+	/**
+	 * <p>The work of sorting one folder, which is split into the work of sorting each of its sub-folders, for other threads to steal.</p>
+	 */
+	static private class SortFolderTask extends RecursiveAction {
+		/***/
+		private static final long serialVersionUID = 1L;
+		/***/
+		private final File folder;
+		/***/
+		private final String suffix;
+		/***/
+		private final String hierarchicalFolderName;
+		/***/
+		private final String duplicatesFolderNamePrefix;
+		/***/
+		private final DuplicateIndex duplicateIndex;
+
+		/**
+		 * @param	folder
+		 * @param	suffix
+		 * @param	hierarchicalFolderName
+		 * @param	duplicatesFolderNamePrefix
+		 * @param	duplicateIndex
+		 */
+		SortFolderTask(File folder,String suffix,String hierarchicalFolderName,String duplicatesFolderNamePrefix,DuplicateIndex duplicateIndex) {
+			this.folder = folder;
+			this.suffix = suffix;
+			this.hierarchicalFolderName = hierarchicalFolderName;
+			this.duplicatesFolderNamePrefix = duplicatesFolderNamePrefix;
+			this.duplicateIndex = duplicateIndex;
+		}
+
+		/***/
+		protected void compute() {
+			File[] filesAndDirectories = folder.listFiles();
+			if (filesAndDirectories != null && filesAndDirectories.length > 0) {
+				ArrayList<SortFolderTask> subFolders = new ArrayList<SortFolderTask>();
+				for (File file : filesAndDirectories) {
+					if (file.isDirectory()) {
+						SortFolderTask task = new SortFolderTask(file,suffix,hierarchicalFolderName,duplicatesFolderNamePrefix,duplicateIndex);
+						task.fork();		// other threads may steal it whilst this one does the files
+						subFolders.add(task);
+					}
+				}
+				for (File file : filesAndDirectories) {
+					if (file.isFile() && (suffix == null || suffix.length() == 0 || file.getName().endsWith(suffix))) {
+						sortFile(file);
+					}
+				}
+				for (SortFolderTask task : subFolders) {
+					task.join();
+				}
+			}
+		}
+
+		/**
+		 * <p>Sort one file, reporting but not stopping on any error, so that one bad file does not stop the rest being sorted.</p>
+		 *
+		 * @param	file
+		 */
+		private void sortFile(File file) {
+			try {
+				if (DicomFileUtilities.isDicomOrAcrNemaFile(file)) {
+					AttributeList list = new AttributeList();
+					byte[] contentDigest = readAttributesAndDigest(file,list);
+					renameFileWithHierarchicalPathFromAttributes(file,list,contentDigest,hierarchicalFolderName,duplicatesFolderNamePrefix,duplicateIndex);
+				}
+				else {
+					System.err.println("\""+file+"\": not a DICOM file - doing nothing");
+				}
+			}
+			catch (Exception e) {
+				System.err.println("\""+file+"\": failed - "+e);
+			}
+		}
+	}
+
+	/**
+	 * <p>Recursively search the supplied path for DICOM files and move them into a folder hierarchy based on their attributes, using more than one thread.</p>
+	 *
+	 * <p>Folders are searched by a work-stealing pool of threads. Each file is read once, for its attributes up to the Pixel Data and for the digest of its content.
+	 * Whether a destination file already exists, and if so its digest, is remembered in memory, so the destination folders are not searched or read again for
+	 * every file. An error in one file is reported and does not stop the others being moved.</p>
+	 *
+	 * @param	file						the file or folder to search
+	 * @param	suffix						only files whose names end with this are moved, or null or empty for all files
+	 * @param	parallelism					the number of threads
+	 * @param	hierarchicalFolderName		where to store the renamed files
+	 * @param	duplicatesFolderNamePrefix	where to store the renamed files if non-identical duplicates of existing files
+	 */
+	static public void processFilesRecursivelyInParallel(File file,String suffix,int parallelism,String hierarchicalFolderName,String duplicatesFolderNamePrefix) {
+		if (file != null && file.exists()) {
+			AttributeList.getDictionary();		// make sure the shared dictionary is loaded once, before any thread needs it
+			DuplicateIndex duplicateIndex = new DuplicateIndex();
+			SortFolderTask task;
+			if (file.isDirectory()) {
+				task = new SortFolderTask(file,suffix,hierarchicalFolderName,duplicatesFolderNamePrefix,duplicateIndex);
+				ForkJoinPool pool = new ForkJoinPool(Math.max(1,parallelism));
+				try {
+					pool.invoke(task);
+				}
+				finally {
+					pool.shutdown();
+				}
+			}
+			else if (file.isFile()) {
+				new SortFolderTask(file.getParentFile(),suffix,hierarchicalFolderName,duplicatesFolderNamePrefix,duplicateIndex).sortFile(file);
+			}
+		}
+	}
+
 	/**
 	 * <p>Recursively search the supplied paths for DICOM files and move them into a folder hierarchy based on their attributes.</p>
 	 *
@@ -303,12 +664,22 @@ public class MoveDicomFilesIntoHierarchy {
 	 *
 	 * <p>If the destination file already exists and is different in content, it is not overwritten, and the duplicate is moved into a separate Duplicates_n folder.</p>
 	 *
-	 * @param	arg	array of one or more file or directory names
+	 * <p>If the first two arguments are -parallel and a number of threads, the files are processed as by {@link #processFilesRecursivelyInParallel(File,String,int,String,String) processFilesRecursivelyInParallel()}.</p>
+	 *
+	 * @param	arg	array of one or more file or directory names, optionally preceded by -parallel and the number of threads
 	 */
 	public static void main(String[] arg) {
 		try {
-			for (int i=0; i<arg.length; ++i) {
-				processFilesRecursively(new File(arg[i]),null);
+			if (arg.length > 2 && arg[0].equals("-parallel")) {
+				int parallelism = Integer.parseInt(arg[1]);
+				for (int i=2; i<arg.length; ++i) {
+					processFilesRecursivelyInParallel(new File(arg[i]),null,parallelism,defaultHierarchicalFolderName,defaultDuplicatesFolderNamePrefix);
+				}
+			}
+			else {
+				for (int i=0; i<arg.length; ++i) {
+					processFilesRecursively(new File(arg[i]),null);
+				}
 			}
 		}
 		catch (Exception e) {
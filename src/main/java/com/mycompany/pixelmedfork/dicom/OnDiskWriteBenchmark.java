@@ -0,0 +1,132 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.pixelmed.utils.CopyStream;
+
+/**
+ * <p>A class to measure how long it takes to write Pixel Data whose values have been left on disk by
+ * {@link com.pixelmed.dicom.OtherWordAttributeOnDisk OtherWordAttributeOnDisk}.</p>
+ *
+ * <p>For comparison, the values are copied the way they used to be, through a {@link java.io.BufferedInputStream BufferedInputStream}
+ * on a new {@link java.io.FileInputStream FileInputStream} skipped to the values, and then written by the attribute, which
+ * transfers them directly to the output file if it can, or otherwise uses positioned reads on a {@link com.pixelmed.dicom.SharedFileChannel SharedFileChannel}.
+ * Each is measured with and without byte swapping (writing big endian).</p>
+ *
+ * <p>If no file is supplied, a synthetic file with 64 MB of Pixel Data is created, large enough to be left on disk when read.</p>
+ */
+public class OnDiskWriteBenchmark {
+
+	private OnDiskWriteBenchmark() {}
+
+	/**
+	 * <p>Write the values the way they used to be written.</p>
+	 *
+	 * @param	a		the attribute
+	 * @param	outputFile
+	 * @param	bigEndian	whether to write big endian
+	 * @exception	Exception
+	 */
+	private static void writeWithStreamCopy(OtherWordAttributeOnDisk a,File outputFile,boolean bigEndian) throws Exception {
+		DicomOutputStream o = new DicomOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)),null,
+			bigEndian ? TransferSyntax.ExplicitVRBigEndian : TransferSyntax.ExplicitVRLittleEndian);
+		InputStream in = new BufferedInputStream(new FileInputStream(a.getFile()));
+		CopyStream.skipInsistently(in,a.getByteOffset());
+		if (a.isBigEndian() == o.isBigEndian()) {
+			CopyStream.copy(in,o,a.getVL());
+		}
+		else {
+			CopyStream.copyByteSwapped(in,o,a.getVL());
+		}
+		in.close();
+		o.close();
+	}
+
+	/**
+	 * <p>Write the values with the attribute.</p>
+	 *
+	 * @param	a		the attribute
+	 * @param	outputFile
+	 * @param	bigEndian	whether to write big endian
+	 * @param	useChannel	whether to allow the values to be transferred directly to the output file
+	 * @exception	Exception
+	 */
+	private static void writeWithAttribute(OtherWordAttributeOnDisk a,File outputFile,boolean bigEndian,boolean useChannel) throws Exception {
+		FileOutputStream fo = new FileOutputStream(outputFile);
+		OutputStream bo = useChannel ? new BufferedOutputStream(fo) : new BufferedOutputStream(new FilterOutputStream(fo));	// a FilterOutputStream hides the channel
+		DicomOutputStream o = new DicomOutputStream(bo,null,bigEndian ? TransferSyntax.ExplicitVRBigEndian : TransferSyntax.ExplicitVRLittleEndian);
+		if (useChannel) {
+			o.setUnderlyingChannel(fo.getChannel());
+		}
+		a.write(o);
+		o.close();
+	}
+
+	/**
+	 * <p>Time writing Pixel Data left on disk.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5), then optionally a DICOM file with OW Pixel Data that will be left on disk when read
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			File inputFile;
+			if (arg.length > 1) {
+				inputFile = new File(arg[1]);
+			}
+			else {
+				inputFile = File.createTempFile("OnDiskWriteBenchmark",".dcm");
+				inputFile.deleteOnExit();
+				BenchmarkFiles.writeMultiFrameFile(inputFile,4096,4096,2);
+			}
+			AttributeList list = new AttributeList();
+			list.read(inputFile.getCanonicalPath());
+			Attribute pixelData = list.get(TagFromName.PixelData);
+			if (!(pixelData instanceof OtherWordAttributeOnDisk)) {
+				System.err.println("Pixel Data in "+inputFile+" is not left on disk when read");
+				System.exit(1);
+			}
+			OtherWordAttributeOnDisk a = (OtherWordAttributeOnDisk)pixelData;
+			System.err.println("Writing "+a.getVL()+" bytes of Pixel Data left on disk");
+			File outputFile = File.createTempFile("OnDiskWriteBenchmark",".out");
+			outputFile.deleteOnExit();
+			for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+				for (int e=0; e<2; ++e) {
+					boolean bigEndian = e == 1;
+					String endian = bigEndian ? " (byte swapped)" : "";
+					for (int m=0; m<3; ++m) {
+						long startTime = System.nanoTime();
+						String what;
+						if (m == 0) {
+							writeWithStreamCopy(a,outputFile,bigEndian);
+							what = "stream copy      ";
+						}
+						else if (m == 1) {
+							writeWithAttribute(a,outputFile,bigEndian,false);
+							what = "positioned reads ";
+						}
+						else {
+							writeWithAttribute(a,outputFile,bigEndian,true);
+							what = bigEndian ? "with channel     " : "transferTo       ";
+						}
+						long elapsed = System.nanoTime() - startTime;
+						if (r >= 0) {
+							System.err.println("Pass "+r+" "+what+endian+": "+(elapsed/1000000)+" ms, "+(a.getVL()*1000/elapsed)+" MB/s");
+						}
+					}
+				}
+			}
+			list.closeSharedFileChannels();
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
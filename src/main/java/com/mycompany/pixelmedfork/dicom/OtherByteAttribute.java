@@ -4,6 +4,11 @@ package com.pixelmed.dicom;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import com.pixelmed.utils.CopyStream;
+
 /**
  * <p>A concrete class specializing {@link com.pixelmed.dicom.Attribute Attribute} for
  * Other Byte (OB) attributes.</p>
@@ -21,8 +26,12 @@ public class OtherByteAttribute extends Attribute {
 
 	private static final String identString = "@(#) $Header: /userland/cvs/pixelmed/imgbook/com/pixelmed/dicom/OtherByteAttribute.java,v 1.14 2008/02/21 04:45:04 dclunie Exp $";
 
+	private static final int gatheringWriteThreshold = 65536;	// smaller values are better off just copied into the output stream buffer
+
 	private byte[] values;
 
+	private ByteBuffer mappedValues;		// a read-only view into a memory mapped file, if read from a MappedDicomInputStream, until values are requested as an array
+
 	/**
 	 * <p>Construct an (empty) attribute.</p>
 	 *
@@ -68,9 +77,19 @@ public class OtherByteAttribute extends Attribute {
 	 */
 	private void doCommonConstructorStuff(long vl,DicomInputStream i) throws IOException, DicomException {
 		values=null;
+		mappedValues=null;
 		valueLength=vl;
 
-		if (vl > 0) {
+		if (vl > 0 && i instanceof MappedDicomInputStream) {
+			try {
+				mappedValues = ((MappedDicomInputStream)i).readByteBuffer(vl);
+			}
+			catch (IOException e) {
+				throw (DicomException)(new DicomException("Failed to map value (length "+vl+" dec) in "+ValueRepresentation.getAsString(getVR())+" attribute "+getTag()).initCause(e));
+			}
+			valueMultiplicity=1;
+		}
+		else if (vl > 0) {
 			byte[] buffer = new byte[(int)vl];
 			try {
 				i.readInsistently(buffer,0,(int)vl);
@@ -95,6 +114,13 @@ public class OtherByteAttribute extends Attribute {
 	 * @exception	DicomException
 	 */
 	public void write(DicomOutputStream o) throws DicomException, IOException {
+		if (values != null && values.length >= gatheringWriteThreshold) {
+			GatheringByteChannel channel = o.flushAndGetUnderlyingGatheringChannel();
+			if (channel != null) {
+				writeGathering(o,channel);
+				return;
+			}
+		}
 		writeBase(o);
 		if (values != null && values.length > 0) {
 			o.write(values);
@@ -104,8 +130,39 @@ public class OtherByteAttribute extends Attribute {
 			long npad = getPaddedVL() - values.length;
 			while (npad-- > 0) o.write(0x00);
 		}
+		else if (mappedValues != null && mappedValues.limit() > 0) {
+			CopyStream.copy(mappedValues,o);
+			long npad = getPaddedVL() - mappedValues.limit();
+			while (npad-- > 0) o.write(0x00);
+		}
 	}
 	
+	/**
+	 * <p>Write the preamble, values and any padding directly to the channel underlying the output stream, in one gathering write.</p>
+	 *
+	 * @param	o
+	 * @param	channel
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private void writeGathering(DicomOutputStream o,GatheringByteChannel channel) throws DicomException, IOException {
+		if (getVL() != values.length) {
+			throw new DicomException("Internal error - byte array length ("+values.length+") not equal to expected VL("+getVL()+")");
+		}
+		byte[] base = getEncodedBase(o);
+		ByteBuffer[] buffers = {
+			ByteBuffer.wrap(base),
+			ByteBuffer.wrap(values),
+			ByteBuffer.allocate((int)(getPaddedVL() - values.length))
+		};
+		long length = base.length + getPaddedVL();
+		long remaining = length;
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+		o.wroteToUnderlyingChannel(length);
+	}
+
 	/***/
 	public String toString(DicomDictionary dictionary) {
 		StringBuffer str = new StringBuffer();
@@ -120,6 +177,7 @@ public class OtherByteAttribute extends Attribute {
 	 */
 	public void setValues(byte[] v) throws DicomException {
 		values=v;
+		mappedValues=null;
 		valueMultiplicity=1;		// different from normal value types where VM is size of array
 		valueLength=v.length;
 	}
@@ -127,13 +185,42 @@ public class OtherByteAttribute extends Attribute {
 	/**
 	 * @exception	DicomException
 	 */
-	public byte[] getByteValues() throws DicomException { return values; }
+	public byte[] getByteValues() throws DicomException {
+		if (values == null && mappedValues != null) {
+			byte[] v = new byte[mappedValues.limit()];
+			mappedValues.duplicate().get(v);
+			values=v;
+			mappedValues=null;		// the array may be modified by the caller, so it now holds the values
+		}
+		return values;
+	}
+
+	/**
+	 * <p>Get the values of this attribute as a read-only buffer.</p>
+	 *
+	 * <p>If the attribute was read from a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream}, and the values have
+	 * not since been requested as an array, this is a view into the memory mapped file, and no copy is made.</p>
+	 *
+	 * @return	the values, or null if none
+	 */
+	public ByteBuffer getByteBufferValues() {
+		if (mappedValues != null) {
+			return mappedValues.duplicate();
+		}
+		else if (values != null) {
+			return ByteBuffer.wrap(values).asReadOnlyBuffer();
+		}
+		else {
+			return null;
+		}
+	}
 
 	/**
 	 * @exception	DicomException
 	 */
 	public void removeValues() {
 		values=null;
+		mappedValues=null;
 		valueMultiplicity=0;
 		valueLength=0;
 	}
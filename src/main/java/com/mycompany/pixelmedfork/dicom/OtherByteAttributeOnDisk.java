@@ -4,7 +4,8 @@ package com.pixelmed.dicom;
 
 import java.io.*;
 
-import com.pixelmed.utils.CopyStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * <p>A concrete class specializing {@link com.pixelmed.dicom.Attribute Attribute} for
@@ -26,6 +27,9 @@ public class OtherByteAttributeOnDisk extends Attribute {
 	protected long byteOffset;
 	protected File file;
 
+	private ByteBuffer mappedValues;		// mapped on demand
+	private SharedFileChannel sharedFileChannel;	// shared with other attributes in the same file, created on demand if not
+
 	/**
 	 * <p>Construct an (empty) attribute.</p>
 	 *
@@ -37,6 +41,21 @@ public class OtherByteAttributeOnDisk extends Attribute {
 		file = null;
 	}
 
+	/**
+	 * <p>Construct an attribute whose values are already in a file.</p>
+	 *
+	 * @param	t		the tag of the attribute
+	 * @param	file		the file containing the values
+	 * @param	byteOffset	the byte offset in the file of the start of the values
+	 * @param	vl		the value length of the attribute
+	 */
+	public OtherByteAttributeOnDisk(AttributeTag t,File file,long byteOffset,long vl) {
+		super(t);
+		valueLength=vl;
+		this.byteOffset=byteOffset;
+		this.file=file;
+	}
+
 	/**
 	 * <p>Read an attribute from an input stream.</p>
 	 *
@@ -78,6 +97,7 @@ public class OtherByteAttributeOnDisk extends Attribute {
 		valueLength=vl;
 		this.byteOffset=byteOffset;
 		file=i.getFile();
+		sharedFileChannel=i.getSharedFileChannel();
 		if (file == null) {
 				throw new DicomException("Cannot have an OtherByteAttributeOnDisk without a file available in the DicomInputStream");
 		}
@@ -108,10 +128,7 @@ public class OtherByteAttributeOnDisk extends Attribute {
 		//throw new DicomException("Internal error - unsupported operation, write of OtherByteAttributeOnDisk");
 		writeBase(o);
 		if (valueLength > 0) {
-			BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
-			CopyStream.skipInsistently(in,byteOffset);
-			CopyStream.copy(in,o,valueLength);
-			in.close();
+			getSharedFileChannel().copyTo(byteOffset,valueLength,o,false/*swapBytes*/);	// transferred directly if o is on a file
 			long npad = getPaddedVL() - valueLength;
 			while (npad-- > 0) o.write(0x00);
 		}
@@ -140,13 +157,94 @@ public class OtherByteAttributeOnDisk extends Attribute {
 	 *
 	 * @param	file	the new file containing the data
 	 */
-	public void setFile(File file) { this.file = file; }
+	public void setFile(File file) { this.file = file; mappedValues = null; sharedFileChannel = null; }
+
+	/**
+	 * <p>Get the channel used to read the values from the file.</p>
+	 *
+	 * @return	the channel, shared with the other attributes in the same file if read from the same stream or set to be shared
+	 */
+	public SharedFileChannel getSharedFileChannel() {
+		if (sharedFileChannel == null && file != null) {
+			sharedFileChannel = new SharedFileChannel(file);
+		}
+		return sharedFileChannel;
+	}
+
+	/**
+	 * <p>Share a channel on the file containing the data with other attributes.</p>
+	 *
+	 * @param	sharedFileChannel	a channel on the file containing the data
+	 */
+	public void setSharedFileChannel(SharedFileChannel sharedFileChannel) { this.sharedFileChannel = sharedFileChannel; }
+
+	/**
+	 * <p>Map the values of this attribute from the file.</p>
+	 *
+	 * <p>The mapping is cached until the file is changed or the values removed.</p>
+	 *
+	 * @return	a read-only view of the values in the file, with the byte order of the file
+	 * @exception	DicomException	if the values cannot be mapped
+	 */
+	private ByteBuffer getMappedValues() throws DicomException {
+		if (mappedValues == null && file != null && valueLength > 0) {
+			if (valueLength > Integer.MAX_VALUE) {
+				throw new DicomException("Cannot map "+valueLength+" bytes of "+ValueRepresentation.getAsString(getVR())+" attribute "+getTag()+" as a single buffer");
+			}
+			try {
+				RandomAccessFile raf = new RandomAccessFile(file,"r");
+				try {
+					mappedValues = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,byteOffset,valueLength).asReadOnlyBuffer();	// mapping remains valid after the channel is closed
+				}
+				finally {
+					raf.close();
+				}
+			}
+			catch (IOException e) {
+				throw (DicomException)(new DicomException("Failed to map value (length "+valueLength+" dec) in "+ValueRepresentation.getAsString(getVR())+" attribute "+getTag()+" from "+file+": "+e).initCause(e));
+			}
+		}
+		return mappedValues;
+	}
+
+	/**
+	 * <p>Get the values of this attribute as a read-only buffer.</p>
+	 *
+	 * <p>The values are a view into the file, which is memory mapped on demand, and no copy is made.</p>
+	 *
+	 * @return	the values, or null if none
+	 * @exception	DicomException	if the values cannot be mapped
+	 */
+	public ByteBuffer getByteBufferValues() throws DicomException {
+		ByteBuffer b = getMappedValues();
+		return b == null ? null : b.duplicate();
+	}
+
+	/**
+	 * <p>Get the values of this attribute as a byte array.</p>
+	 *
+	 * <p>The values are copied from the file each time.</p>
+	 *
+	 * @return	the values, or null if none
+	 * @exception	DicomException	if the values cannot be mapped
+	 */
+	public byte[] getByteValues() throws DicomException {
+		ByteBuffer b = getMappedValues();
+		byte[] v = null;
+		if (b != null) {
+			v = new byte[b.limit()];
+			b.duplicate().get(v);
+		}
+		return v;
+	}
 
 	/**
 	 * @exception	DicomException
 	 */
 	public void removeValues() {
 		file=null;
+		mappedValues=null;
+		sharedFileChannel=null;
 		byteOffset=0;
 		valueMultiplicity=0;
 		valueLength=0;
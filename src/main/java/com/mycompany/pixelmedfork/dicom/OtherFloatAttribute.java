@@ -4,6 +4,12 @@ package com.pixelmed.dicom;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.pixelmed.utils.CopyStream;
+
 /**
  * <p>A concrete class specializing {@link com.pixelmed.dicom.Attribute Attribute} for
  * Other Float (OF) attributes.</p>
@@ -23,6 +29,8 @@ public class OtherFloatAttribute extends Attribute {
 
 	private float[] values;
 
+	private ByteBuffer mappedValues;		// a read-only view into a memory mapped file, if read from a MappedDicomInputStream, until values are requested as an array
+
 	/**
 	 * <p>Construct an (empty) attribute.</p>
 	 *
@@ -68,9 +76,14 @@ public class OtherFloatAttribute extends Attribute {
 	 */
 	private void doCommonConstructorStuff(long vl,DicomInputStream i) throws IOException, DicomException {
 		values=null;
+		mappedValues=null;
 		valueLength=vl;
 
-		if (vl > 0) {
+		if (vl > 0 && i instanceof MappedDicomInputStream) {
+			mappedValues = ((MappedDicomInputStream)i).readByteBuffer(vl);
+			valueMultiplicity=1;
+		}
+		else if (vl > 0) {
 			int len = (int)(vl/4);
 			float buffer[] = new float[len];
 			i.readFloat(buffer,len);
@@ -84,8 +97,14 @@ public class OtherFloatAttribute extends Attribute {
 	 * @exception	DicomException
 	 */
 	public void write(DicomOutputStream o) throws DicomException, IOException {
+		if (mappedValues != null && (mappedValues.order() == ByteOrder.BIG_ENDIAN) != o.isBigEndian()) {
+			getFloatValues();			// byte order differs, so need to convert through the array
+		}
 		writeBase(o);
-		if (values != null && values.length > 0) {
+		if (mappedValues != null && mappedValues.limit() > 0) {
+			CopyStream.copy(mappedValues,o);
+		}
+		else if (values != null && values.length > 0) {
 			o.writeFloat(values,values.length);
 			if (getVL() != values.length*4) {
 				throw new DicomException("Internal error - float array length ("+values.length*2+") not equal to expected VL("+getVL()+")");
@@ -107,6 +126,7 @@ public class OtherFloatAttribute extends Attribute {
 	 */
 	public void setValues(float[] v) throws DicomException {
 		values=v;
+		mappedValues=null;
 		valueMultiplicity=1;		// different from normal value types where VM is size of array
 		valueLength=v.length*4;
 	}
@@ -116,6 +136,7 @@ public class OtherFloatAttribute extends Attribute {
 	 */
 	public void removeValues() {
 		values=null;
+		mappedValues=null;
 		valueMultiplicity=0;
 		valueLength=0;
 	}
@@ -123,7 +144,35 @@ public class OtherFloatAttribute extends Attribute {
 	/**
 	 * @exception	DicomException
 	 */
-	public float[] getFloatValues() throws DicomException { return values; }
+	public float[] getFloatValues() throws DicomException {
+		if (values == null && mappedValues != null) {
+			float[] v = new float[mappedValues.limit()/4];
+			mappedValues.duplicate().order(mappedValues.order()).asFloatBuffer().get(v);
+			values=v;
+			mappedValues=null;		// the array may be modified by the caller, so it now holds the values
+		}
+		return values;
+	}
+
+	/**
+	 * <p>Get the values of this attribute as a read-only buffer.</p>
+	 *
+	 * <p>If the attribute was read from a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream}, and the values have
+	 * not since been requested as an array, this is a view into the memory mapped file (in the byte order of the file), and no copy is made.</p>
+	 *
+	 * @return	the values, or null if none
+	 */
+	public FloatBuffer getFloatBufferValues() {
+		if (mappedValues != null) {
+			return mappedValues.duplicate().order(mappedValues.order()).asFloatBuffer();
+		}
+		else if (values != null) {
+			return FloatBuffer.wrap(values).asReadOnlyBuffer();
+		}
+		else {
+			return null;
+		}
+	}
 
 	/**
 	 * <p>Get the value representation of this attribute (OF).</p>
@@ -4,6 +4,12 @@ package com.pixelmed.dicom;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import com.pixelmed.utils.CopyStream;
+
 /**
  * <p>A concrete class specializing {@link com.pixelmed.dicom.Attribute Attribute} for
  * Other Word (OW) attributes.</p>
@@ -23,6 +29,8 @@ public class OtherWordAttribute extends Attribute {
 
 	private short[] values;
 
+	private ByteBuffer mappedValues;		// a read-only view into a memory mapped file, if read from a MappedDicomInputStream, until values are requested as an array
+
 	/**
 	 * <p>Construct an (empty) attribute.</p>
 	 *
@@ -68,9 +76,14 @@ public class OtherWordAttribute extends Attribute {
 	 */
 	private void doCommonConstructorStuff(long vl,DicomInputStream i) throws IOException, DicomException {
 		values=null;
+		mappedValues=null;
 		valueLength=vl;
 
-		if (vl > 0) {
+		if (vl > 0 && i instanceof MappedDicomInputStream) {
+			mappedValues = ((MappedDicomInputStream)i).readByteBuffer(vl);
+			valueMultiplicity=1;
+		}
+		else if (vl > 0) {
 			int len = (int)(vl/2);
 			short buffer[] = new short[len];
 			i.readUnsigned16(buffer,len);
@@ -91,6 +104,14 @@ public class OtherWordAttribute extends Attribute {
 				throw new DicomException("Internal error - short array length ("+values.length*2+") not equal to expected VL("+getVL()+")");
 			}
 		}
+		else if (mappedValues != null && mappedValues.limit() > 0) {
+			if ((mappedValues.order() == ByteOrder.BIG_ENDIAN) == o.isBigEndian()) {
+				CopyStream.copy(mappedValues,o);
+			}
+			else {
+				CopyStream.copyByteSwapped(mappedValues,o);
+			}
+		}
 	}
 	
 	/***/
@@ -107,6 +128,7 @@ public class OtherWordAttribute extends Attribute {
 	 */
 	public void setValues(short[] v) throws DicomException {
 		values=v;
+		mappedValues=null;
 		valueMultiplicity=1;		// different from normal value types where VM is size of array
 		valueLength=v.length*2;
 	}
@@ -116,6 +138,7 @@ public class OtherWordAttribute extends Attribute {
 	 */
 	public void removeValues() {
 		values=null;
+		mappedValues=null;
 		valueMultiplicity=0;
 		valueLength=0;
 	}
@@ -123,7 +146,35 @@ public class OtherWordAttribute extends Attribute {
 	/**
 	 * @exception	DicomException
 	 */
-	public short[] getShortValues() throws DicomException { return values; }
+	public short[] getShortValues() throws DicomException {
+		if (values == null && mappedValues != null) {
+			short[] v = new short[mappedValues.limit()/2];
+			mappedValues.duplicate().order(mappedValues.order()).asShortBuffer().get(v);
+			values=v;
+			mappedValues=null;		// the array may be modified by the caller, so it now holds the values
+		}
+		return values;
+	}
+
+	/**
+	 * <p>Get the values of this attribute as a read-only buffer.</p>
+	 *
+	 * <p>If the attribute was read from a {@link com.pixelmed.dicom.MappedDicomInputStream MappedDicomInputStream}, and the values have
+	 * not since been requested as an array, this is a view into the memory mapped file (in the byte order of the file), and no copy is made.</p>
+	 *
+	 * @return	the values, or null if none
+	 */
+	public ShortBuffer getShortBufferValues() {
+		if (mappedValues != null) {
+			return mappedValues.duplicate().order(mappedValues.order()).asShortBuffer();
+		}
+		else if (values != null) {
+			return ShortBuffer.wrap(values).asReadOnlyBuffer();
+		}
+		else {
+			return null;
+		}
+	}
 
 	/**
 	 * <p>Get the value representation of this attribute (OW).</p>
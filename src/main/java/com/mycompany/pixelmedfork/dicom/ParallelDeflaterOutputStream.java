@@ -0,0 +1,275 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import java.util.zip.Deflater;
+
+/**
+ * <p>A class that compresses what is written to it as a single raw deflate bitstream (without a zlib wrapper), as
+ * is required for the Deflated Explicit VR Little Endian Transfer Syntax, but does so in independent blocks compressed
+ * concurrently by more than one thread.</p>
+ *
+ * <p>Each block is compressed with the last 32 KB of the preceding block as a preset dictionary, so little compression is lost
+ * by splitting the input, and all but the last block are ended with a sync flush, which aligns the compressed block to a byte
+ * boundary without marking it as the last, so that the compressed blocks can simply be concatenated in order. Only the last block
+ * is finished. The result may be decompressed by any {@link java.util.zip.Inflater Inflater} created with nowrap true, but is not
+ * identical to what a single {@link java.util.zip.DeflaterOutputStream DeflaterOutputStream} would produce.</p>
+ *
+ * <p>No more than the specified number of blocks are compressed at the same time, and the compressed blocks are written to the
+ * underlying stream in order as each is done, so memory use is bounded regardless of the amount written. If everything written
+ * fits in one block, it is compressed by the calling thread.</p>
+ *
+ * <p>As with {@link java.util.zip.DeflaterOutputStream DeflaterOutputStream}, {@link #finish() finish()} completes the bitstream
+ * without closing the underlying stream, whereas {@link #close() close()} does both.</p>
+ *
+ * @see com.pixelmed.dicom.DataSetCodecRegistry
+ */
+public class ParallelDeflaterOutputStream extends FilterOutputStream {
+
+	/***/
+	public static final int defaultBlockSize = 131072;
+	/***/
+	private static final int dictionarySize = 32768;		// the deflate window
+
+	/***/
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r,"ParallelDeflaterOutputStream");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/***/
+	private static final ThreadLocal<Deflater> threadDeflaters = new ThreadLocal<Deflater>() {
+		protected Deflater initialValue() { return new Deflater(Deflater.DEFAULT_COMPRESSION,true/*nowrap*/); }
+	};
+
+	/***/
+	private int level;
+	/***/
+	private int parallelism;
+	/***/
+	private int blockSize;
+	/***/
+	private byte[] block;
+	/***/
+	private int count;				// number of bytes in block
+	/***/
+	private byte[] dictionary;		// end of the previous block, or null if none
+	/***/
+	private ArrayDeque<Future<byte[]>> pending;	// blocks submitted but not yet written, in order
+	/***/
+	private boolean finished;
+	/***/
+	private byte[] singleByte = new byte[1];
+
+	/**
+	 * <p>Construct a compressing stream with the default block size.</p>
+	 *
+	 * @param	out		the stream to write the compressed bitstream to
+	 * @param	level		the compression level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION Deflater.DEFAULT_COMPRESSION}
+	 * @param	parallelism	the maximum number of blocks to compress at the same time
+	 */
+	public ParallelDeflaterOutputStream(OutputStream out,int level,int parallelism) {
+		this(out,level,parallelism,defaultBlockSize);
+	}
+
+	/**
+	 * <p>Construct a compressing stream.</p>
+	 *
+	 * @param	out		the stream to write the compressed bitstream to
+	 * @param	level		the compression level, 0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION Deflater.DEFAULT_COMPRESSION}
+	 * @param	parallelism	the maximum number of blocks to compress at the same time
+	 * @param	blockSize	the number of uncompressed bytes in each block
+	 */
+	public ParallelDeflaterOutputStream(OutputStream out,int level,int parallelism,int blockSize) {
+		super(out);
+		this.level = level;
+		this.parallelism = parallelism < 1 ? 1 : parallelism;
+		this.blockSize = blockSize < dictionarySize ? dictionarySize : blockSize;
+		block = new byte[this.blockSize];
+		pending = new ArrayDeque<Future<byte[]>>();
+	}
+
+	/**
+	 * <p>Compress a block.</p>
+	 *
+	 * @param	data		the uncompressed bytes
+	 * @param	length		the number of uncompressed bytes
+	 * @param	dictionary	the preset dictionary, or null if none
+	 * @param	level		the compression level
+	 * @param	last		whether to finish the bitstream, rather than sync flush
+	 * @return			the compressed bytes
+	 */
+	private static byte[] compressBlock(byte[] data,int length,byte[] dictionary,int level,boolean last) {
+		Deflater deflater = threadDeflaters.get();
+		deflater.reset();
+		deflater.setLevel(level);
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		deflater.setInput(data,0,length);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(length/2+64);
+		byte[] buffer = new byte[Math.max(length/2,8192)];
+		if (last) {
+			deflater.finish();
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				compressed.write(buffer,0,n);
+			}
+		}
+		else {
+			int n;
+			do {
+				n = deflater.deflate(buffer,0,buffer.length,Deflater.SYNC_FLUSH);
+				compressed.write(buffer,0,n);
+			} while (n == buffer.length || !deflater.needsInput());		// a full buffer or unconsumed input means there may be more to flush
+		}
+//System.err.println("ParallelDeflaterOutputStream.compressBlock(): "+length+" bytes compressed to "+compressed.size()+(last ? " (last)" : ""));
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * @exception	IOException	if the oldest block could not be compressed
+	 */
+	private void writeOldestBlock() throws IOException {
+		Future<byte[]> future = pending.removeFirst();
+		try {
+			out.write(future.get());
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Failed to compress block - "+e.getCause());
+		}
+		catch (InterruptedException e) {
+			throw new IOException("Interrupted whilst compressing block");
+		}
+	}
+
+	/**
+	 * <p>Compress the current block, concurrently unless it is the only block.</p>
+	 *
+	 * @param	last	whether this is the last block
+	 * @exception	IOException
+	 */
+	private void submitBlock(boolean last) throws IOException {
+		final byte[] data = block;
+		final int length = count;
+		final byte[] blockDictionary = dictionary;
+		final boolean blockIsLast = last;
+		if (last && pending.isEmpty() && dictionary == null) {
+			out.write(compressBlock(data,length,null,level,true));		// everything fits in one block, so no need for another thread
+		}
+		else {
+			while (pending.size() >= parallelism) {
+				writeOldestBlock();
+			}
+			pending.addLast(executor.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					return compressBlock(data,length,blockDictionary,level,blockIsLast);
+				}
+			}));
+		}
+		if (!last) {
+			dictionary = new byte[Math.min(dictionarySize,length)];
+			System.arraycopy(data,length-dictionary.length,dictionary,0,dictionary.length);
+			block = new byte[blockSize];		// the old one belongs to the task now
+			count = 0;
+		}
+	}
+
+	/**
+	 * @param	b
+	 * @exception	IOException
+	 */
+	public void write(int b) throws IOException {
+		singleByte[0] = (byte)b;
+		write(singleByte,0,1);
+	}
+
+	/**
+	 * @param	b
+	 * @param	off
+	 * @param	len
+	 * @exception	IOException
+	 */
+	public void write(byte[] b,int off,int len) throws IOException {
+		if (finished) {
+			throw new IOException("Write after finish");
+		}
+		while (len > 0) {
+			if (count == blockSize) {
+				submitBlock(false);		// only once more has been written, so that the last block is never empty unless everything is
+			}
+			int n = Math.min(len,blockSize-count);
+			System.arraycopy(b,off,block,count,n);
+			count+=n;
+			off+=n;
+			len-=n;
+		}
+	}
+
+	/**
+	 * <p>Flush those blocks already compressed to the underlying stream.</p>
+	 *
+	 * <p>Does not force the current block to be compressed, so not everything written so far is necessarily flushed.</p>
+	 *
+	 * @exception	IOException
+	 */
+	public void flush() throws IOException {
+		while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+			writeOldestBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * <p>Finish compressing and write everything to the underlying stream, without closing it.</p>
+	 *
+	 * @exception	IOException
+	 */
+	public void finish() throws IOException {
+		if (!finished) {
+			try {
+				submitBlock(true);
+				while (!pending.isEmpty()) {
+					writeOldestBlock();
+				}
+			}
+			finally {
+				finished = true;
+				for (Future<byte[]> future : pending) {
+					future.cancel(true);
+				}
+				pending.clear();
+				block = null;
+				dictionary = null;
+			}
+		}
+	}
+
+	/**
+	 * <p>Finish compressing and close the underlying stream.</p>
+	 *
+	 * @exception	IOException
+	 */
+	public void close() throws IOException {
+		try {
+			finish();
+		}
+		finally {
+			out.close();
+		}
+	}
+}
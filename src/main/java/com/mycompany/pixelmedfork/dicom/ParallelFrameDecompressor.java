@@ -0,0 +1,276 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * <p>A class to decompress the frames of compressed multi-frame Pixel Data concurrently.</p>
+ *
+ * <p>The compressed bytes of each frame are read from an {@link com.pixelmed.dicom.EncapsulatedPixelDataFrameIndex EncapsulatedPixelDataFrameIndex}
+ * only when a thread is ready to decompress it, so no more than one compressed frame per thread is held in memory at a time.</p>
+ *
+ * <p>Each frame is decompressed with an ImageIO reader, obtained from the {@link com.pixelmed.dicom.TransferSyntaxCodecRegistry TransferSyntaxCodecRegistry} and taken from a pool, so that no reader is used by more than one thread at a time,
+ * and its pixels are copied into its own region of a single array allocated for all the frames, so the result is the same
+ * regardless of the order in which the frames are finished. If more than one frame fails, the failure of the lowest numbered frame is reported.</p>
+ *
+ * <p>The first frame is decompressed before any others are started, to find out whether the pixels are bytes or shorts.</p>
+ *
+ * <p>The threads come from the supplied executor, or else from a pool shared by all decompressors, which is created when first needed; no more than
+ * the specified parallelism of them are used by one decompressor at a time.</p>
+ *
+ * @see com.pixelmed.dicom.AttributeList#setDecompressionParallelism(int)
+ */
+public class ParallelFrameDecompressor {
+
+	/***/
+	private static ExecutorService sharedExecutor;
+
+	/**
+	 * @return	the pool shared by all decompressors, created if necessary, the idle threads of which are reused
+	 */
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r,"ParallelFrameDecompressor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+	/***/
+	private String transferSyntaxUID;
+	/***/
+	private int parallelism;
+	/***/
+	private ExecutorService executor;
+	/***/
+	private ConcurrentLinkedQueue<ImageReader> readers;	// readers not currently in use
+	/***/
+	private ArrayList<ImageReader> allReaders;		// so that they can all be disposed of
+
+	/**
+	 * <p>Construct a decompressor that uses threads from the shared pool.</p>
+	 *
+	 * @param	transferSyntaxUID	the Transfer Syntax of the compressed frames
+	 * @param	parallelism		the maximum number of frames to decompress at the same time
+	 */
+	public ParallelFrameDecompressor(String transferSyntaxUID,int parallelism) {
+		this(transferSyntaxUID,parallelism,null);
+	}
+
+	/**
+	 * <p>Construct a decompressor that uses threads from the supplied executor.</p>
+	 *
+	 * <p>The executor is not shut down by the decompressor.</p>
+	 *
+	 * @param	transferSyntaxUID	the Transfer Syntax of the compressed frames
+	 * @param	parallelism		the maximum number of frames to decompress at the same time
+	 * @param	executor		the executor to decompress the frames with, or null to use the shared pool
+	 */
+	public ParallelFrameDecompressor(String transferSyntaxUID,int parallelism,ExecutorService executor) {
+		this.transferSyntaxUID = transferSyntaxUID;
+		this.parallelism = parallelism < 1 ? 1 : parallelism;
+		this.executor = executor;
+		readers = new ConcurrentLinkedQueue<ImageReader>();
+		allReaders = new ArrayList<ImageReader>();
+	}
+
+	/**
+	 * @return	a reader from the pool, or a new one if none are available
+	 * @exception	DicomException	if no reader is available for the Transfer Syntax
+	 */
+	private ImageReader getReader() throws DicomException {
+		ImageReader reader = readers.poll();
+		if (reader == null) {
+			reader = TransferSyntaxCodecRegistry.createReader(transferSyntaxUID);		// not the per thread reader, which the pooled threads would otherwise keep after the decompression
+			synchronized (allReaders) {
+				allReaders.add(reader);
+			}
+		}
+		return reader;
+	}
+
+	/**
+	 * @param	reader	the reader to return to the pool
+	 */
+	private void returnReader(ImageReader reader) {
+		readers.offer(reader);
+	}
+
+	/**
+	 * <p>Decompress a frame.</p>
+	 *
+	 * @param	index	the index of the frames
+	 * @param	f	the frame number, from 0
+	 * @return		the decompressed raster
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	private Raster decompressFrame(EncapsulatedPixelDataFrameIndex index,int f) throws IOException, DicomException {
+		byte[] frame = index.getCompressedFrame(f);		// positioned reads, so safe to do concurrently
+		ImageReader reader = getReader();
+		try {
+			ImageInputStream iiois = ImageIO.createImageInputStream(new ByteArrayInputStream(frame));
+			try {
+				reader.setInput(iiois,true/*seekForwardOnly*/,true/*ignoreMetadata*/);
+				BufferedImage image = reader.read(0);
+				if (image == null) {
+					throw new DicomException("Reader returned null image for Transfer Syntax "+transferSyntaxUID);
+				}
+				return image.getRaster();
+			}
+			finally {
+				reader.setInput(null);
+				iiois.close();
+			}
+		}
+		finally {
+			returnReader(reader);
+		}
+	}
+
+	/**
+	 * <p>Copy the pixels of a decompressed frame into its region of the array for all frames.</p>
+	 *
+	 * @param	raster
+	 * @param	f		the frame number, from 0
+	 * @param	pixelData	the byte[] or short[] for all frames
+	 * @param	columns
+	 * @param	rows
+	 * @param	samplesPerPixel
+	 * @exception	DicomException	if the frame does not match the others
+	 */
+	private static void copyFrame(Raster raster,int f,Object pixelData,int columns,int rows,int samplesPerPixel) throws DicomException {
+		if (raster.getNumDataElements() != samplesPerPixel) {
+			throw new DicomException("Frame "+f+" decompressed to "+raster.getNumDataElements()+" samples per pixel, expected "+samplesPerPixel);
+		}
+		int pixelsPerFrame = columns*rows*samplesPerPixel;
+		Object vPixelData = raster.getDataElements(0,0,columns,rows,null);
+		if (vPixelData == null || vPixelData.getClass() != pixelData.getClass()) {
+			throw new DicomException("Frame "+f+" decompressed to a different type of pixel data than the first frame");
+		}
+		System.arraycopy(vPixelData,0,pixelData,pixelsPerFrame*f,pixelsPerFrame);
+	}
+
+	/**
+	 * <p>Decompress all the frames.</p>
+	 *
+	 * @param	index			the index of the frames, from which the compressed bytes of each frame are read when needed
+	 * @param	columns
+	 * @param	rows
+	 * @param	samplesPerPixel
+	 * @return				a byte[] or short[] of the pixels of all frames, with the samples of each pixel interleaved
+	 * @exception	DicomException	if any frame cannot be decompressed
+	 */
+	public Object decompress(final EncapsulatedPixelDataFrameIndex index,final int columns,final int rows,final int samplesPerPixel) throws DicomException {
+		final int numberOfFrames = index.getNumberOfFrames();
+		final Object pixelData;
+		try {
+			Raster firstRaster = decompressFrame(index,0);
+			int transferType = firstRaster.getTransferType();
+			int pixelsPerMultiFrameImage = columns*rows*samplesPerPixel*numberOfFrames;
+			if (transferType == DataBuffer.TYPE_BYTE) {
+				pixelData = new byte[pixelsPerMultiFrameImage];
+			}
+			else if (transferType == DataBuffer.TYPE_SHORT || transferType == DataBuffer.TYPE_USHORT) {
+				pixelData = new short[pixelsPerMultiFrameImage];
+			}
+			else {
+				throw new DicomException("Unsupported transfer type "+transferType+" of decompressed frame");
+			}
+			copyFrame(firstRaster,0,pixelData,columns,rows,samplesPerPixel);
+		}
+		catch (IOException e) {
+			throw new DicomException("Failed to decompress frame 0: "+e);
+		}
+		if (numberOfFrames > 1) {
+			final AtomicInteger nextFrame = new AtomicInteger(1);
+			final DicomException[] failures = new DicomException[numberOfFrames];
+			int numberOfTasks = Math.min(parallelism,numberOfFrames-1);
+			ExecutorService useExecutor = executor == null ? getSharedExecutor() : executor;
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(numberOfTasks);
+			try {
+				for (int t=0; t<numberOfTasks; ++t) {
+					futures.add(useExecutor.submit(new Callable<Void>() {
+						public Void call() {
+							int f;
+							while ((f = nextFrame.getAndIncrement()) < numberOfFrames) {
+								try {
+									copyFrame(decompressFrame(index,f),f,pixelData,columns,rows,samplesPerPixel);
+								}
+								catch (DicomException e) {
+									failures[f] = e;
+								}
+								catch (Exception e) {
+									failures[f] = new DicomException("Failed to decompress frame "+f+": "+e);
+								}
+								if (failures[f] != null) {
+									nextFrame.set(numberOfFrames);	// no more frames are started; those lower than this one have already been, so the lowest failure is always the same
+								}
+							}
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> future : futures) {
+					future.get();
+				}
+			}
+			catch (ExecutionException e) {
+				throw new DicomException("Failed to decompress frames: "+e.getCause());
+			}
+			catch (InterruptedException e) {
+				throw new DicomException("Interrupted whilst decompressing frames");
+			}
+			finally {
+				nextFrame.set(numberOfFrames);		// stops the tasks after an interruption
+			}
+			for (int f=1; f<numberOfFrames; ++f) {
+				if (failures[f] != null) {
+					throw failures[f];
+				}
+			}
+		}
+		return pixelData;
+	}
+
+	/**
+	 * <p>Release all the readers that have been used.</p>
+	 */
+	public void dispose() {
+		synchronized (allReaders) {
+			for (ImageReader reader : allReaders) {
+				try {
+					reader.dispose();
+				}
+				catch (Exception e) {
+					e.printStackTrace(System.err);
+				}
+			}
+			allReaders.clear();
+		}
+		readers.clear();
+	}
+}
@@ -0,0 +1,559 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.lang.management.ManagementFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>The {@link com.pixelmed.dicom.PrecompiledDicomDictionary PrecompiledDicomDictionary} class
+ * is a complete standard dictionary of DICOM attributes that is loaded from a compact binary
+ * resource generated at build time from {@link com.pixelmed.dicom.DicomDictionary DicomDictionary},
+ * rather than by executing the many thousands of individual map insertions that the generated
+ * source of that class performs.</p>
+ *
+ * <p>The tags, value representations and information entities are held in primitive arrays
+ * indexed by a binary search on the packed tag value, so looking up a value representation
+ * during reading neither boxes nor allocates. The names and full names are kept as encoded bytes
+ * and only converted to {@link java.lang.String String}s when first asked for, and the map from
+ * name to tag is only built the first time {@link #getTagFromName(String) getTagFromName()} is used.</p>
+ *
+ * <p>The accessor methods behave identically to those of {@link com.pixelmed.dicom.DicomDictionaryBase DicomDictionaryBase}.</p>
+ *
+ * <p>The resource, "DicomDictionary.dat" in this package, is created by running the {@link #main(String[]) main()} method
+ * with the "-generate" argument, which the Maven build does in the process-classes phase. If it is not present on the class path,
+ * {@link #getDefaultDictionary() getDefaultDictionary()} falls back to {@link com.pixelmed.dicom.DicomDictionary DicomDictionary},
+ * and says so once on stderr.</p>
+ */
+public class PrecompiledDicomDictionary extends DicomDictionary {
+
+	/***/
+	public static final String resourceName = "DicomDictionary.dat";
+
+	private static final int magicNumber = 0x50584444;	// "PXDD"
+	private static final int formatVersion = 1;
+
+	private static final Charset charset = Charset.forName("UTF-8");
+
+	private static final byte[][] knownValueRepresentations = {
+		ValueRepresentation.AE, ValueRepresentation.AS, ValueRepresentation.AT, ValueRepresentation.CS,
+		ValueRepresentation.DA, ValueRepresentation.DS, ValueRepresentation.DT, ValueRepresentation.FL,
+		ValueRepresentation.FD, ValueRepresentation.IS, ValueRepresentation.LO, ValueRepresentation.LT,
+		ValueRepresentation.OB, ValueRepresentation.OF, ValueRepresentation.OW, ValueRepresentation.OX,
+		ValueRepresentation.PN, ValueRepresentation.SH, ValueRepresentation.SL, ValueRepresentation.SQ,
+		ValueRepresentation.SS, ValueRepresentation.ST, ValueRepresentation.TM, ValueRepresentation.UI,
+		ValueRepresentation.UL, ValueRepresentation.UN, ValueRepresentation.US, ValueRepresentation.UT,
+		ValueRepresentation.XS, ValueRepresentation.XO
+	};
+
+	private static final InformationEntity[] knownInformationEntities = {
+		InformationEntity.PATIENT, InformationEntity.STUDY, InformationEntity.PROCEDURESTEP, InformationEntity.SERIES,
+		InformationEntity.CONCATENATION, InformationEntity.INSTANCE, InformationEntity.FRAME
+	};
+
+	// NB. these fields are set by createTagList(), which is called from the super class constructor, hence must NOT have initializers,
+	// which would be executed afterwards and overwrite what was loaded
+
+	private int[] tags;						// packed, in ascending unsigned order
+	private byte[][] valueRepresentationTable;
+	private byte[] valueRepresentationIndex;	// index into valueRepresentationTable plus one, or zero if none
+	private byte[] informationEntityValue;		// InformationEntity.getValue(), or zero if none
+	private byte[] nameBytes;
+	private int[] nameEnd;
+	private byte[] fullNameBytes;
+	private int[] fullNameEnd;
+
+	private String[] names;				// lazily materialized
+	private String[] fullNames;			// lazily materialized
+	private volatile HashMap<String,AttributeTag> tagsByName;	// lazily materialized
+	private volatile List<AttributeTag> tagsInOrder;			// lazily materialized
+
+	private static boolean usePrecompiled = true;
+
+	/**
+	 * <p>Select whether or not {@link #getDefaultDictionary() getDefaultDictionary()} should return a precompiled dictionary when one is available.</p>
+	 *
+	 * <p>The default is to do so.</p>
+	 *
+	 * @param	use	false to always use {@link com.pixelmed.dicom.DicomDictionary DicomDictionary}
+	 */
+	public static void setUsePrecompiled(boolean use) {
+		usePrecompiled = use;
+	}
+
+	/**
+	 * <p>Is the precompiled resource available ?</p>
+	 *
+	 * @return	true if the resource is on the class path
+	 */
+	public static boolean isAvailable() {
+		return PrecompiledDicomDictionary.class.getResource(resourceName) != null;
+	}
+
+	/**
+	 * <p>Get a new instance of the fastest dictionary available.</p>
+	 *
+	 * @return	a {@link com.pixelmed.dicom.PrecompiledDicomDictionary PrecompiledDicomDictionary} if the resource is available, otherwise a {@link com.pixelmed.dicom.DicomDictionary DicomDictionary}
+	 */
+	public static DicomDictionary getDefaultDictionary() {
+		if (usePrecompiled) {
+			if (isAvailable()) {
+				try {
+					return new PrecompiledDicomDictionary();
+				}
+				catch (IllegalStateException e) {
+					logFallback(e.toString());
+				}
+			}
+			else {
+				logFallback("resource "+resourceName+" is not on the class path");
+			}
+		}
+		return new DicomDictionary();
+	}
+
+	/***/
+	private static volatile boolean loggedFallback;
+
+	/**
+	 * <p>Report, only the first time, that the slower {@link com.pixelmed.dicom.DicomDictionary DicomDictionary} is being used instead.</p>
+	 *
+	 * @param	reason
+	 */
+	private static void logFallback(String reason) {
+		if (!loggedFallback) {
+			loggedFallback = true;
+System.err.println("PrecompiledDicomDictionary.getDefaultDictionary(): falling back to DicomDictionary since "+reason);
+		}
+	}
+
+	/**
+	 * <p>Load the dictionary from the precompiled resource.</p>
+	 *
+	 * @exception	IllegalStateException	if the resource is missing or not in the expected format
+	 */
+	public PrecompiledDicomDictionary() {
+		super();
+	}
+
+	/**
+	 * <p>Load all the tables from the precompiled resource.</p>
+	 *
+	 * <p>Called from the super class constructor.</p>
+	 */
+	protected void createTagList() {
+		try {
+			InputStream in = PrecompiledDicomDictionary.class.getResourceAsStream(resourceName);
+			if (in == null) {
+				throw new IllegalStateException("Resource "+resourceName+" not found");
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream(256*1024);
+			try {
+				byte[] buffer = new byte[65536];
+				int count;
+				while ((count = in.read(buffer)) > 0) {
+					out.write(buffer,0,count);
+				}
+			}
+			finally {
+				in.close();
+			}
+			load(ByteBuffer.wrap(out.toByteArray()));
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot read resource "+resourceName+" - "+e);
+		}
+	}
+
+	/**
+	 * @param	buffer
+	 */
+	private void load(ByteBuffer buffer) {
+		if (buffer.getInt() != magicNumber || buffer.getInt() != formatVersion) {
+			throw new IllegalStateException("Resource "+resourceName+" is not a precompiled dictionary of the expected version");
+		}
+		int n = buffer.getInt();
+		tags = new int[n];
+		buffer.asIntBuffer().get(tags);
+		buffer.position(buffer.position()+n*4);
+
+		int vrCount = buffer.get() & 0xff;
+		valueRepresentationTable = new byte[vrCount][];
+		for (int v=0; v<vrCount; ++v) {
+			byte[] vr = new byte[2];
+			buffer.get(vr);
+			valueRepresentationTable[v] = canonicalValueRepresentation(vr);
+		}
+		valueRepresentationIndex = new byte[n];
+		buffer.get(valueRepresentationIndex);
+		informationEntityValue = new byte[n];
+		buffer.get(informationEntityValue);
+
+		nameBytes = new byte[buffer.getInt()];
+		buffer.get(nameBytes);
+		nameEnd = new int[n];
+		buffer.asIntBuffer().get(nameEnd);
+		buffer.position(buffer.position()+n*4);
+
+		fullNameBytes = new byte[buffer.getInt()];
+		buffer.get(fullNameBytes);
+		fullNameEnd = new int[n];
+		buffer.asIntBuffer().get(fullNameEnd);
+		buffer.position(buffer.position()+n*4);
+
+		names = new String[n];
+		fullNames = new String[n];
+	}
+
+	/**
+	 * <p>Use the same byte arrays for the value representations as the rest of the toolkit.</p>
+	 *
+	 * @param	vr
+	 * @return		the matching constant from {@link com.pixelmed.dicom.ValueRepresentation ValueRepresentation}, or vr if none
+	 */
+	private static byte[] canonicalValueRepresentation(byte[] vr) {
+		for (byte[] known : knownValueRepresentations) {
+			if (known[0] == vr[0] && known[1] == vr[1]) {
+				return known;
+			}
+		}
+		return vr;
+	}
+
+	// the tables are all loaded by createTagList(), so there is nothing else to do ...
+
+	protected void createValueRepresentationsByTag() {}
+	protected void createInformationEntityByTag() {}
+	protected void createTagByName() {}
+	protected void createNameByTag() {}
+	protected void createFullNameByTag() {}
+
+	/**
+	 * @param	key	the packed tag
+	 * @return		the index if found, else -1
+	 */
+	private int indexOf(int key) {
+		int low = 0;
+		int high = tags.length-1;
+		while (low <= high) {
+			int mid = (low+high) >>> 1;
+			int c = Integer.compareUnsigned(tags[mid],key);
+			if (c < 0) {
+				low = mid+1;
+			}
+			else if (c > 0) {
+				high = mid-1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param	tag
+	 * @return		the index if found, else -1
+	 */
+	private int indexOf(AttributeTag tag) {
+		return indexOf(tag.getPacked());
+	}
+
+	/**
+	 * @param	tag
+	 * @return		the index of the tag, or of its repeating group base if it is not found and is in a repeating group, else -1
+	 */
+	private int indexOfAllowingRepeatingGroup(AttributeTag tag) {
+		int index = indexOf(tag);
+		if (index < 0 && tag.isRepeatingGroup()) {
+			index = indexOf(AttributeTag.toPacked(tag.getGroup()&0xff00,tag.getElement()));
+		}
+		return index;
+	}
+
+	/**
+	 * @param	index
+	 * @return		the name
+	 */
+	private String getName(int index) {
+		String name = names[index];
+		if (name == null) {
+			int start = index == 0 ? 0 : nameEnd[index-1];
+			int length = nameEnd[index] - start;
+			if (length > 0) {
+				name = new String(nameBytes,start,length,charset);
+				names[index] = name;
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * @param	index
+	 * @return		the full name
+	 */
+	private String getFullName(int index) {
+		String fullName = fullNames[index];
+		if (fullName == null) {
+			int start = index == 0 ? 0 : fullNameEnd[index-1];
+			int length = fullNameEnd[index] - start;
+			if (length > 0) {
+				fullName = new String(fullNameBytes,start,length,charset);
+				fullNames[index] = fullName;
+			}
+		}
+		return fullName;
+	}
+
+	public byte[] getValueRepresentationFromTag(AttributeTag tag) {
+		int index = indexOfAllowingRepeatingGroup(tag);
+		if (index >= 0) {
+			int v = valueRepresentationIndex[index] & 0xff;
+			if (v > 0) {
+				return valueRepresentationTable[v-1];
+			}
+		}
+		return null;
+	}
+
+	public InformationEntity getInformationEntityFromTag(AttributeTag tag) {
+		int index = indexOf(tag);
+		if (index >= 0) {
+			int value = informationEntityValue[index];
+			if (value != 0) {
+				for (InformationEntity ie : knownInformationEntities) {
+					if (ie.getValue() == value) {
+						return ie;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	public AttributeTag getTagFromName(String name) {
+		HashMap<String,AttributeTag> map = tagsByName;
+		if (map == null) {
+			map = new HashMap<String,AttributeTag>(tags.length*2);
+			for (int i=0; i<tags.length; ++i) {
+				String n = getName(i);
+				if (n != null) {
+					map.put(n,AttributeTag.valueOf(tags[i]));
+				}
+			}
+			tagsByName = map;
+		}
+		return map.get(name);
+	}
+
+	public String getNameFromTag(AttributeTag tag) {
+		int index = indexOf(tag);
+		return index >= 0 ? getName(index) : null;
+	}
+
+	public String getFullNameFromTag(AttributeTag tag) {
+		int index = indexOf(tag);
+		String fullName = index >= 0 ? getFullName(index) : null;
+		if (fullName == null || fullName.length() == 0) {
+			if (tag.isGroupLength()) {		// i.e., unless overridden by an actual dictionary entry
+				fullName="Group Length";
+			}
+			else if (tag.isRepeatingGroup()) {
+				index = indexOf(AttributeTag.toPacked(tag.getGroup()&0xff00,tag.getElement()));
+				fullName = index >= 0 ? getFullName(index) : null;
+			}
+		}
+		return fullName;
+	}
+
+	public Iterator<AttributeTag> getTagIterator() {
+		List<AttributeTag> list = tagsInOrder;
+		if (list == null) {
+			ArrayList<AttributeTag> newList = new ArrayList<AttributeTag>(tags.length);
+			for (int key : tags) {
+				newList.add(AttributeTag.valueOf(key));
+			}
+			list = Collections.unmodifiableList(newList);
+			tagsInOrder = list;
+		}
+		return list.iterator();
+	}
+
+	/**
+	 * <p>Write the precompiled form of a dictionary.</p>
+	 *
+	 * @param	dictionary	the dictionary to precompile
+	 * @param	file		the file to write the resource to
+	 * @exception	IOException
+	 */
+	public static void generate(DicomDictionaryBase dictionary,File file) throws IOException {
+		ArrayList<AttributeTag> tagList = new ArrayList<AttributeTag>();
+		Iterator<?> it = dictionary.getTagIterator();
+		while (it.hasNext()) {
+			tagList.add((AttributeTag)(it.next()));
+		}
+		int n = tagList.size();
+		int[] packed = new int[n];
+		for (int i=0; i<n; ++i) {
+			packed[i] = tagList.get(i).getPacked();
+		}
+		// tagList is already in ascending order, but make sure the unsigned order used for searching is honored
+		Integer[] order = new Integer[n];
+		for (int i=0; i<n; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order,(a,b) -> Integer.compareUnsigned(packed[a],packed[b]));
+
+		ArrayList<byte[]> vrs = new ArrayList<byte[]>();
+		byte[] vrIndex = new byte[n];
+		byte[] ieValue = new byte[n];
+		ByteArrayOutputStream nameBlob = new ByteArrayOutputStream();
+		int[] nameEnds = new int[n];
+		ByteArrayOutputStream fullNameBlob = new ByteArrayOutputStream();
+		int[] fullNameEnds = new int[n];
+		for (int i=0; i<n; ++i) {
+			AttributeTag tag = tagList.get(order[i]);
+			byte[] vr = dictionary.valueRepresentationsByTag == null ? null : (byte[])(dictionary.valueRepresentationsByTag.get(tag));	// not the accessor, which would look up repeating groups
+			if (vr != null) {
+				int v = 0;
+				while (v < vrs.size() && !Arrays.equals(vrs.get(v),vr)) {
+					++v;
+				}
+				if (v == vrs.size()) {
+					vrs.add(vr);
+				}
+				vrIndex[i] = (byte)(v+1);
+			}
+			InformationEntity ie = dictionary.getInformationEntityFromTag(tag);
+			ieValue[i] = (byte)(ie == null ? 0 : ie.getValue());
+			String name = dictionary.getNameFromTag(tag);
+			if (name != null) {
+				nameBlob.write(name.getBytes(charset));
+			}
+			nameEnds[i] = nameBlob.size();
+			String fullName = dictionary.fullNameByTag == null ? null : (String)(dictionary.fullNameByTag.get(tag));	// not the accessor, which would substitute for group lengths
+			if (fullName != null) {
+				fullNameBlob.write(fullName.getBytes(charset));
+			}
+			fullNameEnds[i] = fullNameBlob.size();
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(magicNumber);
+			out.writeInt(formatVersion);
+			out.writeInt(n);
+			for (int i=0; i<n; ++i) {
+				out.writeInt(packed[order[i]]);
+			}
+			out.writeByte(vrs.size());
+			for (byte[] vr : vrs) {
+				out.write(vr,0,2);
+			}
+			out.write(vrIndex);
+			out.write(ieValue);
+			out.writeInt(nameBlob.size());
+			nameBlob.writeTo(out);
+			for (int end : nameEnds) {
+				out.writeInt(end);
+			}
+			out.writeInt(fullNameBlob.size());
+			fullNameBlob.writeTo(out);
+			for (int end : fullNameEnds) {
+				out.writeInt(end);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * <p>Read a file in a fresh JVM and report how long it took since the JVM started.</p>
+	 *
+	 * @param	precompiled	whether or not to use the precompiled dictionary
+	 * @param	fileName	the file to read
+	 */
+	private static void timeFirstRead(boolean precompiled,String fileName) throws IOException, DicomException {
+		setUsePrecompiled(precompiled);
+		AttributeList list = new AttributeList();
+		list.read(fileName);
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		System.out.println(uptime);
+	}
+
+	/**
+	 * @param	precompiled
+	 * @param	fileName
+	 * @return	the milliseconds from JVM start to the end of the first read reported by the child JVM
+	 */
+	private static long runChildJVM(boolean precompiled,String fileName) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		ProcessBuilder pb = new ProcessBuilder(java,"-cp",System.getProperty("java.class.path"),
+			PrecompiledDicomDictionary.class.getName(),"-time",precompiled ? "precompiled" : "generated",fileName);
+		pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = pb.start();
+		String output = new String(p.getInputStream().readAllBytes(),charset).trim();
+		p.waitFor();
+		return Long.parseLong(output);
+	}
+
+	/**
+	 * <p>Generate the precompiled resource, or compare start up times.</p>
+	 *
+	 * @param	arg	"-generate" and the file to write the resource to, or
+	 *			"-benchmark", a DICOM file to read and optionally the number of runs (default 10), which will time from JVM start to the end of the first
+	 *			{@link com.pixelmed.dicom.AttributeList#read(String) AttributeList.read()} in separate JVMs for each type of dictionary
+	 */
+	public static void main(String arg[]) {
+		try {
+			if (arg.length == 2 && arg[0].equals("-generate")) {
+				generate(new DicomDictionary(),new File(arg[1]));
+			}
+			else if (arg.length == 3 && arg[0].equals("-time")) {
+				timeFirstRead(arg[1].equals("precompiled"),arg[2]);
+			}
+			else if (arg.length >= 2 && arg[0].equals("-benchmark")) {
+				if (!isAvailable()) {
+					System.err.println("Resource "+resourceName+" is not on the class path - run with -generate first");
+					System.exit(1);
+				}
+				int runs = arg.length > 2 ? Integer.parseInt(arg[2]) : 10;
+				for (int pass=0; pass<2; ++pass) {
+					boolean precompiled = pass == 1;
+					long[] times = new long[runs];
+					for (int r=0; r<runs; ++r) {
+						times[r] = runChildJVM(precompiled,arg[1]);
+					}
+					Arrays.sort(times);
+					System.err.println((precompiled ? "PrecompiledDicomDictionary" : "DicomDictionary           ")
+						+": JVM start to first AttributeList.read() median "+times[runs/2]+" ms, min "+times[0]+" ms, max "+times[runs-1]+" ms over "+runs+" runs");
+				}
+			}
+			else {
+				System.err.println("Usage: java com.pixelmed.dicom.PrecompiledDicomDictionary -generate resourceFile");
+				System.err.println("       java com.pixelmed.dicom.PrecompiledDicomDictionary -benchmark dicomFile [runs]");
+				System.exit(1);
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+			System.exit(1);
+		}
+	}
+}
@@ -24,7 +24,9 @@ public class SequenceAttribute extends Attribute {
 
 	private static final String identString = "@(#) $Header: /userland/cvs/pixelmed/imgbook/com/pixelmed/dicom/SequenceAttribute.java,v 1.17 2008/02/21 04:46:18 dclunie Exp $";
 
-	private LinkedList itemList;		// each member is a SequenceItem
+	private ArrayList<SequenceItem> itemList;		// each member is a SequenceItem
+	
+	private long encodedValueLength;	// computed by getEncodedValueLength(), -1 if not known
 
 	/**
 	 * <p>Construct an (empty) attribute.</p>
@@ -33,18 +35,87 @@ public class SequenceAttribute extends Attribute {
 	 */
 	public SequenceAttribute(AttributeTag t) {
 		super(t);
-		itemList=new LinkedList();
+		itemList=new ArrayList<SequenceItem>();
 		valueLength=0xffffffffl;	// for the benefit of writebase();
+		encodedValueLength=-1;
 	}
 
 	// no constructor for input stream ... done manually elsewhere
 
 	/**
+	 * <p>Get the number of bytes the items occupy when written with defined lengths.</p>
+	 *
+	 * <p>The lengths of all the nested sequences and items are computed in the same pass, and remembered for writing.</p>
+	 *
+	 * @param	explicit	true if the VR is to be written explicitly
+	 * @return			the value length, or -1 if any nested value is of undefined length
+	 */
+	public long getEncodedValueLength(boolean explicit) {
+		long length = 0;
+		if (itemList != null) {
+			int n = itemList.size();
+			for (int j=0; j<n; ++j) {
+				long itemLength = itemList.get(j).getEncodedValueLength(explicit);
+				if (itemLength < 0) {
+					length = -1;
+					break;
+				}
+				length += 8 + itemLength;	// Item tag and length
+			}
+		}
+		encodedValueLength = length;
+		return length;
+	}
+
+	/**
+	 * <p>Get the number of bytes the entire attribute occupies when written with defined lengths.</p>
+	 *
+	 * @param	explicit	true if the VR is to be written explicitly
+	 * @return			the encoded length, or -1 if any nested value is of undefined length
+	 */
+	public long getEncodedLength(boolean explicit) {
+		long vl = getEncodedValueLength(explicit);
+		return vl < 0 ? -1 : getEncodedHeaderLength(explicit) + vl;
+	}
+
+	/**
+	 * <p>Write the attribute and its items with the defined lengths already computed by {@link #getEncodedValueLength(boolean) getEncodedValueLength()}.</p>
+	 *
+	 * @param	o
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	void writeDefinedLength(DicomOutputStream o) throws DicomException, IOException {
+		o.writeUnsigned16(getGroup());
+		o.writeUnsigned16(getElement());
+		if (o.isExplicitVR()) {
+			o.write(ValueRepresentation.SQ,0,2);
+			o.writeUnsigned16(0);		// reserved bytes
+		}
+		o.writeUnsigned32(encodedValueLength);
+		int n = itemList == null ? 0 : itemList.size();
+		for (int j=0; j<n; ++j) {
+			itemList.get(j).writeDefinedLength(o);
+		}
+	}
+
+	/**
+	 * <p>Write the attribute and its items.</p>
+	 *
+	 * <p>Written in undefined length form, unless the output stream requests defined lengths and they can be computed.</p>
+	 *
 	 * @param	o
 	 * @exception	IOException
 	 * @exception	DicomException
 	 */
 	public void write(DicomOutputStream o) throws DicomException, IOException {
+		if (o.isWriteDefinedLengthSequences()) {
+			long vl = getEncodedValueLength(o.isExplicitVR());	// computes nested lengths once, rather than again at each level
+			if (vl >= 0 && vl < 0xffffffffl) {
+				writeDefinedLength(o);
+				return;
+			}
+		}
 		writeBase(o);			// valueLength should be 0xffffffff from constructor
 
 		Iterator i = iterator();
@@ -79,6 +150,7 @@ public class SequenceAttribute extends Attribute {
 		itemList=null;
 		valueMultiplicity=0;
 		valueLength=0;
+		encodedValueLength=-1;
 	}
 
 	/**
@@ -87,7 +159,8 @@ public class SequenceAttribute extends Attribute {
 	 * @param	item
 	 */
 	public void addItem(SequenceItem item) {
-		itemList.addLast(item);
+		itemList.add(item);
+		encodedValueLength=-1;
 	}
 
 	/**
@@ -96,7 +169,8 @@ public class SequenceAttribute extends Attribute {
 	 * @param	item	the list of attributes that comprise the item
 	 */
 	public void addItem(AttributeList item) {
-		itemList.addLast(new SequenceItem(item));
+		itemList.add(new SequenceItem(item));
+		encodedValueLength=-1;
 	}
 
 	/**
@@ -106,7 +180,8 @@ public class SequenceAttribute extends Attribute {
 	 * @param	byteOffset	the byte offset in the input stream of the start of the item
 	 */
 	public void addItem(AttributeList item,long byteOffset) {
-		itemList.addLast(new SequenceItem(item,byteOffset));
+		itemList.add(new SequenceItem(item,byteOffset));
+		encodedValueLength=-1;
 	}
 
 	/**
@@ -134,7 +209,7 @@ public class SequenceAttribute extends Attribute {
 	 * @return		a {@link com.pixelmed.dicom.SequenceItem SequenceItem}, null if no items or no such item
 	 */
 	public SequenceItem getItem(int index) {
-		return (itemList == null || index >= itemList.size()) ? null : (SequenceItem)itemList.get(index);
+		return (itemList == null || index >= itemList.size()) ? null : itemList.get(index);
 	}
 
 	/**
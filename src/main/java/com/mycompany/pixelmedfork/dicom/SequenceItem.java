@@ -22,6 +22,7 @@ public class SequenceItem {
 
 	private AttributeList list;
 	protected long byteOffset;		// value of 0 is flag that it is not set
+	private long encodedValueLength = -1;	// computed by getEncodedValueLength(), -1 if not known
 
 	/**
 	 * <p>Construct a sequence attribute item with a list of attributes.</p>
@@ -65,7 +66,7 @@ public class SequenceItem {
 	/**
 	 * <p>Write the item (with appropriate delimiter tags) to the output stream.</p>
 	 *
-	 * <p>Always written in undefined length form.</p>
+	 * <p>Always written in undefined length form; see {@link com.pixelmed.dicom.SequenceAttribute#write(DicomOutputStream) SequenceAttribute.write()} for defined length form.</p>
 	 *
 	 * @param	o		the output stream
 	 * @exception	IOException
@@ -85,6 +86,52 @@ public class SequenceItem {
 		o.writeUnsigned32(0);			// dummy length
 	}
 	
+	/**
+	 * <p>Get the number of bytes the attributes of the item occupy when written with defined lengths.</p>
+	 *
+	 * <p>The lengths of any nested sequences and items are computed in the same pass, and remembered for writing.</p>
+	 *
+	 * @param	explicit	true if the VR is to be written explicitly
+	 * @return			the value length, or -1 if any nested value is of undefined length
+	 */
+	public long getEncodedValueLength(boolean explicit) {
+		long length = 0;
+		for (Attribute a : list.values()) {
+			long attributeLength = a.getEncodedLength(explicit);
+			if (attributeLength < 0) {
+				length = -1;
+				break;
+			}
+			length += attributeLength;
+		}
+		encodedValueLength = length;
+		return length;
+	}
+
+	/**
+	 * <p>Write the item with the defined lengths already computed by {@link #getEncodedValueLength(boolean) getEncodedValueLength()}.</p>
+	 *
+	 * @param	o		the output stream
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	void writeDefinedLength(DicomOutputStream o) throws DicomException, IOException {
+		byteOffset = o.getByteOffset();
+		
+		o.writeUnsigned16(0xfffe);		// Item
+		o.writeUnsigned16(0xe000);
+		o.writeUnsigned32(encodedValueLength);
+		
+		for (Attribute a : list.values()) {
+			if (a instanceof SequenceAttribute) {
+				((SequenceAttribute)a).writeDefinedLength(o);	// lengths already computed, so do not compute them again
+			}
+			else {
+				a.write(o);
+			}
+		}
+	}
+	
 	/**
 	 * <p>Dump the item in a human readable form, list the contained attributes.</p>
 	 *
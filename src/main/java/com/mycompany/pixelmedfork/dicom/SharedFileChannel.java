@@ -0,0 +1,141 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>A class to share one open read-only {@link java.nio.channels.FileChannel FileChannel} on a file between all the
+ * attributes whose values are left on disk in that file, such as {@link com.pixelmed.dicom.OtherWordAttributeOnDisk OtherWordAttributeOnDisk}
+ * and {@link com.pixelmed.dicom.OtherByteAttributeOnDisk OtherByteAttributeOnDisk}.</p>
+ *
+ * <p>The channel is opened on first use and remains open until {@link #close() close()} is called, after which it will be
+ * opened again if needed. All reads are positioned, so the channel may be used by more than one thread at a time.</p>
+ *
+ * <p>The attributes of an {@link com.pixelmed.dicom.AttributeList AttributeList} read from the same
+ * {@link com.pixelmed.dicom.DicomInputStream DicomInputStream} share the same instance.</p>
+ *
+ * @see com.pixelmed.dicom.BinaryInputStream#getSharedFileChannel()
+ * @see com.pixelmed.dicom.AttributeList#closeSharedFileChannels()
+ */
+public class SharedFileChannel {
+
+	/***/
+	private static final int chunkSize = 65536;		// must be a multiple of 2, for byte swapping
+
+	/***/
+	private File file;
+	/***/
+	private RandomAccessFile raf;
+	/***/
+	private FileChannel channel;
+
+	/**
+	 * <p>Construct a shared channel on a file, without opening it yet.</p>
+	 *
+	 * @param	file	the file
+	 */
+	public SharedFileChannel(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return	the file
+	 */
+	public File getFile() { return file; }
+
+	/**
+	 * <p>Get the channel, opening the file if it is not already open.</p>
+	 *
+	 * @return	the channel
+	 * @exception	IOException	if the file cannot be opened
+	 */
+	public synchronized FileChannel getChannel() throws IOException {
+		if (channel == null) {
+//System.err.println("SharedFileChannel.getChannel(): opening "+file);
+			raf = new RandomAccessFile(file,"r");
+			channel = raf.getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * <p>Close the file, if it is open.</p>
+	 *
+	 * @exception	IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (raf != null) {
+//System.err.println("SharedFileChannel.close(): closing "+file);
+			raf.close();		// also closes the channel
+			raf = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * <p>Copy bytes from the file to a stream.</p>
+	 *
+	 * <p>If the bytes do not need to be swapped and the stream has an underlying channel, the bytes are transferred
+	 * directly from the file to that channel, which the operating system may do without copying them through the Java heap.
+	 * Otherwise they are read with positioned reads in chunks, byte swapped if required, and written to the stream.</p>
+	 *
+	 * @param	position	the byte offset in the file to start from
+	 * @param	length		the number of bytes to copy
+	 * @param	o		the stream to write to
+	 * @param	swapBytes	true if each pair of bytes is to be swapped, in which case the length must be even
+	 * @exception	IOException
+	 */
+	public void copyTo(long position,long length,BinaryOutputStream o,boolean swapBytes) throws IOException {
+		FileChannel in = getChannel();
+		WritableByteChannel out = swapBytes ? null : o.flushAndGetUnderlyingChannel();
+		if (out != null) {
+//System.err.println("SharedFileChannel.copyTo(): transferring "+length+" bytes from "+file);
+			long remaining = length;
+			while (remaining > 0) {
+				long count = in.transferTo(position,remaining,out);
+				if (count <= 0) {
+					if (position >= in.size()) {
+						throw new EOFException("Unexpected end of file "+file+" at byte offset "+position+" with "+remaining+" bytes remaining to copy");
+					}
+					// else some channels may transfer nothing without being at the end, so just try again
+				}
+				position+=count;
+				remaining-=count;
+			}
+			o.wroteToUnderlyingChannel(length);
+		}
+		else {
+//System.err.println("SharedFileChannel.copyTo(): reading "+length+" bytes from "+file+(swapBytes ? " and swapping" : ""));
+			byte[] b = new byte[(int)Math.min(chunkSize,length)];
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			long remaining = length;
+			while (remaining > 0) {
+				bb.clear();
+				bb.limit((int)Math.min(b.length,remaining));
+				while (bb.hasRemaining()) {
+					int count = in.read(bb,position+bb.position());
+					if (count < 0) {
+						throw new EOFException("Unexpected end of file "+file+" at byte offset "+(position+bb.position())+" with "+(remaining-bb.position())+" bytes remaining to copy");
+					}
+				}
+				int n = bb.position();
+				if (swapBytes) {
+					for (int j=0; j+1<n; j+=2) {
+						byte t = b[j];
+						b[j] = b[j+1];
+						b[j+1] = t;
+					}
+				}
+				o.write(b,0,n);
+				position+=n;
+				remaining-=n;
+			}
+		}
+	}
+}
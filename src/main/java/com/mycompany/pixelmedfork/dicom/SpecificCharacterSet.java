@@ -6,7 +6,16 @@ import com.mycompany.pixelmedfork.dicom.SequenceItem;
 import com.pixelmed.utils.HexDump;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>A class to encapsulate the functionality defined by the DICOM Specific Character Set
@@ -14,6 +23,12 @@ import java.util.*;
  * apply the appropriate character conversions from byte array values into Java's internal
  * Unicode representation contained in {@link java.lang.String String}.
  *
+ * <p>Instances are immutable, and {@link #valueOf(String[],byte[]) valueOf()} returns the same shared instance
+ * for the same values of the Specific Character Set attribute, so that they need not be parsed again for every data set or item.</p>
+ *
+ * <p>Values that contain only ASCII bytes, in a character set whose G0 is ASCII, are converted directly without a charset lookup, and
+ * the decoders and encoders for other character sets are created once per thread and then reused.</p>
+ *
  * @author	dclunie
  */
 public class SpecificCharacterSet {
@@ -31,6 +46,25 @@ public class SpecificCharacterSet {
 	static private HashMap ownJIS0208Mapping;
 	/***/
 	static private HashMap ownJIS0212Mapping;
+
+	/***/
+	static private final int maximumSharedInstances = 256;	// more distinct values than this in one process are not to be expected, but do not grow without bound if there are
+	/***/
+	static private final ConcurrentHashMap<String,SpecificCharacterSet> sharedInstances = new ConcurrentHashMap<String,SpecificCharacterSet>();
+
+	/***/
+	static private final ThreadLocal<HashMap<String,CharsetDecoder>> decoders = new ThreadLocal<HashMap<String,CharsetDecoder>>() {
+		protected HashMap<String,CharsetDecoder> initialValue() { return new HashMap<String,CharsetDecoder>(); }
+	};
+	/***/
+	static private final ThreadLocal<HashMap<String,CharsetEncoder>> encoders = new ThreadLocal<HashMap<String,CharsetEncoder>>() {
+		protected HashMap<String,CharsetEncoder> initialValue() { return new HashMap<String,CharsetEncoder>(); }
+	};
+
+	/***/
+	static private final Charset latin1 = Charset.forName("ISO8859_1");
+	/***/
+	static private final Charset utf8 = Charset.forName("UTF8");
 	
 	/***/
 	public String toString() {
@@ -45,12 +79,12 @@ public class SpecificCharacterSet {
 	 * @param	length		how many bytes to check
 	 */
 	static public boolean byteArrayContainsNonASCIIValues(byte[] bytes,int offset,int length) {
-		for (int i=offset; i<offset+length;++i) {
-			if ((bytes[i]&0xFF) > 0x7F) {
-				return true;
-			}
+		int accumulated = 0;
+		int end = offset+length;
+		for (int i=offset; i<end; ++i) {
+			accumulated |= bytes[i];		// no early exit, so that the loop can be vectorized; the high bit survives if any byte has it set
 		}
-		return false;
+		return accumulated < 0;
 	}
 
 	/**
@@ -482,6 +516,110 @@ System.err.println("Warning - unrecognized first value of Specific Character Set
 //System.err.println("SpecificCharacterSet(): useEncoding="+useEncoding);
 	}
 	
+	/**
+	 * <p>Get a shared character set handler for the values of the Specific Character Set attribute.</p>
+	 *
+	 * <p>The same instance is returned for the same values, so that they need not be parsed again for every data set or item.</p>
+	 *
+	 * @param	specificCharacterSetAttributeValues	the values of Specific Character Set as String
+	 * @param	specificCharacterSetByteValues		the values of Specific Character Set as byte[] (may be null)
+	 * @return						the character set handler
+	 */
+	static public SpecificCharacterSet valueOf(String[] specificCharacterSetAttributeValues,byte[] specificCharacterSetByteValues) {
+		String key;
+		if (specificCharacterSetByteValues != null) {
+			key = "B" + new String(specificCharacterSetByteValues,latin1);		// the bytes are what was actually encoded, and distinguish the illegal Big5 value
+		}
+		else if (specificCharacterSetAttributeValues != null) {
+			StringBuffer buf = new StringBuffer("S");
+			for (String value : specificCharacterSetAttributeValues) {
+				buf.append(value);
+				buf.append('\\');
+			}
+			key = buf.toString();
+		}
+		else {
+			key = "";
+		}
+		SpecificCharacterSet specificCharacterSet = sharedInstances.get(key);
+		if (specificCharacterSet == null) {
+			specificCharacterSet = new SpecificCharacterSet(specificCharacterSetAttributeValues,specificCharacterSetByteValues);
+			if (sharedInstances.size() < maximumSharedInstances) {
+				SpecificCharacterSet existing = sharedInstances.putIfAbsent(key,specificCharacterSet);
+				if (existing != null) {
+					specificCharacterSet = existing;
+				}
+			}
+		}
+		return specificCharacterSet;
+	}
+
+	/**
+	 * <p>Get a shared character set handler for the values of the Specific Character Set attribute.</p>
+	 *
+	 * @param	specificCharacterSetAttributeValues	the values of Specific Character Set
+	 * @return						the character set handler
+	 */
+	static public SpecificCharacterSet valueOf(String[] specificCharacterSetAttributeValues) {
+		return valueOf(specificCharacterSetAttributeValues,null);
+	}
+
+	/**
+	 * <p>Is ASCII the G0 (lower half) of an encoding, so that bytes below 0x80 can be converted directly ?</p>
+	 *
+	 * @param	encoding
+	 * @return			false for JIS X 0201, which replaces backslash and tilde, and the two byte JIS encodings
+	 */
+	static private boolean isASCIICompatible(String encoding) {
+		return !encoding.startsWith("JIS");
+	}
+
+	/**
+	 * <p>Get this thread's decoder for an encoding, creating it the first time.</p>
+	 *
+	 * @param	encoding
+	 * @return			the decoder, or null if the encoding is not supported
+	 */
+	static private CharsetDecoder getDecoder(String encoding) {
+		HashMap<String,CharsetDecoder> map = decoders.get();
+		CharsetDecoder decoder = map.get(encoding);
+		if (decoder == null && !map.containsKey(encoding)) {
+			try {
+				decoder = Charset.forName(encoding).newDecoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);	// same as the String constructor
+			}
+			catch (IllegalArgumentException e) {	// IllegalCharsetNameException or UnsupportedCharsetException
+				decoder = null;
+			}
+			map.put(encoding,decoder);		// remember if not supported, too
+		}
+		return decoder;
+	}
+
+	/**
+	 * <p>Get this thread's encoder for an encoding, creating it the first time.</p>
+	 *
+	 * @param	encoding
+	 * @return			the encoder, or null if the encoding is not supported
+	 */
+	static private CharsetEncoder getEncoder(String encoding) {
+		HashMap<String,CharsetEncoder> map = encoders.get();
+		CharsetEncoder encoder = map.get(encoding);
+		if (encoder == null && !map.containsKey(encoding)) {
+			try {
+				encoder = Charset.forName(encoding).newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);	// same as String.getBytes()
+			}
+			catch (IllegalArgumentException e) {	// IllegalCharsetNameException or UnsupportedCharsetException
+				encoder = null;
+			}
+			map.put(encoding,encoder);		// remember if not supported, too
+		}
+		return encoder;
+	}
+
 	public String getValueToUseInSpecificCharacterSetAttribute() {
 //System.err.println("SpecificCharacterSet.getSuitableEncodingFromSetOfUnicodeBlocks(): useEncoding="+useEncoding);
 		String value = "ISO_IR 192";		// default to UTF-8 if not recognized or (was) using ISO2022 (don't support encoding with ISO 2022 escapes)
@@ -584,18 +722,31 @@ System.err.println("Warning - unrecognized first value of Specific Character Set
 		//	}
 		//	s=translateByteArrayToString(bytes,offset,length,ownJIS0212Mapping);
 		//}
+		else if (useEncoding.equals("ASCII") || useEncoding.equals("ISO8859_1")
+		      || (isASCIICompatible(useEncoding) && !byteArrayContainsNonASCIIValues(bytes,offset,length))) {
+			s=new String(bytes,offset,length,latin1);		// direct; if ASCII, more useful to assume that any non-ASCII is incorrectly Latin 1, than nothing at all
+		}
+		else if (useEncoding.equals("UTF8")) {
+			s=new String(bytes,offset,length,utf8);
+		}
 		else {
-			try {
-				if (useEncoding.equals("ASCII") && byteArrayContainsNonASCIIValues(bytes,offset,length)) {
-					s=new String(bytes,offset,length,"ISO8859_1");		// More useful to assume that it is incorrectly Latin 1, than nothing at all
+			CharsetDecoder decoder = getDecoder(useEncoding);
+			if (decoder != null) {
+				try {
+					s=decoder.decode(ByteBuffer.wrap(bytes,offset,length)).toString();
 				}
-				else {
-					s=new String(bytes,offset,length,useEncoding);
+				catch (CharacterCodingException e) {		// should not happen, since replacing rather than reporting errors
+					decoder.reset();
 				}
 			}
-			catch (UnsupportedEncodingException e) {
-				e.printStackTrace(System.err);
-				s=new String(bytes,offset,length);		// use default ... better than returning null (000307)
+			if (s == null) {
+				try {
+					s=new String(bytes,offset,length,useEncoding);
+				}
+				catch (UnsupportedEncodingException e) {
+					e.printStackTrace(System.err);
+					s=new String(bytes,offset,length);		// use default ... better than returning null (000307)
+				}
 			}
 		}
 		return s;
@@ -615,7 +766,7 @@ System.err.println("Warning - unrecognized first value of Specific Character Set
 //System.err.println("SpecificCharacterSet.translateStringToByteArray(): useEncoding is "+useEncoding);
 		String s = null;
 		if (useEncoding == null) {
-			s=new String(bytes,0,length);
+			s=new String(bytes,offset,length);
 		}
 		else {
 			if (useISO2022) {
@@ -732,7 +883,7 @@ System.err.println("Warning - unrecognized first value of Specific Character Set
 				s=sbuf.toString();
 			}
 			else {
-				s=translateByteArrayToString(bytes,0,length,useEncoding);
+				s=translateByteArrayToString(bytes,offset,length,useEncoding);
 			}
 		}
 //System.err.println("SpecificCharacterSet.translateByteArrayToString(): result string is <"+s+">");
@@ -753,7 +904,36 @@ System.err.println("Warning - unrecognized first value of Specific Character Set
 //System.err.println("SpecificCharacterSet.translateStringToByteArray(): string is <"+string+">");
 //System.err.println("SpecificCharacterSet.translateStringToByteArray(): string is:\n"+com.pixelmed.utils.StringUtilities.dump(string));
 //System.err.println("SpecificCharacterSet.translateStringToByteArray(): useEncoding is "+useEncoding);
-		byte[] b = useEncoding == null ? string.getBytes() : string.getBytes(useEncoding);
+		byte[] b;
+		if (useEncoding == null) {
+			b = string.getBytes();
+		}
+		else if (useEncoding.equals("ASCII")) {
+			b = string.getBytes(StandardCharsets.US_ASCII);		// unlike decoding, do not assume Latin 1, so that non-ASCII characters are replaced rather than written as 8 bit values
+		}
+		else if (useEncoding.equals("ISO8859_1")) {
+			b = string.getBytes(latin1);
+		}
+		else if (useEncoding.equals("UTF8")) {
+			b = string.getBytes(utf8);
+		}
+		else {
+			b = null;
+			CharsetEncoder encoder = getEncoder(useEncoding);
+			if (encoder != null) {
+				try {
+					ByteBuffer bb = encoder.encode(CharBuffer.wrap(string));
+					b = new byte[bb.remaining()];
+					bb.get(b);
+				}
+				catch (CharacterCodingException e) {		// should not happen, since replacing rather than reporting errors
+					encoder.reset();
+				}
+			}
+			if (b == null) {
+				b = string.getBytes(useEncoding);
+			}
+		}
 //System.err.println("SpecificCharacterSet.translateStringToByteArray(): return byte array is:\n"+com.pixelmed.utils.HexDump.dump(b));
 		return b;
 	}
@@ -0,0 +1,93 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * <p>A class to measure the throughput of {@link com.pixelmed.dicom.DicomStreamCopier DicomStreamCopier} on large files.</p>
+ *
+ * <p>The data set of a file is copied to the same transfer syntax by parsing and recreating every element, as was always done before,
+ * by streaming it verbatim, and by replacing only the meta information header and transferring the data set from one file channel to
+ * the other. For comparison, the data set is also copied to Implicit VR Little Endian, which always requires it to be parsed.</p>
+ *
+ * <p>If no file is supplied, a synthetic Explicit VR Little Endian file with 256 MB of Pixel Data is created.</p>
+ */
+public class StreamCopyBenchmark {
+
+	private StreamCopyBenchmark() {}
+
+	/**
+	 * @param	inputFile
+	 * @param	outputFile
+	 * @param	outputTransferSyntaxUID
+	 * @param	copyVerbatimIfByteCompatible
+	 * @exception	Exception
+	 */
+	private static void copyStream(File inputFile,File outputFile,String outputTransferSyntaxUID,boolean copyVerbatimIfByteCompatible) throws Exception {
+		DicomInputStream i = new DicomInputStream(new BufferedInputStream(new FileInputStream(inputFile)));
+		DicomOutputStream o = new DicomOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)),null/*meta*/,outputTransferSyntaxUID);
+		if (copyVerbatimIfByteCompatible) {
+			new DicomStreamCopier(i,o,true);
+		}
+		else {
+			new DicomStreamCopier(i,o);
+		}
+		i.close();
+	}
+
+	/**
+	 * <p>Time copying a large file.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5), then optionally an Explicit VR Little Endian DICOM file with a meta information header
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			File inputFile;
+			if (arg.length > 1) {
+				inputFile = new File(arg[1]);
+			}
+			else {
+				inputFile = File.createTempFile("StreamCopyBenchmark",".dcm");
+				inputFile.deleteOnExit();
+				BenchmarkFiles.writeMultiFrameFile(inputFile,4096,4096,8);
+			}
+			long length = inputFile.length();
+			System.err.println("Copying "+length+" bytes");
+			File outputFile = File.createTempFile("StreamCopyBenchmark",".out");
+			outputFile.deleteOnExit();
+			for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+				for (int m=0; m<4; ++m) {
+					long startTime = System.nanoTime();
+					String what;
+					if (m == 0) {
+						copyStream(inputFile,outputFile,TransferSyntax.ExplicitVRLittleEndian,false);
+						what = "parse and recreate      ";
+					}
+					else if (m == 1) {
+						copyStream(inputFile,outputFile,TransferSyntax.ExplicitVRLittleEndian,true);
+						what = "stream verbatim         ";
+					}
+					else if (m == 2) {
+						DicomStreamCopier.copyReplacingMetaInformationHeader(inputFile,outputFile,TransferSyntax.ExplicitVRLittleEndian,null);
+						what = "replace meta header only";
+					}
+					else {
+						copyStream(inputFile,outputFile,TransferSyntax.ImplicitVRLittleEndian,true);
+						what = "to implicit VR (parsed) ";
+					}
+					long elapsed = System.nanoTime() - startTime;
+					if (r >= 0) {
+						System.err.println("Pass "+r+" "+what+": "+(elapsed/1000000)+" ms, "+(length*1000/elapsed)+" MB/s");
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -6,6 +6,8 @@ import java.io.*;
 
 import java.text.NumberFormat;
 
+import java.util.ArrayList;
+
 /**
  * <p>An abstract class specializing {@link com.pixelmed.dicom.Attribute Attribute} for
  * the family of string attributes.</p>
@@ -32,7 +34,12 @@ abstract public class StringAttribute extends Attribute {
 	 *
 	 * param	specificCharacterSet	the specific character set, or null if none
 	 */
-	public void setSpecificCharacterSet(SpecificCharacterSet specificCharacterSet) { this.specificCharacterSet = specificCharacterSet; }
+	public void setSpecificCharacterSet(SpecificCharacterSet specificCharacterSet) {
+		decodeValuesIfNecessary();			// with the character set that the bytes were read with
+		originalByteValuesAreCurrent=false;		// will need to be encoded with the new character set
+		flushCachedCopies();
+		this.specificCharacterSet = specificCharacterSet;
+	}
 
 	/***/
 	byte[] originalByteValues;
@@ -52,6 +59,10 @@ abstract public class StringAttribute extends Attribute {
 	double[] cachedDoubleCopy;
 	/***/
 	byte[] cachedPaddedByteValues;
+	/***/
+	private boolean valuesNotYetDecoded;		// originalByteValues have been read but not yet split into originalValues
+	/***/
+	private boolean originalByteValuesAreCurrent;	// originalByteValues may be written as is, since the values have not been changed since they were read
 
 	/***/
 	private void flushCachedCopies() {
@@ -184,6 +195,8 @@ abstract public class StringAttribute extends Attribute {
 		this.specificCharacterSet=specificCharacterSet;
 		originalValues=null;
 		originalByteValues=null;
+		valuesNotYetDecoded=false;
+		originalByteValuesAreCurrent=false;
 	}
 
 	/**
@@ -228,6 +241,76 @@ abstract public class StringAttribute extends Attribute {
 		}
 	}
 	
+	/**
+	 * <p>Read the value(s) of a constructed (empty) attribute from an input stream, without decoding them.</p>
+	 *
+	 * <p>The bytes are kept as read, and are only decoded into strings (and numbers) when the values
+	 * or the value multiplicity are first requested. If the values are not changed, the bytes read
+	 * are written back as is, without being encoded again.</p>
+	 *
+	 * <p>Used by {@link com.pixelmed.dicom.AttributeFactory AttributeFactory} when an
+	 * {@link com.pixelmed.dicom.AttributeList AttributeList} is read with lazy decoding of values.</p>
+	 *
+	 * @param	vl			the value length of the attribute
+	 * @param	i			the input stream
+	 * @exception	DicomException
+	 */
+	void readValuesWithoutDecoding(long vl,DicomInputStream i) throws DicomException {
+		doCommonConstructorStuff(specificCharacterSet);
+		valueLength=0;
+		valueMultiplicity=0;
+		if (vl > 0) {
+			originalByteValues = new byte[(int)vl];
+			try {
+				i.readInsistently(originalByteValues,0,(int)vl);
+			}
+			catch (IOException e) {
+				throw new DicomException("Failed to read value (length "+vl+" dec) in "+ValueRepresentation.getAsString(getVR())+" attribute "+getTag());
+			}
+			valueLength=vl;
+			valuesNotYetDecoded=true;
+			originalByteValuesAreCurrent=true;
+		}
+	}
+
+	/**
+	 * <p>Split the bytes read without decoding into string values, if not already done.</p>
+	 *
+	 * <p>Splits the values the same way as when they are decoded during reading, but leaves the value length as read.</p>
+	 */
+	private void decodeValuesIfNecessary() {
+		if (valuesNotYetDecoded) {
+			valuesNotYetDecoded=false;
+			String sbuf = translateByteArrayToString(originalByteValues,0,originalByteValues.length);
+			if (sbuf != null) {
+				ArrayList<String> values = new ArrayList<String>();
+				int vl=sbuf.length();
+				int start=0;
+				int delim=0;
+				while (true) {
+					if (delim >= vl || sbuf.charAt(delim) == '\\') {
+						values.add(sbuf.substring(start,delim));
+						++delim;
+						start=delim;
+						if (delim >= vl) break;
+					}
+					else {
+					++delim;
+					}
+				}
+				originalValues=values.toArray(new String[values.size()]);
+				valueMultiplicity=originalValues.length;
+			}
+			// else do not add values since translateByteArrayToString failed, as when decoding during reading
+		}
+	}
+
+	/***/
+	public int getVM() {
+		decodeValuesIfNecessary();
+		return valueMultiplicity;
+	}
+
 	/***/
 	public long getPaddedVL() {
 		byte[] b = null;
@@ -252,11 +335,24 @@ abstract public class StringAttribute extends Attribute {
 	 */
 	private byte[] getPaddedByteValues() throws DicomException {
 		if (cachedPaddedByteValues == null) {
-			cachedPaddedByteValues = extractPaddedByteValues();
+			cachedPaddedByteValues = originalByteValuesAreCurrent ? padOriginalByteValues() : extractPaddedByteValues();
 		}
 		return cachedPaddedByteValues;
 	}
 	
+	/***/
+	private byte[] padOriginalByteValues() {
+		byte[] b = originalByteValues;
+		int bl = b.length;
+		if (bl%2 != 0) {
+			byte[] b2 = new byte[bl+1];
+			System.arraycopy(b,0,b2,0,bl);
+			b2[bl]=getPadByte();
+			b=b2;
+		}
+		return b;
+	}
+
 	/**
 	 * @exception	DicomException
 	 */
@@ -349,6 +445,7 @@ abstract public class StringAttribute extends Attribute {
 	 */
 	public String[] getStringValues(NumberFormat format) throws DicomException {
 		// ignore number format for generic string attributes
+		decodeValuesIfNecessary();
 		if (cachedUnpaddedStringCopy == null) cachedUnpaddedStringCopy=ArrayCopyUtilities.copyStringArrayRemovingLeadingAndTrailingPadding(originalValues);
 		return cachedUnpaddedStringCopy;
 	}
@@ -360,6 +457,7 @@ abstract public class StringAttribute extends Attribute {
 	 * @exception	DicomException	not thrown
 	 */
 	public String[] getOriginalStringValues() throws DicomException {
+		decodeValuesIfNecessary();
 		return originalValues;
 	}
 
@@ -408,6 +506,8 @@ abstract public class StringAttribute extends Attribute {
 	 * @exception	DicomException
 	 */
 	public void addValue(String v) throws DicomException {
+		decodeValuesIfNecessary();
+		originalByteValuesAreCurrent=false;
 		flushCachedCopies();
 		originalValues=ArrayCopyUtilities.expandArray(originalValues);
 		try {
@@ -482,6 +582,8 @@ abstract public class StringAttribute extends Attribute {
 		valueLength=0;
 		valueMultiplicity=0;
 		originalValues=null;
+		valuesNotYetDecoded=false;
+		originalByteValuesAreCurrent=false;
 		flushCachedCopies();
 	}
 }
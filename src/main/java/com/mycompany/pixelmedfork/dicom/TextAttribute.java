@@ -22,6 +22,12 @@ abstract public class TextAttribute extends Attribute {
 
 	/***/
 	String values[];
+	/***/
+	private byte[] originalByteValues;		// only set when read without decoding
+	/***/
+	private boolean valuesNotYetDecoded;
+	/***/
+	private boolean originalByteValuesAreCurrent;
 
 	/**
 	 * <p>Decode a byte array into a string.</p>
@@ -102,6 +108,9 @@ abstract public class TextAttribute extends Attribute {
 	 */
 	private void doCommonConstructorStuff(SpecificCharacterSet specificCharacterSet) {
 		values=null;
+		originalByteValues=null;
+		valuesNotYetDecoded=false;
+		originalByteValuesAreCurrent=false;
 		this.specificCharacterSet=specificCharacterSet;
 	}
 	
@@ -128,6 +137,44 @@ abstract public class TextAttribute extends Attribute {
 		}
 	}
 
+	/**
+	 * <p>Read the value of a constructed (empty) attribute from an input stream, without decoding it.</p>
+	 *
+	 * <p>The bytes are kept as read, and are only decoded into a string when the value is first requested.
+	 * If the value is not changed, the bytes read are written back as is, without being encoded again.</p>
+	 *
+	 * @param	vl			the value length of the attribute
+	 * @param	i			the input stream
+	 * @exception	DicomException
+	 */
+	void readValuesWithoutDecoding(long vl,DicomInputStream i) throws DicomException {
+		doCommonConstructorStuff(specificCharacterSet);
+		valueLength=0;
+		valueMultiplicity=0;
+		if (vl > 0) {
+			originalByteValues = new byte[(int)vl];
+			try {
+				i.readInsistently(originalByteValues,0,(int)vl);
+			}
+			catch (IOException e) {
+				throw new DicomException("Failed to read value (length "+vl+" dec) in "+ValueRepresentation.getAsString(getVR())+" attribute "+getTag());
+			}
+			valueLength=vl;
+			valueMultiplicity=1;		// text attributes are always single valued
+			valuesNotYetDecoded=true;
+			originalByteValuesAreCurrent=true;
+		}
+	}
+
+	/***/
+	private void decodeValuesIfNecessary() {
+		if (valuesNotYetDecoded) {
+			valuesNotYetDecoded=false;
+			values=new String[1];
+			values[0]=translateByteArrayToString(originalByteValues,0,originalByteValues.length);
+		}
+	}
+
 	/***/
 	public long getPaddedVL() {
 		long vl = getVL();
@@ -146,14 +193,19 @@ abstract public class TextAttribute extends Attribute {
 	 * @exception	DicomException
 	 */
 	private byte[] getPaddedByteValues() throws DicomException {
-		String[] v = getStringValues();
-		//byte[] b = v == null ? null : v[0].getBytes();
 		byte[] b = null;
-		try {
-			if (v != null) b = translateStringToByteArray(v[0]);
+		if (originalByteValuesAreCurrent) {
+			b = originalByteValues;
 		}
-		catch (UnsupportedEncodingException e) {
-			throw new DicomException("Unsupported encoding:"+e);
+		else {
+			String[] v = getStringValues();
+			//byte[] b = v == null ? null : v[0].getBytes();
+			try {
+				if (v != null) b = translateStringToByteArray(v[0]);
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new DicomException("Unsupported encoding:"+e);
+			}
 		}
 		// should padding take into account character set, i.e. could the pad character be different ? :(
 		if (b != null) {
@@ -216,6 +268,7 @@ abstract public class TextAttribute extends Attribute {
 	 */
 	public String[] getStringValues(NumberFormat format) throws DicomException {
 		// ignore number format for generic text attributes
+		decodeValuesIfNecessary();
 		return values;
 	}
 
@@ -224,6 +277,8 @@ abstract public class TextAttribute extends Attribute {
 	 * @exception	DicomException
 	 */
 	public void addValue(String v) throws DicomException {
+		decodeValuesIfNecessary();
+		originalByteValuesAreCurrent=false;
 		if (values != null || valueMultiplicity > 0) throw new DicomException("No more than one value allowed for text attributes");
 		values=new String[1];
 		values[0]=v;
@@ -243,6 +298,9 @@ abstract public class TextAttribute extends Attribute {
 		valueLength=0;
 		valueMultiplicity=0;
 		values=null;
+		originalByteValues=null;
+		valuesNotYetDecoded=false;
+		originalByteValuesAreCurrent=false;
 	}
 
 }
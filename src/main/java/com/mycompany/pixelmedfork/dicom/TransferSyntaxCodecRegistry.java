@@ -0,0 +1,399 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageReaderWriterSpi;
+import javax.imageio.spi.ImageWriterSpi;
+
+/**
+ * <p>A class to find the ImageIO readers and writers to use for each compressed Transfer Syntax.</p>
+ *
+ * <p>The reader and writer service providers for each Transfer Syntax are looked up, and checked as being suitable
+ * (e.g., the standard JPEG reader, which does not support 12 bit extended lossy JPEG, is never used for that Transfer Syntax),
+ * only the first time they are needed, rather than for every image read. The search for plugins on the class path
+ * is also only done once.</p>
+ *
+ * <p>Reader and writer instances are pooled per thread, so that a thread decompressing one small image after another reuses the
+ * same reader rather than creating and discarding one each time. A pooled instance must only be used by the thread that
+ * obtained it, and must not be disposed of by the caller.</p>
+ *
+ * <p>If more than one plugin supports the same format, the one from a preferred vendor may be chosen with
+ * {@link #setPreferredVendor(String,String) setPreferredVendor()}, otherwise the first one registered is used.</p>
+ */
+public class TransferSyntaxCodecRegistry {
+
+	private TransferSyntaxCodecRegistry() {}
+
+	/***/
+	private static class Codec {
+		/***/
+		String transferSyntaxUID;
+		/***/
+		String formatName;
+		/***/
+		boolean lossy;
+		/***/
+		String lossyMethod;
+		/***/
+		boolean haveResolvedReader;
+		/***/
+		ImageReaderSpi readerSpi;
+		/***/
+		boolean haveResolvedWriter;
+		/***/
+		ImageWriterSpi writerSpi;
+
+		Codec(String transferSyntaxUID,String formatName,boolean lossy,String lossyMethod) {
+			this.transferSyntaxUID = transferSyntaxUID;
+			this.formatName = formatName;
+			this.lossy = lossy;
+			this.lossyMethod = lossyMethod;
+		}
+	}
+
+	/***/
+	private static final Map<String,Codec> codecs = new HashMap<String,Codec>();
+
+	/***/
+	private static void addCodec(String transferSyntaxUID,String formatName,boolean lossy,String lossyMethod) {
+		codecs.put(transferSyntaxUID,new Codec(transferSyntaxUID,formatName,lossy,lossyMethod));
+	}
+
+	static {
+		addCodec(TransferSyntax.JPEGBaseline,     "JPEG",          true, "ISO_10918_1");
+		addCodec(TransferSyntax.JPEGExtended,     "JPEG",          true, "ISO_10918_1");
+		addCodec(TransferSyntax.JPEG2000,         "JPEG2000",      true, "ISO_15444_1");
+		addCodec(TransferSyntax.JPEG2000Lossless, "JPEG2000",      false,null);
+		addCodec(TransferSyntax.JPEGLossless,     "jpeg-lossless", false,null);
+		addCodec(TransferSyntax.JPEGLosslessSV1,  "jpeg-lossless", false,null);
+		addCodec(TransferSyntax.JPEGLS,           "jpeg-ls",       false,null);
+		addCodec(TransferSyntax.JPEGNLS,          "jpeg-ls",       true, "ISO_14495_1");
+	}
+
+	/***/
+	private static final Map<String,String> preferredVendors = new HashMap<String,String>();	// keyed by transfer syntax, or null for all
+
+	/***/
+	private static boolean haveScannedForPlugins;
+
+	/***/
+	private static final ThreadLocal<Map<ImageReaderSpi,ImageReader>> threadReaders = new ThreadLocal<Map<ImageReaderSpi,ImageReader>>() {
+		protected Map<ImageReaderSpi,ImageReader> initialValue() { return new HashMap<ImageReaderSpi,ImageReader>(); }
+	};
+
+	/***/
+	private static final ThreadLocal<Map<ImageWriterSpi,ImageWriter>> threadWriters = new ThreadLocal<Map<ImageWriterSpi,ImageWriter>>() {
+		protected Map<ImageWriterSpi,ImageWriter> initialValue() { return new HashMap<ImageWriterSpi,ImageWriter>(); }
+	};
+
+	/**
+	 * @param	transferSyntaxUID
+	 * @return				true if there is a codec format for the Transfer Syntax (whether or not a plugin is available for it)
+	 */
+	public static boolean isSupported(String transferSyntaxUID) {
+		return codecs.containsKey(transferSyntaxUID);
+	}
+
+	/**
+	 * @param	transferSyntaxUID
+	 * @return				the ImageIO format name for the Transfer Syntax, or null if not supported
+	 */
+	public static String getFormatName(String transferSyntaxUID) {
+		Codec codec = codecs.get(transferSyntaxUID);
+		return codec == null ? null : codec.formatName;
+	}
+
+	/**
+	 * @param	transferSyntaxUID
+	 * @return				true if decompression of the Transfer Syntax is lossy
+	 */
+	public static boolean isLossy(String transferSyntaxUID) {
+		Codec codec = codecs.get(transferSyntaxUID);
+		return codec != null && codec.lossy;
+	}
+
+	/**
+	 * @param	transferSyntaxUID
+	 * @return				the value for Lossy Image Compression Method, or null if not lossy
+	 */
+	public static String getLossyMethod(String transferSyntaxUID) {
+		Codec codec = codecs.get(transferSyntaxUID);
+		return codec == null ? null : codec.lossyMethod;
+	}
+
+	/**
+	 * <p>Prefer the plugin of a particular vendor, if there is more than one for the same format.</p>
+	 *
+	 * <p>Takes effect for readers and writers obtained subsequently, including in threads that already have pooled ones.</p>
+	 *
+	 * @param	transferSyntaxUID	the Transfer Syntax, or null for all
+	 * @param	vendorName		the beginning of the vendor name of the service provider, e.g., "Sun" or "Oracle", or null to use the first registered
+	 */
+	public static synchronized void setPreferredVendor(String transferSyntaxUID,String vendorName) {
+		if (vendorName == null) {
+			preferredVendors.remove(transferSyntaxUID);
+		}
+		else {
+			preferredVendors.put(transferSyntaxUID,vendorName);
+		}
+		for (Codec codec : codecs.values()) {
+			if (transferSyntaxUID == null || transferSyntaxUID.equals(codec.transferSyntaxUID)) {
+				codec.haveResolvedReader = false;
+				codec.readerSpi = null;
+				codec.haveResolvedWriter = false;
+				codec.writerSpi = null;
+			}
+		}
+	}
+
+	/**
+	 * @param	transferSyntaxUID
+	 * @return				the preferred vendor name, if any
+	 */
+	private static String getPreferredVendor(String transferSyntaxUID) {
+		String vendorName = preferredVendors.get(transferSyntaxUID);
+		return vendorName == null ? preferredVendors.get(null) : vendorName;
+	}
+
+	/***/
+	private static synchronized void scanForPluginsIfNecessary() {
+		if (!haveScannedForPlugins) {
+//System.err.println("TransferSyntaxCodecRegistry.scanForPluginsIfNecessary(): Scanning for ImageIO plugin codecs");
+			ImageIO.scanForPlugins();
+			haveScannedForPlugins = true;
+		}
+	}
+
+	/**
+	 * <p>Is the service provider known not to work for the Transfer Syntax ?</p>
+	 *
+	 * @param	spi
+	 * @param	transferSyntaxUID
+	 * @return				true if not to be used
+	 */
+	private static boolean isExcluded(ImageReaderWriterSpi spi,String transferSyntaxUID) {
+		String description = spi.getDescription(Locale.US);
+		return transferSyntaxUID.equals(TransferSyntax.JPEGExtended)		// standard JPEG codec does not support 12 bit, regardless of vendor (was Sun, now Oracle)
+			&& (description.equals("Standard JPEG Image Reader") || description.equals("Standard JPEG Image Writer"));
+	}
+
+	/**
+	 * <p>Choose the service provider to use for the Transfer Syntax.</p>
+	 *
+	 * @param	category	ImageReaderSpi.class or ImageWriterSpi.class
+	 * @param	codec
+	 * @return			the service provider, or null if none is suitable
+	 */
+	private static <T extends ImageReaderWriterSpi> T chooseSpi(Class<T> category,Codec codec) {
+		scanForPluginsIfNecessary();
+		String vendorName = getPreferredVendor(codec.transferSyntaxUID);
+		ArrayList<T> candidates = new ArrayList<T>();
+		Iterator<T> it = IIORegistry.getDefaultInstance().getServiceProviders(category,true/*useOrdering*/);
+		while (it.hasNext()) {
+			T spi = it.next();
+			for (String name : spi.getFormatNames()) {
+				if (name.equalsIgnoreCase(codec.formatName)) {
+					if (isExcluded(spi,codec.transferSyntaxUID)) {
+System.err.println("Not using "+spi.getDescription(Locale.US)+" "+spi.getVendorName()+" "+spi.getVersion()+" for Transfer Syntax "+codec.transferSyntaxUID);
+					}
+					else {
+						candidates.add(spi);
+					}
+					break;
+				}
+			}
+		}
+		T chosen = null;
+		if (vendorName != null) {
+			for (T spi : candidates) {
+				if (spi.getVendorName() != null && spi.getVendorName().startsWith(vendorName)) {
+					chosen = spi;
+					break;
+				}
+			}
+		}
+		if (chosen == null && !candidates.isEmpty()) {
+			chosen = candidates.get(0);
+		}
+		if (chosen != null) {
+System.err.println("Using "+chosen.getDescription(Locale.US)+" "+chosen.getVendorName()+" "+chosen.getVersion()+" for Transfer Syntax "+codec.transferSyntaxUID);
+		}
+		return chosen;
+	}
+
+	/**
+	 * @param	transferSyntaxUID
+	 * @return				the codec
+	 * @exception	DicomException	if the Transfer Syntax is not supported
+	 */
+	private static Codec getCodec(String transferSyntaxUID) throws DicomException {
+		Codec codec = codecs.get(transferSyntaxUID);
+		if (codec == null) {
+			throw new DicomException("Unrecognized Transfer Syntax "+transferSyntaxUID+" for encapsulated PixelData");
+		}
+		return codec;
+	}
+
+	/**
+	 * <p>Get the service provider of readers for the Transfer Syntax.</p>
+	 *
+	 * @param	transferSyntaxUID
+	 * @return				the service provider
+	 * @exception	DicomException	if the Transfer Syntax is not supported or no suitable reader is available
+	 */
+	public static synchronized ImageReaderSpi getReaderSpi(String transferSyntaxUID) throws DicomException {
+		Codec codec = getCodec(transferSyntaxUID);
+		if (!codec.haveResolvedReader) {
+			codec.readerSpi = chooseSpi(ImageReaderSpi.class,codec);
+			codec.haveResolvedReader = true;
+		}
+		if (codec.readerSpi == null) {
+			throw new DicomException("No reader for "+codec.formatName+" available for Transfer Syntax "+transferSyntaxUID);
+		}
+		return codec.readerSpi;
+	}
+
+	/**
+	 * <p>Get the service provider of writers for the Transfer Syntax.</p>
+	 *
+	 * @param	transferSyntaxUID
+	 * @return				the service provider
+	 * @exception	DicomException	if the Transfer Syntax is not supported or no suitable writer is available
+	 */
+	public static synchronized ImageWriterSpi getWriterSpi(String transferSyntaxUID) throws DicomException {
+		Codec codec = getCodec(transferSyntaxUID);
+		if (!codec.haveResolvedWriter) {
+			codec.writerSpi = chooseSpi(ImageWriterSpi.class,codec);
+			codec.haveResolvedWriter = true;
+		}
+		if (codec.writerSpi == null) {
+			throw new DicomException("No writer for "+codec.formatName+" available for Transfer Syntax "+transferSyntaxUID);
+		}
+		return codec.writerSpi;
+	}
+
+	/**
+	 * <p>Create a new reader for the Transfer Syntax, for a caller that manages its own readers.</p>
+	 *
+	 * @param	transferSyntaxUID
+	 * @return				a new reader, which the caller should dispose of
+	 * @exception	DicomException	if the Transfer Syntax is not supported or no suitable reader is available
+	 */
+	public static ImageReader createReader(String transferSyntaxUID) throws DicomException {
+		ImageReaderSpi spi = getReaderSpi(transferSyntaxUID);
+		try {
+			return spi.createReaderInstance();
+		}
+		catch (IOException e) {
+			throw new DicomException("Cannot create reader for Transfer Syntax "+transferSyntaxUID+": "+e);
+		}
+	}
+
+	/**
+	 * <p>Create a new writer for the Transfer Syntax, for a caller that manages its own writers.</p>
+	 *
+	 * @param	transferSyntaxUID
+	 * @return				a new writer, which the caller should dispose of
+	 * @exception	DicomException	if the Transfer Syntax is not supported or no suitable writer is available
+	 */
+	public static ImageWriter createWriter(String transferSyntaxUID) throws DicomException {
+		ImageWriterSpi spi = getWriterSpi(transferSyntaxUID);
+		try {
+			return spi.createWriterInstance();
+		}
+		catch (IOException e) {
+			throw new DicomException("Cannot create writer for Transfer Syntax "+transferSyntaxUID+": "+e);
+		}
+	}
+
+	/**
+	 * <p>Get the current thread's reader for the Transfer Syntax.</p>
+	 *
+	 * <p>The reader is reset before it is returned. It must only be used by the current thread, and must not be disposed of.</p>
+	 *
+	 * @param	transferSyntaxUID
+	 * @return				the reader
+	 * @exception	DicomException	if the Transfer Syntax is not supported or no suitable reader is available
+	 */
+	public static ImageReader getReader(String transferSyntaxUID) throws DicomException {
+		ImageReaderSpi spi = getReaderSpi(transferSyntaxUID);
+		Map<ImageReaderSpi,ImageReader> readers = threadReaders.get();
+		ImageReader reader = readers.get(spi);
+		if (reader == null) {
+			reader = createReader(transferSyntaxUID);
+			readers.put(spi,reader);
+		}
+		else {
+			reader.reset();
+		}
+		return reader;
+	}
+
+	/**
+	 * <p>Get the current thread's writer for the Transfer Syntax.</p>
+	 *
+	 * <p>The writer is reset before it is returned. It must only be used by the current thread, and must not be disposed of.</p>
+	 *
+	 * @param	transferSyntaxUID
+	 * @return				the writer
+	 * @exception	DicomException	if the Transfer Syntax is not supported or no suitable writer is available
+	 */
+	public static ImageWriter getWriter(String transferSyntaxUID) throws DicomException {
+		ImageWriterSpi spi = getWriterSpi(transferSyntaxUID);
+		Map<ImageWriterSpi,ImageWriter> writers = threadWriters.get();
+		ImageWriter writer = writers.get(spi);
+		if (writer == null) {
+			writer = createWriter(transferSyntaxUID);
+			writers.put(spi,writer);
+		}
+		else {
+			writer.reset();
+		}
+		return writer;
+	}
+
+	/**
+	 * <p>Dispose of the readers and writers pooled for the current thread, e.g., before a thread in a pool is returned.</p>
+	 */
+	public static void disposeOfThreadCodecs() {
+		for (ImageReader reader : threadReaders.get().values()) {
+			reader.dispose();
+		}
+		threadReaders.remove();
+		for (ImageWriter writer : threadWriters.get().values()) {
+			writer.dispose();
+		}
+		threadWriters.remove();
+	}
+
+	/**
+	 * <p>List all the available readers, for diagnosing why one could not be found.</p>
+	 *
+	 * @param	out
+	 */
+	public static void dumpListOfAllAvailableReaders(PrintStream out) {
+		scanForPluginsIfNecessary();
+		String[] formats=ImageIO.getReaderFormatNames();
+		for (int i=0; formats != null && i<formats.length; ++i) {
+			out.println(formats[i]+":");
+			Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(formats[i]);
+			while (readers.hasNext()) {
+				ImageReader reader = readers.next();
+				ImageReaderSpi spi = reader.getOriginatingProvider();
+				out.println("\t"+spi.getDescription(Locale.US)+" "+spi.getVendorName()+" "+spi.getVersion());
+			}
+		}
+	}
+}
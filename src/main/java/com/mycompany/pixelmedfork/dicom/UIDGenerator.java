@@ -3,6 +3,8 @@
 package com.pixelmed.dicom;
 
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.rmi.server.UID;
 import java.rmi.dgc.VMID;
 
@@ -13,6 +15,9 @@ import com.pixelmed.utils.MACAddress;
 /**
  * <p>A class for generating new UIDs, deterministically or not, including potentially reproducible Study, Series and SOP Instance UIDs.</p>
  *
+ * <p>An instance is not safe to use from more than one thread at once. When many UIDs are needed, especially by more than one thread,
+ * use {@link #getUniqueUID() getUniqueUID()} instead, which needs no instance, does not lock, and is cheaper for each UID.</p>
+ *
  * @author	dclunie
  */
 
@@ -28,6 +33,7 @@ public class UIDGenerator {
 	private static final String UIDGEN_INSTANCE_DIR = "5";
 	private static final String UIDGEN_DIMENSIONORGANIZATION = "6";
 	private static final String UIDGEN_CONCATENATION = "7";
+	private static final String UIDGEN_SEQUENTIAL = "8";
 		
 	private String stamp;
 	private String longStamp;
@@ -112,6 +118,99 @@ public class UIDGenerator {
 		stamp = machineString + "." + vmString + "." + timeString + "." + countString;
 	}
 
+	/***/
+	private static final int maxSequentialCountDigits = 12;		// a million UIDs a second for more than ten days before a new prefix is needed
+	/***/
+	private static final long maxSequentialCount = 999999999999l;
+
+	/**
+	 * <p>A prefix unique to this process and the time it was made, and the count of UIDs made with it.</p>
+	 */
+	private static final class SequentialPrefix {
+		/***/
+		final char[] chars;
+		/***/
+		final AtomicLong count = new AtomicLong();
+
+		/***/
+		SequentialPrefix() {
+			int maxStampLength =
+				64
+				- root.length() - 1	// root .
+				- 3			// . in generated stamp
+				- 2			// . UIDGEN_SEQUENTIAL
+				- 1 - maxSequentialCountDigits;		// . count
+			long ourMachine = Math.abs(machineAddress);
+			String string = new UID().toString();	// e.g. "19c082:fb77ce774a:-8000"
+			StringTokenizer st = new StringTokenizer(string,":");
+			int  ourUnique = Math.abs(Integer.valueOf(st.nextToken(),16).intValue());
+			long   ourTime = Math.abs(   Long.valueOf(st.nextToken(),16).longValue());
+			int   ourCount = Math.abs(  Short.valueOf(st.nextToken(),16).shortValue() + 0x8000);
+			String   machineString = Long.toString(ourMachine);
+			String        vmString = Integer.toString(ourUnique);
+			String      timeString = Long.toString(ourTime);
+			String     countString = Integer.toString(ourCount);
+			while (ourUnique > 10000 && machineString.length()+vmString.length()+timeString.length()+countString.length() > maxStampLength) {
+				ourUnique = ourUnique / 10;
+				vmString = Integer.toString(ourUnique);
+			}
+			while (ourMachine > 0 && machineString.length()+vmString.length()+timeString.length()+countString.length() > maxStampLength) {
+				ourMachine = ourMachine / 10;
+				machineString = Long.toString(ourMachine);
+			}
+			// same stamp as newStamp() makes, from its own java.rmi.server.UID, but a UIDGEN_XXX no generator instance uses
+			chars = (root+"."+machineString+"."+vmString+"."+timeString+"."+countString+"."+UIDGEN_SEQUENTIAL+".").toCharArray();
+		}
+	}
+
+	/***/
+	private static final AtomicReference<SequentialPrefix> sequentialPrefix = new AtomicReference<SequentialPrefix>();
+
+	/***/
+	private static final ThreadLocal<char[]> sequentialBuffer = new ThreadLocal<char[]>() {
+		protected char[] initialValue() { return new char[64]; }
+	};
+
+	/**
+	 * <p>Get a new UID for any purpose, that is never the same twice.</p>
+	 *
+	 * <p>Is safe to call from any number of threads at once without locking. The UID is a prefix, unique to this process and made once,
+	 * followed by a count that is atomically incremented. A new prefix is made only if the count would exceed 12 digits, so the UID never
+	 * exceeds 64 characters, and the only object made for each UID is the returned String.</p>
+	 *
+	 * @return			the UID
+	 */
+	public static String getUniqueUID() {
+		SequentialPrefix prefix;
+		long count;
+		while (true) {
+			prefix = sequentialPrefix.get();
+			if (prefix != null) {
+				count = prefix.count.incrementAndGet();		// starts at 1, so no UID ends in .0
+				if (count <= maxSequentialCount) {
+					break;
+				}
+			}
+			sequentialPrefix.compareAndSet(prefix,new SequentialPrefix());	// if another thread got there first, use its prefix
+		}
+		char[] buffer = sequentialBuffer.get();
+		int prefixLength = prefix.chars.length;
+		System.arraycopy(prefix.chars,0,buffer,0,prefixLength);
+		int end = prefixLength;
+		{
+			int digits = 1;
+			for (long remaining=count/10; remaining > 0; remaining/=10) {
+				++digits;
+			}
+			end += digits;
+			for (int i=end-1; i>=prefixLength; --i) {
+				buffer[i] = (char)('0' + (int)(count%10));
+				count /= 10;
+			}
+		}
+		return new String(buffer,0,end);
+	}
+
 	/**
 	 * <p>Create a UID generator.</p>
 	 *
@@ -0,0 +1,134 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A class to check that UIDs made concurrently by {@link com.pixelmed.dicom.UIDGenerator#getUniqueUID() UIDGenerator.getUniqueUID()} are unique,
+ * and to measure how quickly they are made.</p>
+ *
+ * <p>Each of a number of threads makes UIDs and adds them to a shared set, counting any that are already present or that are
+ * not valid. For comparison, the same number of UIDs are also made with a {@link com.pixelmed.dicom.UIDGenerator UIDGenerator} instance
+ * in each thread, as has always been done, by calling {@link com.pixelmed.dicom.UIDGenerator#getAnotherNewUID() getAnotherNewUID()}.</p>
+ */
+public class UIDGeneratorBenchmark {
+
+	private UIDGeneratorBenchmark() {}
+
+	/**
+	 * @param	uid
+	 * @return		true if no longer than 64 characters and made of components of digits without leading zeroes
+	 */
+	private static boolean isValid(String uid) {
+		int length = uid.length();
+		if (length == 0 || length > 64) {
+			return false;
+		}
+		boolean startOfComponent = true;
+		for (int i=0; i<length; ++i) {
+			char c = uid.charAt(i);
+			if (c == '.') {
+				if (startOfComponent) {
+					return false;
+				}
+				startOfComponent = true;
+			}
+			else if (c >= '0' && c <= '9') {
+				if (startOfComponent && c == '0' && i+1 < length && uid.charAt(i+1) != '.') {
+					return false;
+				}
+				startOfComponent = false;
+			}
+			else {
+				return false;
+			}
+		}
+		return !startOfComponent;
+	}
+
+	/**
+	 * @param	threads		the number of threads
+	 * @param	uidsPerThread	the number of UIDs each thread makes
+	 * @param	useInstances	whether to use an instance in each thread rather than the static method
+	 * @param	check		whether to check uniqueness and validity, rather than only time making them
+	 * @return			the number of duplicate or invalid UIDs
+	 * @exception	Exception
+	 */
+	private static long run(int threads,final int uidsPerThread,final boolean useInstances,final boolean check) throws Exception {
+		final Set<String> seen = check ? ConcurrentHashMap.<String>newKeySet(threads*uidsPerThread) : null;
+		final AtomicLong problems = new AtomicLong();
+		Thread[] workers = new Thread[threads];
+		for (int t=0; t<threads; ++t) {
+			workers[t] = new Thread() {
+				public void run() {
+					try {
+						UIDGenerator generator = useInstances ? new UIDGenerator() : null;
+						long length = 0;
+						for (int n=0; n<uidsPerThread; ++n) {
+							String uid = useInstances ? generator.getAnotherNewUID() : UIDGenerator.getUniqueUID();
+							if (check) {
+								if (!seen.add(uid)) {
+									System.err.println("Duplicate UID "+uid);
+									problems.incrementAndGet();
+								}
+								if (!isValid(uid)) {
+									System.err.println("Invalid UID "+uid);
+									problems.incrementAndGet();
+								}
+							}
+							length += uid.length();		// use the value so that making it is not optimized away
+						}
+						if (length == 0) {
+							problems.incrementAndGet();
+						}
+					}
+					catch (Exception e) {
+						e.printStackTrace(System.err);
+						problems.incrementAndGet();
+					}
+				}
+			};
+		}
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return problems.get();
+	}
+
+	/**
+	 * <p>Check uniqueness of, and time making, UIDs in many threads.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5), then optionally the number of threads (default the number of processors),
+	 *			then optionally the number of UIDs each thread makes (default 1000000)
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			int threads = arg.length > 1 ? Integer.parseInt(arg[1]) : Runtime.getRuntime().availableProcessors();
+			int uidsPerThread = arg.length > 2 ? Integer.parseInt(arg[2]) : 1000000;
+			long total = (long)threads*uidsPerThread;
+			System.err.println("Checking "+total+" UIDs from "+threads+" threads");
+			long problems = run(threads,uidsPerThread,false,true);
+			System.err.println(problems == 0 ? "All UIDs unique and valid" : (problems+" duplicate or invalid UIDs"));
+			for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+				for (int m=0; m<2; ++m) {
+					boolean useInstances = m > 0;
+					long startTime = System.nanoTime();
+					run(threads,uidsPerThread,useInstances,false);
+					long elapsed = System.nanoTime() - startTime;
+					String what = useInstances ? "getAnotherNewUID() per thread instance" : "getUniqueUID()                        ";
+					if (r >= 0) {
+						System.err.println("Pass "+r+" "+what+": "+total+" UIDs, "+(elapsed/1000000)+" ms, "+(total*1000000000l/elapsed)+" UIDs/s");
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.mycompany.pixelmedfork.dicom;
+
+/**
+ * <p>This is an abstract class to support keeping the replacement UIDs that have been assigned to original UIDs during de-identification,
+ * so that the same original UID is always replaced by the same new UID, within and across data sets.</p>
+ *
+ * <p>Concrete subclasses keep the replacements in different ways, such as {@link com.pixelmed.dicom.UIDRemapStoreInMemory UIDRemapStoreInMemory},
+ * which is the default, and {@link com.pixelmed.dicom.UIDRemapStoreOnDisk UIDRemapStoreOnDisk}, which is not limited by the heap and survives
+ * restarts.</p>
+ *
+ * <p>All implementations are safe to use from any number of threads at once, and guarantee that however many threads ask for the
+ * replacement of the same original UID at the same time, all are given the same replacement.</p>
+ *
+ * @see com.pixelmed.dicom.ClinicalTrialsAttributes#setUIDRemapStore(UIDRemapStore)
+ */
+public abstract class UIDRemapStore {
+
+	protected UIDRemapStore() {}
+
+	/**
+	 * <p>Get the replacement for a UID, assigning a new one if it has not been replaced before.</p>
+	 *
+	 * @param	originalUID		the UID to be replaced
+	 * @return				the replacement UID
+	 * @exception	DicomException	if the replacement cannot be recorded
+	 */
+	public abstract String getReplacementUID(String originalUID) throws DicomException;
+
+	/**
+	 * <p>Get the replacement for a UID, if it has been replaced before.</p>
+	 *
+	 * @param	originalUID		the UID that was replaced
+	 * @return				the replacement UID, or null if none has been assigned
+	 * @exception	DicomException	if the store cannot be read
+	 */
+	public abstract String getExistingReplacementUID(String originalUID) throws DicomException;
+
+	/**
+	 * <p>Get the number of original UIDs that have been replaced.</p>
+	 *
+	 * @return	the number of replacements
+	 */
+	public abstract long size();
+
+	/**
+	 * <p>Remove all the replacements.</p>
+	 *
+	 * @exception	DicomException	if the store cannot be cleared
+	 */
+	public abstract void clear() throws DicomException;
+
+	/**
+	 * <p>Release any resources held by the store, after which it may not be used.</p>
+	 *
+	 * <p>Does nothing unless overridden.</p>
+	 *
+	 * @exception	DicomException	if the store cannot be closed cleanly
+	 */
+	public void close() throws DicomException {}
+
+	/**
+	 * <p>Make a new replacement UID.</p>
+	 *
+	 * @return	a UID that has never been made before
+	 */
+	protected String makeReplacementUID() {
+		return UIDGenerator.getUniqueUID();
+	}
+}
@@ -0,0 +1,50 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * <p>Keep replacement UIDs in a concurrent map on the heap.</p>
+ *
+ * <p>Lookups do not lock, and a new replacement is made at most once for each original UID, even when many threads ask for it at once.</p>
+ *
+ * <p>This is the default store, and is appropriate for the UIDs of modest numbers of instances within a single run.</p>
+ */
+public final class UIDRemapStoreInMemory extends UIDRemapStore {
+
+	/***/
+	private final ConcurrentHashMap<String,String> map = new ConcurrentHashMap<String,String>();
+
+	/***/
+	private final Function<String,String> makeReplacement = new Function<String,String>() {
+		public String apply(String originalUID) {
+			return makeReplacementUID();
+		}
+	};
+
+	public UIDRemapStoreInMemory() {}
+
+	public String getReplacementUID(String originalUID) {
+		String replacementUID = map.get(originalUID);		// usually already present, so avoid locking the bin in computeIfAbsent()
+		if (replacementUID == null) {
+			replacementUID = map.computeIfAbsent(originalUID,makeReplacement);
+		}
+		return replacementUID;
+	}
+
+	public String getExistingReplacementUID(String originalUID) {
+		return map.get(originalUID);
+	}
+
+	public long size() {
+		return map.mappingCount();
+	}
+
+	public void clear() {
+		map.clear();
+	}
+
+	public String toString() {
+		return "UIDRemapStoreInMemory with "+map.mappingCount()+" replacements";
+	}
+}
@@ -0,0 +1,521 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Keep replacement UIDs in a memory mapped file, so that the number of replacements is not limited by the heap,
+ * and the same replacements are used again when the file is reopened in a later run.</p>
+ *
+ * <p>The file is a hash table with a fixed number of buckets, each of which holds the offset of the most recently added record
+ * whose original UID hashes to it. Each record holds the offset of the previous record in the same bucket, then the original and replacement UIDs.
+ * Records are only ever appended, and a bucket is updated only after the record it refers to has been completely written, so a file
+ * that was not closed cleanly contains at worst an unreferenced record at its end. The tail of the file is mapped in segments as it grows.</p>
+ *
+ * <p>Buckets are shared among a fixed number of locks, so threads only wait for one another when their UIDs hash to the same stripe.</p>
+ *
+ * <p>Mapped changes survive the process ending, however it ends, but only reach the storage device when {@link #force() force()}
+ * or {@link #close() close()} is called, or the operating system chooses to write them.</p>
+ *
+ * <p>Only one process may use a file at a time.</p>
+ */
+public final class UIDRemapStoreOnDisk extends UIDRemapStore {
+
+	/***/
+	private static final byte[] magic = { 'P','X','U','I','D','M','A','P' };
+	/***/
+	private static final int version = 1;
+
+	/***/
+	private static final int headerLength = 64;
+	/***/
+	private static final int versionOffset = 8;
+	/***/
+	private static final int bucketCountOffset = 12;
+	/***/
+	private static final int segmentSizeOffset = 16;
+	/***/
+	private static final int tailOffset = 24;
+	/***/
+	private static final int entriesOffset = 32;
+
+	/***/
+	private static final int recordHeaderLength = 10;	// previous record offset (8), original length (1), replacement length (1)
+	/***/
+	private static final int maxUIDLength = 255;
+
+	/***/
+	private static final int defaultBucketCount = 1<<20;
+	/***/
+	private static final int maxBucketCount = 1<<27;	// so that the header and buckets fit in a single mapping
+	/***/
+	private static final int defaultSegmentSize = 1<<26;
+	/***/
+	private static final int lockCount = 1024;
+
+	/***/
+	private final File file;
+	/***/
+	private final RandomAccessFile raf;
+	/***/
+	private final FileChannel channel;
+	/***/
+	private final MappedByteBuffer index;
+	/***/
+	private final int bucketCount;
+	/***/
+	private final long segmentSize;
+	/***/
+	private final long dataStart;
+	/***/
+	private volatile MappedByteBuffer[] segments;
+	/***/
+	private long tail;
+	/***/
+	private long entries;
+	/***/
+	private boolean closed;
+	/***/
+	private final Object[] locks;
+	/***/
+	private final Object allocationLock = new Object();
+
+	/**
+	 * <p>Open an existing store, or create a new one with the default number of buckets.</p>
+	 *
+	 * @param	file			the file to open or create
+	 * @exception	IOException	if the file cannot be opened or mapped
+	 * @exception	DicomException	if an existing file is not a store
+	 */
+	public UIDRemapStoreOnDisk(File file) throws IOException, DicomException {
+		this(file,defaultBucketCount);
+	}
+
+	/**
+	 * <p>Open an existing store, or create a new one.</p>
+	 *
+	 * <p>The number of buckets should be of the order of the number of UIDs expected to be replaced. It cannot be changed after the file is created,
+	 * but only affects performance, since any number of records may share a bucket.</p>
+	 *
+	 * @param	file			the file to open or create
+	 * @param	bucketCount		the number of buckets if a new file is created, rounded up to a power of two; ignored for an existing file
+	 * @exception	IOException	if the file cannot be opened or mapped
+	 * @exception	DicomException	if an existing file is not a store
+	 */
+	public UIDRemapStoreOnDisk(File file,int bucketCount) throws IOException, DicomException {
+		this.file = file;
+		raf = new RandomAccessFile(file,"rw");
+		channel = raf.getChannel();
+		try {
+			if (channel.size() == 0) {
+				int count = 1;
+				while (count < bucketCount && count < maxBucketCount) {
+					count <<= 1;
+				}
+				this.bucketCount = count;
+				segmentSize = defaultSegmentSize;
+				dataStart = headerLength + ((long)count)*8;
+				index = channel.map(FileChannel.MapMode.READ_WRITE,0,dataStart);	// extends the file, which is filled with zeroes, so all buckets are empty
+				tail = dataStart;
+				entries = 0;
+				for (int i=0; i<magic.length; ++i) {
+					index.put(i,magic[i]);
+				}
+				index.putInt(versionOffset,version);
+				index.putInt(bucketCountOffset,count);
+				index.putLong(segmentSizeOffset,segmentSize);
+				writeTailAndEntries();
+			}
+			else {
+				if (channel.size() < headerLength) {
+					throw new DicomException("Not a UID remap store - too short - "+file);
+				}
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,0,headerLength);
+				for (int i=0; i<magic.length; ++i) {
+					if (header.get(i) != magic[i]) {
+						throw new DicomException("Not a UID remap store - bad magic number - "+file);
+					}
+				}
+				if (header.getInt(versionOffset) != version) {
+					throw new DicomException("Unsupported UID remap store version "+header.getInt(versionOffset)+" - "+file);
+				}
+				int count = header.getInt(bucketCountOffset);
+				if (count <= 0 || count > maxBucketCount || (count & (count-1)) != 0) {
+					throw new DicomException("Corrupt UID remap store - bad bucket count "+count+" - "+file);
+				}
+				this.bucketCount = count;
+				segmentSize = header.getLong(segmentSizeOffset);
+				dataStart = headerLength + ((long)count)*8;
+				tail = header.getLong(tailOffset);
+				entries = header.getLong(entriesOffset);
+				if (segmentSize <= recordHeaderLength+2*maxUIDLength || segmentSize > Integer.MAX_VALUE || tail < dataStart || channel.size() < dataStart) {
+					throw new DicomException("Corrupt UID remap store - bad header - "+file);
+				}
+				index = channel.map(FileChannel.MapMode.READ_WRITE,0,dataStart);
+			}
+			segments = new MappedByteBuffer[0];
+			if (tail > dataStart) {
+				mapSegment((int)((tail - 1 - dataStart)/segmentSize));
+			}
+		}
+		catch (IOException e) {
+			channel.close();
+			raf.close();
+			throw e;
+		}
+		catch (DicomException e) {
+			channel.close();
+			raf.close();
+			throw e;
+		}
+		locks = new Object[lockCount];
+		for (int i=0; i<lockCount; ++i) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * <p>Make sure that all the segments up to and including the specified one are mapped.</p>
+	 *
+	 * <p>Must be called with the allocation lock held, or from the constructor.</p>
+	 *
+	 * @param	segment			the index of the last segment that needs to be mapped
+	 * @exception	IOException
+	 */
+	private void mapSegment(int segment) throws IOException {
+		MappedByteBuffer[] oldSegments = segments;
+		if (segment >= oldSegments.length) {
+			MappedByteBuffer[] newSegments = new MappedByteBuffer[segment+1];
+			System.arraycopy(oldSegments,0,newSegments,0,oldSegments.length);
+			for (int s=oldSegments.length; s<=segment; ++s) {
+//System.err.println("UIDRemapStoreOnDisk.mapSegment(): mapping segment "+s);
+				newSegments[s] = channel.map(FileChannel.MapMode.READ_WRITE,dataStart+s*segmentSize,segmentSize);
+			}
+			segments = newSegments;
+		}
+	}
+
+	/**
+	 * <p>Record the current tail and number of entries in the header.</p>
+	 */
+	private void writeTailAndEntries() {
+		index.putLong(tailOffset,tail);
+		index.putLong(entriesOffset,entries);
+	}
+
+	/**
+	 * <p>Reserve space for a new record, which never spans segments.</p>
+	 *
+	 * @param	length			the length of the record
+	 * @return				the offset of the record in the file
+	 * @exception	IOException	if the file cannot be extended
+	 */
+	private long allocate(int length) throws IOException {
+		synchronized (allocationLock) {
+			long inSegment = (tail - dataStart) % segmentSize;
+			if (inSegment + length > segmentSize) {
+				tail += segmentSize - inSegment;
+			}
+			mapSegment((int)((tail - dataStart)/segmentSize));
+			long offset = tail;
+			tail += length;
+			++entries;
+			writeTailAndEntries();
+			return offset;
+		}
+	}
+
+	/**
+	 * @param	originalUID
+	 * @exception	DicomException	if the UID cannot be stored
+	 */
+	private static void checkUID(String originalUID) throws DicomException {
+		int length = originalUID.length();
+		if (length > maxUIDLength) {
+			throw new DicomException("Cannot remap UID longer than "+maxUIDLength+" characters");
+		}
+		for (int i=0; i<length; ++i) {
+			if (originalUID.charAt(i) > 0xff) {
+				throw new DicomException("Cannot remap UID containing character 0x"+Integer.toHexString(originalUID.charAt(i)));
+			}
+		}
+	}
+
+	/**
+	 * @param	originalUID
+	 * @return			the bucket
+	 */
+	private int getBucket(String originalUID) {
+		int h = originalUID.hashCode();
+		h ^= h >>> 16;
+		return h & (bucketCount-1);
+	}
+
+	/**
+	 * <p>Search the records of a bucket for an original UID.</p>
+	 *
+	 * <p>Must be called with the lock for the bucket held.</p>
+	 *
+	 * @param	offset		the offset of the most recent record in the bucket, or zero if none
+	 * @param	originalUID
+	 * @return			the replacement UID, or null if not found
+	 */
+	private String find(long offset,String originalUID) {
+		MappedByteBuffer[] currentSegments = segments;
+		int length = originalUID.length();
+		while (offset != 0) {
+			long relative = offset - dataStart;
+			MappedByteBuffer segment = currentSegments[(int)(relative/segmentSize)];
+			int position = (int)(relative%segmentSize);
+			if ((segment.get(position+8) & 0xff) == length) {
+				int start = position + recordHeaderLength;
+				boolean match = true;
+				for (int i=0; i<length; ++i) {
+					if ((char)(segment.get(start+i) & 0xff) != originalUID.charAt(i)) {
+						match = false;
+						break;
+					}
+				}
+				if (match) {
+					int replacementLength = segment.get(position+9) & 0xff;
+					char[] replacement = new char[replacementLength];
+					start += length;
+					for (int i=0; i<replacementLength; ++i) {
+						replacement[i] = (char)(segment.get(start+i) & 0xff);
+					}
+					return new String(replacement);
+				}
+			}
+			offset = segment.getLong(position);
+		}
+		return null;
+	}
+
+	/**
+	 * @exception	DicomException	if closed
+	 */
+	private void checkNotClosed() throws DicomException {
+		if (closed) {
+			throw new DicomException("UID remap store is closed - "+file);
+		}
+	}
+
+	public String getReplacementUID(String originalUID) throws DicomException {
+		checkUID(originalUID);
+		int bucket = getBucket(originalUID);
+		int bucketPosition = headerLength + bucket*8;
+		synchronized (locks[bucket & (lockCount-1)]) {
+			checkNotClosed();
+			long previous = index.getLong(bucketPosition);
+			String replacementUID = find(previous,originalUID);
+			if (replacementUID == null) {
+				replacementUID = makeReplacementUID();
+				int originalLength = originalUID.length();
+				int replacementLength = replacementUID.length();
+				long offset;
+				try {
+					offset = allocate(recordHeaderLength + originalLength + replacementLength);
+				}
+				catch (IOException e) {
+					throw new DicomException("Cannot extend UID remap store - "+e);
+				}
+				long relative = offset - dataStart;
+				MappedByteBuffer segment = segments[(int)(relative/segmentSize)];
+				int position = (int)(relative%segmentSize);
+				segment.putLong(position,previous);
+				segment.put(position+8,(byte)originalLength);
+				segment.put(position+9,(byte)replacementLength);
+				position += recordHeaderLength;
+				for (int i=0; i<originalLength; ++i) {
+					segment.put(position++,(byte)originalUID.charAt(i));
+				}
+				for (int i=0; i<replacementLength; ++i) {
+					segment.put(position++,(byte)replacementUID.charAt(i));
+				}
+				index.putLong(bucketPosition,offset);		// only now is the record reachable
+			}
+			return replacementUID;
+		}
+	}
+
+	public String getExistingReplacementUID(String originalUID) throws DicomException {
+		if (originalUID.length() > maxUIDLength) {
+			return null;
+		}
+		int bucket = getBucket(originalUID);
+		synchronized (locks[bucket & (lockCount-1)]) {
+			checkNotClosed();
+			return find(index.getLong(headerLength + bucket*8),originalUID);
+		}
+	}
+
+	public long size() {
+		synchronized (allocationLock) {
+			return entries;
+		}
+	}
+
+	/**
+	 * <p>Perform an action while holding every bucket lock, so that no other thread is using the store.</p>
+	 *
+	 * @param	lock		the first lock not yet held
+	 * @param	close		whether to close the store, rather than remove all the replacements
+	 * @exception	IOException
+	 */
+	private void withAllLocksHeld(int lock,boolean close) throws IOException {
+		if (lock < lockCount) {
+			synchronized (locks[lock]) {
+				withAllLocksHeld(lock+1,close);
+			}
+		}
+		else if (!closed) {
+			synchronized (allocationLock) {
+				if (close) {
+					forceAll();
+					closed = true;
+					segments = new MappedByteBuffer[0];
+					channel.close();
+					raf.close();
+				}
+				else {
+					for (int bucket=0; bucket<bucketCount; ++bucket) {
+						index.putLong(headerLength + bucket*8,0);
+					}
+					tail = dataStart;
+					entries = 0;
+					writeTailAndEntries();		// the segments are not truncated, since they remain mapped, but are overwritten by new records
+				}
+			}
+		}
+	}
+
+	public void clear() throws DicomException {
+		try {
+			withAllLocksHeld(0,false);
+		}
+		catch (IOException e) {
+			throw new DicomException("Cannot clear UID remap store - "+e);
+		}
+	}
+
+	/**
+	 * <p>Write the buckets, records and header to the storage device.</p>
+	 */
+	private void forceAll() {
+		MappedByteBuffer[] currentSegments = segments;
+		for (MappedByteBuffer segment : currentSegments) {
+			segment.force();
+		}
+		index.force();
+	}
+
+	/**
+	 * <p>Write all changes so far to the storage device, so that they survive the system failing.</p>
+	 *
+	 * @exception	DicomException	if closed
+	 */
+	public void force() throws DicomException {
+		synchronized (allocationLock) {
+			checkNotClosed();
+			forceAll();
+		}
+	}
+
+	/**
+	 * <p>Write all changes to the storage device and close the file.</p>
+	 *
+	 * <p>The mappings are released only when garbage collected.</p>
+	 *
+	 * @exception	DicomException	if the file cannot be closed
+	 */
+	public void close() throws DicomException {
+		try {
+			withAllLocksHeld(0,true);
+		}
+		catch (IOException e) {
+			throw new DicomException("Cannot close UID remap store - "+e);
+		}
+	}
+
+	public String toString() {
+		return "UIDRemapStoreOnDisk "+file+" with "+size()+" replacements in "+bucketCount+" buckets";
+	}
+
+	/**
+	 * <p>Remap UIDs concurrently, check that each original UID always gets the same replacement, then reopen the store and check again.</p>
+	 *
+	 * @param	arg	the file to use, which is replaced, then optionally the number of threads (default the number of processors),
+	 *			then optionally the number of distinct original UIDs (default 1000000), each of which every thread remaps
+	 */
+	public static void main(String arg[]) {
+		try {
+			final File file = new File(arg[0]);
+			final int threads = arg.length > 1 ? Integer.parseInt(arg[1]) : Runtime.getRuntime().availableProcessors();
+			final int distinct = arg.length > 2 ? Integer.parseInt(arg[2]) : 1000000;
+			file.delete();
+			final UIDRemapStoreOnDisk store = new UIDRemapStoreOnDisk(file,distinct);
+			final ConcurrentHashMap<String,String> expected = new ConcurrentHashMap<String,String>();
+			final AtomicLong problems = new AtomicLong();
+			long startTime = System.nanoTime();
+			Thread[] workers = new Thread[threads];
+			for (int t=0; t<threads; ++t) {
+				final int start = t*distinct/threads;		// each thread starts at a different place, so that threads race to add the same UIDs
+				workers[t] = new Thread() {
+					public void run() {
+						try {
+							for (int n=0; n<distinct; ++n) {
+								String originalUID = "1.2.840.99999."+((start+n)%distinct);
+								String replacementUID = store.getReplacementUID(originalUID);
+								String previous = expected.putIfAbsent(originalUID,replacementUID);
+								if (previous != null && !previous.equals(replacementUID)) {
+									System.err.println("Different replacements "+previous+" and "+replacementUID+" for "+originalUID);
+									problems.incrementAndGet();
+								}
+							}
+						}
+						catch (Exception e) {
+							e.printStackTrace(System.err);
+							problems.incrementAndGet();
+						}
+					}
+				};
+			}
+			for (Thread worker : workers) {
+				worker.start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			long elapsed = System.nanoTime() - startTime;
+			long lookups = (long)threads*distinct;
+			System.err.println(store+": "+lookups+" lookups by "+threads+" threads, "+(elapsed/1000000)+" ms, "+(lookups*1000000000l/elapsed)+" lookups/s");
+			if (store.size() != distinct) {
+				System.err.println("Expected "+distinct+" replacements but store has "+store.size());
+				problems.incrementAndGet();
+			}
+			store.close();
+			UIDRemapStoreOnDisk reopened = new UIDRemapStoreOnDisk(file);
+			for (int n=0; n<distinct; ++n) {
+				String originalUID = "1.2.840.99999."+n;
+				String replacementUID = reopened.getExistingReplacementUID(originalUID);
+				if (replacementUID == null || !replacementUID.equals(expected.get(originalUID))) {
+					System.err.println("After reopening, replacement "+replacementUID+" for "+originalUID+" rather than "+expected.get(originalUID));
+					problems.incrementAndGet();
+				}
+			}
+			System.err.println("After reopening "+reopened);
+			reopened.close();
+			System.err.println(problems.get() == 0 ? "All replacements consistent" : (problems.get()+" problems"));
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
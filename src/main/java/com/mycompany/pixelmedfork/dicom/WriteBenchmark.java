@@ -0,0 +1,175 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * <p>A class to measure how quickly deeply nested objects can be written by {@link com.pixelmed.dicom.AttributeList AttributeList}.</p>
+ *
+ * <p>Two synthetic objects are written, a Comprehensive SR with a deep content tree, and an RT Structure Set with many contours.
+ * Each is written with sequences and items of undefined length, as has always been done, with defined lengths computed in a single pass,
+ * and with defined lengths and gathering writes of large values.</p>
+ */
+public class WriteBenchmark {
+
+	private WriteBenchmark() {}
+
+	/**
+	 * @param	list
+	 * @param	sopClassUID
+	 * @exception	DicomException
+	 */
+	static void addCommonAttributes(AttributeList list,String sopClassUID) throws DicomException {
+		{ Attribute a = new UniqueIdentifierAttribute(TagFromName.SOPClassUID); a.addValue(sopClassUID); list.put(a); }
+		{ Attribute a = new UniqueIdentifierAttribute(TagFromName.SOPInstanceUID); a.addValue(new UIDGenerator().getAnotherNewUID()); list.put(a); }
+		{ Attribute a = new PersonNameAttribute(TagFromName.PatientName); a.addValue("Benchmark^Patient"); list.put(a); }
+		{ Attribute a = new LongStringAttribute(TagFromName.PatientID); a.addValue("BENCHMARK"); list.put(a); }
+	}
+
+	/**
+	 * @param	depth		the number of levels below this one
+	 * @param	fanOut		the number of children of each content item
+	 * @return			a content item with its children
+	 * @exception	DicomException
+	 */
+	static AttributeList makeContentItem(int depth,int fanOut) throws DicomException {
+		AttributeList item = new AttributeList();
+		{ Attribute a = new CodeStringAttribute(TagFromName.RelationshipType); a.addValue("CONTAINS"); item.put(a); }
+		{ Attribute a = new CodeStringAttribute(TagFromName.ValueType); a.addValue(depth > 0 ? "CONTAINER" : "TEXT"); item.put(a); }
+		{ SequenceAttribute a = new SequenceAttribute(TagFromName.ConceptNameCodeSequence); a.addItem(new CodedSequenceItem("111001","DCM","Algorithm Name").getAttributeList()); item.put(a); }
+		if (depth > 0) {
+			SequenceAttribute a = new SequenceAttribute(TagFromName.ContentSequence);
+			for (int c=0; c<fanOut; ++c) {
+				a.addItem(makeContentItem(depth-1,fanOut));
+			}
+			item.put(a);
+		}
+		else {
+			Attribute a = new UnlimitedTextAttribute(TagFromName.TextValue); a.addValue("Finding text at the leaf of the content tree"); item.put(a);
+		}
+		return item;
+	}
+
+	/**
+	 * @param	depth		the number of levels below the root content item
+	 * @param	fanOut		the number of children of each container
+	 * @return			a Comprehensive SR with a content tree of the specified depth and fan out
+	 * @exception	DicomException
+	 */
+	static AttributeList makeDeepStructuredReport(int depth,int fanOut) throws DicomException {
+		AttributeList list = makeContentItem(depth,fanOut);
+		list.remove(TagFromName.RelationshipType);
+		addCommonAttributes(list,SOPClass.ComprehensiveSRStorage);
+		return list;
+	}
+
+	/**
+	 * @return	an RT Structure Set with 50 ROIs of 100 contours of 200 points each
+	 * @exception	DicomException
+	 */
+	private static AttributeList makeStructureSet() throws DicomException {
+		int rois = 50;
+		int contours = 100;
+		int points = 200;
+		AttributeList list = new AttributeList();
+		addCommonAttributes(list,SOPClass.RTStructureSetStorage);
+		SequenceAttribute structureSetROISequence = new SequenceAttribute(TagFromName.StructureSetROISequence);
+		SequenceAttribute roiContourSequence = new SequenceAttribute(TagFromName.ROIContourSequence);
+		for (int r=1; r<=rois; ++r) {
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new IntegerStringAttribute(TagFromName.ROINumber); a.addValue(r); item.put(a); }
+				{ Attribute a = new LongStringAttribute(TagFromName.ROIName); a.addValue("ROI "+r); item.put(a); }
+				structureSetROISequence.addItem(item);
+			}
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new IntegerStringAttribute(TagFromName.ReferencedROINumber); a.addValue(r); item.put(a); }
+				SequenceAttribute contourSequence = new SequenceAttribute(TagFromName.ContourSequence);
+				for (int c=0; c<contours; ++c) {
+					AttributeList contour = new AttributeList();
+					{ Attribute a = new CodeStringAttribute(TagFromName.ContourGeometricType); a.addValue("CLOSED_PLANAR"); contour.put(a); }
+					{ Attribute a = new IntegerStringAttribute(TagFromName.NumberOfContourPoints); a.addValue(points); contour.put(a); }
+					{
+						Attribute a = new DecimalStringAttribute(TagFromName.ContourData);
+						for (int p=0; p<points; ++p) {
+							double angle = 2*Math.PI*p/points;
+							a.addValue(Math.round(100*(r+10*Math.cos(angle)))/100.0);
+							a.addValue(Math.round(100*(r+10*Math.sin(angle)))/100.0);
+							a.addValue(c*2.5);
+						}
+						contour.put(a);
+					}
+					contourSequence.addItem(contour);
+				}
+				item.put(contourSequence);
+				roiContourSequence.addItem(item);
+			}
+		}
+		list.put(structureSetROISequence);
+		list.put(roiContourSequence);
+		return list;
+	}
+
+	/**
+	 * @param	list
+	 * @param	file
+	 * @param	definedLength
+	 * @param	gathering
+	 * @return			the number of bytes written
+	 * @exception	Exception
+	 */
+	private static long write(AttributeList list,File file,boolean definedLength,boolean gathering) throws Exception {
+		FileOutputStream fo = new FileOutputStream(file);
+		DicomOutputStream o = new DicomOutputStream(new BufferedOutputStream(fo),TransferSyntax.ExplicitVRLittleEndian,TransferSyntax.ExplicitVRLittleEndian);
+		o.setUnderlyingChannel(fo.getChannel());
+		o.setWriteDefinedLengthSequences(definedLength);
+		o.setUseGatheringWrites(gathering);
+		list.write(o);
+		long length = o.getByteOffset();
+		o.close();
+		return length;
+	}
+
+	/**
+	 * <p>Time writing deeply nested objects.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5)
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			File file = File.createTempFile("WriteBenchmark",".dcm");
+			file.deleteOnExit();
+			String[] names = { "deep SR         ", "RT Structure Set" };
+			AttributeList[] lists = { makeDeepStructuredReport(8,4), makeStructureSet() };
+			for (int l=0; l<lists.length; ++l) {
+				AttributeList list = lists[l];
+				FileMetaInformation.addFileMetaInformation(list,TransferSyntax.ExplicitVRLittleEndian,"BENCHMARK");
+				write(list,file,true,false);
+				AttributeList check = new AttributeList();
+				check.read(file);		// make sure that what is written with defined lengths can be read back
+				if (check.size() != list.size()) {
+					System.err.println("Read back "+check.size()+" attributes of "+names[l]+" written with defined lengths rather than "+list.size());
+				}
+				for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+					for (int m=0; m<3; ++m) {
+						boolean definedLength = m > 0;
+						boolean gathering = m > 1;
+						long startTime = System.nanoTime();
+						long length = write(list,file,definedLength,gathering);
+						long elapsed = System.nanoTime() - startTime;
+						String what = definedLength ? (gathering ? "defined length, gathering" : "defined length           ") : "undefined length         ";
+						if (r >= 0) {
+							System.err.println("Pass "+r+" "+names[l]+" "+what+": "+length+" bytes, "+(elapsed/1000000)+" ms, "+(length*1000/elapsed)+" MB/s");
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
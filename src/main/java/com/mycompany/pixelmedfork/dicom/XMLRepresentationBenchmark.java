@@ -0,0 +1,198 @@
+package com.mycompany.pixelmedfork.dicom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.w3c.dom.Document;
+
+/**
+ * <p>A class to compare the time and memory taken to convert DICOM objects to and from XML by {@link com.pixelmed.dicom.XMLRepresentationOfDicomObjectFactory XMLRepresentationOfDicomObjectFactory},
+ * by way of an XML document (DOM tree), as has always been done, and by streaming.</p>
+ *
+ * <p>Two synthetic objects are converted, a Comprehensive SR with a deep content tree, and an enhanced multi-frame image header with many
+ * per-frame functional group items. The memory allocated by each conversion is reported if the JVM can count it, as is the heap retained by
+ * the DOM tree, which the streaming conversion never builds.</p>
+ */
+public class XMLRepresentationBenchmark {
+
+	private XMLRepresentationBenchmark() {}
+
+	/**
+	 * @return	a Comprehensive SR with a content tree 7 levels deep and 4 children per container
+	 * @exception	DicomException
+	 */
+	static AttributeList makeDeepStructuredReport() throws DicomException {
+		return WriteBenchmark.makeDeepStructuredReport(7,4);
+	}
+
+	/**
+	 * @return	an enhanced CT image header of 2000 frames, without Pixel Data
+	 * @exception	DicomException
+	 */
+	static AttributeList makeEnhancedMultiFrameHeader() throws DicomException {
+		int frames = 2000;
+		AttributeList list = new AttributeList();
+		WriteBenchmark.addCommonAttributes(list,SOPClass.EnhancedCTImageStorage);
+		{ Attribute a = new IntegerStringAttribute(TagFromName.NumberOfFrames); a.addValue(frames); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.Rows); a.addValue(512); list.put(a); }
+		{ Attribute a = new UnsignedShortAttribute(TagFromName.Columns); a.addValue(512); list.put(a); }
+		{
+			AttributeList shared = new AttributeList();
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new DecimalStringAttribute(TagFromName.PixelSpacing); a.addValue(0.703125); a.addValue(0.703125); item.put(a); }
+				{ Attribute a = new DecimalStringAttribute(TagFromName.SliceThickness); a.addValue(0.625); item.put(a); }
+				SequenceAttribute s = new SequenceAttribute(TagFromName.PixelMeasuresSequence); s.addItem(item); shared.put(s);
+			}
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new DecimalStringAttribute(TagFromName.ImageOrientationPatient); a.addValue(1); a.addValue(0); a.addValue(0); a.addValue(0); a.addValue(1); a.addValue(0); item.put(a); }
+				SequenceAttribute s = new SequenceAttribute(TagFromName.PlaneOrientationSequence); s.addItem(item); shared.put(s);
+			}
+			SequenceAttribute s = new SequenceAttribute(TagFromName.SharedFunctionalGroupsSequence); s.addItem(shared); list.put(s);
+		}
+		SequenceAttribute perFrame = new SequenceAttribute(TagFromName.PerFrameFunctionalGroupsSequence);
+		for (int f=0; f<frames; ++f) {
+			AttributeList frame = new AttributeList();
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new UnsignedLongAttribute(TagFromName.DimensionIndexValues); a.addValue(1); a.addValue(f+1); item.put(a); }
+				{ Attribute a = new UnsignedShortAttribute(TagFromName.FrameAcquisitionNumber); a.addValue(1); item.put(a); }
+				{ Attribute a = new DateTimeAttribute(TagFromName.FrameAcquisitionDateTime); a.addValue("20120510114000."+(100000+f)); item.put(a); }
+				SequenceAttribute s = new SequenceAttribute(TagFromName.FrameContentSequence); s.addItem(item); frame.put(s);
+			}
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new DecimalStringAttribute(TagFromName.ImagePositionPatient); a.addValue(-180); a.addValue(-180); a.addValue(-f*0.625); item.put(a); }
+				SequenceAttribute s = new SequenceAttribute(TagFromName.PlanePositionSequence); s.addItem(item); frame.put(s);
+			}
+			{
+				AttributeList item = new AttributeList();
+				{ Attribute a = new DecimalStringAttribute(TagFromName.WindowCenter); a.addValue(40); item.put(a); }
+				{ Attribute a = new DecimalStringAttribute(TagFromName.WindowWidth); a.addValue(400); item.put(a); }
+				SequenceAttribute s = new SequenceAttribute(TagFromName.FrameVOILUTSequence); s.addItem(item); frame.put(s);
+			}
+			perFrame.addItem(frame);
+		}
+		list.put(perFrame);
+		return list;
+	}
+
+	/**
+	 * @return	the bytes allocated so far by the current thread, or -1 if the JVM cannot count them
+	 */
+	static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return	the heap in use after collecting garbage
+	 */
+	private static long getUsedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @param	list
+	 * @param	streaming	whether to stream rather than build a DOM tree
+	 * @return			the XML
+	 * @exception	Exception
+	 */
+	private static byte[] toXML(AttributeList list,boolean streaming) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (streaming) {
+			XMLRepresentationOfDicomObjectFactory.write(out,list);
+		}
+		else {
+			XMLRepresentationOfDicomObjectFactory.createDocumentAndWriteIt(list,out);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @param	xml
+	 * @param	streaming	whether to stream rather than build a DOM tree
+	 * @return			the list of attributes
+	 * @exception	Exception
+	 */
+	private static AttributeList fromXML(byte[] xml,boolean streaming) throws Exception {
+		ByteArrayInputStream in = new ByteArrayInputStream(xml);
+		return streaming
+			? XMLRepresentationOfDicomObjectFactory.read(in)
+			: new XMLRepresentationOfDicomObjectFactory().getAttributeList(in);
+	}
+
+	/**
+	 * <p>Time converting synthetic objects to and from XML, with and without a DOM tree.</p>
+	 *
+	 * @param	arg	optionally the number of repetitions (default 5)
+	 */
+	public static void main(String arg[]) {
+		try {
+			int repetitions = arg.length > 0 ? Integer.parseInt(arg[0]) : 5;
+			AttributeList.getDictionary();
+			String[] names = { "deep SR          ", "enhanced CT      " };
+			AttributeList[] lists = { makeDeepStructuredReport(), makeEnhancedMultiFrameHeader() };
+			for (int l=0; l<lists.length; ++l) {
+				AttributeList list = lists[l];
+				{
+					byte[] domXML = toXML(list,false);
+					byte[] streamedXML = toXML(list,true);
+					String expect = list.toString();
+					if (!fromXML(streamedXML,false).toString().equals(expect)) {
+						System.err.println("Streamed XML of "+names[l]+" read back as a DOM tree differs from the original");
+					}
+					if (!fromXML(domXML,true).toString().equals(expect)) {
+						System.err.println("DOM XML of "+names[l]+" read back by streaming differs from the original");
+					}
+					long before = getUsedHeap();
+					Document document = new XMLRepresentationOfDicomObjectFactory().getDocument(list);
+					long retained = getUsedHeap() - before;
+					java.lang.ref.Reference.reachabilityFence(document);
+					System.err.println(names[l]+": DOM tree retains "+(retained/1024)+" KB, XML "+domXML.length+" bytes from DOM tree, "+streamedXML.length+" bytes streamed");
+				}
+				for (int r=-1; r<repetitions; ++r) {		// pass -1 is to warm up
+					for (int m=0; m<2; ++m) {
+						boolean streaming = m > 0;
+						String what = streaming ? "streamed" : "DOM tree";
+						long startAllocated = getAllocatedBytes();
+						long startTime = System.nanoTime();
+						byte[] xml = toXML(list,streaming);
+						long writeElapsed = System.nanoTime() - startTime;
+						long writeAllocated = getAllocatedBytes() - startAllocated;
+						startAllocated = getAllocatedBytes();
+						startTime = System.nanoTime();
+						AttributeList check = fromXML(xml,streaming);
+						long readElapsed = System.nanoTime() - startTime;
+						long readAllocated = getAllocatedBytes() - startAllocated;
+						if (check.size() != list.size()) {
+							System.err.println("Read back "+check.size()+" attributes of "+names[l]+" rather than "+list.size());
+						}
+						if (r >= 0) {
+							System.err.println("Pass "+r+" "+names[l]+" "+what+": "+xml.length+" bytes"
+								+", write "+(writeElapsed/1000000)+" ms "+(xml.length*1000l/writeElapsed)+" MB/s"+(startAllocated < 0 ? "" : (" "+(writeAllocated/(1024*1024))+" MB allocated"))
+								+", read "+(readElapsed/1000000)+" ms "+(xml.length*1000l/readElapsed)+" MB/s"+(startAllocated < 0 ? "" : (" "+(readAllocated/(1024*1024))+" MB allocated")));
+						}
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+}
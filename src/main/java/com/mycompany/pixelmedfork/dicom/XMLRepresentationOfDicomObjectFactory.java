@@ -17,6 +17,13 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
 import org.xml.sax.SAXException;
 
 import java.io.*;
@@ -107,6 +114,19 @@ try {
     AttributeList list = new AttributeList();
     list.read("dicomfile",null,true,true);
     XMLRepresentationOfDicomObjectFactory.createDocumentAndWriteIt(list,System.out);
+} catch (Exception e) {
+    e.printStackTrace(System.err);
+ }
+ * </pre>
+ *
+ * <p>Building a DOM tree takes several times as much memory as the DICOM object itself. If the XML is only to be written, or only read
+ * to make a list of attributes, the same XML may be written or read as a stream, without ever building a tree, with
+ * {@link #write(OutputStream,AttributeList) write(OutputStream,AttributeList)} and {@link #read(InputStream) read(InputStream)}:</p>
+ * <pre>
+try {
+    AttributeList list = new AttributeList();
+    list.read("dicomfile",null,true,true);
+    XMLRepresentationOfDicomObjectFactory.write(System.out,list);
 } catch (Exception e) {
     e.printStackTrace(System.err);
  }
@@ -149,10 +169,25 @@ public class XMLRepresentationOfDicomObjectFactory {
 	/***/
 	private DocumentBuilder db;
 	
+	/***/
+	private static final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+	
+	/***/
+	private static volatile String[] newLineAndIndents = { "\n", "\n  ", "\n    ", "\n      ", "\n        ", "\n          ", "\n            ", "\n              " };
+	
+	/***/
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+	
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING,Boolean.TRUE);		// so that the text of a value is never split
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD,Boolean.FALSE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,Boolean.FALSE);
+	}
+	
 	/**
 	 * @param	tag
 	 */
-	private String makeElementNameFromHexadecimalGroupElementValues(AttributeTag tag) {
+	private static String makeElementNameFromHexadecimalGroupElementValues(AttributeTag tag) {
 		StringBuffer str = new StringBuffer();
 		str.append("HEX");		// XML element names not allowed to start with a number
 		String groupString = Integer.toHexString(tag.getGroup());
@@ -254,7 +289,7 @@ public class XMLRepresentationOfDicomObjectFactory {
 	 * @param	parent
 	 */
 	void addAttributesFromListToNode(AttributeList list,Document document,Node parent) {
-		DicomDictionary dictionary = list.getDictionary();
+		DicomDictionary dictionary = AttributeList.getDictionary();
 		Iterator i = list.values().iterator();
 		while (i.hasNext()) {
 			Attribute attribute = (Attribute)i.next();
@@ -457,6 +492,277 @@ public class XMLRepresentationOfDicomObjectFactory {
 		transformer.transform(source, result);
 	}
 	
+	/**
+	 * @param	writer
+	 * @param	depth		the number of levels of indenting
+	 * @exception	XMLStreamException
+	 */
+	private static void writeNewLineAndIndent(XMLStreamWriter writer,int depth) throws XMLStreamException {
+		String[] indents = newLineAndIndents;
+		if (depth >= indents.length) {
+			String[] newIndents = new String[depth*2];
+			System.arraycopy(indents,0,newIndents,0,indents.length);
+			for (int i=indents.length; i<newIndents.length; ++i) {
+				newIndents[i] = newIndents[i-1]+"  ";
+			}
+			newLineAndIndents = indents = newIndents;	// benign race, since any thread may make the same strings
+		}
+		writer.writeCharacters(indents[depth]);
+	}
+	
+	/**
+	 * <p>Write the attributes of a list as XML elements, in the same form as {@link #getDocument(AttributeList) getDocument()}.</p>
+	 *
+	 * @param	list
+	 * @param	dictionary
+	 * @param	writer
+	 * @param	depth		the number of levels of indenting of each element
+	 * @exception	XMLStreamException
+	 */
+	private static void writeAttributesFromList(AttributeList list,DicomDictionary dictionary,XMLStreamWriter writer,int depth) throws XMLStreamException {
+		Iterator<Attribute> i = list.values().iterator();
+		while (i.hasNext()) {
+			Attribute attribute = i.next();
+			AttributeTag tag = attribute.getTag();
+			
+			String elementName = dictionary.getNameFromTag(tag);
+			if (elementName == null) {
+				elementName=makeElementNameFromHexadecimalGroupElementValues(tag);
+			}
+			
+			boolean isSequence = attribute instanceof SequenceAttribute;
+			String values[] = null;
+			if (!isSequence) {
+				try {
+					values=attribute.getStringValues();
+				}
+				catch (DicomException e) {
+					//e.printStackTrace(System.err);
+				}
+			}
+			boolean hasChildren = isSequence ? ((SequenceAttribute)attribute).getNumberOfItems() > 0 : values != null && values.length > 0;
+			
+			writeNewLineAndIndent(writer,depth);
+			if (hasChildren) {
+				writer.writeStartElement(elementName);
+			}
+			else {
+				writer.writeEmptyElement(elementName);
+			}
+			writer.writeAttribute("element",HexDump.shortToPaddedHexString(tag.getElement()));	// in the same order as DOM serializes them
+			writer.writeAttribute("group",HexDump.shortToPaddedHexString(tag.getGroup()));
+			writer.writeAttribute("vr",ValueRepresentation.getAsString(attribute.getVR()));
+			
+			if (hasChildren) {
+				if (isSequence) {
+					SequenceAttribute sequence = (SequenceAttribute)attribute;
+					int n = sequence.getNumberOfItems();
+					for (int count=0; count<n; ++count) {
+						SequenceItem item = sequence.getItem(count);
+						writeNewLineAndIndent(writer,depth+1);
+						writer.writeStartElement("Item");
+						writer.writeAttribute("number",Integer.toString(count+1));
+						writeAttributesFromList(item.getAttributeList(),dictionary,writer,depth+2);
+						writeNewLineAndIndent(writer,depth+1);
+						writer.writeEndElement();
+					}
+				}
+				else {
+					for (int j=0; j<values.length; ++j) {
+						writeNewLineAndIndent(writer,depth+1);
+						writer.writeStartElement("value");
+						writer.writeAttribute("number",Integer.toString(j+1));
+						writer.writeCharacters(values[j]);
+						writer.writeEndElement();
+					}
+				}
+				writeNewLineAndIndent(writer,depth);
+				writer.writeEndElement();
+			}
+		}
+	}
+	
+	/**
+	 * <p>Serialize a DICOM attribute list as XML, without creating an XML document (DOM tree).</p>
+	 *
+	 * <p>The XML is the same as is obtained by serializing the document from {@link #getDocument(AttributeList) getDocument()},
+	 * but is written as the list is traversed, so takes little memory beyond that of the list itself.</p>
+	 *
+	 * <p>Leaves the stream open.</p>
+	 *
+	 * @param	out		the output stream to write to
+	 * @param	list		the list of DICOM attributes
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static void write(OutputStream out,AttributeList list) throws IOException, DicomException {
+		try {
+			Writer characters = new BufferedWriter(new OutputStreamWriter(out,"UTF-8"),65536);	// much faster than letting the factory encode directly to the stream
+			XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(characters);
+			writer.writeStartDocument("UTF-8","1.0");
+			writer.writeCharacters("\n");
+			writer.writeStartElement("DicomObject");
+			writeAttributesFromList(list,AttributeList.getDictionary(),writer,1);
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndDocument();
+			writer.close();		// does not close the underlying stream
+			characters.flush();
+		}
+		catch (XMLStreamException e) {
+			throw new DicomException("Could not write XML - "+e);
+		}
+	}
+	
+	/**
+	 * <p>Skip the rest of the current element, including any elements it contains.</p>
+	 *
+	 * @param	reader		positioned at the start of the element
+	 * @exception	XMLStreamException
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				++depth;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				--depth;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Read the XML elements contained in the current element as attributes, in the same manner as {@link #getAttributeList(Document) getAttributeList(Document)}.</p>
+	 *
+	 * @param	list
+	 * @param	reader		positioned at the start of the containing element, and left at its end
+	 * @exception	XMLStreamException
+	 * @exception	NumberFormatException
+	 * @exception	DicomException
+	 */
+	private static void addAttributesFromReaderToList(AttributeList list,XMLStreamReader reader) throws XMLStreamException, NumberFormatException, DicomException {
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+				break;
+			}
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				String vrString = reader.getAttributeValue(null,"vr");
+				String groupString = reader.getAttributeValue(null,"group");
+				String elementString = reader.getAttributeValue(null,"element");
+				if (vrString == null || groupString == null || elementString == null) {
+					skipElement(reader);
+					continue;
+				}
+				byte[] vr = vrString.getBytes();
+				int group = Integer.parseInt(groupString,16);
+				int element = Integer.parseInt(elementString,16);
+				AttributeTag tag = new AttributeTag(group,element);
+				if ((group%2 == 0 && element == 0) || (group == 0x0008 && element == 0x0001) || (group == 0xfffc && element == 0xfffc)) {
+//System.err.println("ignoring group length or length to end or dataset trailing padding "+tag);
+					skipElement(reader);
+				}
+				else if (vrString.equals("SQ")) {
+					SequenceAttribute a = new SequenceAttribute(tag);
+					while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+						if (event == XMLStreamConstants.START_ELEMENT) {
+							if (reader.getLocalName().equals("Item")) {
+								// should check item number, but ignore for now :(
+								AttributeList itemList = new AttributeList();
+								addAttributesFromReaderToList(itemList,reader);
+								a.addItem(itemList);
+							}
+							else {
+								skipElement(reader);
+							}
+						}
+						// else may be text in between
+					}
+					list.put(tag,a);
+				}
+				else {
+					Attribute a = AttributeFactory.newAttribute(tag,vr);
+					while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+						if (event == XMLStreamConstants.START_ELEMENT) {
+							if (reader.getLocalName().equals("value")) {
+								// should check value number, but ignore for now :(
+								String value = reader.getElementText();		// leaves the reader at the end of the value
+								value = StringUtilities.removeLeadingOrTrailingWhitespaceOrISOControl(value);	// just in case
+								a.addValue(value);
+							}
+							else {
+								skipElement(reader);
+							}
+						}
+						// else may be text in between
+					}
+					list.put(tag,a);
+				}
+			}
+			// else may be text or comments in between
+		}
+	}
+	
+	/**
+	 * <p>Given a DICOM object encoded as XML in a stream, convert it to a list of attributes, without creating an XML document (DOM tree).</p>
+	 *
+	 * <p>The result is the same as from {@link #getAttributeList(InputStream) getAttributeList(InputStream)}, but the XML is parsed as a stream,
+	 * so takes little memory beyond that of the list itself.</p>
+	 *
+	 * @param	stream		the input stream containing the XML
+	 * @return			the list of DICOM attributes
+	 * @exception	IOException
+	 * @exception	DicomException	if the XML cannot be parsed or does not contain a DICOM object
+	 */
+	public static AttributeList read(InputStream stream) throws IOException, DicomException {
+		AttributeList.getDictionary();		// attribute factory needs it
+		AttributeList list = new AttributeList();
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(stream);
+			try {
+				while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+				}
+				if (!reader.isStartElement()) {
+					throw new DicomException("Could not read XML - no document element");
+				}
+				addAttributesFromReaderToList(list,reader);	// the document element should be DicomObject
+			}
+			finally {
+				reader.close();		// does not close the underlying stream
+			}
+		}
+		catch (XMLStreamException e) {
+			throw new DicomException("Could not read XML - "+e);
+		}
+		catch (NumberFormatException e) {
+			throw new DicomException("Could not read XML - bad group or element - "+e);
+		}
+		return list;
+	}
+	
+	/**
+	 * <p>Given a DICOM object encoded as XML in a named file, convert it to a list of attributes, without creating an XML document (DOM tree).</p>
+	 *
+	 * @param	name		the input file containing the XML
+	 * @return			the list of DICOM attributes
+	 * @exception	IOException
+	 * @exception	DicomException
+	 */
+	public static AttributeList read(String name) throws IOException, DicomException {
+		InputStream fi = new FileInputStream(name);
+		BufferedInputStream bi = new BufferedInputStream(fi);
+		try {
+			return read(bi);
+		}
+		finally {
+			bi.close();
+			fi.close();
+		}
+	}
+	
 	/**
 	 * <p>Serialize an XML document (DOM tree) created from a DICOM attribute list.</p>
 	 *
@@ -515,14 +821,14 @@ public class XMLRepresentationOfDicomObjectFactory {
 					AttributeList list = new AttributeList();
 					//System.err.println("reading list");
 					list.read(filename,null,true,true);
-					//System.err.println("making document");
-					Document document = new XMLRepresentationOfDicomObjectFactory().getDocument(list);
-					//System.err.println(toString(document));
-					write(System.out,document);
+					//System.err.println("writing XML");
+					OutputStream out = new BufferedOutputStream(System.out);
+					write(out,list);
+					out.flush();
 				}
 				else {
 //long startReadTime = System.currentTimeMillis();
-					AttributeList list = new XMLRepresentationOfDicomObjectFactory().getAttributeList(filename);
+					AttributeList list = read(filename);
 //System.err.println("AttributeList.main(): read XML and create DICOM AttributeList - done in "+(System.currentTimeMillis()-startReadTime)+" ms");
 					String sourceApplicationEntityTitle = Attribute.getSingleStringValueOrEmptyString(list,TagFromName.SourceApplicationEntityTitle);
 					list.removeMetaInformationHeaderAttributes();
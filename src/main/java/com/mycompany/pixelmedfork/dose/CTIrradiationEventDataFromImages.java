@@ -33,8 +33,6 @@ import java.util.Vector;
 
 public class CTIrradiationEventDataFromImages {
 
-	private UIDGenerator u = new UIDGenerator();
-	
 	private ArrayList<String> doseScreenFilenames = new ArrayList<String>();
 	
 	public ArrayList<String> getDoseScreenFilenames() { return doseScreenFilenames; }
@@ -998,13 +996,7 @@ System.err.println("CTIrradiationEventDataFromImages.add(): ignoring DICOMDIR re
 							eventsIterator.remove();	// e.g., had no SliceLocation information (such as Siemens MPR)
 						}
 						else {
-							String irradiationEventUID = "";
-							try {
-								irradiationEventUID = u.getAnotherNewUID();
-							}
-							catch (DicomException e) {
-								e.printStackTrace(System.err);
-							}
+							String irradiationEventUID = UIDGenerator.getUniqueUID();
 //System.err.println("CTIrradiationEventDataFromImages.organizeSlicesIntoIrradiationEvents(): IrradiationEventUID = "+irradiationEventUID);
 							//irradiationEventUIDs.add(irradiationEventUID);
 							slicesByIrradiationEventUID.put(irradiationEventUID,event);
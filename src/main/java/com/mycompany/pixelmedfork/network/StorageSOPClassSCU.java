@@ -142,8 +142,9 @@ public class StorageSOPClassSCU extends SOPClass {
 if (debugLevel > 0) System.err.println("StorageSOPClassSCU.sendOneSOPInstance(): different transfer syntaxes; converting "+inputTransferSyntaxUID+" to "+outputTransferSyntaxUID);
 			// din will already be positioned after meta-header and set for reading data set
 			// copier will push any transfer syntax specific decompression filter onto the stream before reading
+			// copier will not parse the data set at all if the transfer syntaxes differ only in name
 			DicomOutputStream dout = new DicomOutputStream(out,null/*meta*/,outputTransferSyntaxUID/*dataset*/);
-			new DicomStreamCopier(din,dout);
+			new DicomStreamCopier(din,dout,true/*copyVerbatimIfByteCompatible*/);
 			// Do not need dout.close() since DicomStreamCopier always closes output stream itself
 		}
 if (debugLevel > 0) System.err.println("StorageSOPClassSCU.sendOneSOPInstance(): about to wait for PDUs");
@@ -4,6 +4,8 @@ package com.pixelmed.utils;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+
 /**
  * <p>A class for copying an entire input stream to an output stream.</p>
  *
@@ -224,6 +226,64 @@ public class CopyStream {
 		copy(defaultReadBufferSize,in,out);
 	}
 
+	/**
+	 * <p>Copy the remaining bytes of a buffer to an output stream.</p>
+	 *
+	 * <p>The position of the buffer is not changed, so the same buffer may be copied again, e.g.,
+	 * when it is a view into a memory mapped file that is written more than once.</p>
+	 *
+	 * <p>The output stream is not closed.</p>
+	 *
+	 * @param	src		the source
+	 * @param	out		the destination
+	 * @exception	IOException	thrown if the copying fails for any reason
+	 */
+	public static final void copy(ByteBuffer src,OutputStream out) throws IOException {
+		if (src.hasArray()) {
+			out.write(src.array(),src.arrayOffset()+src.position(),src.remaining());
+		}
+		else {
+			ByteBuffer in = src.duplicate();
+			byte[] readBuffer = new byte[in.remaining() > defaultReadBufferSize ? defaultReadBufferSize : in.remaining()];
+			while (in.hasRemaining()) {
+				int want = in.remaining() > readBuffer.length ? readBuffer.length : in.remaining();
+				in.get(readBuffer,0,want);
+				out.write(readBuffer,0,want);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * <p>Copy the remaining even number of bytes of a buffer to an output stream,
+	 * swapping adjacent pairs of bytes.</p>
+	 *
+	 * <p>The position of the buffer is not changed.</p>
+	 *
+	 * <p>The output stream is not closed.</p>
+	 *
+	 * @param	src		the source
+	 * @param	out		the destination
+	 * @exception	IOException	thrown if the copying fails for any reason
+	 */
+	public static final void copyByteSwapped(ByteBuffer src,OutputStream out) throws IOException {
+		assert src.remaining()%2 == 0;
+		ByteBuffer in = src.duplicate();
+		byte[] readBuffer = new byte[in.remaining() > defaultReadBufferSize ? defaultReadBufferSize : in.remaining()];
+		while (in.remaining() > 1) {
+			int want = in.remaining() > readBuffer.length ? readBuffer.length : in.remaining();
+			want = want & ~1;
+			in.get(readBuffer,0,want);
+			for (int i=0; i<want-1; i+=2) {
+				byte hold = readBuffer[i];
+				readBuffer[i] = readBuffer[i+1];
+				readBuffer[i+1] = hold;
+			}
+			out.write(readBuffer,0,want);
+		}
+		out.flush();
+	}
+
 	/**
 	 * <p>Copy an entire input file to an output file.</p>
 	 *